@@ -0,0 +1,140 @@
+package com.mehyaa.benchmark;
+
+import com.mehyaa.cacheclient.CacheClient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures throughput and latency percentiles of the cache client against a
+ * running cluster at increasing numbers of concurrent callers. Every caller
+ * runs on its own virtual thread and waits for one asynchronous operation at
+ * a time, 90% GETs of existing keys and 10% PUTs, so requests go through the
+ * same dispatcher and connection pools as an application's.
+ * <p>
+ * Usage: {@code ClientBenchmark [callers,...] [seconds] [valueBytes]}, by
+ * default {@code 16,64,256,1024 10 100}. The client is configured as usual,
+ * e.g. with ZK_CONNECT, so run it once per transport mode to compare them:
+ * '-Dcache.client.http.h2c=true' or '-Dcache.client.transport=binary'.
+ */
+public final class ClientBenchmark {
+    private static final int KEY_COUNT = 10_000;
+    private static final int READ_PERCENT = 90;
+    private static final int WARMUP_SECONDS = 3;
+    private static final int POPULATE_BATCH_SIZE = 500;
+
+    private final CacheClient client;
+    private final byte[] value;
+
+    private ClientBenchmark(CacheClient client, int valueBytes) {
+        this.client = client;
+        this.value = new byte[valueBytes];
+
+        Arrays.fill(value, (byte) 'v');
+    }
+
+    public static void main(String[] args) throws Exception {
+        String levels = args.length > 0 ? args[0] : "16,64,256,1024";
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int valueBytes = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        try (CacheClient client = CacheClient.getInstance()) {
+            ClientBenchmark benchmark = new ClientBenchmark(client, valueBytes);
+            benchmark.populate();
+
+            System.out.printf("%12s %12s %10s %10s %10s %10s %8s%n",
+                    "callers", "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+
+            for (String level : levels.split(",")) {
+                benchmark.run(Integer.parseInt(level.trim()), seconds);
+            }
+        }
+    }
+
+    private void populate() throws Exception {
+        Map<String, byte[]> batch = new HashMap<>();
+
+        for (int i = 0; i < KEY_COUNT; i++) {
+            batch.put(key(i), value);
+
+            if (batch.size() == POPULATE_BATCH_SIZE || i == KEY_COUNT - 1) {
+                client.putAllBytes(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void run(int callerCount, int seconds) throws InterruptedException {
+        List<long[]> samples = new ArrayList<>();
+        AtomicLong errors = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(callerCount);
+
+        AtomicLong measureStart = new AtomicLong(Long.MAX_VALUE);
+        AtomicLong deadline = new AtomicLong(Long.MAX_VALUE);
+
+        for (int i = 0; i < callerCount; i++) {
+            Thread.ofVirtual().start(() -> {
+                Latencies latencies = new Latencies();
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                try {
+                    while (true) {
+                        long start = System.nanoTime();
+
+                        if (start >= deadline.get()) {
+                            break;
+                        }
+
+                        String key = key(random.nextInt(KEY_COUNT));
+
+                        try {
+                            if (random.nextInt(100) < READ_PERCENT) {
+                                client.getBytesAsync(key).join();
+                            } else {
+                                client.putAsync(key, value).join();
+                            }
+                        } catch (RuntimeException e) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+
+                        if (start >= measureStart.get()) {
+                            latencies.add(System.nanoTime() - start);
+                        }
+                    }
+                } finally {
+                    synchronized (samples) {
+                        samples.add(latencies.toArray());
+                    }
+
+                    done.countDown();
+                }
+            });
+        }
+
+        Thread.sleep(WARMUP_SECONDS * 1000L);
+
+        long start = System.nanoTime();
+        measureStart.set(start);
+        deadline.set(start + seconds * 1_000_000_000L);
+
+        done.await();
+
+        long[] all = samples.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%12d %12.0f %10.2f %10.2f %10.2f %10.2f %8d%n", callerCount, all.length / elapsed,
+                Latencies.percentile(all, 50), Latencies.percentile(all, 99), Latencies.percentile(all, 99.9),
+                all.length == 0 ? 0 : all[all.length - 1] / 1e6, errors.get());
+    }
+
+    private static String key(int index) {
+        return "bench-" + index;
+    }
+}
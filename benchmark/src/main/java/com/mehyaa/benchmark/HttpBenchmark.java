@@ -0,0 +1,264 @@
+package com.mehyaa.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures throughput and latency percentiles of a cache server's HTTP API
+ * at increasing numbers of concurrent keep-alive connections. Every
+ * connection runs on its own virtual thread and sends one request at a
+ * time, 90% GETs of existing keys and 10% PUTs.
+ * <p>
+ * Usage: {@code HttpBenchmark [host] [port] [connections,...] [seconds] [valueBytes]},
+ * by default {@code localhost 6379 1000,2500,5000,10000 20 100}. Run it
+ * against a server started with and without 'cache.server.http.virtualThreads'
+ * to compare the two thread models.
+ */
+public final class HttpBenchmark {
+    private static final int KEY_COUNT = 10_000;
+    private static final int READ_PERCENT = 90;
+    private static final int WARMUP_SECONDS = 3;
+
+    private final String host;
+    private final int port;
+    private final byte[] value;
+
+    private HttpBenchmark(String host, int port, int valueBytes) {
+        this.host = host;
+        this.port = port;
+        this.value = new byte[valueBytes];
+
+        Arrays.fill(value, (byte) 'v');
+    }
+
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 6379;
+        String levels = args.length > 2 ? args[2] : "1000,2500,5000,10000";
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+        int valueBytes = args.length > 4 ? Integer.parseInt(args[4]) : 100;
+
+        HttpBenchmark benchmark = new HttpBenchmark(host, port, valueBytes);
+        benchmark.populate();
+
+        System.out.printf("%12s %12s %10s %10s %10s %10s %8s%n",
+                "connections", "ops/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms", "errors");
+
+        for (String level : levels.split(",")) {
+            benchmark.run(Integer.parseInt(level.trim()), seconds);
+        }
+    }
+
+    private void populate() throws IOException {
+        try (Connection connection = new Connection()) {
+            for (int i = 0; i < KEY_COUNT; i++) {
+                connection.put(key(i), value);
+            }
+        }
+    }
+
+    private void run(int connectionCount, int seconds) throws InterruptedException {
+        List<long[]> samples = new ArrayList<>();
+        AtomicLong errors = new AtomicLong();
+        CountDownLatch connected = new CountDownLatch(connectionCount);
+        CountDownLatch done = new CountDownLatch(connectionCount);
+
+        long warmupEnd = System.nanoTime() + (WARMUP_SECONDS + connectionCount / 1000) * 1_000_000_000L;
+        AtomicLong measureStart = new AtomicLong(Long.MAX_VALUE);
+        AtomicLong deadline = new AtomicLong(Long.MAX_VALUE);
+
+        for (int i = 0; i < connectionCount; i++) {
+            Thread.ofVirtual().start(() -> {
+                Latencies latencies = new Latencies();
+
+                try (Connection connection = new Connection()) {
+                    connected.countDown();
+
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                    while (true) {
+                        long start = System.nanoTime();
+
+                        if (start >= deadline.get()) {
+                            break;
+                        }
+
+                        String key = key(random.nextInt(KEY_COUNT));
+
+                        if (random.nextInt(100) < READ_PERCENT) {
+                            connection.get(key);
+                        } else {
+                            connection.put(key, value);
+                        }
+
+                        if (start >= measureStart.get()) {
+                            latencies.add(System.nanoTime() - start);
+                        }
+                    }
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                } finally {
+                    if (connected.getCount() > 0) {
+                        connected.countDown();
+                    }
+
+                    synchronized (samples) {
+                        samples.add(latencies.toArray());
+                    }
+
+                    done.countDown();
+                }
+            });
+        }
+
+        connected.await();
+
+        long now = System.nanoTime();
+        Thread.sleep(Math.max(0, (warmupEnd - now) / 1_000_000));
+
+        // Only operations started in the measured window count, connecting may outlast the warmup
+        long start = System.nanoTime();
+        measureStart.set(start);
+        deadline.set(start + seconds * 1_000_000_000L);
+
+        done.await();
+
+        long[] all = samples.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+        double elapsed = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%12d %12.0f %10.2f %10.2f %10.2f %10.2f %8d%n", connectionCount, all.length / elapsed,
+                Latencies.percentile(all, 50), Latencies.percentile(all, 99), Latencies.percentile(all, 99.9),
+                all.length == 0 ? 0 : all[all.length - 1] / 1e6, errors.get());
+    }
+
+    private static String key(int index) {
+        return "bench-" + index;
+    }
+
+    /**
+     * Keep-alive HTTP/1.1 connection sending one request at a time.
+     */
+    private final class Connection implements AutoCloseable {
+        private final Socket socket;
+        private final InputStream in;
+        private final OutputStream out;
+
+        Connection() throws IOException {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host, port), 30_000);
+
+            in = new BufferedInputStream(socket.getInputStream());
+            out = new BufferedOutputStream(socket.getOutputStream());
+        }
+
+        void get(String key) throws IOException {
+            out.write(("GET /" + key + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            readResponse();
+        }
+
+        void put(String key, byte[] body) throws IOException {
+            out.write(("PUT /" + key + " HTTP/1.1\r\nHost: " + host + "\r\nContent-Type: application/octet-stream\r\n"
+                    + "Content-Length: " + body.length + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(body);
+            out.flush();
+
+            int status = readResponse();
+
+            if (status != 200) {
+                throw new IOException("PUT failed with status " + status);
+            }
+        }
+
+        /**
+         * Reads the status line, the headers and the body, returns the status.
+         */
+        private int readResponse() throws IOException {
+            String statusLine = readLine();
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+            long contentLength = 0;
+            boolean chunked = false;
+            String line;
+
+            while (!(line = readLine()).isEmpty()) {
+                int colon = line.indexOf(':');
+                String name = line.substring(0, colon).trim();
+                String headerValue = line.substring(colon + 1).trim();
+
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Long.parseLong(headerValue);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+                    chunked = headerValue.equalsIgnoreCase("chunked");
+                }
+            }
+
+            if (!chunked) {
+                skip(contentLength);
+                return status;
+            }
+
+            long chunkLength;
+
+            while ((chunkLength = Long.parseLong(readLine().trim(), 16)) > 0) {
+                skip(chunkLength + 2);
+            }
+
+            readLine();
+
+            return status;
+        }
+
+        private void skip(long length) throws IOException {
+            while (length > 0) {
+                long skipped = in.skip(length);
+
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        throw new EOFException();
+                    }
+
+                    skipped = 1;
+                }
+
+                length -= skipped;
+            }
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+
+            while ((c = in.read()) != '\n') {
+                if (c < 0) {
+                    throw new EOFException();
+                }
+
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+
+            return line.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.mehyaa.benchmark;
+
+import java.util.Arrays;
+
+/**
+ * Growable array of latencies in nanoseconds.
+ */
+final class Latencies {
+    private long[] values = new long[1024];
+    private int size;
+
+    void add(long value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+
+        values[size++] = value;
+    }
+
+    long[] toArray() {
+        return Arrays.copyOf(values, size);
+    }
+
+    /**
+     * Returns the percentile of sorted latencies in milliseconds.
+     */
+    static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
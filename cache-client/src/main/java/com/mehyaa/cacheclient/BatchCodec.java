@@ -0,0 +1,89 @@
+package com.mehyaa.cacheclient;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes and decodes the bodies of the cache-server batch endpoints.
+ * All integers are big-endian, keys are UTF-8 and values raw bytes:
+ * <ul>
+ * <li>/_mget request: [count] then [keyLength][key] per key</li>
+ * <li>/_mget response: [valueLength][value] per requested key, in request order, -1 length for a missing key</li>
+ * <li>/_mset request: [count] then [keyLength][key][valueLength][value] per entry</li>
+ * </ul>
+ */
+final class BatchCodec {
+    private BatchCodec() {
+    }
+
+    static byte[] encodeKeys(List<String> keys) {
+        List<byte[]> encoded = new ArrayList<>(keys.size());
+        int size = Integer.BYTES;
+
+        for (String key : keys) {
+            byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+            encoded.add(bytes);
+            size += Integer.BYTES + bytes.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(encoded.size());
+
+        for (byte[] bytes : encoded) {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+
+        return buffer.array();
+    }
+
+    static List<byte[]> decodeValues(byte[] body, int count) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        List<byte[]> values = new ArrayList<>(count);
+
+        try {
+            for (int i = 0; i < count; i++) {
+                int length = buffer.getInt();
+
+                if (length < 0) {
+                    values.add(null);
+                } else {
+                    byte[] value = new byte[length];
+                    buffer.get(value);
+                    values.add(value);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Malformed batch response", e);
+        }
+
+        return values;
+    }
+
+    static byte[] encodeEntries(List<Map.Entry<String, byte[]>> entries) {
+        List<byte[]> encoded = new ArrayList<>(entries.size() * 2);
+        int size = Integer.BYTES;
+
+        for (Map.Entry<String, byte[]> entry : entries) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] value = entry.getValue();
+
+            encoded.add(key);
+            encoded.add(value);
+            size += 2 * Integer.BYTES + key.length + value.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(entries.size());
+
+        for (byte[] bytes : encoded) {
+            buffer.putInt(bytes.length).put(bytes);
+        }
+
+        return buffer.array();
+    }
+}
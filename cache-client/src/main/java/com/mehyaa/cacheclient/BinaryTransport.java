@@ -0,0 +1,539 @@
+package com.mehyaa.cacheclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transport over the binary protocol of the cache servers, which listen on
+ * their HTTP port plus a configurable offset.
+ * <p>
+ * Every frame is [length][payload], the length being a big-endian int
+ * counting the bytes after it:
+ * <ul>
+ * <li>request: [correlationId][opcode][body]</li>
+ * <li>response: [correlationId][status][body]</li>
+ * </ul>
+ * GET and DELETE bodies are the UTF-8 key, PUT bodies [keyLength][key][value],
+ * PUT_TTL bodies [ttlMillis][keyLength][key][value] with a long TTL and
+ * MGET/MSET bodies use the {@link BatchCodec} formats. A successful GET
+ * response holds the value, an MGET response the encoded values.
+ * <p>
+ * There is one connection per node. Requests are pipelined on it without
+ * waiting for earlier responses, which may arrive in any order and are
+ * matched by their correlation id. Callers only queue their requests: a
+ * writer thread per connection connects and then writes them, flushing once
+ * the queue is drained, so neither connecting nor a full socket buffer
+ * blocks the caller. Responses are handled on the reader thread of the
+ * connection, so dependent actions should not block.
+ */
+final class BinaryTransport implements Transport {
+    static final byte OP_GET = 1;
+    static final byte OP_PUT = 2;
+    static final byte OP_DELETE = 3;
+    static final byte OP_MGET = 4;
+    static final byte OP_MSET = 5;
+    static final byte OP_PUT_TTL = 6;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_NOT_FOUND = 1;
+    static final byte STATUS_BAD_REQUEST = 2;
+    static final byte STATUS_ERROR = 3;
+
+    static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    private static final int HEADER_LENGTH = Integer.BYTES + 1;
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2_000;
+    private static final long CALL_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(5);
+
+    private static final Logger logger = LoggerFactory.getLogger(BinaryTransport.class);
+
+    private final int portOffset;
+    private final ConcurrentHashMap<String, Connection> connections = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timeouts;
+
+    private volatile boolean closed;
+    private volatile RequestListener listener;
+
+    BinaryTransport(int portOffset) {
+        this.portOffset = portOffset;
+
+        timeouts = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-binary-timeouts");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        timeouts.scheduleWithFixedDelay(this::expireRequests, 100, 100, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public byte[] get(String node, String key) throws IOException {
+        return Transport.await(getAsync(node, key));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getAsync(String node, String key) {
+        return send(node, CacheOperation.GET, OP_GET, utf8(key), null, (status, body) -> {
+            if (status == STATUS_NOT_FOUND) {
+                return null;
+            }
+
+            checkStatus("GET", status);
+
+            return body;
+        });
+    }
+
+    @Override
+    public void put(String node, String key, ByteBuffer value, Duration ttl) throws IOException {
+        Transport.await(putAsync(node, key, value, ttl));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String node, String key, ByteBuffer value, Duration ttl) {
+        byte[] keyBytes = utf8(key);
+        ByteBuffer head = ByteBuffer.allocate((ttl == null ? 0 : Long.BYTES) + Integer.BYTES + keyBytes.length);
+
+        if (ttl != null) {
+            head.putLong(ttl.toMillis());
+        }
+
+        head.putInt(keyBytes.length).put(keyBytes);
+
+        return send(node, CacheOperation.PUT, ttl == null ? OP_PUT : OP_PUT_TTL, head.array(), value.duplicate(),
+                (status, body) -> {
+                    checkStatus("PUT", status);
+                    return null;
+                });
+    }
+
+    @Override
+    public void delete(String node, String key) throws IOException {
+        Transport.await(deleteAsync(node, key));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String node, String key) {
+        return send(node, CacheOperation.DELETE, OP_DELETE, utf8(key), null, (status, body) -> {
+            if (status != STATUS_NOT_FOUND) {
+                checkStatus("DELETE", status);
+            }
+
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> getAllAsync(String node, List<String> keys) {
+        return send(node, CacheOperation.GET_ALL, OP_MGET, BatchCodec.encodeKeys(keys), null, (status, body) -> {
+            checkStatus("Batch GET", status);
+
+            return BatchCodec.decodeValues(body, keys.size());
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> putAllAsync(String node, List<Map.Entry<String, byte[]>> entries) {
+        return send(node, CacheOperation.PUT_ALL, OP_MSET, BatchCodec.encodeEntries(entries), null, (status, body) -> {
+            checkStatus("Batch PUT", status);
+            return null;
+        });
+    }
+
+    /**
+     * Reports requests from the callback each of them has for cleaning up
+     * after cancellation, synchronous calls being asynchronous ones awaited.
+     */
+    @Override
+    public boolean reportTo(RequestListener listener) {
+        this.listener = listener;
+
+        return true;
+    }
+
+    /**
+     * Closes the connections to nodes that left, stopping their threads.
+     * Requests still waiting on them fail.
+     */
+    @Override
+    public void retainNodes(Set<String> nodes) {
+        for (Connection connection : connections.values()) {
+            if (!nodes.contains(connection.node)) {
+                connection.close(new IOException("Node " + connection.node + " left"));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        timeouts.shutdownNow();
+
+        for (Connection connection : connections.values()) {
+            connection.fail(new IOException("Transport closed"));
+        }
+    }
+
+    private <T> CompletableFuture<T> send(String node, CacheOperation operation, byte opcode, byte[] head,
+            ByteBuffer tail, ResponseHandler<T> handler) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Transport closed"));
+        }
+
+        return connection(node).send(operation, opcode, head, tail, handler);
+    }
+
+    /**
+     * Returns the open connection to the node, creating one if there is none.
+     * A new connection connects on its writer thread, requests sent
+     * meanwhile wait in its queue.
+     */
+    private Connection connection(String node) {
+        Connection connection = connections.get(node);
+
+        if (connection != null && connection.open) {
+            return connection;
+        }
+
+        return connections.compute(node, (n, existing) -> existing != null && existing.open
+                ? existing
+                : new Connection(n));
+    }
+
+    /**
+     * Fails the requests that did not get a response in time.
+     */
+    private void expireRequests() {
+        long now = System.nanoTime();
+
+        for (Connection connection : connections.values()) {
+            connection.pending.forEach((id, request) -> {
+                if (now - request.deadline > 0 && connection.pending.remove(id, request)) {
+                    request.future.completeExceptionally(new SocketTimeoutException(
+                            "No response from " + connection.node + " within "
+                                    + TimeUnit.NANOSECONDS.toMillis(CALL_TIMEOUT_NANOS) + " ms"));
+                }
+            });
+        }
+    }
+
+    private static void checkStatus(String operation, byte status) throws IOException {
+        if (status != STATUS_OK) {
+            throw new IOException(operation + " failed with status " + status);
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Turns a response into a result.
+     */
+    @FunctionalInterface
+    private interface ResponseHandler<T> {
+        T handle(byte status, byte[] body) throws IOException;
+    }
+
+    /**
+     * A request waiting for its response.
+     */
+    private static final class PendingRequest<T> {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        final ResponseHandler<T> handler;
+        final long deadline = System.nanoTime() + CALL_TIMEOUT_NANOS;
+
+        PendingRequest(ResponseHandler<T> handler) {
+            this.handler = handler;
+        }
+
+        void complete(byte status, byte[] body) {
+            try {
+                future.complete(handler.handle(status, body));
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * A request waiting to be written.
+     */
+    private static final class Frame {
+        final int id;
+        final byte opcode;
+        final byte[] head;
+        final ByteBuffer tail;
+        final CompletableFuture<?> future;
+
+        Frame(int id, byte opcode, byte[] head, ByteBuffer tail, CompletableFuture<?> future) {
+            this.id = id;
+            this.opcode = opcode;
+            this.head = head;
+            this.tail = tail;
+            this.future = future;
+        }
+    }
+
+    /**
+     * A pipelined connection to one node. Callers queue frames, a dedicated
+     * thread connects and writes them and another one reads the responses.
+     */
+    private final class Connection {
+        final String node;
+        final ConcurrentHashMap<Integer, PendingRequest<?>> pending = new ConcurrentHashMap<>();
+
+        private final BlockingQueue<Frame> queue = new LinkedBlockingQueue<>();
+        private final AtomicInteger nextId = new AtomicInteger();
+        private final Thread writer;
+
+        // Only used by the writer thread, and by the reader once connected
+        private DataOutputStream out;
+        private DataInputStream in;
+
+        private volatile Socket socket;
+
+        volatile boolean open = true;
+
+        Connection(String node) {
+            this.node = node;
+
+            writer = new Thread(this::writeRequests, "cache-binary-writer-" + node);
+            writer.setDaemon(true);
+            writer.start();
+        }
+
+        private void connect() throws IOException {
+            int separator = node.lastIndexOf(':');
+
+            if (separator < 0) {
+                throw new IOException("Invalid node address " + node);
+            }
+
+            String host = node.substring(0, separator);
+            int port;
+
+            try {
+                port = Integer.parseInt(node.substring(separator + 1)) + portOffset;
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid node address " + node, e);
+            }
+
+            Socket connecting = new Socket();
+
+            // Published first so a concurrent failure closes it, aborting the connect
+            socket = connecting;
+
+            if (!open) {
+                throw new IOException("Connection to " + node + " closed");
+            }
+
+            connecting.setTcpNoDelay(true);
+            connecting.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MILLIS);
+
+            out = new DataOutputStream(new BufferedOutputStream(connecting.getOutputStream(), 64 * 1024));
+            in = new DataInputStream(new BufferedInputStream(connecting.getInputStream(), 64 * 1024));
+
+            Thread reader = new Thread(this::readResponses, "cache-binary-" + node);
+            reader.setDaemon(true);
+            reader.start();
+
+            logger.debug("Connected to {} on binary port {}", node, port);
+        }
+
+        <T> CompletableFuture<T> send(CacheOperation operation, byte opcode, byte[] head, ByteBuffer tail,
+                ResponseHandler<T> handler) {
+            long start = System.nanoTime();
+            PendingRequest<T> request = new PendingRequest<>(handler);
+            int id = nextId.incrementAndGet();
+
+            // Reports every outcome and forgets cancelled requests
+            request.future.whenComplete((result, error) -> {
+                if (request.future.isCancelled()) {
+                    pending.remove(id, request);
+                }
+
+                RequestListener current = listener;
+
+                if (current != null) {
+                    current.requestCompleted(node, operation, System.nanoTime() - start, error != null);
+                }
+            });
+
+            long length = HEADER_LENGTH + (long) head.length + (tail == null ? 0 : tail.remaining());
+
+            if (length > MAX_FRAME_LENGTH) {
+                request.future.completeExceptionally(new IOException("Request of " + length + " bytes is too large"));
+                return request.future;
+            }
+
+            pending.put(id, request);
+
+            // A concurrent failure may have missed this request while failing the others
+            if (!open) {
+                pending.remove(id);
+                request.future.completeExceptionally(new IOException("Connection to " + node + " closed"));
+                return request.future;
+            }
+
+            queue.add(new Frame(id, opcode, head, tail, request.future));
+
+            return request.future;
+        }
+
+        /**
+         * Connects, then writes the queued frames until the connection fails.
+         * Frames queued while writing go out with the same flush. Frames of
+         * requests already timed out or cancelled are skipped.
+         */
+        private void writeRequests() {
+            try {
+                connect();
+
+                while (true) {
+                    Frame frame = queue.take();
+
+                    do {
+                        if (!frame.future.isDone()) {
+                            write(frame);
+                        }
+                    } while ((frame = queue.poll()) != null);
+
+                    out.flush();
+                }
+            } catch (IOException e) {
+                fail(e);
+            } catch (InterruptedException e) {
+                fail(new IOException("Writer of connection to " + node + " interrupted", e));
+            }
+        }
+
+        private void write(Frame frame) throws IOException {
+            int length = HEADER_LENGTH + frame.head.length + (frame.tail == null ? 0 : frame.tail.remaining());
+
+            out.writeInt(length);
+            out.writeInt(frame.id);
+            out.writeByte(frame.opcode);
+            out.write(frame.head);
+
+            if (frame.tail != null) {
+                writeBuffer(frame.tail);
+            }
+        }
+
+        private void writeBuffer(ByteBuffer buffer) throws IOException {
+            if (buffer.hasArray()) {
+                out.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                return;
+            }
+
+            byte[] chunk = new byte[Math.min(buffer.remaining(), 8192)];
+
+            while (buffer.hasRemaining()) {
+                int count = Math.min(chunk.length, buffer.remaining());
+
+                buffer.get(chunk, 0, count);
+                out.write(chunk, 0, count);
+            }
+        }
+
+        private void readResponses() {
+            try {
+                while (true) {
+                    int length = in.readInt();
+
+                    if (length < HEADER_LENGTH || length > MAX_FRAME_LENGTH) {
+                        throw new IOException("Invalid frame length " + length);
+                    }
+
+                    int id = in.readInt();
+                    byte status = in.readByte();
+                    byte[] body = new byte[length - HEADER_LENGTH];
+
+                    in.readFully(body);
+
+                    PendingRequest<?> request = pending.remove(id);
+
+                    if (request != null) {
+                        request.complete(status, body);
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Closes the connection after an error, see {@link #close(IOException)}.
+         */
+        void fail(IOException cause) {
+            if (close(cause) && !closed) {
+                logger.warn("Connection to {} failed: {}", node, cause.getMessage());
+            }
+        }
+
+        /**
+         * Closes the connection and fails all requests waiting on it. The
+         * next request to the node opens a new connection. Returns false if
+         * it was closed already.
+         */
+        synchronized boolean close(IOException cause) {
+            if (!open) {
+                return false;
+            }
+
+            open = false;
+            connections.remove(node, this);
+
+            Socket current = socket;
+
+            if (current != null) {
+                try {
+                    current.close();
+                } catch (IOException ignored) {
+                }
+            }
+
+            if (Thread.currentThread() != writer) {
+                writer.interrupt();
+            }
+
+            queue.clear();
+
+            for (Integer id : pending.keySet()) {
+                PendingRequest<?> request = pending.remove(id);
+
+                if (request != null) {
+                    request.future.completeExceptionally(new IOException("Connection to " + node + " closed", cause));
+                }
+            }
+
+            return true;
+        }
+    }
+}
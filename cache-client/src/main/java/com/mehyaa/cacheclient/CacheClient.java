@@ -1,19 +1,23 @@
 package com.mehyaa.cacheclient;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.TimeUnit;
-
-import okhttp3.MediaType;
-import okhttp3.OkHttpClient;
-import okhttp3.Request;
-import okhttp3.RequestBody;
-import okhttp3.Response;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,22 +30,70 @@ public class CacheClient implements AutoCloseable {
     private final AtomicBoolean closed = new AtomicBoolean(false);
 
     private final ServiceDiscovery discovery;
-    private final OkHttpClient http;
-    private final ConsistentHash hashRing;
+    private final Transport transport;
+    private final NodeSelector hashRing;
+    private final NearCache nearCache;
+    private final ValueCodec valueCodec;
+    private final int replicationFactor;
+    private final WriteQuorum writeQuorum;
+    private final ReadHedger hedger;
+    private final CircuitBreakingTransport circuitBreakers;
+    private final NodeSelectorType selectorType;
+    private final long migrationFallbackMillis;
+    private final RequestMetrics metrics;
+
+    private volatile MigrationWindow migration;
 
     private CacheClient() throws Exception {
-        discovery = new ServiceDiscovery();
+        this(new ServiceDiscovery(), createNodeTransport());
+    }
+
+    /**
+     * Creates a client sending requests through the given node transport,
+     * which is closed with the client.
+     */
+    CacheClient(ServiceDiscovery discovery, Transport nodeTransport) throws Exception {
+        this.discovery = discovery;
 
         List<String> nodes = discovery.getNodes();
 
-        hashRing = new ConsistentHash(nodes);
+        selectorType = NodeSelectorType.fromConfig();
+        hashRing = selectorType.create(nodes);
+        migrationFallbackMillis = ClientConfig.getLong("cache.client.rebalance.fallbackMillis",
+                "CACHE_REBALANCE_FALLBACK_MILLIS", 60_000);
+
+        logger.info("Using {} node selector", selectorType);
 
         discovery.addChangeListener((oldNodes, newNodes) -> refreshRing(oldNodes, newNodes));
 
-        http = new OkHttpClient.Builder()
-                .connectTimeout(2, TimeUnit.SECONDS)
-                .callTimeout(5, TimeUnit.SECONDS)
-                .build();
+        replicationFactor = Math.max(1, ClientConfig.getInt("cache.client.replicationFactor",
+                "CACHE_REPLICATION_FACTOR", 1));
+        selectorType.checkReplicationFactor(replicationFactor);
+        writeQuorum = WriteQuorum.fromConfig();
+
+        if (replicationFactor > 1) {
+            logger.info("Replicating keys to {} nodes with {} write quorum", replicationFactor, writeQuorum);
+        }
+
+        nearCache = createNearCache();
+        valueCodec = createValueCodec();
+
+        metrics = ClientConfig.getBoolean("cache.client.metrics.enabled", "CACHE_METRICS_ENABLED", true)
+                ? new RequestMetrics()
+                : null;
+        Transport metered = nodeTransport;
+
+        // Transports that can report their requests save a completion stage per request
+        if (metrics != null && !nodeTransport.reportTo(metrics::recordNode)) {
+            metered = new MeteredTransport(nodeTransport, metrics);
+        }
+
+        circuitBreakers = createCircuitBreakers(metered);
+        transport = circuitBreakers == null ? metered : circuitBreakers;
+
+        transport.retainNodes(new HashSet<>(discovery.getNodes()));
+
+        hedger = replicationFactor > 1 ? createReadHedger(transport) : null;
 
         // Ensure the singleton is closed when JVM exits
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -76,42 +128,338 @@ public class CacheClient implements AutoCloseable {
     }
 
     /**
-     * Gets the value for the given key, or null if not found.
+     * Gets the value for the given key decoded as UTF-8, or null if not found.
      */
     public String get(String key) throws IOException {
-        try (Response response = sendRequest("GET", key, null)) {
-            if (response.isSuccessful()) {
-                return response.body().string();
-            }
+        return read(key, CacheClient::utf8String);
+    }
+
+    /**
+     * Gets the raw value for the given key, or null if not found.
+     */
+    public byte[] getBytes(String key) throws IOException {
+        return read(key, this::exposeBytes);
+    }
+
+    /**
+     * Sets the value for the given key, encoded as UTF-8.
+     */
+    public void put(String key, String value) throws IOException {
+        write(key, encodeValue(utf8Bytes(value)), null);
+    }
+
+    /**
+     * Sets the raw value for the given key. The array must not be modified
+     * while the call is in progress.
+     */
+    public void put(String key, byte[] value) throws IOException {
+        write(key, encodeValue(value), null);
+    }
 
-            if (response.code() == 404) {
-                return null;
+    /**
+     * Sets the value for the given key to the remaining bytes of the buffer.
+     * The buffer's position is left unchanged and its content must not be
+     * modified while the call is in progress.
+     */
+    public void put(String key, ByteBuffer value) throws IOException {
+        write(key, encodeValue(value), null);
+    }
+
+    /**
+     * Sets the value for the given key, encoded as UTF-8, expiring after the
+     * given time-to-live. TTLs are applied with millisecond precision.
+     */
+    public void put(String key, String value, Duration ttl) throws IOException {
+        write(key, encodeValue(utf8Bytes(value)), checkTtl(ttl));
+    }
+
+    /**
+     * Sets the raw value for the given key, expiring after the given time-to-live.
+     */
+    public void put(String key, byte[] value, Duration ttl) throws IOException {
+        write(key, encodeValue(value), checkTtl(ttl));
+    }
+
+    /**
+     * Sets the value for the given key to the remaining bytes of the buffer,
+     * expiring after the given time-to-live.
+     */
+    public void put(String key, ByteBuffer value, Duration ttl) throws IOException {
+        write(key, encodeValue(value), checkTtl(ttl));
+    }
+
+    /**
+     * Deletes the given key from all of its replicas.
+     */
+    public void delete(String key) throws IOException {
+        checkKey(key);
+
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try {
+            List<String> replicas = writeReplicas(key);
+            CompletableFuture<Void> previous = deletePrevious(key, replicas, new RequestGroup());
+
+            if (replicas.size() == 1) {
+                transport.delete(replicas.get(0), key);
+            } else {
+                Transport.await(replicate(replicas, node -> transport.deleteAsync(node, key)));
             }
 
-            throw new IOException("GET failed with code " + response.code());
+            previous.join();
+            failed = false;
+        } finally {
+            invalidateNearCache(key);
+            record(CacheOperation.DELETE, start, failed);
         }
     }
 
     /**
-     * Sets the value for the given key.
+     * Asynchronously gets the value for the given key. The future completes
+     * with null if the key is not found, or exceptionally with an IOException.
+     * Cancelling the future cancels the requests sent for it, hedged reads and
+     * reads falling back to other nodes included.
      */
-    public void put(String key, String value) throws IOException {
-        try (Response response = sendRequest("POST", key, value)) {
-            if (!response.isSuccessful()) {
-                throw new IOException("PUT failed with code " + response.code());
-            }
+    public CompletableFuture<String> getAsync(String key) {
+        return readAsync(key, CacheClient::utf8String);
+    }
+
+    /**
+     * Asynchronously gets the raw value for the given key.
+     */
+    public CompletableFuture<byte[]> getBytesAsync(String key) {
+        return readAsync(key, this::exposeBytes);
+    }
+
+    /**
+     * Asynchronously sets the value for the given key, encoded as UTF-8.
+     * Cancelling the future cancels the writes still in flight, replicas
+     * that already stored the value keep it.
+     */
+    public CompletableFuture<Void> putAsync(String key, String value) {
+        return writeAsync(key, encodeValue(utf8Bytes(value)), null);
+    }
+
+    /**
+     * Asynchronously sets the raw value for the given key. The array must
+     * not be modified until the future completes.
+     */
+    public CompletableFuture<Void> putAsync(String key, byte[] value) {
+        return writeAsync(key, encodeValue(value), null);
+    }
+
+    /**
+     * Asynchronously sets the value for the given key to the remaining bytes
+     * of the buffer, which must not be modified until the future completes.
+     */
+    public CompletableFuture<Void> putAsync(String key, ByteBuffer value) {
+        return writeAsync(key, encodeValue(value), null);
+    }
+
+    /**
+     * Asynchronously sets the value for the given key, encoded as UTF-8,
+     * expiring after the given time-to-live.
+     */
+    public CompletableFuture<Void> putAsync(String key, String value, Duration ttl) {
+        return writeAsync(key, encodeValue(utf8Bytes(value)), checkTtl(ttl));
+    }
+
+    /**
+     * Asynchronously sets the raw value for the given key, expiring after the
+     * given time-to-live.
+     */
+    public CompletableFuture<Void> putAsync(String key, byte[] value, Duration ttl) {
+        return writeAsync(key, encodeValue(value), checkTtl(ttl));
+    }
+
+    /**
+     * Asynchronously sets the value for the given key to the remaining bytes
+     * of the buffer, expiring after the given time-to-live.
+     */
+    public CompletableFuture<Void> putAsync(String key, ByteBuffer value, Duration ttl) {
+        return writeAsync(key, encodeValue(value), checkTtl(ttl));
+    }
+
+    /**
+     * Asynchronously deletes the given key. Cancelling the future cancels
+     * the deletes still in flight.
+     */
+    public CompletableFuture<Void> deleteAsync(String key) {
+        checkKey(key);
+
+        long start = System.nanoTime();
+        RequestGroup requests = new RequestGroup();
+        CompletableFuture<Void> future;
+
+        try {
+            List<String> replicas = writeReplicas(key);
+
+            future = replicate(replicas, node -> requests.add(transport.deleteAsync(node, key)))
+                    .thenCombine(deletePrevious(key, replicas, requests), (deleted, ignored) -> deleted);
+        } catch (IOException e) {
+            future = CompletableFuture.failedFuture(e);
         }
+
+        return requests.cancelledWith(future.whenComplete((result, error) -> {
+            invalidateNearCache(key);
+            record(CacheOperation.DELETE, start, error != null);
+        }));
     }
 
     /**
-     * Deletes the given key.
+     * Gets the values of the given keys, decoded as UTF-8, with one batch
+     * request per owning node, sent in parallel. The keys of a failed batch
+     * are fetched from their next replica. Keys that are not found are
+     * absent from the result.
      */
-    public void delete(String key) throws IOException {
-        try (Response response = sendRequest("DELETE", key, null)) {
-            if (!response.isSuccessful() && response.code() != 404) {
-                throw new IOException("DELETE failed with code " + response.code());
+    public Map<String, String> getAll(Collection<String> keys) throws IOException {
+        return Transport.await(getAllAsync(keys));
+    }
+
+    /**
+     * Gets the raw values of the given keys, see {@link #getAll(Collection)}.
+     */
+    public Map<String, byte[]> getAllBytes(Collection<String> keys) throws IOException {
+        return Transport.await(getAllBytesAsync(keys));
+    }
+
+    /**
+     * Sets all given entries, encoded as UTF-8, with one batch request per
+     * node holding replicas of the keys, sent in parallel. Every key needs
+     * the write quorum of its own replicas.
+     */
+    public void putAll(Map<String, String> entries) throws IOException {
+        Transport.await(putAllAsync(entries));
+    }
+
+    /**
+     * Sets all given raw entries, see {@link #putAll(Map)}.
+     */
+    public void putAllBytes(Map<String, byte[]> entries) throws IOException {
+        Transport.await(putAllBytesAsync(entries));
+    }
+
+    /**
+     * Asynchronous variant of {@link #getAll(Collection)}.
+     */
+    public CompletableFuture<Map<String, String>> getAllAsync(Collection<String> keys) {
+        return readAllAsync(keys, CacheClient::utf8String);
+    }
+
+    /**
+     * Asynchronous variant of {@link #getAllBytes(Collection)}.
+     */
+    public CompletableFuture<Map<String, byte[]>> getAllBytesAsync(Collection<String> keys) {
+        return readAllAsync(keys, this::exposeBytes);
+    }
+
+    /**
+     * Asynchronous variant of {@link #putAll(Map)}.
+     */
+    public CompletableFuture<Void> putAllAsync(Map<String, String> entries) {
+        Map<String, byte[]> encoded = new HashMap<>();
+
+        for (Map.Entry<String, String> entry : entries.entrySet()) {
+            encoded.put(entry.getKey(), utf8Bytes(entry.getValue()));
+        }
+
+        return putAllBytesAsync(encoded);
+    }
+
+    /**
+     * Asynchronous variant of {@link #putAllBytes(Map)}.
+     */
+    public CompletableFuture<Void> putAllBytesAsync(Map<String, byte[]> entries) {
+        entries.keySet().forEach(CacheClient::checkKey);
+
+        long start = System.nanoTime();
+        RequestGroup requests = new RequestGroup();
+        Map<String, List<Map.Entry<String, byte[]>>> entriesByNode = new HashMap<>();
+        Set<List<String>> replicaSets = new HashSet<>();
+
+        try {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                List<String> replicas = writeReplicas(entry.getKey());
+                Map.Entry<String, byte[]> encoded = Map.entry(entry.getKey(), valueCodec.encode(entry.getValue()));
+
+                for (String node : replicas) {
+                    entriesByNode.computeIfAbsent(node, n -> new ArrayList<>()).add(encoded);
+                }
+
+                replicaSets.add(replicas);
             }
+        } catch (IOException e) {
+            record(CacheOperation.PUT_ALL, start, true);
+
+            return CompletableFuture.failedFuture(e);
         }
+
+        Map<String, CompletableFuture<Void>> batches = new HashMap<>();
+
+        for (Map.Entry<String, List<Map.Entry<String, byte[]>>> batch : entriesByNode.entrySet()) {
+            List<CompletableFuture<Void>> batchRequests = new ArrayList<>();
+
+            for (List<Map.Entry<String, byte[]>> chunk : chunks(batch.getValue())) {
+                batchRequests.add(requests.add(transport.putAllAsync(batch.getKey(), chunk)));
+            }
+
+            batches.put(batch.getKey(), batchRequests.size() == 1
+                    ? batchRequests.get(0)
+                    : CompletableFuture.allOf(batchRequests.toArray(new CompletableFuture<?>[0])));
+        }
+
+        // Keys with the same replicas are acknowledged by the same batches
+        List<CompletableFuture<Void>> quorums = new ArrayList<>(replicaSets.size());
+
+        for (List<String> replicas : replicaSets) {
+            quorums.add(replicate(replicas, batches::get));
+        }
+
+        return requests.cancelledWith(CompletableFuture.allOf(quorums.toArray(new CompletableFuture<?>[0]))
+                .whenComplete((result, error) -> {
+                    entries.keySet().forEach(this::invalidateNearCache);
+                    record(CacheOperation.PUT_ALL, start, error != null);
+                }));
+    }
+
+    /**
+     * Returns value compression statistics. Values are only compressed when
+     * enabled, but compressed values written by other clients are always read.
+     */
+    public CompressionStats compressionStats() {
+        return valueCodec.stats();
+    }
+
+    /**
+     * Returns near cache statistics, or null if the near cache is disabled.
+     */
+    public NearCacheStats nearCacheStats() {
+        return nearCache == null ? null : nearCache.stats();
+    }
+
+    /**
+     * Returns hedged read statistics, or null if reads are not hedged, which
+     * needs a replication factor above one.
+     */
+    public HedgeStats hedgeStats() {
+        return hedger == null ? null : hedger.stats();
+    }
+
+    /**
+     * Returns call counts, errors, latency percentiles and hits per operation
+     * and per node, or null if metrics are disabled.
+     */
+    public RequestStats requestStats() {
+        return metrics == null ? null : metrics.snapshot();
+    }
+
+    /**
+     * Returns the nodes whose circuit breaker is open or probing, which get
+     * no regular traffic. Empty if circuit breakers are disabled.
+     */
+    public Set<String> openCircuits() {
+        return circuitBreakers == null ? Collections.emptySet() : circuitBreakers.openNodes();
     }
 
     /**
@@ -131,71 +479,627 @@ public class CacheClient implements AutoCloseable {
             logger.warn("Error closing discovery: {}", e.getMessage(), e);
         }
 
-        // Shutdown OkHttp executor and wait a short time for tasks to finish
         try {
-            ExecutorService exec = http.dispatcher().executorService();
-            exec.shutdown();
+            transport.close();
+        } catch (Exception e) {
+            logger.warn("Error closing transport: {}", e.getMessage(), e);
+        }
+
+        // Null out the global reference so a new instance can be created if needed
+        if (INSTANCE == this) {
+            INSTANCE = null;
+        }
+    }
+
+    /**
+     * Reads a value through the near cache. The view turns the raw value,
+     * which may be shared with the near cache, into the returned result.
+     */
+    private <T> T read(String key, Function<byte[], T> view) throws IOException {
+        checkKey(key);
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        T value = null;
+
+        try {
+            value = lookup(key, view);
+            failed = false;
+
+            return value;
+        } finally {
+            recordRead(start, failed, value != null);
+        }
+    }
+
+    private <T> CompletableFuture<T> readAsync(String key, Function<byte[], T> view) {
+        checkKey(key);
+
+        long start = System.nanoTime();
+        RequestGroup requests = new RequestGroup();
 
-            if (!exec.awaitTermination(5, TimeUnit.SECONDS)) {
-                exec.shutdownNow();
+        return requests.cancelledWith(lookupAsync(key, view, requests)
+                .whenComplete((value, error) -> recordRead(start, error != null, value != null)));
+    }
+
+    private <T> CompletableFuture<Map<String, T>> readAllAsync(Collection<String> keys, Function<byte[], T> view) {
+        keys.forEach(CacheClient::checkKey);
+
+        long start = System.nanoTime();
+        RequestGroup requests = new RequestGroup();
+        Set<String> remaining = new LinkedHashSet<>(keys);
+        int requested = remaining.size();
+
+        return requests.cancelledWith(lookupAll(remaining, view, requests).whenComplete((values, error) -> {
+            record(CacheOperation.GET_ALL, start, error != null);
+
+            if (error == null && metrics != null) {
+                metrics.recordReads(values.size(), requested - values.size());
             }
-        } catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-        } catch (Exception e) {
-            logger.warn("Error shutting down HTTP executor: {}", e.getMessage(), e);
+        }));
+    }
+
+    private <T> T lookup(String key, Function<byte[], T> view) throws IOException {
+        if (nearCache != null) {
+            byte[] cached = nearCache.get(key);
+
+            if (cached != null) {
+                return view.apply(cached);
+            }
+        }
+
+        long stamp = nearCache == null ? 0 : nearCache.invalidationStamp();
+
+        List<String> replicas = requireReplicas(key);
+        byte[] raw = hedger != null && replicas.size() > 1
+                ? Transport.await(hedger.get(replicas, key))
+                : fetch(replicas, key);
+
+        if (raw == null) {
+            raw = Transport.await(fetchPrevious(key, replicas, new RequestGroup()));
         }
 
+        byte[] value = valueCodec.decode(raw);
+
+        return loaded(key, value, stamp, view);
+    }
+
+    /**
+     * Reads a value through the near cache, adding the requests sent for it
+     * to the given ones.
+     */
+    private <T> CompletableFuture<T> lookupAsync(String key, Function<byte[], T> view, RequestGroup requests) {
+        if (nearCache != null) {
+            byte[] cached = nearCache.get(key);
+
+            if (cached != null) {
+                return CompletableFuture.completedFuture(view.apply(cached));
+            }
+        }
+
+        long stamp = nearCache == null ? 0 : nearCache.invalidationStamp();
+
+        List<String> replicas;
+
         try {
-            http.connectionPool().evictAll();
-        } catch (Exception e) {
-            logger.warn("Error evicting connection pool: {}", e.getMessage(), e);
+            replicas = requireReplicas(key);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<byte[]> fetched = (hedger != null && replicas.size() > 1
+                ? requests.add(hedger.get(replicas, key))
+                : fetchAsync(replicas, 0, key, requests))
+                .thenCompose(value -> value != null ? CompletableFuture.completedFuture(value)
+                        : fetchPrevious(key, replicas, requests));
+
+        return fetched.thenApply(value -> {
+            try {
+                return loaded(key, valueCodec.decode(value), stamp, view);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Reads distinct keys, removing the ones found in the near cache from
+     * the given set.
+     */
+    private <T> CompletableFuture<Map<String, T>> lookupAll(Set<String> remaining, Function<byte[], T> view,
+            RequestGroup requests) {
+        Map<String, T> cached = new HashMap<>();
+
+        if (nearCache != null) {
+            for (Iterator<String> it = remaining.iterator(); it.hasNext();) {
+                String key = it.next();
+                byte[] value = nearCache.get(key);
+
+                if (value != null) {
+                    cached.put(key, view.apply(value));
+                    it.remove();
+                }
+            }
+
+            if (remaining.isEmpty()) {
+                return CompletableFuture.completedFuture(cached);
+            }
         }
 
+        long stamp = nearCache == null ? 0 : nearCache.invalidationStamp();
+        CompletableFuture<Map<String, byte[]>> fetched;
+
         try {
-            if (http.cache() != null) {
-                http.cache().close();
+            fetched = fetchAll(remaining, 0, requests)
+                    .thenCompose(values -> fetchAllPrevious(remaining, values, requests));
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        return fetched.thenApply(values -> {
+            Map<String, T> result = new HashMap<>(cached);
+
+            try {
+                for (Map.Entry<String, byte[]> entry : values.entrySet()) {
+                    T value = loaded(entry.getKey(), valueCodec.decode(entry.getValue()), stamp, view);
+
+                    result.put(entry.getKey(), value);
+                }
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+
+            return result;
+        });
+    }
+
+    /**
+     * Gets a raw value from the first replica that answers, in replica order.
+     * Only failures move on to the next replica, a missing key does not.
+     */
+    private byte[] fetch(List<String> replicas, String key) throws IOException {
+        IOException failure = null;
+
+        for (String node : replicas) {
+            try {
+                return transport.get(node, key);
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
             }
-        } catch (Exception e) {
-            logger.warn("Error closing HTTP cache: {}", e.getMessage(), e);
         }
 
-        // Null out the global reference so a new instance can be created if needed
-        if (INSTANCE == this) {
-            INSTANCE = null;
+        throw failure;
+    }
+
+    /**
+     * Gets a raw value like {@link #fetch(List, String)}, without failing over
+     * once the read was cancelled.
+     */
+    private CompletableFuture<byte[]> fetchAsync(List<String> replicas, int index, String key, RequestGroup requests) {
+        CompletableFuture<byte[]> future = requests.add(transport.getAsync(replicas.get(index), key));
+
+        if (index + 1 == replicas.size()) {
+            return future;
+        }
+
+        return future.exceptionallyCompose(error -> requests.isCancelled()
+                ? CompletableFuture.failedFuture(error)
+                : fetchAsync(replicas, index + 1, key, requests));
+    }
+
+    /**
+     * Gets raw values with one batch request per node, holding the replica of
+     * the given rank of its keys, sent in parallel. The keys of a failed
+     * batch are fetched from their replica of the next rank. Keys that are
+     * not found are absent from the result.
+     */
+    private CompletableFuture<Map<String, byte[]>> fetchAll(Collection<String> keys, int rank, RequestGroup requests)
+            throws IOException {
+        Map<String, List<String>> keysByNode = groupByReplica(keys, rank);
+        List<CompletableFuture<Map<String, byte[]>>> batches = new ArrayList<>(keysByNode.size());
+
+        for (Map.Entry<String, List<String>> batch : keysByNode.entrySet()) {
+            for (List<String> nodeKeys : chunks(batch.getValue())) {
+                batches.add(fetchBatch(batch.getKey(), nodeKeys, rank, requests));
+            }
         }
+
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            Map<String, byte[]> result = new HashMap<>();
+
+            for (CompletableFuture<Map<String, byte[]>> batch : batches) {
+                result.putAll(batch.join());
+            }
+
+            return result;
+        });
+    }
+
+    /**
+     * Gets the raw values of keys from their replica of the given rank with
+     * one batch request, falling back to the next rank on failure.
+     */
+    private CompletableFuture<Map<String, byte[]>> fetchBatch(String node, List<String> nodeKeys, int rank,
+            RequestGroup requests) {
+        CompletableFuture<Map<String, byte[]>> found = requests.add(transport.getAllAsync(node, nodeKeys))
+                .thenApply(values -> {
+                    Map<String, byte[]> present = new HashMap<>();
+
+                    for (int i = 0; i < nodeKeys.size(); i++) {
+                        if (values.get(i) != null) {
+                            present.put(nodeKeys.get(i), values.get(i));
+                        }
+                    }
+
+                    return present;
+                });
+
+        if (rank + 1 < replicationFactor) {
+            found = found.exceptionallyCompose(error -> {
+                if (requests.isCancelled()) {
+                    return CompletableFuture.failedFuture(error);
+                }
+
+                try {
+                    return fetchAll(nodeKeys, rank + 1, requests);
+                } catch (IOException e) {
+                    // No replica left for some key, report the original failure
+                    return CompletableFuture.failedFuture(error);
+                }
+            });
+        }
+
+        return found;
     }
 
-    private synchronized void refreshRing(List<String> oldNodes, List<String> newNodes) {
+    /**
+     * Gets a raw value missing on its current owner, the first of the given
+     * replicas, from the key's owner before the last topology change, which
+     * may not have moved it yet. Completes with null outside of a migration
+     * window; a failure counts as a miss.
+     */
+    private CompletableFuture<byte[]> fetchPrevious(String key, List<String> replicas, RequestGroup requests) {
+        MigrationWindow window = migration;
+        String owner = window == null ? null : window.previousOwner(key);
+
+        if (owner == null || owner.equals(replicas.get(0))) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return requests.add(transport.getAsync(owner, key)).exceptionally(error -> null);
+    }
+
+    /**
+     * Adds the values of the keys not found to the given ones, fetched from
+     * their previous owners with one batch request per node, see
+     * {@link #fetchPrevious(String, List, RequestGroup)}.
+     */
+    private CompletableFuture<Map<String, byte[]>> fetchAllPrevious(Collection<String> keys, Map<String, byte[]> found,
+            RequestGroup requests) {
+        MigrationWindow window = migration;
+
+        if (window == null || !window.isOpen()) {
+            return CompletableFuture.completedFuture(found);
+        }
+
+        Map<String, List<String>> keysByOwner = new HashMap<>();
+
+        for (String key : keys) {
+            if (!found.containsKey(key)) {
+                String owner = window.previousOwner(key);
+
+                if (owner != null && !owner.equals(hashRing.get(key))) {
+                    keysByOwner.computeIfAbsent(owner, node -> new ArrayList<>()).add(key);
+                }
+            }
+        }
+
+        if (keysByOwner.isEmpty()) {
+            return CompletableFuture.completedFuture(found);
+        }
+
+        Map<String, byte[]> result = new HashMap<>(found);
+        List<CompletableFuture<Void>> batches = new ArrayList<>(keysByOwner.size());
+
+        for (Map.Entry<String, List<String>> batch : keysByOwner.entrySet()) {
+            for (List<String> ownerKeys : chunks(batch.getValue())) {
+                batches.add(requests.add(transport.getAllAsync(batch.getKey(), ownerKeys)).handle((values, error) -> {
+                    if (error == null) {
+                        synchronized (result) {
+                            for (int i = 0; i < ownerKeys.size(); i++) {
+                                if (values.get(i) != null) {
+                                    result.put(ownerKeys.get(i), values.get(i));
+                                }
+                            }
+                        }
+                    }
+
+                    return null;
+                }));
+            }
+        }
+
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> result);
+    }
+
+    /**
+     * Deletes the key from its owner before the last topology change as
+     * well, so neither a fallback read nor a migration still running brings
+     * it back. Failures are ignored.
+     */
+    private CompletableFuture<Void> deletePrevious(String key, List<String> replicas, RequestGroup requests) {
+        MigrationWindow window = migration;
+        String owner = window == null ? null : window.previousOwner(key);
+
+        if (owner == null || replicas.contains(owner)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        return requests.add(transport.deleteAsync(owner, key)).exceptionally(error -> null);
+    }
+
+    /**
+     * Offers a value loaded from a server to the near cache and applies the view.
+     */
+    private <T> T loaded(String key, byte[] value, long stamp, Function<byte[], T> view) {
+        if (value == null) {
+            return null;
+        }
+
+        if (nearCache != null) {
+            nearCache.put(key, value, stamp);
+        }
+
+        return view.apply(value);
+    }
+
+    /**
+     * Raw values held by the near cache are copied before being handed out,
+     * so callers can't modify cached data.
+     */
+    private byte[] exposeBytes(byte[] value) {
+        return nearCache == null ? value : value.clone();
+    }
+
+    /**
+     * Encodes a value for the wire, compressing it if enabled.
+     */
+    private ByteBuffer encodeValue(byte[] value) {
+        return ByteBuffer.wrap(valueCodec.encode(value));
+    }
+
+    private ByteBuffer encodeValue(ByteBuffer value) {
+        return valueCodec.encode(value);
+    }
+
+    private void write(String key, ByteBuffer value, Duration ttl) throws IOException {
+        checkKey(key);
+
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try {
+            List<String> replicas = writeReplicas(key);
+
+            if (replicas.size() == 1) {
+                transport.put(replicas.get(0), key, value, ttl);
+            } else {
+                Transport.await(replicate(replicas, node -> transport.putAsync(node, key, value, ttl)));
+            }
+
+            failed = false;
+        } finally {
+            invalidateNearCache(key);
+            record(CacheOperation.PUT, start, failed);
+        }
+    }
+
+    private CompletableFuture<Void> writeAsync(String key, ByteBuffer value, Duration ttl) {
+        checkKey(key);
+
+        long start = System.nanoTime();
+        RequestGroup requests = new RequestGroup();
+        CompletableFuture<Void> future;
+
+        try {
+            future = replicate(writeReplicas(key), node -> requests.add(transport.putAsync(node, key, value, ttl)));
+        } catch (IOException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+
+        return requests.cancelledWith(future.whenComplete((result, error) -> {
+            invalidateNearCache(key);
+            record(CacheOperation.PUT, start, error != null);
+        }));
+    }
+
+    /**
+     * Sends a write to every replica in parallel, completing once the write
+     * quorum acknowledged it.
+     */
+    private CompletableFuture<Void> replicate(List<String> replicas, Function<String, CompletableFuture<Void>> write) {
+        if (replicas.size() == 1) {
+            return write.apply(replicas.get(0));
+        }
+
+        List<CompletableFuture<Void>> writes = new ArrayList<>(replicas.size());
+
+        for (String node : replicas) {
+            writes.add(write.apply(node));
+        }
+
+        return writeQuorum.await(writes);
+    }
+
+    private void refreshRing(List<String> oldNodes, List<String> newNodes) {
         if (hashRing == null) {
             return;
         }
 
-        // Normalize nulls to empty sets to avoid NullPointerException in later removeAll
-        Set<String> oldSet = oldNodes == null ? Collections.emptySet() : new HashSet<>(oldNodes);
+        // Normalize nulls to an empty set; the whole topology is applied in one step
         Set<String> newSet = newNodes == null ? Collections.emptySet() : new HashSet<>(newNodes);
 
-        // compute additions and removals
-        Set<String> toAdd = new HashSet<>(newSet);
-        toAdd.removeAll(oldSet);
+        try {
+            openMigrationWindow(oldNodes, newSet);
+
+            long epoch = hashRing.applyTopology(newSet);
 
-        Set<String> toRemove = new HashSet<>(oldSet);
-        toRemove.removeAll(newSet);
+            logger.info("Applied topology epoch {} with {} nodes", epoch, newSet.size());
 
-        // Removals first
-        for (String node : toRemove) {
-            try {
-                hashRing.remove(node);
-            } catch (Exception e) {
-                logger.warn("Error removing node from hash ring: {}", e.getMessage(), e);
+            if (hedger != null) {
+                hedger.retainNodes(newSet);
             }
+
+            // Circuit breakers, then connections of the nodes that left
+            transport.retainNodes(newSet);
+
+            if (metrics != null) {
+                metrics.retainNodes(newSet);
+            }
+        } catch (Exception e) {
+            logger.warn("Error applying topology to hash ring: {}", e.getMessage(), e);
         }
+    }
 
-        // Additions
-        for (String node : toAdd) {
-            try {
-                hashRing.add(node);
-            } catch (Exception e) {
-                logger.warn("Error adding node to hash ring: {}", e.getMessage(), e);
+    /**
+     * Keeps the placement before a topology change for reads falling back to
+     * previous owners. While a window is open, further changes keep its
+     * placement, the one the servers are still moving entries away from.
+     */
+    private void openMigrationWindow(List<String> oldNodes, Set<String> newNodes) {
+        if (migrationFallbackMillis <= 0 || oldNodes == null || oldNodes.isEmpty()) {
+            return;
+        }
+
+        MigrationWindow current = migration;
+        NodeSelector previous = current != null && current.isOpen()
+                ? current.previous()
+                : selectorType.create(oldNodes);
+
+        migration = new MigrationWindow(previous, newNodes, Duration.ofMillis(migrationFallbackMillis));
+    }
+
+    /**
+     * Drops the key from the near cache after a local write or delete,
+     * whether it succeeded or not.
+     */
+    private void invalidateNearCache(String key) {
+        if (nearCache != null) {
+            nearCache.invalidate(key);
+        }
+    }
+
+    /**
+     * Creates the near cache if enabled through application variables
+     * (system properties 'cache.client.nearCache.*' or env 'CACHE_NEAR_CACHE_*').
+     */
+    private static NearCache createNearCache() {
+        if (!ClientConfig.getBoolean("cache.client.nearCache.enabled", "CACHE_NEAR_CACHE_ENABLED", false)) {
+            return null;
+        }
+
+        long maxEntries = ClientConfig.getLong("cache.client.nearCache.maxEntries", "CACHE_NEAR_CACHE_MAX_ENTRIES",
+                10_000);
+        long maxBytes = ClientConfig.getLong("cache.client.nearCache.maxBytes", "CACHE_NEAR_CACHE_MAX_BYTES",
+                64L * 1024 * 1024);
+        long ttlMillis = ClientConfig.getLong("cache.client.nearCache.ttlMillis", "CACHE_NEAR_CACHE_TTL_MILLIS",
+                5_000);
+
+        logger.info("Near cache enabled with {} entries, {} bytes and {} ms TTL", maxEntries, maxBytes, ttlMillis);
+
+        return new NearCache(maxEntries, maxBytes, Duration.ofMillis(ttlMillis));
+    }
+
+    /**
+     * Creates the value codec from application variables (system properties
+     * 'cache.client.compression.*' or env 'CACHE_COMPRESSION_*').
+     */
+    private static ValueCodec createValueCodec() {
+        boolean enabled = ClientConfig.getBoolean("cache.client.compression.enabled", "CACHE_COMPRESSION_ENABLED",
+                false);
+        int threshold = ClientConfig.getInt("cache.client.compression.thresholdBytes",
+                "CACHE_COMPRESSION_THRESHOLD_BYTES", 1024);
+
+        if (enabled) {
+            logger.info("LZ4 compression enabled for values of {} bytes or more", threshold);
+        }
+
+        return new ValueCodec(enabled, threshold);
+    }
+
+    /**
+     * Creates the read hedger unless disabled through application variables
+     * (system properties 'cache.client.hedge.*' or env 'CACHE_HEDGE_*').
+     */
+    private static ReadHedger createReadHedger(Transport transport) {
+        if (!ClientConfig.getBoolean("cache.client.hedge.enabled", "CACHE_HEDGE_ENABLED", true)) {
+            return null;
+        }
+
+        int percentile = ClientConfig.getInt("cache.client.hedge.percentile", "CACHE_HEDGE_PERCENTILE", 95);
+        int maxPercent = ClientConfig.getInt("cache.client.hedge.maxPercent", "CACHE_HEDGE_MAX_PERCENT", 10);
+
+        logger.info("Hedging reads slower than the owner's p{}, at most {}% of them", percentile, maxPercent);
+
+        return new ReadHedger(transport, percentile, maxPercent / 100.0);
+    }
+
+    /**
+     * Creates the transport to the nodes from application variables, see
+     * {@link TransportType#fromConfig()}.
+     */
+    private static Transport createNodeTransport() {
+        TransportType transportType = TransportType.fromConfig();
+
+        logger.info("Using {} transport", transportType);
+
+        return transportType.create();
+    }
+
+    /**
+     * Wraps the transport in per-node circuit breakers unless disabled through
+     * application variables (system properties 'cache.client.circuitBreaker.*'
+     * or env 'CACHE_CIRCUIT_BREAKER_*').
+     */
+    private static CircuitBreakingTransport createCircuitBreakers(Transport transport) {
+        if (!ClientConfig.getBoolean("cache.client.circuitBreaker.enabled", "CACHE_CIRCUIT_BREAKER_ENABLED", true)) {
+            return null;
+        }
+
+        int failureRatePercent = ClientConfig.getInt("cache.client.circuitBreaker.failureRatePercent",
+                "CACHE_CIRCUIT_BREAKER_FAILURE_RATE_PERCENT", 50);
+        long slowCallMillis = ClientConfig.getLong("cache.client.circuitBreaker.slowCallMillis",
+                "CACHE_CIRCUIT_BREAKER_SLOW_CALL_MILLIS", 1_000);
+        int minimumCalls = ClientConfig.getInt("cache.client.circuitBreaker.minimumCalls",
+                "CACHE_CIRCUIT_BREAKER_MINIMUM_CALLS", 20);
+        long openMillis = ClientConfig.getLong("cache.client.circuitBreaker.openMillis",
+                "CACHE_CIRCUIT_BREAKER_OPEN_MILLIS", 5_000);
+        int maxEjectionPercent = ClientConfig.getInt("cache.client.circuitBreaker.maxEjectionPercent",
+                "CACHE_CIRCUIT_BREAKER_MAX_EJECTION_PERCENT", 50);
+
+        return new CircuitBreakingTransport(transport, failureRatePercent, Duration.ofMillis(slowCallMillis),
+                minimumCalls, Duration.ofMillis(openMillis), maxEjectionPercent);
+    }
+
+    private void record(CacheOperation operation, long start, boolean failed) {
+        if (metrics != null) {
+            metrics.record(operation, System.nanoTime() - start, failed);
+        }
+    }
+
+    /**
+     * Records a single key read, found or not unless it failed.
+     */
+    private void recordRead(long start, boolean failed, boolean found) {
+        if (metrics != null) {
+            metrics.record(CacheOperation.GET, System.nanoTime() - start, failed);
+
+            if (!failed) {
+                metrics.recordReads(found ? 1 : 0, found ? 0 : 1);
             }
         }
     }
@@ -204,36 +1108,167 @@ public class CacheClient implements AutoCloseable {
         return hashRing.get(key);
     }
 
-    private Response sendRequest(String method, String key, String body) throws IOException {
+    /**
+     * Returns the node to read the key from: its owner, or the next node in
+     * line while the owner's circuit is open.
+     */
+    private String requireNode(String key) throws IOException {
         String node = chooseNode(key);
 
         if (node == null) {
             throw new IOException("No cache nodes available");
         }
 
-        String url = String.format("http://%s/%s", node, key);
-        Request.Builder requestBuilder = new Request.Builder().url(url);
+        if (circuitBreakers == null || circuitBreakers.unavailableCount() == 0 || circuitBreakers.isAvailable(node)) {
+            return node;
+        }
 
-        switch (method) {
-            case "GET":
-                requestBuilder.get();
-                break;
+        return requireReplicas(key).get(0);
+    }
 
-            case "POST":
-                RequestBody requestBody = body != null ? RequestBody.create(body, MediaType.get("text/plain")) : null;
-                requestBuilder.post(requestBody);
-                break;
+    /**
+     * Returns the nodes to read the key from, owner first, at most the
+     * replication factor of them. Nodes with an open circuit are skipped in
+     * favour of the next ones in line.
+     */
+    private List<String> requireReplicas(String key) throws IOException {
+        int unavailable = circuitBreakers == null ? 0 : circuitBreakers.unavailableCount();
 
-            case "DELETE":
-                requestBuilder.delete();
-                break;
+        if (replicationFactor == 1 && unavailable == 0) {
+            String node = chooseNode(key);
 
-            default:
-                throw new IllegalArgumentException("Unknown method " + method);
+            if (node == null) {
+                throw new IOException("No cache nodes available");
+            }
+
+            return List.of(node);
         }
 
-        Request request = requestBuilder.build();
+        List<String> candidates = hashRing.getReplicas(key, replicationFactor + unavailable);
+
+        if (candidates.isEmpty()) {
+            throw new IOException("No cache nodes available");
+        }
+
+        if (unavailable == 0) {
+            return candidates;
+        }
+
+        List<String> replicas = new ArrayList<>(replicationFactor);
+
+        for (String node : candidates) {
+            if (replicas.size() < replicationFactor && circuitBreakers.isAvailable(node)) {
+                replicas.add(node);
+            }
+        }
+
+        if (replicas.isEmpty()) {
+            throw new IOException("Circuits of all nodes for key " + key + " are open");
+        }
+
+        return replicas;
+    }
+
+    /**
+     * Returns the nodes to write or delete the key on: its owner and
+     * replicas, whatever their circuit. Calls to a node with an open circuit
+     * fail fast, the write quorum decides whether the others are enough.
+     * Sending the write to the next node in line instead would leave the
+     * owner with a stale value, read again once its circuit closes.
+     */
+    private List<String> writeReplicas(String key) throws IOException {
+        if (replicationFactor == 1) {
+            String node = chooseNode(key);
+
+            if (node == null) {
+                throw new IOException("No cache nodes available");
+            }
+
+            return List.of(node);
+        }
+
+        List<String> replicas = hashRing.getReplicas(key, replicationFactor);
+
+        if (replicas.isEmpty()) {
+            throw new IOException("No cache nodes available");
+        }
+
+        return replicas;
+    }
+
+    /**
+     * Groups keys by their replica of the given rank, 0 being the owner.
+     */
+    private Map<String, List<String>> groupByReplica(Collection<String> keys, int rank) throws IOException {
+        Map<String, List<String>> keysByNode = new HashMap<>();
+
+        for (String key : keys) {
+            String node;
+
+            if (rank == 0) {
+                node = requireNode(key);
+            } else {
+                List<String> replicas = requireReplicas(key);
+
+                if (rank >= replicas.size()) {
+                    throw new IOException("No replica left for key " + key);
+                }
+
+                node = replicas.get(rank);
+            }
+
+            keysByNode.computeIfAbsent(node, n -> new ArrayList<>()).add(key);
+        }
+
+        return keysByNode;
+    }
+
+    /**
+     * Splits the keys or entries of a node into batches of at most
+     * {@link CacheProtocol#MAX_BATCH_SIZE}, the most a server accepts in one
+     * request.
+     */
+    static <T> List<List<T>> chunks(List<T> items) {
+        if (items.size() <= CacheProtocol.MAX_BATCH_SIZE) {
+            return List.of(items);
+        }
+
+        List<List<T>> chunks = new ArrayList<>((items.size() - 1) / CacheProtocol.MAX_BATCH_SIZE + 1);
+
+        for (int from = 0; from < items.size(); from += CacheProtocol.MAX_BATCH_SIZE) {
+            chunks.add(items.subList(from, Math.min(items.size(), from + CacheProtocol.MAX_BATCH_SIZE)));
+        }
+
+        return chunks;
+    }
+
+    /**
+     * Rejects keys the servers don't store, see
+     * {@link CacheProtocol#isValidKey(String)}.
+     */
+    private static void checkKey(String key) {
+        if (!CacheProtocol.isValidKey(key)) {
+            throw new IllegalArgumentException("Keys must not be empty or start with "
+                    + CacheProtocol.RESERVED_KEY_PREFIX + ": " + key);
+        }
+    }
+
+    /**
+     * Validates a time-to-live, rounding sub-millisecond ones up to 1 ms.
+     */
+    private static Duration checkTtl(Duration ttl) {
+        if (ttl == null || ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("TTL must be positive: " + ttl);
+        }
+
+        return ttl.toMillis() == 0 ? Duration.ofMillis(1) : ttl;
+    }
+
+    private static byte[] utf8Bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
 
-        return http.newCall(request).execute();
+    private static String utf8String(byte[] value) {
+        return new String(value, StandardCharsets.UTF_8);
     }
-}
\ No newline at end of file
+}
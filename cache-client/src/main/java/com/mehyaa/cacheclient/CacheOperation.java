@@ -0,0 +1,34 @@
+package com.mehyaa.cacheclient;
+
+/**
+ * Operations measured by the client, both per call of its methods and per
+ * request sent to a node.
+ */
+public enum CacheOperation {
+    /**
+     * Single key reads: get, getBytes and their asynchronous variants.
+     */
+    GET,
+
+    /**
+     * Single key writes: put and putAsync.
+     */
+    PUT,
+
+    /**
+     * Deletes: delete and deleteAsync.
+     */
+    DELETE,
+
+    /**
+     * Batch reads: getAll, getAllBytes and their asynchronous variants, or
+     * /_mget requests.
+     */
+    GET_ALL,
+
+    /**
+     * Batch writes: putAll, putAllBytes and their asynchronous variants, or
+     * /_mset requests.
+     */
+    PUT_ALL
+}
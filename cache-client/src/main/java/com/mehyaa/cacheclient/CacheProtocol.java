@@ -0,0 +1,30 @@
+package com.mehyaa.cacheclient;
+
+/**
+ * Limits and key rules of the cache server API, shared by the client and
+ * the server.
+ */
+public final class CacheProtocol {
+    /**
+     * Maximum number of keys or entries in one batch request. The client
+     * splits larger batches, the server rejects them.
+     */
+    public static final int MAX_BATCH_SIZE = 10_000;
+
+    /**
+     * Prefix of the server's own endpoints, such as /_stats. Keys can't
+     * start with it, so they never collide with an endpoint.
+     */
+    public static final String RESERVED_KEY_PREFIX = "_";
+
+    private CacheProtocol() {
+    }
+
+    /**
+     * Returns whether the key can be stored: it is neither empty nor starts
+     * with {@link #RESERVED_KEY_PREFIX}.
+     */
+    public static boolean isValidKey(String key) {
+        return key != null && !key.isEmpty() && !key.startsWith(RESERVED_KEY_PREFIX);
+    }
+}
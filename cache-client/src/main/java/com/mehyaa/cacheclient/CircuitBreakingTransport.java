@@ -0,0 +1,385 @@
+package com.mehyaa.cacheclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transport keeping a circuit breaker per node. Calls failing or slower than
+ * the slow call threshold are counted over a window of WINDOW_NANOS; once
+ * enough of them went bad, the circuit opens and calls to the node fail fast
+ * with an IOException. After the open duration one probe call is let
+ * through, closing the circuit on success or opening it again on failure.
+ * <p>
+ * At most a configured share of the known nodes is ejected at once, so a
+ * cluster-wide problem does not take every node out of rotation.
+ */
+final class CircuitBreakingTransport implements Transport {
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreakingTransport.class);
+
+    private static final long WINDOW_NANOS = 10_000_000_000L;
+
+    private final Transport delegate;
+    private final int failureRatePercent;
+    private final long slowCallNanos;
+    private final int minimumCalls;
+    private final long openNanos;
+    private final int maxEjectionPercent;
+
+    private final Map<String, Breaker> breakers = new ConcurrentHashMap<>();
+    private final AtomicInteger unavailable = new AtomicInteger();
+
+    private volatile int nodeCount;
+
+    CircuitBreakingTransport(Transport delegate, int failureRatePercent, Duration slowCall, int minimumCalls,
+            Duration openDuration, int maxEjectionPercent) {
+        this.delegate = delegate;
+        this.failureRatePercent = failureRatePercent;
+        this.slowCallNanos = slowCall.toNanos();
+        this.minimumCalls = Math.max(1, minimumCalls);
+        this.openNanos = openDuration.toNanos();
+        this.maxEjectionPercent = maxEjectionPercent;
+    }
+
+    /**
+     * Returns whether requests should be routed to the node: its circuit is
+     * closed, or open long enough for a probe.
+     */
+    boolean isAvailable(String node) {
+        Breaker breaker = breakers.get(node);
+
+        return breaker == null || breaker.isAvailable();
+    }
+
+    /**
+     * Returns the number of nodes whose circuit is not closed, an upper bound
+     * of the nodes that are not available.
+     */
+    int unavailableCount() {
+        return unavailable.get();
+    }
+
+    /**
+     * Returns the nodes whose circuit is open or half-open.
+     */
+    Set<String> openNodes() {
+        Set<String> nodes = new HashSet<>();
+
+        breakers.forEach((node, breaker) -> {
+            if (breaker.state.get() != State.CLOSED) {
+                nodes.add(node);
+            }
+        });
+
+        return nodes;
+    }
+
+    /**
+     * Forgets the breakers of nodes that left and updates the node count the
+     * ejection limit is based on. A forgotten breaker is marked removed, so
+     * a call still in flight, such as a probe, can't change the count again.
+     * The delegate then releases what it keeps for them.
+     */
+    @Override
+    public void retainNodes(Set<String> nodes) {
+        nodeCount = nodes.size();
+
+        breakers.entrySet().removeIf(entry -> {
+            if (nodes.contains(entry.getKey())) {
+                return false;
+            }
+
+            State last = entry.getValue().state.getAndSet(State.REMOVED);
+
+            if (last == State.OPEN || last == State.HALF_OPEN) {
+                unavailable.decrementAndGet();
+            }
+
+            return true;
+        });
+
+        delegate.retainNodes(nodes);
+    }
+
+    @Override
+    public byte[] get(String node, String key) throws IOException {
+        return callSync(node, () -> delegate.get(node, key));
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getAsync(String node, String key) {
+        return callAsync(node, () -> delegate.getAsync(node, key));
+    }
+
+    @Override
+    public void put(String node, String key, ByteBuffer value, Duration ttl) throws IOException {
+        callSync(node, () -> {
+            delegate.put(node, key, value, ttl);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String node, String key, ByteBuffer value, Duration ttl) {
+        return callAsync(node, () -> delegate.putAsync(node, key, value, ttl));
+    }
+
+    @Override
+    public void delete(String node, String key) throws IOException {
+        callSync(node, () -> {
+            delegate.delete(node, key);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String node, String key) {
+        return callAsync(node, () -> delegate.deleteAsync(node, key));
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> getAllAsync(String node, List<String> keys) {
+        return callAsync(node, () -> delegate.getAllAsync(node, keys));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAllAsync(String node, List<Map.Entry<String, byte[]>> entries) {
+        return callAsync(node, () -> delegate.putAllAsync(node, entries));
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    private <T> T callSync(String node, IoCall<T> call) throws IOException {
+        Breaker breaker = breaker(node);
+        Permit permit = breaker.acquire();
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try {
+            T result = call.execute();
+            failed = false;
+
+            return result;
+        } finally {
+            breaker.record(permit, failed, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records the outcome on the delegate's own future, which is returned so
+     * cancelling it still cancels the underlying request.
+     */
+    private <T> CompletableFuture<T> callAsync(String node, Supplier<CompletableFuture<T>> call) {
+        Breaker breaker = breaker(node);
+        Permit permit;
+
+        try {
+            permit = breaker.acquire();
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<T> future = call.get();
+
+        future.whenComplete((result, error) -> {
+            if (isCancellation(error)) {
+                breaker.release(permit);
+            } else {
+                breaker.record(permit, error != null, System.nanoTime() - start);
+            }
+        });
+
+        return future;
+    }
+
+    private Breaker breaker(String node) {
+        return breakers.computeIfAbsent(node, Breaker::new);
+    }
+
+    private static boolean isCancellation(Throwable error) {
+        if (error instanceof CompletionException && error.getCause() != null) {
+            error = error.getCause();
+        }
+
+        return error instanceof CancellationException;
+    }
+
+    @FunctionalInterface
+    private interface IoCall<T> {
+        T execute() throws IOException;
+    }
+
+    /**
+     * Circuit states. REMOVED is final, for breakers of nodes that left,
+     * which let calls through and no longer count as unavailable.
+     */
+    private enum State {
+        CLOSED, OPEN, HALF_OPEN, REMOVED
+    }
+
+    /**
+     * How a call was let through: as a regular call, or as the single probe
+     * of a half-open circuit whose outcome decides the next state.
+     */
+    private enum Permit {
+        REGULAR, PROBE
+    }
+
+    /**
+     * Call outcomes of one window.
+     */
+    private static final class Window {
+        final long start;
+        final LongAdder calls = new LongAdder();
+        final LongAdder failures = new LongAdder();
+        final LongAdder slowCalls = new LongAdder();
+
+        Window(long start) {
+            this.start = start;
+        }
+    }
+
+    /**
+     * Circuit breaker of one node. Counting is lock-free, state transitions
+     * are compare-and-set on the state.
+     */
+    private final class Breaker {
+        final String node;
+        final AtomicReference<State> state = new AtomicReference<>(State.CLOSED);
+        final AtomicReference<Window> window = new AtomicReference<>(new Window(System.nanoTime()));
+
+        volatile long openedAt;
+
+        Breaker(String node) {
+            this.node = node;
+        }
+
+        boolean isAvailable() {
+            State current = state.get();
+
+            return current == State.CLOSED || current == State.REMOVED
+                    || (current == State.OPEN && System.nanoTime() - openedAt >= openNanos);
+        }
+
+        Permit acquire() throws IOException {
+            State current = state.get();
+
+            if (current == State.CLOSED || current == State.REMOVED) {
+                return Permit.REGULAR;
+            }
+
+            if (current == State.OPEN && System.nanoTime() - openedAt >= openNanos
+                    && state.compareAndSet(State.OPEN, State.HALF_OPEN)) {
+                return Permit.PROBE;
+            }
+
+            throw new IOException("Circuit open for node " + node);
+        }
+
+        void record(Permit permit, boolean failed, long nanos) {
+            boolean bad = failed || nanos >= slowCallNanos;
+
+            if (permit == Permit.PROBE) {
+                // Transitions fail if the breaker was removed meanwhile
+                if (bad) {
+                    openedAt = System.nanoTime();
+
+                    if (state.compareAndSet(State.HALF_OPEN, State.OPEN)) {
+                        logger.warn("Probe of node {} failed, circuit stays open", node);
+                    }
+                } else {
+                    window.set(new Window(System.nanoTime()));
+
+                    if (state.compareAndSet(State.HALF_OPEN, State.CLOSED)) {
+                        unavailable.decrementAndGet();
+
+                        logger.info("Closed circuit for node {}", node);
+                    }
+                }
+
+                return;
+            }
+
+            long now = System.nanoTime();
+            Window current = window.get();
+
+            if (now - current.start >= WINDOW_NANOS) {
+                Window fresh = new Window(now);
+                current = window.compareAndSet(current, fresh) ? fresh : window.get();
+            }
+
+            current.calls.increment();
+
+            if (!bad) {
+                return;
+            }
+
+            if (failed) {
+                current.failures.increment();
+            } else {
+                current.slowCalls.increment();
+            }
+
+            long calls = current.calls.sum();
+
+            if (calls >= minimumCalls
+                    && (current.failures.sum() + current.slowCalls.sum()) * 100 >= calls * failureRatePercent) {
+                open(current, calls);
+            }
+        }
+
+        /**
+         * Gives the probe slot back when the probe was cancelled, so the next
+         * call probes instead.
+         */
+        void release(Permit permit) {
+            if (permit == Permit.PROBE) {
+                state.compareAndSet(State.HALF_OPEN, State.OPEN);
+            }
+        }
+
+        private void open(Window current, long calls) {
+            if (state.get() != State.CLOSED) {
+                return;
+            }
+
+            // Keep enough nodes in rotation, however many look unhealthy
+            int ejected = unavailable.incrementAndGet();
+
+            if (ejected * 100 > Math.max(1, nodeCount) * maxEjectionPercent) {
+                unavailable.decrementAndGet();
+                return;
+            }
+
+            // Set before publishing the state so no caller sees an open circuit with a stale time
+            openedAt = System.nanoTime();
+
+            if (!state.compareAndSet(State.CLOSED, State.OPEN)) {
+                unavailable.decrementAndGet();
+                return;
+            }
+
+            logger.warn("Opened circuit for node {}: {} failed and {} slow of {} calls", node,
+                    current.failures.sum(), current.slowCalls.sum(), calls);
+        }
+    }
+}
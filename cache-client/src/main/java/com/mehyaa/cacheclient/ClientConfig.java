@@ -0,0 +1,70 @@
+package com.mehyaa.cacheclient;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads client settings from application variables: a system property
+ * (e.g. 'cache.client.nodeSelector') takes precedence over an environment
+ * variable (e.g. 'CACHE_NODE_SELECTOR'), otherwise the default is used.
+ */
+final class ClientConfig {
+    private static final Logger logger = LoggerFactory.getLogger(ClientConfig.class);
+
+    private ClientConfig() {
+    }
+
+    static String getString(String property, String environment, String defaultValue) {
+        String value = System.getProperty(property);
+
+        if (value != null && !value.isEmpty()) {
+            return value;
+        }
+
+        value = System.getenv(environment);
+
+        if (value != null && !value.isEmpty()) {
+            return value;
+        }
+
+        return defaultValue;
+    }
+
+    static int getInt(String property, String environment, int defaultValue) {
+        String value = getString(property, environment, null);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value {} for {}. Using default {}", value, property, defaultValue);
+
+            return defaultValue;
+        }
+    }
+
+    static long getLong(String property, String environment, long defaultValue) {
+        String value = getString(property, environment, null);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value {} for {}. Using default {}", value, property, defaultValue);
+
+            return defaultValue;
+        }
+    }
+
+    static boolean getBoolean(String property, String environment, boolean defaultValue) {
+        String value = getString(property, environment, null);
+
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
@@ -0,0 +1,91 @@
+package com.mehyaa.cacheclient;
+
+/**
+ * Point-in-time statistics of client-side value compression.
+ */
+public final class CompressionStats {
+    private final long compressedCount;
+    private final long skippedCount;
+    private final long uncompressedBytes;
+    private final long compressedBytes;
+    private final long compressNanos;
+    private final long decompressedCount;
+    private final long decompressNanos;
+
+    CompressionStats(long compressedCount, long skippedCount, long uncompressedBytes, long compressedBytes,
+            long compressNanos, long decompressedCount, long decompressNanos) {
+        this.compressedCount = compressedCount;
+        this.skippedCount = skippedCount;
+        this.uncompressedBytes = uncompressedBytes;
+        this.compressedBytes = compressedBytes;
+        this.compressNanos = compressNanos;
+        this.decompressedCount = decompressedCount;
+        this.decompressNanos = decompressNanos;
+    }
+
+    /**
+     * Number of values sent compressed.
+     */
+    public long getCompressedCount() {
+        return compressedCount;
+    }
+
+    /**
+     * Number of values above the threshold sent raw because compression did
+     * not make them smaller.
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Total size of the values that were sent compressed, before compression.
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * Total size of the values that were sent compressed, after compression
+     * including the header.
+     */
+    public long getCompressedBytes() {
+        return compressedBytes;
+    }
+
+    /**
+     * Compressed to uncompressed size of the compressed values, 1.0 when
+     * nothing was compressed yet. Lower is better.
+     */
+    public double getCompressionRatio() {
+        return uncompressedBytes == 0 ? 1.0 : (double) compressedBytes / uncompressedBytes;
+    }
+
+    /**
+     * Time spent compressing, including attempts that were skipped.
+     */
+    public long getCompressNanos() {
+        return compressNanos;
+    }
+
+    /**
+     * Number of compressed values read.
+     */
+    public long getDecompressedCount() {
+        return decompressedCount;
+    }
+
+    /**
+     * Time spent decompressing.
+     */
+    public long getDecompressNanos() {
+        return decompressNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompressionStats{compressed=%d, skipped=%d, ratio=%.4f, compressNanos=%d, "
+                + "decompressed=%d, decompressNanos=%d}", compressedCount, skippedCount, getCompressionRatio(),
+                compressNanos, decompressedCount, decompressNanos);
+    }
+}
@@ -1,93 +1,302 @@
 package com.mehyaa.cacheclient;
 
-import com.google.common.hash.Hashing;
-import com.google.common.hash.HashCode;
-
-import java.nio.charset.StandardCharsets;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * Simple consistent hashing implementation with virtual nodes.
  */
-public class ConsistentHash {
+public class ConsistentHash implements NodeSelector {
     private static final int VIRTUAL_NODES = 150; // Number of virtual nodes per real node
 
-    // Volatile reference to an unmodifiable SortedMap. Readers access this without locking.
-    private volatile SortedMap<Long, String> circle = Collections.unmodifiableSortedMap(new TreeMap<>());
+    // Sorted virtual node tokens per node, so a node is hashed only once. Guarded by this.
+    private final Map<String, long[]> tokensByNode = new HashMap<>();
+
+    // Volatile reference to an immutable ring snapshot. Readers access this without locking.
+    private volatile Ring ring;
 
     public ConsistentHash(List<String> nodes) {
-        // build initial map once and publish
-        TreeMap<Long, String> initial = new TreeMap<>();
-
-        if (nodes != null) {
-            for (String node : nodes) {
-                for (int i = 0; i < VIRTUAL_NODES; i++) {
-                    long hash = hash(node + "#" + i);
-                    initial.put(hash, node);
-                }
-            }
-        }
+        // build initial ring once and publish
+        Set<String> initial = nodes == null ? Set.of() : new HashSet<>(nodes);
 
-        circle = Collections.unmodifiableSortedMap(initial);
+        ring = build(initial, 0);
     }
 
     /**
-     * Adds a node by producing a new map with the additional virtual nodes
+     * Adds a node by producing a new ring with the additional virtual nodes
      * and atomically publishing it.
      */
+    @Override
     public synchronized void add(String node) {
-        TreeMap<Long, String> newMap = new TreeMap<>(circle);
+        Set<String> newNodes = new HashSet<>(Arrays.asList(ring.nodes));
 
-        for (int i = 0; i < VIRTUAL_NODES; i++) {
-            long hash = hash(node + "#" + i);
-            newMap.put(hash, node);
+        if (newNodes.add(node)) {
+            applyTopology(newNodes);
         }
-
-        circle = Collections.unmodifiableSortedMap(newMap);
     }
 
     /**
-     * Removes a node by producing a new map without that node's virtual nodes
+     * Removes a node by producing a new ring without that node's virtual nodes
      * and atomically publishing it.
      */
+    @Override
     public synchronized void remove(String node) {
-        TreeMap<Long, String> newMap = new TreeMap<>(circle);
+        Set<String> newNodes = new HashSet<>(Arrays.asList(ring.nodes));
 
-        for (int i = 0; i < VIRTUAL_NODES; i++) {
-            long hash = hash(node + "#" + i);
-            newMap.remove(hash);
+        if (newNodes.remove(node)) {
+            applyTopology(newNodes);
         }
+    }
+
+    /**
+     * Builds the ring for the given node set in a single pass and atomically
+     * publishes it.
+     */
+    @Override
+    public synchronized long applyTopology(Set<String> nodes) {
+        Ring newRing = build(nodes, ring.epoch + 1);
 
-        circle = Collections.unmodifiableSortedMap(newMap);
+        ring = newRing;
+
+        return newRing.epoch;
+    }
+
+    @Override
+    public long epoch() {
+        return ring.epoch;
     }
 
     /**
-     * Lock-free read of the current ring.
+     * Lock-free and allocation-free read of the current ring.
      */
+    @Override
     public String get(String key) {
-        SortedMap<Long, String> current = circle;
+        Ring current = ring;
 
-        if (current.isEmpty()) {
+        if (current.tokens.length == 0) {
             return null;
         }
 
-        long hash = hash(key);
-        SortedMap<Long, String> tailMap = current.tailMap(hash);
-        Long nodeHash = tailMap.isEmpty() ? current.firstKey() : tailMap.firstKey();
+        return current.nodes[current.owners[tokenIndex(current, hash(key))]];
+    }
+
+    /**
+     * Returns the owner of the key followed by the next distinct nodes
+     * clockwise, which are the nodes that take the key over when the ones
+     * before them leave.
+     */
+    @Override
+    public List<String> getReplicas(String key, int count) {
+        Ring current = ring;
+        int wanted = Math.min(count, current.nodes.length);
+        List<String> replicas = new ArrayList<>(wanted);
+
+        if (wanted == 0) {
+            return replicas;
+        }
+
+        int start = tokenIndex(current, hash(key));
+
+        // Skip further virtual nodes of nodes already taken
+        for (int i = 0; i < current.tokens.length && replicas.size() < wanted; i++) {
+            String node = current.nodes[current.owners[(start + i) % current.tokens.length]];
+
+            if (!replicas.contains(node)) {
+                replicas.add(node);
+            }
+        }
+
+        return replicas;
+    }
+
+    /**
+     * Returns the index of the first token at or after the hash, wrapping
+     * around the ring. The ring must not be empty.
+     */
+    private static int tokenIndex(Ring current, long hash) {
+        int index = Arrays.binarySearch(current.tokens, hash);
+
+        if (index < 0) {
+            // Not an exact match, take the insertion point (first token greater than hash)
+            index = -index - 1;
+
+            if (index == current.tokens.length) {
+                index = 0; // wrap around
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Builds a new ring from the current one: tokens of departed nodes are
+     * dropped and the cached token lists of joining nodes are merged in, all
+     * in linear passes. Nodes are sorted so that every client builds the same
+     * ring for the same set.
+     */
+    private Ring build(Set<String> nodeSet, long epoch) {
+        Ring current = ring == null ? Ring.EMPTY : ring;
+
+        String[] nodes = nodeSet.toArray(new String[0]);
+        Arrays.sort(nodes);
+
+        Map<String, Integer> indexes = new HashMap<>();
+
+        for (int n = 0; n < nodes.length; n++) {
+            indexes.put(nodes[n], n);
+        }
+
+        // Keep surviving tokens, re-pointing them to the node's new index
+        int[] remap = new int[current.nodes.length];
+
+        for (int n = 0; n < current.nodes.length; n++) {
+            Integer index = indexes.remove(current.nodes[n]);
+            remap[n] = index == null ? -1 : index;
+        }
+
+        long[] keptTokens = new long[current.tokens.length];
+        int[] keptOwners = new int[current.tokens.length];
+        int kept = 0;
 
-        return current.get(nodeHash);
+        for (int i = 0; i < current.tokens.length; i++) {
+            int owner = remap[current.owners[i]];
+
+            if (owner >= 0) {
+                keptTokens[kept] = current.tokens[i];
+                keptOwners[kept] = owner;
+                kept++;
+            }
+        }
+
+        Segment result = new Segment(Arrays.copyOf(keptTokens, kept), Arrays.copyOf(keptOwners, kept));
+
+        // Whatever is left in indexes joined; merge their sorted token lists in
+        if (!indexes.isEmpty()) {
+            Segment[] joined = new Segment[indexes.size()];
+            int j = 0;
+
+            for (Map.Entry<String, Integer> entry : indexes.entrySet()) {
+                long[] tokens = tokensByNode.computeIfAbsent(entry.getKey(), ConsistentHash::virtualNodeTokens);
+                int[] owners = new int[tokens.length];
+
+                Arrays.fill(owners, entry.getValue());
+                joined[j++] = new Segment(tokens, owners);
+            }
+
+            result = Segment.merge(result, Segment.mergeAll(joined, 0, joined.length));
+        }
+
+        // Keep cached tokens of departed nodes so restarting nodes need no re-hashing,
+        // but do not let the cache grow without bound
+        if (tokensByNode.size() > 2 * nodes.length + 64) {
+            tokensByNode.keySet().retainAll(nodeSet);
+        }
+
+        return new Ring(result.tokens, result.owners, nodes, epoch);
+    }
+
+    /**
+     * Computes the sorted virtual node tokens of a node.
+     */
+    private static long[] virtualNodeTokens(String node) {
+        long[] tokens = new long[VIRTUAL_NODES];
+
+        for (int i = 0; i < VIRTUAL_NODES; i++) {
+            tokens[i] = hash(node + "#" + i);
+        }
+
+        Arrays.sort(tokens);
+
+        return tokens;
     }
 
     /**
      *  Hashes the given data using MurmurHash3.
      */
-    private long hash(String data) {
-        HashCode dataHash = Hashing.murmur3_128().hashBytes(data.getBytes(StandardCharsets.UTF_8));
+    private static long hash(String data) {
+        return MurmurHash3.hash64(data);
+    }
+
+    /**
+     * Immutable ring snapshot: sorted virtual node tokens and a parallel table
+     * holding the index of the owning node for each token.
+     */
+    private static final class Ring {
+        static final Ring EMPTY = new Ring(new long[0], new int[0], new String[0], 0);
+
+        final long[] tokens;
+        final int[] owners;
+        final String[] nodes;
+        final long epoch;
+
+        Ring(long[] tokens, int[] owners, String[] nodes, long epoch) {
+            this.tokens = tokens;
+            this.owners = owners;
+            this.nodes = nodes;
+            this.epoch = epoch;
+        }
+    }
+
+    /**
+     * Sorted tokens with their owners, used while building a ring.
+     */
+    private static final class Segment {
+        final long[] tokens;
+        final int[] owners;
+
+        Segment(long[] tokens, int[] owners) {
+            this.tokens = tokens;
+            this.owners = owners;
+        }
+
+        /**
+         * Merges segments [from, to) pairwise, O(tokens * log(segments)).
+         */
+        static Segment mergeAll(Segment[] segments, int from, int to) {
+            if (to - from == 1) {
+                return segments[from];
+            }
+
+            int middle = (from + to) >>> 1;
+
+            return merge(mergeAll(segments, from, middle), mergeAll(segments, middle, to));
+        }
+
+        /**
+         * Linear merge of two sorted segments. On a (very unlikely) token
+         * collision the node that comes first in sorted order wins.
+         */
+        static Segment merge(Segment a, Segment b) {
+            long[] tokens = new long[a.tokens.length + b.tokens.length];
+            int[] owners = new int[tokens.length];
+
+            int i = 0;
+            int j = 0;
+            int size = 0;
 
-        // Use lower 64 bits of the 128-bit hash
-        return dataHash.asLong();
+            while (i < a.tokens.length || j < b.tokens.length) {
+                if (j == b.tokens.length || (i < a.tokens.length && a.tokens[i] < b.tokens[j])) {
+                    tokens[size] = a.tokens[i];
+                    owners[size++] = a.owners[i++];
+                } else if (i == a.tokens.length || b.tokens[j] < a.tokens[i]) {
+                    tokens[size] = b.tokens[j];
+                    owners[size++] = b.owners[j++];
+                } else {
+                    tokens[size] = a.tokens[i];
+                    owners[size++] = Math.min(a.owners[i++], b.owners[j++]);
+                }
+            }
+
+            if (size < tokens.length) {
+                return new Segment(Arrays.copyOf(tokens, size), Arrays.copyOf(owners, size));
+            }
+
+            return new Segment(tokens, owners);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,59 @@
+package com.mehyaa.cacheclient;
+
+/**
+ * Point-in-time statistics of hedged reads.
+ */
+public final class HedgeStats {
+    private final long readCount;
+    private final long hedgeCount;
+    private final long winCount;
+    private final long throttledCount;
+
+    HedgeStats(long readCount, long hedgeCount, long winCount, long throttledCount) {
+        this.readCount = readCount;
+        this.hedgeCount = hedgeCount;
+        this.winCount = winCount;
+        this.throttledCount = throttledCount;
+    }
+
+    /**
+     * Number of reads of keys with more than one replica.
+     */
+    public long getReadCount() {
+        return readCount;
+    }
+
+    /**
+     * Number of backup requests sent because the owner was slow to answer.
+     */
+    public long getHedgeCount() {
+        return hedgeCount;
+    }
+
+    /**
+     * Number of backup requests that answered before the owner.
+     */
+    public long getWinCount() {
+        return winCount;
+    }
+
+    /**
+     * Number of backup requests not sent because the hedge budget was spent.
+     */
+    public long getThrottledCount() {
+        return throttledCount;
+    }
+
+    /**
+     * Fraction of reads that were hedged, 0.0 when there were no reads yet.
+     */
+    public double getHedgeRate() {
+        return readCount == 0 ? 0.0 : (double) hedgeCount / readCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("HedgeStats{reads=%d, hedges=%d, wins=%d, throttled=%d, hedgeRate=%.4f}",
+                readCount, hedgeCount, winCount, throttledCount, getHedgeRate());
+    }
+}
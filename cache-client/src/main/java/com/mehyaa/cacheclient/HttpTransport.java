@@ -0,0 +1,417 @@
+package com.mehyaa.cacheclient;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.SocketFactory;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import okio.BufferedSink;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transport over the HTTP API of the cache servers. Synchronous operations
+ * run on the calling thread, asynchronous ones on the OkHttp dispatcher.
+ * <p>
+ * Every node gets its own connection pool, so a busy node can't evict the
+ * idle connections of the others, while the dispatcher limiting concurrent
+ * asynchronous requests in total and per node is shared. With h2c, requests
+ * are multiplexed over cleartext HTTP/2 connections instead of taking one
+ * HTTP/1.1 connection each.
+ */
+final class HttpTransport implements Transport {
+    private static final Logger logger = LoggerFactory.getLogger(HttpTransport.class);
+
+    private static final String BATCH_GET_PATH = "_mget";
+    private static final String BATCH_PUT_PATH = "_mset";
+    private static final String TTL_HEADER = "X-Cache-TTL";
+
+    private static final MediaType OCTET_STREAM = MediaType.get("application/octet-stream");
+
+    private final OkHttpClient http;
+    private final int maxIdleConnections;
+    private final Duration keepAlive;
+    private final Map<String, OkHttpClient> nodeClients = new ConcurrentHashMap<>();
+
+    private volatile RequestListener listener;
+
+    HttpTransport(boolean h2c, int maxRequests, int maxRequestsPerNode, int maxIdleConnections, Duration keepAlive) {
+        this.maxIdleConnections = maxIdleConnections;
+        this.keepAlive = keepAlive;
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(maxRequests);
+        dispatcher.setMaxRequestsPerHost(maxRequestsPerNode);
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .socketFactory(new NoDelaySocketFactory())
+                .connectTimeout(2, TimeUnit.SECONDS)
+                .callTimeout(5, TimeUnit.SECONDS);
+
+        if (h2c) {
+            builder.protocols(List.of(Protocol.H2_PRIOR_KNOWLEDGE));
+        }
+
+        http = builder.build();
+    }
+
+    @Override
+    public byte[] get(String node, String key) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try (Response response = client(node).newCall(getRequest(node, key)).execute()) {
+            byte[] value = readGetResponse(response);
+            failed = false;
+
+            return value;
+        } finally {
+            report(node, CacheOperation.GET, start, failed);
+        }
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getAsync(String node, String key) {
+        return executeAsync(node, CacheOperation.GET, getRequest(node, key), HttpTransport::readGetResponse);
+    }
+
+    @Override
+    public void put(String node, String key, ByteBuffer value, Duration ttl) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try (Response response = client(node).newCall(putRequest(node, key, value, ttl)).execute()) {
+            checkPutResponse(response);
+            failed = false;
+        } finally {
+            report(node, CacheOperation.PUT, start, failed);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String node, String key, ByteBuffer value, Duration ttl) {
+        return executeAsync(node, CacheOperation.PUT, putRequest(node, key, value, ttl), response -> {
+            checkPutResponse(response);
+            return null;
+        });
+    }
+
+    @Override
+    public void delete(String node, String key) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try (Response response = client(node).newCall(deleteRequest(node, key)).execute()) {
+            checkDeleteResponse(response);
+            failed = false;
+        } finally {
+            report(node, CacheOperation.DELETE, start, failed);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String node, String key) {
+        return executeAsync(node, CacheOperation.DELETE, deleteRequest(node, key), response -> {
+            checkDeleteResponse(response);
+            return null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> getAllAsync(String node, List<String> keys) {
+        Request request = new Request.Builder()
+                .url(url(node, BATCH_GET_PATH))
+                .post(RequestBody.create(BatchCodec.encodeKeys(keys), OCTET_STREAM))
+                .build();
+
+        return executeAsync(node, CacheOperation.GET_ALL, request, response -> {
+            if (!response.isSuccessful()) {
+                throw new IOException("Batch GET failed with code " + response.code());
+            }
+
+            return BatchCodec.decodeValues(response.body().bytes(), keys.size());
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> putAllAsync(String node, List<Map.Entry<String, byte[]>> entries) {
+        Request request = new Request.Builder()
+                .url(url(node, BATCH_PUT_PATH))
+                .post(RequestBody.create(BatchCodec.encodeEntries(entries), OCTET_STREAM))
+                .build();
+
+        return executeAsync(node, CacheOperation.PUT_ALL, request, response -> {
+            if (!response.isSuccessful()) {
+                throw new IOException("Batch PUT failed with code " + response.code());
+            }
+
+            return null;
+        });
+    }
+
+    /**
+     * Reports synchronous requests in place and asynchronous ones from the
+     * callback that propagates their cancellation.
+     */
+    @Override
+    public boolean reportTo(RequestListener listener) {
+        this.listener = listener;
+
+        return true;
+    }
+
+    /**
+     * Drops the clients of nodes that left and closes their idle connections.
+     * Connections still in use return to the dropped pool, which closes them
+     * once they have been idle for the keep-alive time.
+     */
+    @Override
+    public void retainNodes(Set<String> nodes) {
+        nodeClients.entrySet().removeIf(entry -> {
+            if (nodes.contains(entry.getKey())) {
+                return false;
+            }
+
+            entry.getValue().connectionPool().evictAll();
+
+            return true;
+        });
+    }
+
+    @Override
+    public void close() {
+        // Shutdown OkHttp executor and wait a short time for tasks to finish
+        try {
+            ExecutorService exec = http.dispatcher().executorService();
+            exec.shutdown();
+
+            if (!exec.awaitTermination(5, TimeUnit.SECONDS)) {
+                exec.shutdownNow();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            logger.warn("Error shutting down HTTP executor: {}", e.getMessage(), e);
+        }
+
+        for (OkHttpClient client : nodeClients.values()) {
+            try {
+                client.connectionPool().evictAll();
+            } catch (Exception e) {
+                logger.warn("Error evicting connection pool: {}", e.getMessage(), e);
+            }
+        }
+
+        try {
+            if (http.cache() != null) {
+                http.cache().close();
+            }
+        } catch (Exception e) {
+            logger.warn("Error closing HTTP cache: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the client of a node, sharing the dispatcher and settings of the
+     * base client but with a connection pool of its own.
+     */
+    private OkHttpClient client(String node) {
+        return nodeClients.computeIfAbsent(node, ignored -> http.newBuilder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAlive.toMillis(), TimeUnit.MILLISECONDS))
+                .build());
+    }
+
+    /**
+     * Enqueues the request on the OkHttp dispatcher, the response is handled
+     * and closed on the dispatcher thread so no caller thread is blocked.
+     */
+    private <T> CompletableFuture<T> executeAsync(String node, CacheOperation operation, Request request,
+            ResponseHandler<T> handler) {
+        long start = System.nanoTime();
+        Call call = client(node).newCall(request);
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        call.enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (response) {
+                    future.complete(handler.handle(response));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        // Propagate cancellation to the HTTP call
+        future.whenComplete((result, error) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+
+            report(node, operation, start, error != null);
+        });
+
+        return future;
+    }
+
+    private void report(String node, CacheOperation operation, long start, boolean failed) {
+        RequestListener current = listener;
+
+        if (current != null) {
+            current.requestCompleted(node, operation, System.nanoTime() - start, failed);
+        }
+    }
+
+    private static Request getRequest(String node, String key) {
+        return new Request.Builder().url(url(node, key)).get().build();
+    }
+
+    private static Request putRequest(String node, String key, ByteBuffer value, Duration ttl) {
+        Request.Builder builder = new Request.Builder().url(url(node, key)).post(new ByteBufferRequestBody(value));
+
+        if (ttl != null) {
+            builder.header(TTL_HEADER, Long.toString(ttl.toMillis()));
+        }
+
+        return builder.build();
+    }
+
+    private static Request deleteRequest(String node, String key) {
+        return new Request.Builder().url(url(node, key)).delete().build();
+    }
+
+    private static String url(String node, String path) {
+        return "http://" + node + "/" + path;
+    }
+
+    private static byte[] readGetResponse(Response response) throws IOException {
+        if (response.isSuccessful()) {
+            return response.body().bytes();
+        }
+
+        if (response.code() == 404) {
+            return null;
+        }
+
+        throw new IOException("GET failed with code " + response.code());
+    }
+
+    private static void checkPutResponse(Response response) throws IOException {
+        if (!response.isSuccessful()) {
+            throw new IOException("PUT failed with code " + response.code());
+        }
+    }
+
+    private static void checkDeleteResponse(Response response) throws IOException {
+        if (!response.isSuccessful() && response.code() != 404) {
+            throw new IOException("DELETE failed with code " + response.code());
+        }
+    }
+
+    /**
+     * Turns a response into a result, shared by the sync and async methods.
+     */
+    @FunctionalInterface
+    private interface ResponseHandler<T> {
+        T handle(Response response) throws IOException;
+    }
+
+    /**
+     * Streams the remaining bytes of a buffer without copying it to an array
+     * first. Each write works on a duplicate, so retried calls resend the same bytes.
+     */
+    private static final class ByteBufferRequestBody extends RequestBody {
+        private final ByteBuffer buffer;
+
+        ByteBufferRequestBody(ByteBuffer buffer) {
+            this.buffer = buffer.duplicate();
+        }
+
+        @Override
+        public MediaType contentType() {
+            return OCTET_STREAM;
+        }
+
+        @Override
+        public long contentLength() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            ByteBuffer source = buffer.duplicate();
+
+            while (source.hasRemaining()) {
+                sink.write(source);
+            }
+        }
+    }
+
+    /**
+     * Creates sockets with TCP_NODELAY, so small requests are sent right away
+     * instead of waiting for the acknowledgement of the previous segment.
+     */
+    private static final class NoDelaySocketFactory extends SocketFactory {
+        private final SocketFactory delegate = SocketFactory.getDefault();
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return noDelay(delegate.createSocket());
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return noDelay(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return noDelay(delegate.createSocket(host, port, localHost, localPort));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return noDelay(delegate.createSocket(host, port));
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return noDelay(delegate.createSocket(address, port, localAddress, localPort));
+        }
+
+        private static Socket noDelay(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+
+            return socket;
+        }
+    }
+}
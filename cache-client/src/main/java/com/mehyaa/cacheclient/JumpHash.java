@@ -0,0 +1,195 @@
+package com.mehyaa.cacheclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Jump consistent hash (Lamping and Veach) over a fixed number of slots, each
+ * owned by the node with the highest rendezvous score for it. Lookups cost
+ * one jump and one table access.
+ *
+ * <p>Jump hash only moves the minimal share of keys when buckets are added to
+ * or removed from the end of its list, which node changes don't follow. The
+ * slots are therefore fixed and only their owners change: a joining node
+ * takes over the slots it now scores highest on, about 1/n of them, and a
+ * leaving node's slots go to their next node in line, nothing else moves.
+ * Slot owners only depend on the node set, so every client and server agrees
+ * on them whatever topology changes it observed.
+ */
+public class JumpHash implements NodeSelector {
+    // Fixed slot count; a thousand or more slots per node keep shares within a few percent
+    static final int SLOT_COUNT = 16384;
+
+    // Volatile reference to an immutable slot table. Readers access this without locking.
+    private volatile Slots slots;
+
+    public JumpHash(List<String> nodes) {
+        slots = Slots.build(nodes == null ? Set.of() : new HashSet<>(nodes), 0);
+    }
+
+    /**
+     * Adds a node by reassigning the slots and atomically publishing them.
+     */
+    @Override
+    public synchronized void add(String node) {
+        Set<String> newNodes = new HashSet<>(Arrays.asList(slots.names));
+
+        if (newNodes.add(node)) {
+            applyTopology(newNodes);
+        }
+    }
+
+    /**
+     * Removes a node by reassigning the slots and atomically publishing them.
+     */
+    @Override
+    public synchronized void remove(String node) {
+        Set<String> newNodes = new HashSet<>(Arrays.asList(slots.names));
+
+        if (newNodes.remove(node)) {
+            applyTopology(newNodes);
+        }
+    }
+
+    /**
+     * Assigns the slots once for the given node set and atomically publishes
+     * them.
+     */
+    @Override
+    public synchronized long applyTopology(Set<String> nodes) {
+        Slots published = Slots.build(nodes, slots.epoch + 1);
+
+        slots = published;
+
+        return published.epoch;
+    }
+
+    @Override
+    public long epoch() {
+        return slots.epoch;
+    }
+
+    /**
+     * Lock-free and allocation-free lookup.
+     */
+    @Override
+    public String get(String key) {
+        Slots current = slots;
+
+        if (current.names.length == 0) {
+            return null;
+        }
+
+        return current.names[current.owners[jump(MurmurHash3.hash64(key), SLOT_COUNT)]];
+    }
+
+    /**
+     * Returns the nodes with the highest rendezvous scores for the key's
+     * slot, best first. The next node in line is the one that takes the slot
+     * over when its owner leaves.
+     */
+    @Override
+    public List<String> getReplicas(String key, int count) {
+        Slots current = slots;
+        int wanted = Math.min(count, current.names.length);
+        List<String> replicas = new ArrayList<>(wanted);
+
+        if (wanted == 0) {
+            return replicas;
+        }
+
+        long slotHash = slotHash(jump(MurmurHash3.hash64(key), SLOT_COUNT));
+        long[] scores = new long[current.hashes.length];
+
+        for (int n = 0; n < scores.length; n++) {
+            scores[n] = MurmurHash3.fmix64(slotHash ^ current.hashes[n]);
+        }
+
+        // Selection of the best remaining node, clusters are small
+        boolean[] taken = new boolean[scores.length];
+
+        for (int r = 0; r < wanted; r++) {
+            int best = -1;
+
+            for (int n = 0; n < scores.length; n++) {
+                if (!taken[n] && (best < 0 || scores[n] > scores[best])) {
+                    best = n;
+                }
+            }
+
+            taken[best] = true;
+            replicas.add(current.names[best]);
+        }
+
+        return replicas;
+    }
+
+    /**
+     * Maps the key hash to a bucket in [0, buckets).
+     */
+    static int jump(long key, int buckets) {
+        long b = -1;
+        long j = 0;
+
+        while (j < buckets) {
+            b = j;
+            key = key * 2862933555777941757L + 1;
+            j = (long) ((b + 1) * ((double) (1L << 31) / (double) ((key >>> 33) + 1)));
+        }
+
+        return (int) b;
+    }
+
+    private static long slotHash(int slot) {
+        return MurmurHash3.fmix64(slot + 1L);
+    }
+
+    /**
+     * Immutable, sorted node names with their precomputed hashes and the
+     * index of the owner of each slot.
+     */
+    private static final class Slots {
+        final String[] names;
+        final long[] hashes;
+        final int[] owners;
+        final long epoch;
+
+        private Slots(String[] names, long[] hashes, int[] owners, long epoch) {
+            this.names = names;
+            this.hashes = hashes;
+            this.owners = owners;
+            this.epoch = epoch;
+        }
+
+        static Slots build(Set<String> nodeSet, long epoch) {
+            String[] names = nodeSet.toArray(new String[0]);
+            Arrays.sort(names);
+            long[] hashes = new long[names.length];
+
+            for (int n = 0; n < names.length; n++) {
+                hashes[n] = MurmurHash3.hash64(names[n]);
+            }
+
+            int[] owners = new int[names.length == 0 ? 0 : SLOT_COUNT];
+
+            for (int s = 0; s < owners.length; s++) {
+                long slotHash = slotHash(s);
+                long bestScore = Long.MIN_VALUE;
+
+                for (int n = 0; n < hashes.length; n++) {
+                    long score = MurmurHash3.fmix64(slotHash ^ hashes[n]);
+
+                    if (score > bestScore) {
+                        bestScore = score;
+                        owners[s] = n;
+                    }
+                }
+            }
+
+            return new Slots(names, hashes, owners, epoch);
+        }
+    }
+}
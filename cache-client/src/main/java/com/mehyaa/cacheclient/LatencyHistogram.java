@@ -0,0 +1,177 @@
+package com.mehyaa.cacheclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. Buckets are logarithmic,
+ * 2^subBucketBits per power of two, so memory is constant whatever the range
+ * and percentiles are within 2^-subBucketBits of the real value: 25% with
+ * the default four per power of two.
+ * <p>
+ * A decaying histogram halves all counts every decayInterval samples, so it
+ * follows recent latencies and a node recovering from a slow period is soon
+ * judged by its new latencies. Without decay every sample is kept.
+ * <p>
+ * Counts may be split in stripes, each thread recording to the one picked by
+ * its id, so threads recording at once rarely update the same counter.
+ * Snapshots add the stripes up. The cache server records its requests in
+ * striped histograms as well.
+ */
+public final class LatencyHistogram {
+    private static final int DEFAULT_SUB_BUCKET_BITS = 2;
+    private static final long DEFAULT_DECAY_INTERVAL = 4096;
+
+    // Fewer samples don't make a meaningful percentile
+    static final long MIN_SAMPLES = 20;
+
+    private final int subBucketBits;
+    private final long decayInterval;
+    private final int bucketCount;
+    private final int stripeMask;
+    private final AtomicLongArray counts;
+    private final AtomicLong recorded = new AtomicLong();
+
+    /**
+     * Creates a decaying histogram with four buckets per power of two.
+     */
+    LatencyHistogram() {
+        this(DEFAULT_SUB_BUCKET_BITS, DEFAULT_DECAY_INTERVAL);
+    }
+
+    /**
+     * @param subBucketBits log2 of the buckets per power of two
+     * @param decayInterval samples after which all counts are halved, 0 to keep every sample
+     */
+    LatencyHistogram(int subBucketBits, long decayInterval) {
+        this(subBucketBits, decayInterval, 1);
+    }
+
+    /**
+     * @param subBucketBits log2 of the buckets per power of two
+     * @param decayInterval samples after which all counts are halved, 0 to keep every sample
+     * @param stripes number of stripes, rounded up to a power of two
+     */
+    public LatencyHistogram(int subBucketBits, long decayInterval, int stripes) {
+        this.subBucketBits = subBucketBits;
+        this.decayInterval = decayInterval;
+        this.bucketCount = Long.SIZE << subBucketBits;
+        this.stripeMask = Integer.highestOneBit(Math.max(1, stripes) * 2 - 1) - 1;
+        this.counts = new AtomicLongArray((stripeMask + 1) * bucketCount);
+    }
+
+    public void record(long nanos) {
+        int stripe = (int) Thread.currentThread().threadId() & stripeMask;
+
+        counts.incrementAndGet(stripe * bucketCount + bucket(Math.max(1, nanos), subBucketBits));
+
+        // Exactly one thread halves the counts, concurrent samples may be halved or not
+        if (decayInterval > 0 && recorded.incrementAndGet() % decayInterval == 0) {
+            for (int i = 0; i < counts.length(); i++) {
+                counts.getAndUpdate(i, count -> count >>> 1);
+            }
+        }
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile
+     * (0-100] of the recent samples, or -1 if there are fewer than MIN_SAMPLES.
+     */
+    long percentile(double percentile) {
+        long[] snapshot = snapshot();
+        long total = 0;
+
+        for (long count : snapshot) {
+            total += count;
+        }
+
+        return total < MIN_SAMPLES ? -1 : percentile(snapshot, subBucketBits, percentile);
+    }
+
+    public int subBucketBits() {
+        return subBucketBits;
+    }
+
+    /**
+     * Copies the bucket counts, summed over the stripes. Samples recorded
+     * meanwhile may or may not be included.
+     */
+    public long[] snapshot() {
+        long[] snapshot = new long[bucketCount];
+
+        for (int i = 0; i < counts.length(); i++) {
+            snapshot[i % bucketCount] += counts.get(i);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile
+     * (0-100] of the counts of a snapshot, or 0 if it is empty.
+     */
+    public static long percentile(long[] snapshot, int subBucketBits, double percentile) {
+        long total = 0;
+
+        for (long count : snapshot) {
+            total += count;
+        }
+
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+
+            if (seen >= rank) {
+                return upperBound(i, subBucketBits);
+            }
+        }
+
+        return upperBound(snapshot.length - 1, subBucketBits);
+    }
+
+    static int bucket(long value) {
+        return bucket(value, DEFAULT_SUB_BUCKET_BITS);
+    }
+
+    static long upperBound(int bucket) {
+        return upperBound(bucket, DEFAULT_SUB_BUCKET_BITS);
+    }
+
+    /**
+     * Returns the bucket of a positive value: the power of two it falls in
+     * and which of its sub-buckets.
+     */
+    public static int bucket(long value, int subBucketBits) {
+        int log = 63 - Long.numberOfLeadingZeros(value);
+
+        if (log < subBucketBits) {
+            return (int) value;
+        }
+
+        int sub = (int) (value >>> (log - subBucketBits)) & ((1 << subBucketBits) - 1);
+
+        return (log << subBucketBits) + sub;
+    }
+
+    /**
+     * Returns the largest value falling into the bucket.
+     */
+    public static long upperBound(int bucket, int subBucketBits) {
+        int log = bucket >>> subBucketBits;
+
+        if (log < subBucketBits) {
+            return bucket;
+        }
+
+        long sub = bucket & ((1 << subBucketBits) - 1);
+        long lower = ((1L << subBucketBits) + sub) << (log - subBucketBits);
+
+        return lower + (1L << (log - subBucketBits)) - 1;
+    }
+}
@@ -0,0 +1,176 @@
+package com.mehyaa.cacheclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Maglev hashing: every node fills a fixed size, prime length lookup table
+ * following its own permutation, so a key is resolved with a single table
+ * access and nodes end up with almost exactly equal shares of the table.
+ */
+public class MaglevHash implements NodeSelector {
+    // Prime table size; should be well above 100 times the number of nodes
+    static final int TABLE_SIZE = 65537;
+
+    // Volatile reference to an immutable table. Readers access this without locking.
+    private volatile Table table;
+
+    public MaglevHash(List<String> nodes) {
+        table = Table.build(nodes == null ? Set.of() : new HashSet<>(nodes), 0);
+    }
+
+    /**
+     * Adds a node by rebuilding the lookup table and atomically publishing it.
+     */
+    @Override
+    public synchronized void add(String node) {
+        Set<String> newNodes = new HashSet<>(Arrays.asList(table.nodes));
+
+        if (newNodes.add(node)) {
+            applyTopology(newNodes);
+        }
+    }
+
+    /**
+     * Removes a node by rebuilding the lookup table and atomically publishing it.
+     */
+    @Override
+    public synchronized void remove(String node) {
+        Set<String> newNodes = new HashSet<>(Arrays.asList(table.nodes));
+
+        if (newNodes.remove(node)) {
+            applyTopology(newNodes);
+        }
+    }
+
+    /**
+     * Rebuilds the lookup table once for the given node set and atomically
+     * publishes it.
+     */
+    @Override
+    public synchronized long applyTopology(Set<String> nodes) {
+        Table newTable = Table.build(nodes, table.epoch + 1);
+
+        table = newTable;
+
+        return newTable.epoch;
+    }
+
+    @Override
+    public long epoch() {
+        return table.epoch;
+    }
+
+    /**
+     * Lock-free and allocation-free O(1) lookup.
+     */
+    @Override
+    public String get(String key) {
+        Table current = table;
+
+        if (current.nodes.length == 0) {
+            return null;
+        }
+
+        int slot = (int) Long.remainderUnsigned(MurmurHash3.hash64(key), TABLE_SIZE);
+
+        return current.nodes[current.entries[slot]];
+    }
+
+    /**
+     * Returns the owner of the key followed by the owners of the next slots
+     * that belong to other nodes. Permutations interleave the nodes, so only
+     * a few slots are visited. These only serve as fallbacks for reads while
+     * the owner's circuit is open: the next one is not who owns the key once
+     * the owner left, so keys are never replicated with Maglev.
+     */
+    @Override
+    public List<String> getReplicas(String key, int count) {
+        Table current = table;
+        int wanted = Math.min(count, current.nodes.length);
+        List<String> replicas = new ArrayList<>(wanted);
+
+        if (wanted == 0) {
+            return replicas;
+        }
+
+        int slot = (int) Long.remainderUnsigned(MurmurHash3.hash64(key), TABLE_SIZE);
+
+        for (int i = 0; i < TABLE_SIZE && replicas.size() < wanted; i++) {
+            String node = current.nodes[current.entries[(slot + i) % TABLE_SIZE]];
+
+            if (!replicas.contains(node)) {
+                replicas.add(node);
+            }
+        }
+
+        return replicas;
+    }
+
+    /**
+     * Immutable lookup table holding, for each slot, the index of the owning node.
+     */
+    private static final class Table {
+        final String[] nodes;
+        final int[] entries;
+        final long epoch;
+
+        private Table(String[] nodes, int[] entries, long epoch) {
+            this.nodes = nodes;
+            this.entries = entries;
+            this.epoch = epoch;
+        }
+
+        /**
+         * Populates the table as described in the Maglev paper: nodes take turns
+         * claiming the next free slot of their permutation until the table is full.
+         * Nodes are sorted so every client builds the same table.
+         */
+        static Table build(Set<String> nodeSet, long epoch) {
+            String[] nodes = nodeSet.toArray(new String[0]);
+            Arrays.sort(nodes);
+
+            int[] entries = new int[TABLE_SIZE];
+
+            if (nodes.length == 0) {
+                return new Table(nodes, entries, epoch);
+            }
+
+            long[] offsets = new long[nodes.length];
+            long[] skips = new long[nodes.length];
+            long[] next = new long[nodes.length];
+
+            for (int n = 0; n < nodes.length; n++) {
+                long hash = MurmurHash3.hash64(nodes[n]);
+
+                offsets[n] = Long.remainderUnsigned(hash, TABLE_SIZE);
+                skips[n] = Long.remainderUnsigned(MurmurHash3.fmix64(hash ^ 0x9e3779b97f4a7c15L), TABLE_SIZE - 1) + 1;
+            }
+
+            Arrays.fill(entries, -1);
+
+            int filled = 0;
+
+            while (true) {
+                for (int n = 0; n < nodes.length; n++) {
+                    long candidate = (offsets[n] + next[n] * skips[n]) % TABLE_SIZE;
+
+                    while (entries[(int) candidate] >= 0) {
+                        next[n]++;
+                        candidate = (offsets[n] + next[n] * skips[n]) % TABLE_SIZE;
+                    }
+
+                    entries[(int) candidate] = n;
+                    next[n]++;
+
+                    if (++filled == TABLE_SIZE) {
+                        return new Table(nodes, entries, epoch);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.mehyaa.cacheclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Transport recording the latency and outcome of every request to a node
+ * in {@link RequestMetrics}, for transports that can't {@link
+ * Transport#reportTo report} them. Synchronous calls are timed in place,
+ * without allocating; asynchronous ones add a completion stage to their
+ * future.
+ */
+final class MeteredTransport implements Transport {
+    private final Transport delegate;
+    private final RequestMetrics metrics;
+
+    MeteredTransport(Transport delegate, RequestMetrics metrics) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public byte[] get(String node, String key) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try {
+            byte[] value = delegate.get(node, key);
+            failed = false;
+
+            return value;
+        } finally {
+            metrics.recordNode(node, CacheOperation.GET, System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getAsync(String node, String key) {
+        return timed(node, CacheOperation.GET, System.nanoTime(), delegate.getAsync(node, key));
+    }
+
+    @Override
+    public void put(String node, String key, ByteBuffer value, Duration ttl) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try {
+            delegate.put(node, key, value, ttl);
+            failed = false;
+        } finally {
+            metrics.recordNode(node, CacheOperation.PUT, System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String node, String key, ByteBuffer value, Duration ttl) {
+        return timed(node, CacheOperation.PUT, System.nanoTime(), delegate.putAsync(node, key, value, ttl));
+    }
+
+    @Override
+    public void delete(String node, String key) throws IOException {
+        long start = System.nanoTime();
+        boolean failed = true;
+
+        try {
+            delegate.delete(node, key);
+            failed = false;
+        } finally {
+            metrics.recordNode(node, CacheOperation.DELETE, System.nanoTime() - start, failed);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String node, String key) {
+        return timed(node, CacheOperation.DELETE, System.nanoTime(), delegate.deleteAsync(node, key));
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> getAllAsync(String node, List<String> keys) {
+        return timed(node, CacheOperation.GET_ALL, System.nanoTime(), delegate.getAllAsync(node, keys));
+    }
+
+    @Override
+    public CompletableFuture<Void> putAllAsync(String node, List<Map.Entry<String, byte[]>> entries) {
+        return timed(node, CacheOperation.PUT_ALL, System.nanoTime(), delegate.putAllAsync(node, entries));
+    }
+
+    @Override
+    public void retainNodes(Set<String> nodes) {
+        delegate.retainNodes(nodes);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /**
+     * Records the outcome on the delegate's own future, which is returned so
+     * cancelling it still cancels the underlying request.
+     */
+    private <T> CompletableFuture<T> timed(String node, CacheOperation operation, long start,
+            CompletableFuture<T> future) {
+        future.whenComplete((result, error) ->
+                metrics.recordNode(node, operation, System.nanoTime() - start, error != null));
+
+        return future;
+    }
+}
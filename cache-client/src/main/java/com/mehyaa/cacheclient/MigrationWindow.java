@@ -0,0 +1,51 @@
+package com.mehyaa.cacheclient;
+
+import java.time.Duration;
+import java.util.Set;
+
+/**
+ * Placement of keys before a topology change, kept for a while after it.
+ * The servers move remapped entries to their new owners in the background,
+ * until then a key missing on its new replicas may still be on its previous
+ * owner.
+ */
+final class MigrationWindow {
+    private final NodeSelector previous;
+    private final Set<String> nodes;
+    private final long expiresAtNanos;
+
+    /**
+     * Creates a window over the given previous placement, the nodes being
+     * the ones known after the change.
+     */
+    MigrationWindow(NodeSelector previous, Set<String> nodes, Duration duration) {
+        this.previous = previous;
+        this.nodes = nodes;
+        this.expiresAtNanos = System.nanoTime() + duration.toNanos();
+    }
+
+    /**
+     * Returns the placement before the change.
+     */
+    NodeSelector previous() {
+        return previous;
+    }
+
+    boolean isOpen() {
+        return System.nanoTime() - expiresAtNanos < 0;
+    }
+
+    /**
+     * Returns the node that owned the key before the change, or null if the
+     * window is closed or the node left.
+     */
+    String previousOwner(String key) {
+        if (!isOpen()) {
+            return null;
+        }
+
+        String owner = previous.get(key);
+
+        return owner != null && nodes.contains(owner) ? owner : null;
+    }
+}
@@ -0,0 +1,147 @@
+package com.mehyaa.cacheclient;
+
+/**
+ * Allocation-free MurmurHash3 (x64, 128-bit variant). Strings are encoded to
+ * UTF-8 on the fly, so the result equals hashing {@code getBytes(UTF_8)} while
+ * no intermediate byte array is ever created. Only the lower 64 bits are returned.
+ */
+final class MurmurHash3 {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private MurmurHash3() {
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of the given sequence.
+     */
+    static long hash64(CharSequence data) {
+        final int length = data.length();
+
+        long h1 = 0;
+        long h2 = 0;
+
+        // Current 16-byte block, filled little-endian
+        long k1 = 0;
+        long k2 = 0;
+        int position = 0;
+        long byteLength = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = data.charAt(i);
+
+            // Encode one code point into up to 4 bytes packed little-endian
+            int encoded;
+            int count;
+
+            if (c < 0x80) {
+                encoded = c;
+                count = 1;
+            } else if (c < 0x800) {
+                encoded = (0xC0 | (c >>> 6))
+                        | (0x80 | (c & 0x3F)) << 8;
+                count = 2;
+            } else if (Character.isSurrogate(c)) {
+                char low = i + 1 < length ? data.charAt(i + 1) : 0;
+
+                if (Character.isHighSurrogate(c) && Character.isLowSurrogate(low)) {
+                    int codePoint = Character.toCodePoint(c, low);
+                    encoded = (0xF0 | (codePoint >>> 18))
+                            | (0x80 | ((codePoint >>> 12) & 0x3F)) << 8
+                            | (0x80 | ((codePoint >>> 6) & 0x3F)) << 16
+                            | (0x80 | (codePoint & 0x3F)) << 24;
+                    count = 4;
+                    i++;
+                } else {
+                    // Malformed surrogate, String.getBytes replaces it with '?'
+                    encoded = '?';
+                    count = 1;
+                }
+            } else {
+                encoded = (0xE0 | (c >>> 12))
+                        | (0x80 | ((c >>> 6) & 0x3F)) << 8
+                        | (0x80 | (c & 0x3F)) << 16;
+                count = 3;
+            }
+
+            byteLength += count;
+
+            for (int b = 0; b < count; b++) {
+                long value = (encoded >>> (b << 3)) & 0xFFL;
+
+                if (position < 8) {
+                    k1 |= value << (position << 3);
+                } else {
+                    k2 |= value << ((position - 8) << 3);
+                }
+
+                if (++position == 16) {
+                    h1 ^= mixK1(k1);
+                    h1 = Long.rotateLeft(h1, 27);
+                    h1 += h2;
+                    h1 = h1 * 5 + 0x52dce729;
+
+                    h2 ^= mixK2(k2);
+                    h2 = Long.rotateLeft(h2, 31);
+                    h2 += h1;
+                    h2 = h2 * 5 + 0x38495ab5;
+
+                    k1 = 0;
+                    k2 = 0;
+                    position = 0;
+                }
+            }
+        }
+
+        // Tail: the partially filled block
+        if (position > 8) {
+            h2 ^= mixK2(k2);
+        }
+
+        if (position > 0) {
+            h1 ^= mixK1(k1);
+        }
+
+        h1 ^= byteLength;
+        h2 ^= byteLength;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+
+        h1 += h2;
+
+        return h1;
+    }
+
+    /**
+     * MurmurHash3 64-bit finalizer; a cheap, well-distributed bit mixer.
+     */
+    static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+
+        return k;
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        k1 *= C2;
+
+        return k1;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        k2 *= C1;
+
+        return k2;
+    }
+}
@@ -0,0 +1,149 @@
+package com.mehyaa.cacheclient;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process (L1) cache in front of the cache servers, bounded by both entry
+ * count and total value bytes. Admission and eviction use Caffeine's
+ * W-TinyLFU policy and every entry carries its own time-to-live.
+ */
+final class NearCache {
+    // Rough per entry overhead of the key, the entry holder and the cache node
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final Cache<String, Entry> cache;
+    private final Duration defaultTtl;
+
+    // Bumped by every invalidation, see {@link #invalidationStamp()}
+    private final AtomicLong invalidations = new AtomicLong();
+
+    NearCache(long maxEntries, long maxBytes, Duration defaultTtl) {
+        this(maxEntries, maxBytes, defaultTtl, Ticker.systemTicker());
+    }
+
+    NearCache(long maxEntries, long maxBytes, Duration defaultTtl, Ticker ticker) {
+        this.defaultTtl = defaultTtl;
+
+        // Caffeine bounds by a single weight. Every entry weighs at least its
+        // fair share of the byte budget, so the entry count stays bounded too.
+        final int minWeight = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / Math.max(1, maxEntries)));
+
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, Entry entry) -> Math.max(minWeight, entry.weight))
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String key, Entry entry, long currentTime) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Entry entry, long currentTime, long currentDuration) {
+                        return entry.ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Entry entry, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .ticker(ticker)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * Returns the cached value, or null on a miss. The array is shared and
+     * must not be modified.
+     */
+    byte[] get(String key) {
+        Entry entry = cache.getIfPresent(key);
+
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Returns a stamp to be taken before loading a value from a server and
+     * handed to {@link #put(String, String, long)} afterwards, so that a load
+     * racing with a local write or delete never caches the stale value.
+     */
+    long invalidationStamp() {
+        return invalidations.get();
+    }
+
+    /**
+     * Caches a loaded value with the default time-to-live, unless an
+     * invalidation happened since the stamp was taken.
+     */
+    void put(String key, byte[] value, long stamp) {
+        put(key, value, defaultTtl, stamp);
+    }
+
+    /**
+     * Caches a loaded value with the given time-to-live, capped by the default
+     * one, unless an invalidation happened since the stamp was taken.
+     */
+    void put(String key, byte[] value, Duration ttl, long stamp) {
+        if (value == null) {
+            return;
+        }
+
+        Duration effectiveTtl = ttl.compareTo(defaultTtl) < 0 ? ttl : defaultTtl;
+
+        if (effectiveTtl.isZero() || effectiveTtl.isNegative()) {
+            return;
+        }
+
+        Entry entry = new Entry(value, effectiveTtl.toNanos());
+
+        if (invalidations.get() == stamp) {
+            cache.put(key, entry);
+
+            // Re-check, an invalidation may have slipped in between
+            if (invalidations.get() != stamp) {
+                cache.asMap().remove(key, entry);
+            }
+        }
+    }
+
+    void invalidate(String key) {
+        invalidations.incrementAndGet();
+        cache.invalidate(key);
+    }
+
+    /**
+     * Runs pending eviction and expiration work right away.
+     */
+    void cleanUp() {
+        cache.cleanUp();
+    }
+
+    NearCacheStats stats() {
+        CacheStats stats = cache.stats();
+
+        return new NearCacheStats(stats.hitCount(), stats.missCount(), stats.evictionCount(),
+                cache.estimatedSize());
+    }
+
+    /**
+     * Cached value with its time-to-live and estimated weight in bytes.
+     */
+    private static final class Entry {
+        final byte[] value;
+        final long ttlNanos;
+        final int weight;
+
+        Entry(byte[] value, long ttlNanos) {
+            this.value = value;
+            this.ttlNanos = ttlNanos;
+            this.weight = (int) Math.min(Integer.MAX_VALUE, (long) value.length + ENTRY_OVERHEAD_BYTES);
+        }
+    }
+}
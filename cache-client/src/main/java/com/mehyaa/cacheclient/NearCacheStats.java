@@ -0,0 +1,61 @@
+package com.mehyaa.cacheclient;
+
+/**
+ * Point-in-time statistics of the client-side near cache.
+ */
+public final class NearCacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final long size;
+
+    NearCacheStats(long hitCount, long missCount, long evictionCount, long size) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.size = size;
+    }
+
+    /**
+     * Number of reads served locally, i.e. network round trips saved.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Number of reads that had to go to a cache server.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Fraction of reads served locally, 1.0 when there were no reads yet.
+     */
+    public double getHitRate() {
+        long requests = hitCount + missCount;
+
+        return requests == 0 ? 1.0 : (double) hitCount / requests;
+    }
+
+    /**
+     * Number of entries evicted because of the size bounds.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Approximate number of entries currently held.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("NearCacheStats{hits=%d, misses=%d, hitRate=%.4f, evictions=%d, size=%d}",
+                hitCount, missCount, getHitRate(), evictionCount, size);
+    }
+}
@@ -0,0 +1,48 @@
+package com.mehyaa.cacheclient;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Maps keys to cache nodes. Implementations publish immutable snapshots so
+ * that {@link #get(String)} is lock-free, while topology changes are
+ * serialized by the implementation.
+ */
+public interface NodeSelector {
+    /**
+     * Returns the node owning the given key, or null if there are no nodes.
+     */
+    String get(String key);
+
+    /**
+     * Returns up to count distinct nodes for the given key, the owner
+     * returned by {@link #get(String)} first, the others in an order every
+     * client agrees on for the same node set. Returns an empty list if there
+     * are no nodes.
+     */
+    List<String> getReplicas(String key, int count);
+
+    /**
+     * Adds a node to the selector.
+     */
+    void add(String node);
+
+    /**
+     * Removes a node from the selector.
+     */
+    void remove(String node);
+
+    /**
+     * Replaces the whole node set, building and publishing exactly one new
+     * snapshot regardless of how many nodes changed.
+     *
+     * @return the epoch of the published snapshot
+     */
+    long applyTopology(Set<String> nodes);
+
+    /**
+     * Returns the epoch of the current snapshot. It starts at zero and is
+     * incremented on every published topology change.
+     */
+    long epoch();
+}
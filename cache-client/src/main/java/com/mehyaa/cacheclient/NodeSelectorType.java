@@ -0,0 +1,103 @@
+package com.mehyaa.cacheclient;
+
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Available key-to-node selection strategies.
+ */
+public enum NodeSelectorType {
+    /**
+     * Consistent hash ring with virtual nodes, O(log n) lookup.
+     */
+    RING {
+        @Override
+        public NodeSelector create(List<String> nodes) {
+            return new ConsistentHash(nodes);
+        }
+    },
+
+    /**
+     * Maglev hashing with a fixed size lookup table, O(1) lookup. Keys are
+     * not replicated, see {@link #checkReplicationFactor(int)}.
+     */
+    MAGLEV {
+        @Override
+        public NodeSelector create(List<String> nodes) {
+            return new MaglevHash(nodes);
+        }
+
+        /**
+         * The slots of a node that left are refilled by rebuilding the table
+         * from every node's permutation, so no replica order chosen beforehand
+         * names their new owners. Reads would fall back to nodes that never got
+         * the copy, and rebalancing would move keys to nodes other than the ones
+         * clients read them from.
+         */
+        @Override
+        public void checkReplicationFactor(int replicationFactor) {
+            if (replicationFactor > 1) {
+                throw new IllegalArgumentException("The maglev node selector doesn't support a replication factor"
+                        + " above 1, use ring, jump or rendezvous: " + replicationFactor);
+            }
+        }
+    },
+
+    /**
+     * Jump consistent hash into fixed slots owned by rendezvous hashing,
+     * O(1) lookup with a small table.
+     */
+    JUMP {
+        @Override
+        public NodeSelector create(List<String> nodes) {
+            return new JumpHash(nodes);
+        }
+    },
+
+    /**
+     * Rendezvous (highest random weight) hashing, O(n) lookup.
+     */
+    RENDEZVOUS {
+        @Override
+        public NodeSelector create(List<String> nodes) {
+            return new RendezvousHash(nodes);
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(NodeSelectorType.class);
+
+    /**
+     * Creates a new selector of this type for the given nodes.
+     */
+    public abstract NodeSelector create(List<String> nodes);
+
+    /**
+     * Rejects a replication factor the strategy can't place replicas for:
+     * the next replica of a key must own it once the owner left.
+     */
+    public void checkReplicationFactor(int replicationFactor) {
+    }
+
+    /**
+     * Reads the strategy from application variables (system property
+     * 'cache.client.nodeSelector' or env 'CACHE_NODE_SELECTOR') or falls back to RING.
+     */
+    public static NodeSelectorType fromConfig() {
+        String value = ClientConfig.getString("cache.client.nodeSelector", "CACHE_NODE_SELECTOR", null);
+
+        if (value == null) {
+            return RING;
+        }
+
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown node selector {}. Using default {}", value, RING);
+
+            return RING;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.mehyaa.cacheclient;
+
+/**
+ * Point-in-time statistics of one operation: call counts and a latency
+ * histogram with buckets within 1/16 of their values.
+ */
+public final class OperationStats {
+    private final long count;
+    private final long errorCount;
+    private final long totalNanos;
+    private final long maxNanos;
+    private final long[] histogram;
+    private final int subBucketBits;
+
+    OperationStats(long count, long errorCount, long totalNanos, long maxNanos, long[] histogram, int subBucketBits) {
+        this.count = count;
+        this.errorCount = errorCount;
+        this.totalNanos = totalNanos;
+        this.maxNanos = maxNanos;
+        this.histogram = histogram;
+        this.subBucketBits = subBucketBits;
+    }
+
+    /**
+     * Number of completed calls, failed ones included.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Number of calls that failed.
+     */
+    public long getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Fraction of calls that failed, 0.0 when there were no calls yet.
+     */
+    public double getErrorRate() {
+        return count == 0 ? 0.0 : (double) errorCount / count;
+    }
+
+    /**
+     * Time spent in all calls.
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * Mean latency, 0.0 when there were no calls yet.
+     */
+    public double getMeanNanos() {
+        return count == 0 ? 0.0 : (double) totalNanos / count;
+    }
+
+    /**
+     * Highest latency seen.
+     */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Returns the latency below which the given percentile (0-100] of the
+     * calls completed, rounded up to its histogram bucket, or 0 when there
+     * were no calls yet.
+     */
+    public long getPercentileNanos(double percentile) {
+        return Math.min(maxNanos, LatencyHistogram.percentile(histogram, subBucketBits, percentile));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("OperationStats{count=%d, errors=%d, meanNanos=%.0f, p50=%d, p99=%d, p999=%d, "
+                + "max=%d}", count, errorCount, getMeanNanos(), getPercentileNanos(50), getPercentileNanos(99),
+                getPercentileNanos(99.9), maxNanos);
+    }
+}
@@ -0,0 +1,166 @@
+package com.mehyaa.cacheclient;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hedges reads of replicated keys: when the owner has not answered within
+ * its recent latency percentile, a backup request goes to the next replica
+ * and whichever answers first wins. The slower request is not cancelled, so
+ * its connection stays usable, but cancelling the read cancels both. Backups
+ * are capped by a token bucket so a slow cluster can't get its read load
+ * multiplied.
+ */
+final class ReadHedger {
+    // Hedges that may be sent in a row before the budget applies
+    private static final int BURST = 10;
+
+    private final Transport transport;
+    private final double percentile;
+    private final TokenBucket budget;
+
+    private final Map<String, LatencyHistogram> latencies = new ConcurrentHashMap<>();
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder wins = new LongAdder();
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * @param percentile latency percentile of the owner after which a backup is sent
+     * @param maxRatio   maximum fraction of reads that may be hedged
+     */
+    ReadHedger(Transport transport, double percentile, double maxRatio) {
+        this.transport = transport;
+        this.percentile = percentile;
+        this.budget = new TokenBucket(maxRatio, BURST);
+    }
+
+    /**
+     * Gets the value from the first of at least two replicas, hedging to the
+     * second one. Like unhedged reads, failures move on to the next replica.
+     */
+    CompletableFuture<byte[]> get(List<String> replicas, String key) {
+        reads.increment();
+        budget.deposit();
+
+        String owner = replicas.get(0);
+        RequestGroup requests = new RequestGroup();
+        CompletableFuture<byte[]> result = requests.cancelledWith(new CompletableFuture<>());
+        CompletableFuture<byte[]> primary = timedGet(owner, key, requests);
+        AtomicBoolean backupStarted = new AtomicBoolean();
+        AtomicReference<CompletableFuture<byte[]>> backup = new AtomicReference<>();
+
+        primary.whenComplete((value, error) -> {
+            if (error == null) {
+                result.complete(value);
+            } else if (!requests.isCancelled() && backupStarted.compareAndSet(false, true)) {
+                sendBackup(replicas, key, primary, backup, result, requests, false);
+            } else {
+                CompletableFuture<byte[]> hedge = backup.get();
+
+                // A hedge still in flight completes the result itself
+                if (hedge != null && hedge.isCompletedExceptionally()) {
+                    result.completeExceptionally(error);
+                }
+            }
+        });
+
+        LatencyHistogram histogram = latencies.get(owner);
+        long delay = histogram == null ? -1 : histogram.percentile(percentile);
+
+        // Without enough samples there is no telling what slow means yet
+        if (delay >= 0 && !primary.isDone()) {
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(() -> {
+                if (primary.isDone() || backupStarted.get()) {
+                    return;
+                }
+
+                if (!budget.tryAcquire()) {
+                    throttled.increment();
+                    return;
+                }
+
+                if (backupStarted.compareAndSet(false, true)) {
+                    hedges.increment();
+                    sendBackup(replicas, key, primary, backup, result, requests, true);
+                }
+            });
+        }
+
+        return result;
+    }
+
+    /**
+     * Drops the latencies of nodes that left.
+     */
+    void retainNodes(Set<String> nodes) {
+        latencies.keySet().retainAll(nodes);
+    }
+
+    HedgeStats stats() {
+        return new HedgeStats(reads.sum(), hedges.sum(), wins.sum(), throttled.sum());
+    }
+
+    private void sendBackup(List<String> replicas, String key, CompletableFuture<byte[]> primary,
+            AtomicReference<CompletableFuture<byte[]>> backup, CompletableFuture<byte[]> result,
+            RequestGroup requests, boolean hedge) {
+        CompletableFuture<byte[]> future = fetch(replicas, 1, key, requests);
+
+        // Published before completion is handled, so a failing owner either sees it or is seen by it
+        backup.set(future);
+
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                // Counted before the value is handed out, so a caller reading the stats next sees the win
+                if (hedge && !result.isDone()) {
+                    wins.increment();
+                }
+
+                result.complete(value);
+            } else if (primary.isCompletedExceptionally()) {
+                result.completeExceptionally(error);
+            }
+        });
+    }
+
+    /**
+     * Gets the value from the replica at the index, failing over to the
+     * following ones unless the read was cancelled.
+     */
+    private CompletableFuture<byte[]> fetch(List<String> replicas, int index, String key, RequestGroup requests) {
+        CompletableFuture<byte[]> future = timedGet(replicas.get(index), key, requests);
+
+        if (index + 1 == replicas.size()) {
+            return future;
+        }
+
+        return future.exceptionallyCompose(error -> requests.isCancelled()
+                ? CompletableFuture.failedFuture(error)
+                : fetch(replicas, index + 1, key, requests));
+    }
+
+    /**
+     * Sends a GET, recording the latency of successful ones for the node.
+     * Returns the transport's own future, added to the read's requests.
+     */
+    private CompletableFuture<byte[]> timedGet(String node, String key, RequestGroup requests) {
+        long start = System.nanoTime();
+        CompletableFuture<byte[]> future = requests.add(transport.getAsync(node, key));
+
+        future.whenComplete((value, error) -> {
+            if (error == null) {
+                latencies.computeIfAbsent(node, n -> new LatencyHistogram()).record(System.nanoTime() - start);
+            }
+        });
+
+        return future;
+    }
+}
@@ -0,0 +1,158 @@
+package com.mehyaa.cacheclient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Rendezvous (highest random weight) hashing: each key goes to the node with
+ * the highest score for that key. Lookups cost one mix per node, which is
+ * cheap for the small clusters this client targets, and removing a node only
+ * moves the keys it owned.
+ */
+public class RendezvousHash implements NodeSelector {
+    // Volatile reference to an immutable node snapshot. Readers access this without locking.
+    private volatile Nodes nodes;
+
+    public RendezvousHash(List<String> nodes) {
+        this.nodes = Nodes.build(nodes == null ? Set.of() : new HashSet<>(nodes), 0);
+    }
+
+    /**
+     * Adds a node and atomically publishes the new snapshot.
+     */
+    @Override
+    public synchronized void add(String node) {
+        Set<String> newNodes = new HashSet<>(Arrays.asList(nodes.names));
+
+        if (newNodes.add(node)) {
+            applyTopology(newNodes);
+        }
+    }
+
+    /**
+     * Removes a node and atomically publishes the new snapshot.
+     */
+    @Override
+    public synchronized void remove(String node) {
+        Set<String> newNodes = new HashSet<>(Arrays.asList(nodes.names));
+
+        if (newNodes.remove(node)) {
+            applyTopology(newNodes);
+        }
+    }
+
+    /**
+     * Replaces the node set and atomically publishes a single new snapshot.
+     */
+    @Override
+    public synchronized long applyTopology(Set<String> newNodes) {
+        Nodes published = Nodes.build(newNodes, nodes.epoch + 1);
+
+        nodes = published;
+
+        return published.epoch;
+    }
+
+    @Override
+    public long epoch() {
+        return nodes.epoch;
+    }
+
+    /**
+     * Lock-free and allocation-free lookup.
+     */
+    @Override
+    public String get(String key) {
+        Nodes current = nodes;
+
+        if (current.names.length == 0) {
+            return null;
+        }
+
+        long keyHash = MurmurHash3.hash64(key);
+
+        int best = 0;
+        long bestScore = Long.MIN_VALUE;
+
+        for (int n = 0; n < current.hashes.length; n++) {
+            long score = MurmurHash3.fmix64(keyHash ^ current.hashes[n]);
+
+            if (score > bestScore) {
+                bestScore = score;
+                best = n;
+            }
+        }
+
+        return current.names[best];
+    }
+
+    /**
+     * Returns the nodes with the highest scores for the key, best first. The
+     * next node in line is the one that takes a key over when its owner leaves.
+     */
+    @Override
+    public List<String> getReplicas(String key, int count) {
+        Nodes current = nodes;
+        int wanted = Math.min(count, current.names.length);
+        List<String> replicas = new ArrayList<>(wanted);
+
+        if (wanted == 0) {
+            return replicas;
+        }
+
+        long keyHash = MurmurHash3.hash64(key);
+        long[] scores = new long[current.hashes.length];
+
+        for (int n = 0; n < scores.length; n++) {
+            scores[n] = MurmurHash3.fmix64(keyHash ^ current.hashes[n]);
+        }
+
+        // Selection of the best remaining node, clusters are small
+        boolean[] taken = new boolean[scores.length];
+
+        for (int r = 0; r < wanted; r++) {
+            int best = -1;
+
+            for (int n = 0; n < scores.length; n++) {
+                if (!taken[n] && (best < 0 || scores[n] > scores[best])) {
+                    best = n;
+                }
+            }
+
+            taken[best] = true;
+            replicas.add(current.names[best]);
+        }
+
+        return replicas;
+    }
+
+    /**
+     * Immutable, sorted node names with their precomputed hashes.
+     */
+    private static final class Nodes {
+        final String[] names;
+        final long[] hashes;
+        final long epoch;
+
+        private Nodes(String[] names, long[] hashes, long epoch) {
+            this.names = names;
+            this.hashes = hashes;
+            this.epoch = epoch;
+        }
+
+        static Nodes build(Set<String> nodeSet, long epoch) {
+            String[] names = nodeSet.toArray(new String[0]);
+            Arrays.sort(names);
+            long[] hashes = new long[names.length];
+
+            for (int n = 0; n < names.length; n++) {
+                hashes[n] = MurmurHash3.hash64(names[n]);
+            }
+
+            return new Nodes(names, hashes, epoch);
+        }
+    }
+}
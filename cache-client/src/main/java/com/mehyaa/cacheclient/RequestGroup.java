@@ -0,0 +1,60 @@
+package com.mehyaa.cacheclient;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Requests sent on behalf of one asynchronous call, cancelled together when
+ * the call's future is. Futures derived from a request with thenApply and
+ * the like don't pass cancellation back to it, so the call keeps its
+ * requests here instead. Requests added once the call was cancelled, like a
+ * failover to the next replica, are cancelled right away.
+ */
+final class RequestGroup {
+    private final Set<CompletableFuture<?>> pending = ConcurrentHashMap.newKeySet();
+
+    private volatile boolean cancelled;
+
+    /**
+     * Adds a request, or any future that cancels its own requests, and
+     * returns it.
+     */
+    <T> CompletableFuture<T> add(CompletableFuture<T> request) {
+        pending.add(request);
+        request.whenComplete((result, error) -> pending.remove(request));
+
+        // Checked after adding, so either this or cancel() sees the request
+        if (cancelled) {
+            request.cancel(false);
+        }
+
+        return request;
+    }
+
+    /**
+     * Returns the future of the call, cancelling the requests once it is
+     * cancelled.
+     */
+    <T> CompletableFuture<T> cancelledWith(CompletableFuture<T> call) {
+        call.whenComplete((result, error) -> {
+            if (call.isCancelled()) {
+                cancel();
+            }
+        });
+
+        return call;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void cancel() {
+        cancelled = true;
+
+        for (CompletableFuture<?> request : pending) {
+            request.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.mehyaa.cacheclient;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of the client's calls, per operation and
+ * per node and operation. Recording is lock-free and allocates nothing once
+ * a node has been seen: an atomic increment of a histogram bucket and a few
+ * striped counters. Snapshots copy the histograms and may miss calls
+ * recorded meanwhile.
+ */
+final class RequestMetrics {
+    // Sixteen buckets per power of two, percentiles within 6.25%, 8 KiB per histogram
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final CacheOperation[] OPERATIONS = CacheOperation.values();
+
+    private final Recorder[] operations = newRecorders();
+    private final Map<String, Recorder[]> nodes = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Records a call of one of the client's methods.
+     */
+    void record(CacheOperation operation, long nanos, boolean failed) {
+        operations[operation.ordinal()].record(nanos, failed);
+    }
+
+    /**
+     * Records the keys a read found and those it did not.
+     */
+    void recordReads(long found, long notFound) {
+        hits.add(found);
+        misses.add(notFound);
+    }
+
+    /**
+     * Records a request sent to a node.
+     */
+    void recordNode(String node, CacheOperation operation, long nanos, boolean failed) {
+        Recorder[] recorders = nodes.get(node);
+
+        if (recorders == null) {
+            recorders = nodes.computeIfAbsent(node, n -> newRecorders());
+        }
+
+        recorders[operation.ordinal()].record(nanos, failed);
+    }
+
+    /**
+     * Forgets the statistics of nodes that left.
+     */
+    void retainNodes(Set<String> current) {
+        nodes.keySet().retainAll(current);
+    }
+
+    RequestStats snapshot() {
+        Map<String, Map<CacheOperation, OperationStats>> nodeStats = new HashMap<>();
+
+        nodes.forEach((node, recorders) -> nodeStats.put(node, snapshot(recorders)));
+
+        return new RequestStats(snapshot(operations), Collections.unmodifiableMap(nodeStats), hits.sum(),
+                misses.sum());
+    }
+
+    private static Map<CacheOperation, OperationStats> snapshot(Recorder[] recorders) {
+        Map<CacheOperation, OperationStats> stats = new EnumMap<>(CacheOperation.class);
+
+        for (CacheOperation operation : OPERATIONS) {
+            stats.put(operation, recorders[operation.ordinal()].snapshot());
+        }
+
+        return Collections.unmodifiableMap(stats);
+    }
+
+    private static Recorder[] newRecorders() {
+        Recorder[] recorders = new Recorder[OPERATIONS.length];
+
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder();
+        }
+
+        return recorders;
+    }
+
+    /**
+     * Calls of one operation. The call count is the histogram's, so it
+     * matches the percentiles.
+     */
+    private static final class Recorder {
+        final LatencyHistogram latencies = new LatencyHistogram(SUB_BUCKET_BITS, 0);
+        final LongAdder errors = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, boolean failed) {
+            latencies.record(nanos);
+            totalNanos.add(nanos);
+
+            if (failed) {
+                errors.increment();
+            }
+
+            // Only contended while the maximum still grows
+            if (nanos > maxNanos.get()) {
+                maxNanos.accumulateAndGet(nanos, Math::max);
+            }
+        }
+
+        OperationStats snapshot() {
+            long[] histogram = latencies.snapshot();
+            long count = 0;
+
+            for (long bucket : histogram) {
+                count += bucket;
+            }
+
+            return new OperationStats(count, errors.sum(), totalNanos.sum(), maxNanos.get(), histogram,
+                    latencies.subBucketBits());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.mehyaa.cacheclient;
+
+import java.util.Map;
+
+/**
+ * Point-in-time statistics of the client's calls: per operation as seen by
+ * the caller, retries, replication and near cache hits included, and per
+ * node and operation for the requests actually sent.
+ */
+public final class RequestStats {
+    private final Map<CacheOperation, OperationStats> operations;
+    private final Map<String, Map<CacheOperation, OperationStats>> nodes;
+    private final long hitCount;
+    private final long missCount;
+
+    RequestStats(Map<CacheOperation, OperationStats> operations, Map<String, Map<CacheOperation, OperationStats>> nodes,
+            long hitCount, long missCount) {
+        this.operations = operations;
+        this.nodes = nodes;
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+    }
+
+    /**
+     * Statistics of the client's methods, by operation.
+     */
+    public Map<CacheOperation, OperationStats> getOperations() {
+        return operations;
+    }
+
+    /**
+     * Statistics of the requests sent to each known node, by operation. A
+     * node's statistics are dropped when it leaves the cluster. Requests
+     * rejected by an open circuit breaker never reach the node and are not
+     * counted.
+     */
+    public Map<String, Map<CacheOperation, OperationStats>> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * Number of keys read that were found, by single or batch reads.
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Number of keys read that were not found.
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Fraction of keys read that were found, 1.0 when there were no reads yet.
+     */
+    public double getHitRate() {
+        long reads = hitCount + missCount;
+
+        return reads == 0 ? 1.0 : (double) hitCount / reads;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RequestStats{hits=%d, misses=%d, hitRate=%.4f, operations=%s, nodes=%s}",
+                hitCount, missCount, getHitRate(), operations, nodes);
+    }
+}
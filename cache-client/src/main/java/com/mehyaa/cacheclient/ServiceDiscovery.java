@@ -1,64 +1,93 @@
 package com.mehyaa.cacheclient;
 
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.BiConsumer;
-import java.util.List;
 
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.framework.recipes.cache.ChildData;
 import org.apache.curator.framework.recipes.cache.CuratorCache;
 import org.apache.curator.framework.recipes.cache.CuratorCacheListener;
 import org.apache.curator.retry.ExponentialBackoffRetry;
-import org.apache.zookeeper.KeeperException;
+import org.apache.curator.utils.ZKPaths;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Simple service discovery that watches a ZooKeeper path for child nodes
  * containing host:port strings.
+ * <p>
+ * The node list is rebuilt from the local view of the CuratorCache, without
+ * reading ZooKeeper again. Bursts of events, like a rolling deploy, are
+ * coalesced: the first event schedules a rebuild after the debounce window
+ * and later events within it ride along. Readers always see a complete
+ * immutable snapshot.
  */
 public class ServiceDiscovery {
     public static final String SERVICE_PATH = "/cache/nodes";
 
     private static final Logger logger = LoggerFactory.getLogger(ServiceDiscovery.class);
 
-    private final CopyOnWriteArrayList<String> nodes = new CopyOnWriteArrayList<>();
+    private static final long INITIAL_LOAD_TIMEOUT_SECONDS = 15;
+
     private final CopyOnWriteArrayList<BiConsumer<List<String>, List<String>>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+    private final CountDownLatch initialized = new CountDownLatch(1);
 
     private final CuratorFramework zkClient;
     private final CuratorCache zkCache;
+    private final ScheduledExecutorService scheduler;
+    private final long debounceMillis;
 
+    private volatile List<String> nodes = List.of();
 
     public ServiceDiscovery() throws Exception {
+        debounceMillis = Math.max(0, ClientConfig.getLong("cache.client.discovery.debounceMillis",
+                "CACHE_DISCOVERY_DEBOUNCE_MILLIS", 100));
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "service-discovery");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+
         zkClient = CuratorFrameworkFactory.newClient(getZkConnectString(), new ExponentialBackoffRetry(1000, 3));
         zkClient.start();
 
         zkCache = CuratorCache.build(zkClient, SERVICE_PATH);
 
         CuratorCacheListener listener = CuratorCacheListener.builder()
-                .forAll((type, oldData, newData) -> {
-                    try {
-                        rebuildNodes();
-                    } catch (Exception e) {
-                        // swallow to avoid breaking the cache listener
-                        logger.warn("Error rebuilding nodes from CuratorCache event: {}", e.getMessage(), e);
-                    }
+                .forAll((type, oldData, newData) -> scheduleRebuild())
+                .forInitialized(() -> {
+                    rebuildNodes();
+                    initialized.countDown();
                 })
                 .build();
 
         zkCache.listenable().addListener(listener);
         zkCache.start();
 
-        rebuildNodes();
+        // Callers expect the registered nodes right away, not after the first event
+        if (!initialized.await(INITIAL_LOAD_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            logger.warn("Node list not loaded from ZooKeeper within {} seconds, starting without nodes",
+                    INITIAL_LOAD_TIMEOUT_SECONDS);
+        }
     }
 
     /**
-     * Returns a snapshot of currently known nodes.
+     * Returns an immutable snapshot of currently known nodes.
      */
     public List<String> getNodes() {
-        return new ArrayList<>(nodes);
+        return nodes;
     }
 
     /**
@@ -74,6 +103,7 @@ public class ServiceDiscovery {
      * Closes the service discovery and releases resources.
      */
     public void close() throws Exception {
+        scheduler.shutdownNow();
         zkCache.close();
         zkClient.close();
     }
@@ -107,38 +137,54 @@ public class ServiceDiscovery {
     }
 
     /**
-     * Rebuilds the internal node list from ZooKeeper and notifies listeners.
+     * Schedules a rebuild after the debounce window unless one is pending.
      */
-    private void rebuildNodes() {
-        List<String> newNodes = new ArrayList<>();
+    private void scheduleRebuild() {
+        if (!rebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
 
         try {
-            List<String> children = zkClient.getChildren().forPath(SERVICE_PATH);
+            scheduler.schedule(() -> {
+                // Cleared before reading, so events during the rebuild schedule another one
+                rebuildScheduled.set(false);
+                rebuildNodes();
+            }, debounceMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // closed
+        }
+    }
 
-            for (String child : children) {
-                byte[] data = zkClient.getData().forPath(SERVICE_PATH + "/" + child);
+    /**
+     * Rebuilds the node list from the CuratorCache and notifies listeners if
+     * it changed. Runs on the scheduler thread or, for the initial load, on
+     * the cache's event thread, so rebuilds never overlap.
+     */
+    private synchronized void rebuildNodes() {
+        List<String> newNodes;
 
-                if (data != null && data.length > 0) {
-                    newNodes.add(new String(data, StandardCharsets.UTF_8));
-                }
-            }
-        } catch (KeeperException.NoNodeException ignored) {
-            // The service path doesn't exist yet; treat as no nodes registered.
+        try {
+            newNodes = zkCache.stream()
+                    .filter(data -> SERVICE_PATH.equals(ZKPaths.getPathAndNode(data.getPath()).getPath()))
+                    .map(ChildData::getData)
+                    .filter(data -> data != null && data.length > 0)
+                    .map(data -> new String(data, StandardCharsets.UTF_8))
+                    .sorted()
+                    .toList();
         } catch (Exception e) {
-            // For other errors, log and propagate as a runtime exception so callers
-            // aware of severe failures. Listener callbacks already guard against
-            // exceptions.
-            throw new RuntimeException(e);
+            // swallow to keep the current snapshot and the scheduler running
+            logger.warn("Error rebuilding nodes from CuratorCache: {}", e.getMessage(), e);
+            return;
         }
 
-        List<String> oldNodes = new ArrayList<>(nodes);
+        List<String> oldNodes = nodes;
 
-        nodes.clear();
-
-        if (!newNodes.isEmpty()) {
-            nodes.addAll(newNodes);
+        if (newNodes.equals(oldNodes)) {
+            return;
         }
 
+        nodes = newNodes;
+
         for (BiConsumer<List<String>, List<String>> listener : listeners) {
             try {
                 listener.accept(oldNodes, newNodes);
@@ -148,4 +194,4 @@ public class ServiceDiscovery {
             }
         }
     }
-}
\ No newline at end of file
+}
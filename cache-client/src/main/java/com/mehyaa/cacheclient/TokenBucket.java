@@ -0,0 +1,49 @@
+package com.mehyaa.cacheclient;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket refilled by events instead of time: every deposit
+ * adds a fraction of a token, so no more than that fraction of the events
+ * can take one, apart from an initial burst.
+ */
+final class TokenBucket {
+    // Tokens are counted in thousandths
+    private static final long UNIT = 1000;
+
+    private final long deposit;
+    private final long capacity;
+    private final AtomicLong balance;
+
+    TokenBucket(double ratio, int burst) {
+        deposit = Math.round(ratio * UNIT);
+        capacity = burst * UNIT;
+        balance = new AtomicLong(capacity);
+    }
+
+    void deposit() {
+        long current;
+
+        do {
+            current = balance.get();
+
+            if (current >= capacity) {
+                return;
+            }
+        } while (!balance.compareAndSet(current, Math.min(capacity, current + deposit)));
+    }
+
+    boolean tryAcquire() {
+        long current;
+
+        do {
+            current = balance.get();
+
+            if (current < UNIT) {
+                return false;
+            }
+        } while (!balance.compareAndSet(current, current - UNIT));
+
+        return true;
+    }
+}
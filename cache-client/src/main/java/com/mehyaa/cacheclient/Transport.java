@@ -0,0 +1,88 @@
+package com.mehyaa.cacheclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Sends cache operations to a given node. Values are opaque, already encoded
+ * bytes. Asynchronous operations complete exceptionally with an IOException
+ * and cancelling them cancels the underlying request where possible.
+ */
+interface Transport extends AutoCloseable {
+    /**
+     * Returns the value of the key, or null if it's not found.
+     */
+    byte[] get(String node, String key) throws IOException;
+
+    CompletableFuture<byte[]> getAsync(String node, String key);
+
+    /**
+     * Stores the remaining bytes of the buffer, without changing its position.
+     * The time-to-live is optional, null means the value does not expire.
+     */
+    void put(String node, String key, ByteBuffer value, Duration ttl) throws IOException;
+
+    CompletableFuture<Void> putAsync(String node, String key, ByteBuffer value, Duration ttl);
+
+    void delete(String node, String key) throws IOException;
+
+    CompletableFuture<Void> deleteAsync(String node, String key);
+
+    /**
+     * Returns the values of the keys in order, null for keys not found.
+     */
+    CompletableFuture<List<byte[]>> getAllAsync(String node, List<String> keys);
+
+    CompletableFuture<Void> putAllAsync(String node, List<Map.Entry<String, byte[]>> entries);
+
+    /**
+     * Has the transport report the outcome of every request it sends to the
+     * listener, from the completion path it has anyway, and returns whether
+     * it does. By default it doesn't and callers time requests themselves,
+     * see {@link MeteredTransport}.
+     */
+    default boolean reportTo(RequestListener listener) {
+        return false;
+    }
+
+    /**
+     * Releases what the transport keeps for nodes that left, such as their
+     * connections. Called with the nodes of every new topology.
+     */
+    default void retainNodes(Set<String> nodes) {
+    }
+
+    @Override
+    void close();
+
+    /**
+     * Waits for the future, unwrapping the IOException it failed with.
+     */
+    static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Receives the latency and outcome of requests sent to nodes.
+     */
+    @FunctionalInterface
+    interface RequestListener {
+        void requestCompleted(String node, CacheOperation operation, long nanos, boolean failed);
+    }
+}
@@ -0,0 +1,69 @@
+package com.mehyaa.cacheclient;
+
+import java.time.Duration;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Available protocols to talk to the cache servers.
+ */
+public enum TransportType {
+    /**
+     * The HTTP API, one request per operation, over HTTP/1.1 or cleartext
+     * HTTP/2.
+     */
+    HTTP {
+        @Override
+        Transport create() {
+            boolean h2c = ClientConfig.getBoolean("cache.client.http.h2c", "CACHE_HTTP_H2C", false);
+            int maxRequests = ClientConfig.getInt("cache.client.http.maxRequests", "CACHE_HTTP_MAX_REQUESTS", 256);
+            int maxRequestsPerNode = ClientConfig.getInt("cache.client.http.maxRequestsPerNode",
+                    "CACHE_HTTP_MAX_REQUESTS_PER_NODE", 64);
+            int maxIdleConnections = ClientConfig.getInt("cache.client.http.maxIdleConnectionsPerNode",
+                    "CACHE_HTTP_MAX_IDLE_CONNECTIONS_PER_NODE", 32);
+            long keepAliveMillis = ClientConfig.getLong("cache.client.http.keepAliveMillis",
+                    "CACHE_HTTP_KEEP_ALIVE_MILLIS", 300_000);
+
+            return new HttpTransport(h2c, maxRequests, maxRequestsPerNode, maxIdleConnections,
+                    Duration.ofMillis(keepAliveMillis));
+        }
+    },
+
+    /**
+     * Length-prefixed binary frames pipelined over one connection per node.
+     */
+    BINARY {
+        @Override
+        Transport create() {
+            int portOffset = ClientConfig.getInt("cache.client.binaryPortOffset", "CACHE_BINARY_PORT_OFFSET", 1);
+
+            return new BinaryTransport(portOffset);
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(TransportType.class);
+
+    abstract Transport create();
+
+    /**
+     * Reads the transport from application variables (system property
+     * 'cache.client.transport' or env 'CACHE_TRANSPORT') or falls back to HTTP.
+     */
+    public static TransportType fromConfig() {
+        String value = ClientConfig.getString("cache.client.transport", "CACHE_TRANSPORT", null);
+
+        if (value == null) {
+            return HTTP;
+        }
+
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown transport {}. Using default {}", value, HTTP);
+
+            return HTTP;
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package com.mehyaa.cacheclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Exception;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4SafeDecompressor;
+
+/**
+ * Transparent LZ4 compression of values at or above a size threshold.
+ * <p>
+ * Compressed values are framed as [magic][codec][originalLength][payload],
+ * with a big-endian int length. The magic starts with a byte sequence that
+ * is never valid UTF-8, so values stored by older clients or smaller than
+ * the threshold are kept as they are and still decode correctly. The rare
+ * raw value that starts with the magic is framed with the NONE codec.
+ * Values that don't shrink are stored raw.
+ */
+final class ValueCodec {
+    private static final byte[] MAGIC = { (byte) 0xC0, (byte) 0xC1, 'Z' };
+    private static final byte CODEC_NONE = 0;
+    private static final byte CODEC_LZ4 = 1;
+
+    private static final int NONE_HEADER_LENGTH = MAGIC.length + 1;
+    private static final int LZ4_HEADER_LENGTH = NONE_HEADER_LENGTH + Integer.BYTES;
+
+    // LZ4 can't expand data more than 255 times, larger lengths are corrupt
+    private static final int MAX_RATIO = 255;
+
+    private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+    private final LZ4SafeDecompressor decompressor = LZ4Factory.fastestInstance().safeDecompressor();
+
+    private final boolean enabled;
+    private final int threshold;
+
+    private final LongAdder compressedCount = new LongAdder();
+    private final LongAdder skippedCount = new LongAdder();
+    private final LongAdder uncompressedBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressedCount = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    ValueCodec(boolean enabled, int threshold) {
+        this.enabled = enabled;
+        this.threshold = Math.max(1, threshold);
+    }
+
+    /**
+     * Encodes a value for the wire. The given array is returned as is when
+     * neither compression nor escaping applies.
+     */
+    byte[] encode(byte[] value) {
+        ByteBuffer encoded = encode(ByteBuffer.wrap(value));
+
+        return encoded.hasArray() && encoded.array() == value ? value : encoded.array();
+    }
+
+    /**
+     * Encodes the remaining bytes of a buffer for the wire, without changing
+     * its position. The given buffer is returned as is when neither
+     * compression nor escaping applies.
+     */
+    ByteBuffer encode(ByteBuffer value) {
+        int offset = value.position();
+        int length = value.remaining();
+
+        if (enabled && length >= threshold) {
+            byte[] compressed = compress(value, offset, length);
+
+            if (compressed != null) {
+                return ByteBuffer.wrap(compressed);
+            }
+        }
+
+        if (!hasMagic(value, offset, length)) {
+            return value;
+        }
+
+        byte[] escaped = new byte[NONE_HEADER_LENGTH + length];
+
+        System.arraycopy(MAGIC, 0, escaped, 0, MAGIC.length);
+        escaped[MAGIC.length] = CODEC_NONE;
+        value.duplicate().get(escaped, NONE_HEADER_LENGTH, length);
+
+        return ByteBuffer.wrap(escaped);
+    }
+
+    /**
+     * Decodes a value read from a server. Unframed values are returned as is.
+     */
+    byte[] decode(byte[] value) throws IOException {
+        if (value == null || value.length < NONE_HEADER_LENGTH
+                || !hasMagic(ByteBuffer.wrap(value), 0, value.length)) {
+            return value;
+        }
+
+        switch (value[MAGIC.length]) {
+            case CODEC_NONE:
+                return copyPayload(value);
+
+            case CODEC_LZ4:
+                return decompress(value);
+
+            default:
+                throw new IOException("Unknown value codec " + value[MAGIC.length]);
+        }
+    }
+
+    CompressionStats stats() {
+        return new CompressionStats(compressedCount.sum(), skippedCount.sum(), uncompressedBytes.sum(),
+                compressedBytes.sum(), compressNanos.sum(), decompressedCount.sum(), decompressNanos.sum());
+    }
+
+    /**
+     * Compresses the value into an LZ4 frame, or returns null if that does
+     * not make it smaller.
+     */
+    private byte[] compress(ByteBuffer value, int offset, int length) {
+        long start = System.nanoTime();
+        int maxLength = LZ4_HEADER_LENGTH + compressor.maxCompressedLength(length);
+        ByteBuffer frame = ByteBuffer.allocate(maxLength);
+
+        frame.put(MAGIC).put(CODEC_LZ4).putInt(length);
+
+        int payloadLength = compressor.compress(value, offset, length, frame, LZ4_HEADER_LENGTH,
+                maxLength - LZ4_HEADER_LENGTH);
+        int frameLength = LZ4_HEADER_LENGTH + payloadLength;
+
+        compressNanos.add(System.nanoTime() - start);
+
+        if (frameLength >= length) {
+            skippedCount.increment();
+            return null;
+        }
+
+        compressedCount.increment();
+        uncompressedBytes.add(length);
+        compressedBytes.add(frameLength);
+
+        return frameLength == maxLength ? frame.array() : Arrays.copyOf(frame.array(), frameLength);
+    }
+
+    private byte[] decompress(byte[] frame) throws IOException {
+        if (frame.length < LZ4_HEADER_LENGTH) {
+            throw new IOException("Truncated compressed value");
+        }
+
+        int payloadLength = frame.length - LZ4_HEADER_LENGTH;
+        int length = ByteBuffer.wrap(frame, NONE_HEADER_LENGTH, Integer.BYTES).getInt();
+
+        if (length < 0 || (long) length > (long) payloadLength * MAX_RATIO) {
+            throw new IOException("Corrupt compressed value length " + length);
+        }
+
+        long start = System.nanoTime();
+        byte[] value = new byte[length];
+
+        try {
+            int decompressed = decompressor.decompress(frame, LZ4_HEADER_LENGTH, payloadLength, value, 0, length);
+
+            if (decompressed != length) {
+                throw new IOException("Corrupt compressed value, expected " + length + " bytes but got "
+                        + decompressed);
+            }
+        } catch (LZ4Exception e) {
+            throw new IOException("Corrupt compressed value", e);
+        } finally {
+            decompressNanos.add(System.nanoTime() - start);
+        }
+
+        decompressedCount.increment();
+
+        return value;
+    }
+
+    private static byte[] copyPayload(byte[] frame) {
+        byte[] value = new byte[frame.length - NONE_HEADER_LENGTH];
+
+        System.arraycopy(frame, NONE_HEADER_LENGTH, value, 0, value.length);
+
+        return value;
+    }
+
+    private static boolean hasMagic(ByteBuffer value, int offset, int length) {
+        if (length < MAGIC.length) {
+            return false;
+        }
+
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (value.get(offset + i) != MAGIC[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+package com.mehyaa.cacheclient;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Number of replicas that must acknowledge a write before it succeeds. Writes
+ * are sent to all replicas in parallel, the ones not waited for still
+ * complete in the background.
+ */
+public enum WriteQuorum {
+    /**
+     * The first acknowledgement is enough, lowest latency.
+     */
+    ONE {
+        @Override
+        int required(int replicas) {
+            return 1;
+        }
+    },
+
+    /**
+     * More than half of the replicas.
+     */
+    MAJORITY {
+        @Override
+        int required(int replicas) {
+            return replicas / 2 + 1;
+        }
+    },
+
+    /**
+     * Every replica, a failed replica fails the write.
+     */
+    ALL {
+        @Override
+        int required(int replicas) {
+            return replicas;
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteQuorum.class);
+
+    /**
+     * Returns the number of acknowledgements needed out of the given number
+     * of replicas.
+     */
+    abstract int required(int replicas);
+
+    /**
+     * Returns a future completing once the required number of the writes
+     * succeeded, or exceptionally with the failure that made that impossible.
+     */
+    CompletableFuture<Void> await(List<CompletableFuture<Void>> writes) {
+        int required = required(writes.size());
+        int tolerated = writes.size() - required;
+
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        AtomicInteger acknowledged = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        for (CompletableFuture<Void> write : writes) {
+            write.whenComplete((ignored, error) -> {
+                if (error == null) {
+                    if (acknowledged.incrementAndGet() == required) {
+                        result.complete(null);
+                    }
+                } else if (failed.incrementAndGet() == tolerated + 1) {
+                    result.completeExceptionally(error);
+                }
+            });
+        }
+
+        return result;
+    }
+
+    /**
+     * Reads the quorum from application variables (system property
+     * 'cache.client.writeQuorum' or env 'CACHE_WRITE_QUORUM') or falls back to MAJORITY.
+     */
+    public static WriteQuorum fromConfig() {
+        String value = ClientConfig.getString("cache.client.writeQuorum", "CACHE_WRITE_QUORUM", null);
+
+        if (value == null) {
+            return MAJORITY;
+        }
+
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown write quorum {}. Using default {}", value, MAJORITY);
+
+            return MAJORITY;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.mehyaa.cacheclient;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class BinaryTransportTest {
+    private ServerSocket server;
+    private BinaryTransport transport;
+    private String node;
+
+    @BeforeEach
+    public void setup() throws IOException {
+        server = new ServerSocket(0);
+        transport = new BinaryTransport(0);
+        node = "127.0.0.1:" + server.getLocalPort();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        transport.close();
+        server.close();
+    }
+
+    @Test
+    public void testPipelinedResponsesMatchedById() throws Exception {
+        Thread serving = new Thread(this::serve);
+        serving.setDaemon(true);
+        serving.start();
+
+        List<CompletableFuture<byte[]>> gets = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            gets.add(transport.getAsync(node, "key-" + i));
+        }
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals("key-" + i, new String(gets.get(i).get(), StandardCharsets.UTF_8));
+        }
+
+        assertNull(transport.get(node, "missing"));
+    }
+
+    @Test
+    public void testRequestsReportedToListener() throws Exception {
+        RequestMetrics metrics = new RequestMetrics();
+
+        assertTrue(transport.reportTo(metrics::recordNode));
+
+        Thread serving = new Thread(this::serve);
+        serving.setDaemon(true);
+        serving.start();
+
+        transport.get(node, "key");
+        transport.getAsync(node, "missing").join();
+        transport.close();
+        assertThrows(CompletionException.class, () -> transport.deleteAsync(node, "key").join());
+
+        OperationStats gets = metrics.snapshot().getNodes().get(node).get(CacheOperation.GET);
+
+        assertEquals(2, gets.getCount());
+        assertEquals(0, gets.getErrorCount());
+    }
+
+    @Test
+    public void testAsyncCallsDontBlockOnStalledNode() throws Exception {
+        // Connections are accepted but never read, so the socket buffers fill up
+        List<Socket> accepted = new CopyOnWriteArrayList<>();
+        Thread accepting = new Thread(() -> {
+            try {
+                accepted.add(server.accept());
+            } catch (IOException ignored) {
+            }
+        });
+        accepting.setDaemon(true);
+        accepting.start();
+
+        ByteBuffer value = ByteBuffer.allocate(1024 * 1024);
+        List<CompletableFuture<Void>> puts = new ArrayList<>();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 64; i++) {
+            puts.add(transport.putAsync(node, "key-" + i, value, null));
+        }
+
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis < 1_000, "Queuing 64 MB took " + elapsedMillis + " ms");
+        assertFalse(puts.get(puts.size() - 1).isDone());
+
+        transport.close();
+
+        for (CompletableFuture<Void> put : puts) {
+            assertThrows(CompletionException.class, put::join);
+        }
+
+        for (Socket socket : accepted) {
+            socket.close();
+        }
+    }
+
+    @Test
+    public void testConnectionToDepartedNodeClosed() throws Exception {
+        Thread serving = new Thread(this::serve);
+        serving.setDaemon(true);
+        serving.start();
+
+        transport.get(node, "key");
+        assertEquals(2, connectionThreads().size());
+
+        // The node stays, the same connection answers
+        transport.retainNodes(Set.of(node, "other:80"));
+        transport.get(node, "key");
+
+        transport.retainNodes(Set.of("other:80"));
+
+        serving.join(5_000);
+        assertFalse(serving.isAlive(), "The connection was not closed");
+
+        for (Thread thread : connectionThreads()) {
+            thread.join(5_000);
+            assertFalse(thread.isAlive(), thread.getName() + " still running");
+        }
+
+        // A node coming back gets a new connection
+        serving = new Thread(this::serve);
+        serving.setDaemon(true);
+        serving.start();
+
+        assertEquals("key", new String(transport.get(node, "key"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testConnectFailureFailsQueuedRequests() throws Exception {
+        server.close();
+
+        CompletableFuture<byte[]> get = transport.getAsync(node, "key");
+
+        assertThrows(CompletionException.class, get::join);
+        assertThrows(IOException.class, () -> transport.get(node, "key"));
+    }
+
+    /**
+     * Returns the reader and writer threads of connections to the node.
+     */
+    private List<Thread> connectionThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().endsWith("-" + node))
+                .toList();
+    }
+
+    /**
+     * Answers every GET with its key as the value, but "missing" with not
+     * found, on one accepted connection.
+     */
+    private void serve() {
+        try (Socket socket = server.accept();
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            while (true) {
+                int length = in.readInt();
+                int id = in.readInt();
+                byte opcode = in.readByte();
+                byte[] body = new byte[length - Integer.BYTES - 1];
+
+                in.readFully(body);
+
+                boolean found = opcode == BinaryTransport.OP_GET
+                        && !"missing".equals(new String(body, StandardCharsets.UTF_8));
+                byte[] value = found ? body : new byte[0];
+
+                out.writeInt(Integer.BYTES + 1 + value.length);
+                out.writeInt(id);
+                out.writeByte(found ? BinaryTransport.STATUS_OK : BinaryTransport.STATUS_NOT_FOUND);
+                out.write(value);
+
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException ignored) {
+            // Transport closed
+        }
+    }
+}
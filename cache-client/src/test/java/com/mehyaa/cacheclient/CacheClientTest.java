@@ -0,0 +1,395 @@
+package com.mehyaa.cacheclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs a client against nodes registered in an in-memory ZooKeeper and
+ * served by an in-memory transport.
+ */
+public class CacheClientTest {
+    private static final List<String> NODES = List.of("node1:80", "node2:80", "node3:80");
+
+    private static final Map<String, String> PROPERTIES = Map.of(
+            "cache.client.circuitBreaker.minimumCalls", "1",
+            "cache.client.circuitBreaker.openMillis", "100");
+
+    private TestingServer testingServer;
+    private CuratorFramework curator;
+    private CacheClient client;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        testingServer = new TestingServer(true);
+
+        curator = CuratorFrameworkFactory.newClient(testingServer.getConnectString(),
+                new ExponentialBackoffRetry(1000, 3));
+        curator.start();
+
+        for (int i = 0; i < NODES.size(); i++) {
+            curator.create().creatingParentsIfNeeded().forPath(ServiceDiscovery.SERVICE_PATH + "/node-" + i,
+                    NODES.get(i).getBytes(StandardCharsets.UTF_8));
+        }
+
+        System.setProperty("zookeeper.connect", testingServer.getConnectString());
+        PROPERTIES.forEach(System::setProperty);
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (client != null) {
+            client.close();
+        }
+
+        System.clearProperty("zookeeper.connect");
+        System.clearProperty("cache.client.replicationFactor");
+        PROPERTIES.keySet().forEach(System::clearProperty);
+
+        curator.close();
+        testingServer.close();
+    }
+
+    @Test
+    public void testWritesDontMoveAwayFromOwnerWithOpenCircuit() throws Exception {
+        NodeStores nodes = new NodeStores();
+        client = new CacheClient(new ServiceDiscovery(), nodes);
+
+        client.put("key", "v1");
+        String owner = nodes.holding("key").get(0);
+
+        // One failed read opens the owner's circuit
+        nodes.down(owner);
+        assertThrows(IOException.class, () -> client.get("key"));
+        assertEquals(Set.of(owner), client.openCircuits());
+
+        // Reads go to the next node, writes and deletes fail fast
+        assertNull(client.get("key"));
+        assertThrows(IOException.class, () -> client.put("key", "v2"));
+        assertThrows(IOException.class, () -> client.delete("key"));
+        assertThrows(CompletionException.class, () -> client.putAsync("key", "v2").join());
+        assertThrows(CompletionException.class, () -> client.deleteAsync("key").join());
+        assertThrows(IOException.class, () -> client.putAll(Map.of("key", "v2")));
+        assertEquals(List.of(owner), nodes.holding("key"));
+
+        // The probe closes the circuit and the owner still has the last successful write
+        nodes.up(owner);
+        Thread.sleep(150);
+
+        assertEquals("v1", client.get("key"));
+        assertTrue(client.openCircuits().isEmpty());
+
+        client.put("key", "v3");
+        assertEquals("v3", client.get("key"));
+        assertEquals(List.of(owner), nodes.holding("key"));
+    }
+
+    @Test
+    public void testBatchesSplitAtServerLimit() throws Exception {
+        NodeStores nodes = new NodeStores();
+        client = new CacheClient(new ServiceDiscovery(), nodes);
+
+        // Well over the limit for each of the three nodes
+        Map<String, String> entries = new HashMap<>();
+
+        for (int i = 0; i < 4 * CacheProtocol.MAX_BATCH_SIZE; i++) {
+            entries.put("key-" + i, "value-" + i);
+        }
+
+        client.putAll(entries);
+
+        assertEquals(entries, client.getAll(entries.keySet()));
+        assertEquals(CacheProtocol.MAX_BATCH_SIZE, nodes.largestBatch(), "Batches must be split at the limit");
+    }
+
+    @Test
+    public void testAsyncOperations() throws Exception {
+        NodeStores nodes = new NodeStores();
+        client = new CacheClient(new ServiceDiscovery(), nodes);
+
+        client.putAsync("key", "v1").get(5, TimeUnit.SECONDS);
+        client.putAsync("expiring", "v2", Duration.ofMinutes(1)).get(5, TimeUnit.SECONDS);
+
+        assertEquals("v1", client.getAsync("key").get(5, TimeUnit.SECONDS));
+        assertEquals("v2", new String(client.getBytesAsync("expiring").get(5, TimeUnit.SECONDS),
+                StandardCharsets.UTF_8));
+
+        client.deleteAsync("key").get(5, TimeUnit.SECONDS);
+
+        assertNull(client.getAsync("key").get(5, TimeUnit.SECONDS));
+        assertTrue(nodes.holding("key").isEmpty());
+
+        // Failures surface as the IOException of the node
+        nodes.down(nodes.holding("expiring").get(0));
+
+        assertTrue(assertThrows(CompletionException.class, () -> client.getAsync("expiring").join())
+                .getCause() instanceof IOException);
+    }
+
+    @Test
+    public void testCancellingAsyncCallsCancelsRequests() throws Exception {
+        NodeStores nodes = new NodeStores();
+        client = new CacheClient(new ServiceDiscovery(), nodes);
+
+        NODES.forEach(nodes::stall);
+
+        CompletableFuture<String> get = client.getAsync("key");
+        CompletableFuture<Void> put = client.putAsync("key", "value");
+        CompletableFuture<Void> delete = client.deleteAsync("key");
+        CompletableFuture<Map<String, String>> getAll = client.getAllAsync(List.of("key"));
+
+        assertEquals(4, nodes.stalled().size());
+        assertTrue(nodes.stalled().stream().noneMatch(CompletableFuture::isDone));
+
+        get.cancel(true);
+        put.cancel(true);
+        delete.cancel(true);
+        getAll.cancel(true);
+
+        assertTrue(nodes.stalled().stream().allMatch(CompletableFuture::isCancelled));
+    }
+
+    @Test
+    public void testCancellingReadCancelsFailoverToNextReplica() throws Exception {
+        System.setProperty("cache.client.replicationFactor", "2");
+
+        NodeStores nodes = new NodeStores();
+        client = new CacheClient(new ServiceDiscovery(), nodes);
+
+        List<String> replicas = NodeSelectorType.fromConfig().create(NODES).getReplicas("key", 2);
+
+        // The owner fails, so the read moves on to the next replica, which stalls
+        nodes.down(replicas.get(0));
+        nodes.stall(replicas.get(1));
+
+        CompletableFuture<String> get = client.getAsync("key");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+
+        while (nodes.stalled().isEmpty() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(1, nodes.stalled().size());
+        assertFalse(get.isDone());
+
+        get.cancel(true);
+
+        assertTrue(nodes.stalled().get(0).isCancelled());
+    }
+
+    @Test
+    public void testReservedKeysRejected() throws Exception {
+        NodeStores nodes = new NodeStores();
+        client = new CacheClient(new ServiceDiscovery(), nodes);
+
+        assertThrows(IllegalArgumentException.class, () -> client.get("_stats"));
+        assertThrows(IllegalArgumentException.class, () -> client.getAsync("_scan"));
+        assertThrows(IllegalArgumentException.class, () -> client.put("_mget", "value"));
+        assertThrows(IllegalArgumentException.class, () -> client.delete(""));
+        assertThrows(IllegalArgumentException.class, () -> client.getAll(List.of("key", "_mset")));
+        assertThrows(IllegalArgumentException.class, () -> client.putAll(Map.of("_migrate", "value")));
+        assertTrue(nodes.holding("_mget").isEmpty());
+
+        client.put("key_with_underscore", "value");
+        assertEquals("value", client.get("key_with_underscore"));
+    }
+
+    /**
+     * Transport keeping a map of entries per node. Calls to a node that is
+     * down fail, as do batches larger than a server accepts. Asynchronous
+     * calls to a stalled node never complete on their own.
+     */
+    private static final class NodeStores implements Transport {
+        private final Map<String, Map<String, byte[]>> stores = new ConcurrentHashMap<>();
+        private final Set<String> down = ConcurrentHashMap.newKeySet();
+        private final Set<String> stalledNodes = ConcurrentHashMap.newKeySet();
+        private final List<CompletableFuture<?>> stalled = new CopyOnWriteArrayList<>();
+        private final AtomicInteger largestBatch = new AtomicInteger();
+
+        void down(String node) {
+            down.add(node);
+        }
+
+        void stall(String node) {
+            stalledNodes.add(node);
+        }
+
+        /**
+         * Returns the calls sent to stalled nodes.
+         */
+        List<CompletableFuture<?>> stalled() {
+            return stalled;
+        }
+
+        void up(String node) {
+            down.remove(node);
+        }
+
+        int largestBatch() {
+            return largestBatch.get();
+        }
+
+        List<String> holding(String key) {
+            List<String> nodes = new ArrayList<>();
+
+            stores.forEach((node, store) -> {
+                if (store.containsKey(key)) {
+                    nodes.add(node);
+                }
+            });
+
+            return nodes;
+        }
+
+        private Map<String, byte[]> batchStore(String node, int size) throws IOException {
+            if (size > CacheProtocol.MAX_BATCH_SIZE) {
+                throw new IOException("Batch of " + size + " rejected by " + node);
+            }
+
+            largestBatch.accumulateAndGet(size, Math::max);
+
+            return store(node);
+        }
+
+        private Map<String, byte[]> store(String node) throws IOException {
+            if (down.contains(node)) {
+                throw new IOException("Node " + node + " is down");
+            }
+
+            return stores.computeIfAbsent(node, n -> new ConcurrentHashMap<>());
+        }
+
+        @Override
+        public byte[] get(String node, String key) throws IOException {
+            return store(node).get(key);
+        }
+
+        @Override
+        public CompletableFuture<byte[]> getAsync(String node, String key) {
+            if (stalledNodes.contains(node)) {
+                return stalledCall();
+            }
+
+            try {
+                return CompletableFuture.completedFuture(get(node, key));
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        @Override
+        public void put(String node, String key, ByteBuffer value, Duration ttl) throws IOException {
+            byte[] bytes = new byte[value.remaining()];
+            value.duplicate().get(bytes);
+
+            store(node).put(key, bytes);
+        }
+
+        @Override
+        public CompletableFuture<Void> putAsync(String node, String key, ByteBuffer value, Duration ttl) {
+            if (stalledNodes.contains(node)) {
+                return stalledCall();
+            }
+
+            try {
+                put(node, key, value, ttl);
+
+                return CompletableFuture.completedFuture(null);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        @Override
+        public void delete(String node, String key) throws IOException {
+            store(node).remove(key);
+        }
+
+        @Override
+        public CompletableFuture<Void> deleteAsync(String node, String key) {
+            if (stalledNodes.contains(node)) {
+                return stalledCall();
+            }
+
+            try {
+                delete(node, key);
+
+                return CompletableFuture.completedFuture(null);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        @Override
+        public CompletableFuture<List<byte[]>> getAllAsync(String node, List<String> keys) {
+            if (stalledNodes.contains(node)) {
+                return stalledCall();
+            }
+
+            try {
+                Map<String, byte[]> store = batchStore(node, keys.size());
+                List<byte[]> values = new ArrayList<>(keys.size());
+
+                for (String key : keys) {
+                    values.add(store.get(key));
+                }
+
+                return CompletableFuture.completedFuture(values);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        @Override
+        public CompletableFuture<Void> putAllAsync(String node, List<Map.Entry<String, byte[]>> entries) {
+            try {
+                Map<String, byte[]> store = batchStore(node, entries.size());
+
+                for (Map.Entry<String, byte[]> entry : entries) {
+                    store.put(entry.getKey(), entry.getValue());
+                }
+
+                return CompletableFuture.completedFuture(null);
+            } catch (IOException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private <T> CompletableFuture<T> stalledCall() {
+            CompletableFuture<T> call = new CompletableFuture<>();
+            stalled.add(call);
+
+            return call;
+        }
+    }
+}
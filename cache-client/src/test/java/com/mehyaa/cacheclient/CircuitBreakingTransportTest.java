@@ -0,0 +1,168 @@
+package com.mehyaa.cacheclient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CircuitBreakingTransportTest {
+    private static final Set<String> NODES = Set.of("node1:80", "node2:80", "node3:80", "node4:80");
+
+    @Test
+    public void testOpensOnFailureRateAndFailsFast() {
+        FakeTransport delegate = new FakeTransport();
+        CircuitBreakingTransport transport = create(delegate, Duration.ofSeconds(60));
+
+        delegate.answer("node1:80", () -> CompletableFuture.failedFuture(new IOException("down")));
+
+        for (int i = 0; i < 10; i++) {
+            assertThrows(IOException.class, () -> transport.get("node1:80", "key"));
+        }
+
+        assertFalse(transport.isAvailable("node1:80"));
+        assertEquals(Set.of("node1:80"), transport.openNodes());
+        assertEquals(1, transport.unavailableCount());
+
+        // Further calls don't reach the node at all
+        assertThrows(IOException.class, () -> transport.get("node1:80", "key"));
+        assertTrue(transport.getAsync("node1:80", "key").isCompletedExceptionally());
+        assertEquals(10, delegate.calls());
+    }
+
+    @Test
+    public void testStaysClosedBelowMinimumCallsAndFailureRate() throws IOException {
+        FakeTransport delegate = new FakeTransport();
+        CircuitBreakingTransport transport = create(delegate, Duration.ofSeconds(60));
+
+        delegate.answer("node1:80", () -> CompletableFuture.failedFuture(new IOException("down")));
+
+        for (int i = 0; i < 9; i++) {
+            assertThrows(IOException.class, () -> transport.get("node1:80", "key"));
+        }
+
+        assertTrue(transport.isAvailable("node1:80"));
+
+        delegate.answer("node1:80", () -> CompletableFuture.completedFuture(bytes("value")));
+
+        // 9 failures out of 20 calls is below the 50% failure rate
+        for (int i = 0; i < 11; i++) {
+            transport.get("node1:80", "key");
+        }
+
+        assertTrue(transport.isAvailable("node1:80"));
+        assertTrue(transport.openNodes().isEmpty());
+    }
+
+    @Test
+    public void testHalfOpenProbeClosesOrReopens() throws Exception {
+        FakeTransport delegate = new FakeTransport();
+        CircuitBreakingTransport transport = create(delegate, Duration.ofMillis(50));
+
+        delegate.answer("node1:80", () -> CompletableFuture.failedFuture(new IOException("down")));
+
+        for (int i = 0; i < 10; i++) {
+            assertThrows(IOException.class, () -> transport.get("node1:80", "key"));
+        }
+
+        Thread.sleep(100);
+        assertTrue(transport.isAvailable("node1:80"), "An open circuit becomes available for a probe");
+
+        // The failing probe opens the circuit again
+        assertThrows(IOException.class, () -> transport.get("node1:80", "key"));
+        assertFalse(transport.isAvailable("node1:80"));
+
+        Thread.sleep(100);
+
+        // Only one probe at a time
+        CompletableFuture<byte[]> probe = new CompletableFuture<>();
+        delegate.answer("node1:80", () -> probe);
+
+        CompletableFuture<byte[]> first = transport.getAsync("node1:80", "key");
+        assertTrue(transport.getAsync("node1:80", "key").isCompletedExceptionally());
+
+        probe.complete(bytes("value"));
+
+        assertEquals("value", new String(first.get(), StandardCharsets.UTF_8));
+        assertTrue(transport.isAvailable("node1:80"));
+        assertEquals(0, transport.unavailableCount());
+    }
+
+    @Test
+    public void testSlowCallsOpenTheCircuit() {
+        FakeTransport delegate = new FakeTransport();
+        CircuitBreakingTransport transport = new CircuitBreakingTransport(delegate, 50, Duration.ZERO, 10,
+                Duration.ofSeconds(60), 50);
+        transport.retainNodes(NODES);
+
+        delegate.answer("node1:80", () -> CompletableFuture.completedFuture(bytes("value")));
+
+        for (int i = 0; i < 10; i++) {
+            transport.getAsync("node1:80", "key");
+        }
+
+        assertFalse(transport.isAvailable("node1:80"));
+    }
+
+    @Test
+    public void testEjectionIsCapped() {
+        FakeTransport delegate = new FakeTransport();
+        CircuitBreakingTransport transport = create(delegate, Duration.ofSeconds(60));
+
+        for (String node : NODES) {
+            delegate.answer(node, () -> CompletableFuture.failedFuture(new IOException("down")));
+
+            for (int i = 0; i < 10; i++) {
+                assertThrows(IOException.class, () -> transport.get(node, "key"));
+            }
+        }
+
+        // At most half of the four nodes may be ejected
+        assertEquals(2, transport.openNodes().size());
+        assertEquals(2, transport.unavailableCount());
+
+        transport.retainNodes(Set.of("node2:80", "node3:80", "node4:80"));
+        assertTrue(transport.unavailableCount() <= 2);
+    }
+
+    @Test
+    public void testProbeOfRemovedNodeKeepsCount() throws Exception {
+        FakeTransport delegate = new FakeTransport();
+        CircuitBreakingTransport transport = create(delegate, Duration.ofMillis(50));
+
+        delegate.answer("node1:80", () -> CompletableFuture.failedFuture(new IOException("down")));
+
+        for (int i = 0; i < 10; i++) {
+            assertThrows(IOException.class, () -> transport.get("node1:80", "key"));
+        }
+
+        Thread.sleep(100);
+
+        CompletableFuture<byte[]> probe = new CompletableFuture<>();
+        delegate.answer("node1:80", () -> probe);
+        transport.getAsync("node1:80", "key");
+
+        // The node leaves while its probe is in flight, then the probe succeeds
+        transport.retainNodes(Set.of("node2:80", "node3:80", "node4:80"));
+        assertEquals(0, transport.unavailableCount());
+
+        probe.complete(bytes("value"));
+        assertEquals(0, transport.unavailableCount());
+    }
+
+    private static CircuitBreakingTransport create(FakeTransport delegate, Duration openDuration) {
+        CircuitBreakingTransport transport = new CircuitBreakingTransport(delegate, 50, Duration.ofSeconds(10), 10,
+                openDuration, 50);
+        transport.retainNodes(NODES);
+
+        return transport;
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
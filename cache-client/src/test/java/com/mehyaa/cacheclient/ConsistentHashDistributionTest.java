@@ -7,14 +7,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
-import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ConsistentHashDistributionTest {
 
-    @Test
-    public void testKeyDistributionBalance() {
+    @ParameterizedTest
+    @EnumSource(NodeSelectorType.class)
+    public void testKeyDistributionBalance(NodeSelectorType type) {
         // Prepare nodes and ring
         List<String> nodes = new ArrayList<>();
 
@@ -22,7 +24,7 @@ public class ConsistentHashDistributionTest {
             nodes.add("node" + i + ":80");
         }
 
-        ConsistentHash ring = new ConsistentHash(nodes);
+        NodeSelector ring = type.create(nodes);
 
         // Generate many keys
         final int keys = 50_000; // reasonable for CI speed
@@ -57,12 +59,12 @@ public class ConsistentHashDistributionTest {
         double maxDeviation = (max - avg) / avg; // fraction above average
         double minDeviation = (avg - min) / avg; // fraction below average
 
-        System.out.println("Counts: " + counts.entrySet().stream()
+        System.out.println(type + " counts: " + counts.entrySet().stream()
                 .sorted(Map.Entry.comparingByKey())
                 .map(e -> e.getKey() + "=" + e.getValue())
                 .collect(Collectors.joining(", ")));
 
-        System.out.println(String.format("min=%d max=%d avg=%.2f maxDev=%.4f minDev=%.4f", min, max, avg, maxDeviation,
+        System.out.println(type + String.format(" min=%d max=%d avg=%.2f maxDev=%.4f minDev=%.4f", min, max, avg, maxDeviation,
                 minDeviation));
 
         // Assert that distribution is reasonably balanced: no more than 12% deviation
@@ -6,14 +6,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
-import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class ConsistentHashStabilityTest {
 
-    @Test
-    public void testSingleNodeAddRemoveStability() {
+    @ParameterizedTest
+    @EnumSource(NodeSelectorType.class)
+    public void testSingleNodeAddRemoveStability(NodeSelectorType type) {
         // initial nodes
         List<String> nodes = new ArrayList<>();
 
@@ -21,7 +23,7 @@ public class ConsistentHashStabilityTest {
             nodes.add("node" + i + ":80");
         }
 
-        ConsistentHash ring = new ConsistentHash(nodes);
+        NodeSelector ring = type.create(nodes);
 
         final int keys = 50_000;
         List<String> keyList = new ArrayList<>(keys);
@@ -62,7 +64,7 @@ public class ConsistentHashStabilityTest {
         // expected fraction approx 1/(N+1)
         double expected = 1.0 / (nodes.size() + 1);
 
-        System.out.println(String.format("movedAfterAdd=%d fraction=%.4f expected≈%.4f", movedAfterAdd,
+        System.out.println(type + String.format(" movedAfterAdd=%d fraction=%.4f expected≈%.4f", movedAfterAdd,
                 fractionMovedAdd, expected));
 
         // allow some tolerance but ensure most keys are stable
@@ -90,7 +92,7 @@ public class ConsistentHashStabilityTest {
 
         double fractionMovedRemove = (double) movedAfterRemove / keys;
 
-        System.out.println(String.format("movedAfterRemove=%d fraction=%.4f", movedAfterRemove, fractionMovedRemove));
+        System.out.println(type + String.format(" movedAfterRemove=%d fraction=%.4f", movedAfterRemove, fractionMovedRemove));
 
         // removal should also be reasonably small
         assertTrue(fractionMovedRemove <= Math.max(0.20, expected * 2.0),
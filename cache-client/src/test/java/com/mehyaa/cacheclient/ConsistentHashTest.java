@@ -2,22 +2,25 @@ package com.mehyaa.cacheclient;
 
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 
-import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 public class ConsistentHashTest {
 
-    @Test
-    public void testDeterministicMappingAcrossInstances() {
+    @ParameterizedTest
+    @EnumSource(NodeSelectorType.class)
+    public void testDeterministicMappingAcrossInstances(NodeSelectorType type) {
         List<String> nodes = Arrays.asList("node1:80", "node2:80", "node3:80");
         List<String> keys = Arrays.asList("alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta");
 
-        ConsistentHash h1 = new ConsistentHash(nodes);
-        ConsistentHash h2 = new ConsistentHash(nodes);
+        NodeSelector h1 = type.create(nodes);
+        NodeSelector h2 = type.create(nodes);
 
         Map<String, String> map1 = new HashMap<>();
         Map<String, String> map2 = new HashMap<>();
@@ -30,9 +33,98 @@ public class ConsistentHashTest {
         assertEquals(map1, map2, "Two independently built rings must map keys deterministically the same");
     }
 
-    @Test
-    public void testEmptyRingReturnsNull() {
-        ConsistentHash h = new ConsistentHash(Arrays.asList());
+    @ParameterizedTest
+    @EnumSource(NodeSelectorType.class)
+    public void testEmptyRingReturnsNull(NodeSelectorType type) {
+        NodeSelector h = type.create(Arrays.asList());
         assertNull(h.get("anything"));
     }
-}
\ No newline at end of file
+
+    @ParameterizedTest
+    @EnumSource(NodeSelectorType.class)
+    public void testApplyTopologyMatchesFreshSelector(NodeSelectorType type) {
+        List<String> keys = Arrays.asList("alpha", "beta", "gamma", "delta", "epsilon", "zeta", "eta");
+
+        NodeSelector selector = type.create(Arrays.asList("node1:80", "node2:80", "node3:80"));
+        assertEquals(0, selector.epoch());
+
+        // replace two nodes and add one in a single step
+        long epoch = selector.applyTopology(new HashSet<>(Arrays.asList("node1:80", "node4:80", "node5:80", "node6:80")));
+
+        assertEquals(1, epoch);
+        assertEquals(1, selector.epoch());
+
+        NodeSelector fresh = type.create(Arrays.asList("node1:80", "node4:80", "node5:80", "node6:80"));
+
+        for (String k : keys) {
+            assertEquals(fresh.get(k), selector.get(k), "Bulk update must match a freshly built selector");
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(NodeSelectorType.class)
+    public void testMappingIndependentOfTopologyHistory(NodeSelectorType type) {
+        NodeSelector selector = type.create(Arrays.asList("node1:80", "node2:80", "node3:80"));
+
+        selector.add("node4:80");
+        selector.remove("node1:80");
+        selector.add("node0:80");
+        selector.remove("node3:80");
+
+        NodeSelector fresh = type.create(Arrays.asList("node4:80", "node2:80", "node0:80"));
+
+        for (int i = 0; i < 1000; i++) {
+            String key = "key-" + i;
+
+            assertEquals(fresh.getReplicas(key, 3), selector.getReplicas(key, 3),
+                    "Placement must only depend on the node set");
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(NodeSelectorType.class)
+    public void testReplicasAreDistinctAndStartWithOwner(NodeSelectorType type) {
+        List<String> nodes = Arrays.asList("node1:80", "node2:80", "node3:80", "node4:80", "node5:80");
+        NodeSelector selector = type.create(nodes);
+        NodeSelector fresh = type.create(nodes);
+
+        for (int i = 0; i < 1000; i++) {
+            String key = "key-" + i;
+            List<String> replicas = selector.getReplicas(key, 3);
+
+            assertEquals(3, replicas.size());
+            assertEquals(3, new HashSet<>(replicas).size(), "Replicas must be distinct nodes: " + replicas);
+            assertEquals(selector.get(key), replicas.get(0), "The owner must be the first replica");
+            assertEquals(fresh.getReplicas(key, 3), replicas, "Replicas must be deterministic");
+        }
+
+        assertEquals(5, selector.getReplicas("alpha", 10).size(), "Replicas are capped at the node count");
+        assertTrue(type.create(Arrays.asList()).getReplicas("alpha", 3).isEmpty());
+    }
+
+    @ParameterizedTest
+    @EnumSource(NodeSelectorType.class)
+    public void testNextReplicaTakesOverRemovedOwner(NodeSelectorType type) {
+        type.checkReplicationFactor(1);
+
+        // Maglev can't place replicas this way, so it must refuse to replicate
+        if (type == NodeSelectorType.MAGLEV) {
+            assertThrows(IllegalArgumentException.class, () -> type.checkReplicationFactor(2));
+            return;
+        }
+
+        type.checkReplicationFactor(2);
+
+        NodeSelector selector = type.create(Arrays.asList("node1:80", "node2:80", "node3:80", "node4:80"));
+
+        for (int i = 0; i < 200; i++) {
+            String key = "key-" + i;
+            List<String> replicas = selector.getReplicas(key, 2);
+
+            NodeSelector without = type.create(Arrays.asList("node1:80", "node2:80", "node3:80", "node4:80"));
+            without.remove(replicas.get(0));
+
+            assertEquals(replicas.get(1), without.get(key), "The second replica must own the key after the owner left");
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.mehyaa.cacheclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Transport answering GETs as told per node, counting the calls it gets.
+ */
+final class FakeTransport implements Transport {
+    private final Map<String, Supplier<CompletableFuture<byte[]>>> answers = new ConcurrentHashMap<>();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    void answer(String node, Supplier<CompletableFuture<byte[]>> answer) {
+        answers.put(node, answer);
+    }
+
+    int calls() {
+        return calls.get();
+    }
+
+    @Override
+    public CompletableFuture<byte[]> getAsync(String node, String key) {
+        calls.incrementAndGet();
+
+        return answers.get(node).get();
+    }
+
+    @Override
+    public byte[] get(String node, String key) throws IOException {
+        return Transport.await(getAsync(node, key));
+    }
+
+    @Override
+    public void put(String node, String key, ByteBuffer value, Duration ttl) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(String node, String key, ByteBuffer value, Duration ttl) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(String node, String key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String node, String key) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<List<byte[]>> getAllAsync(String node, List<String> keys) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public CompletableFuture<Void> putAllAsync(String node, List<Map.Entry<String, byte[]>> entries) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {
+    }
+}
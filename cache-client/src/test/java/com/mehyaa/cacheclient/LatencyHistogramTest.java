@@ -0,0 +1,76 @@
+package com.mehyaa.cacheclient;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(-1, histogram.percentile(95));
+
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i * 1_000_000L);
+        }
+
+        long p50 = histogram.percentile(50);
+        long p95 = histogram.percentile(95);
+
+        assertTrue(p50 >= 50_000_000L && p50 < 50_000_000L * 5 / 4, "p50 " + p50);
+        assertTrue(p95 >= 95_000_000L && p95 < 95_000_000L * 5 / 4, "p95 " + p95);
+
+        for (long value = 1; value < 1L << 40; value = value * 3 + 1) {
+            int bucket = LatencyHistogram.bucket(value);
+
+            assertTrue(LatencyHistogram.upperBound(bucket) >= value);
+            assertEquals(bucket, LatencyHistogram.bucket(LatencyHistogram.upperBound(bucket)));
+            assertTrue(LatencyHistogram.bucket(value - 1 == 0 ? 1 : value - 1) <= bucket);
+        }
+    }
+
+    @Test
+    public void testStripedSnapshotAddsStripes() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram(3, 0, 4);
+        Thread[] threads = new Thread[8];
+
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 1; i <= 1000; i++) {
+                    histogram.record(i * 1000L);
+                }
+            });
+            threads[t].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] snapshot = histogram.snapshot();
+        long total = 0;
+
+        for (long count : snapshot) {
+            total += count;
+        }
+
+        assertEquals(Long.SIZE << 3, snapshot.length);
+        assertEquals(8000, total);
+        assertEquals(LatencyHistogram.upperBound(LatencyHistogram.bucket(500_000, 3), 3),
+                LatencyHistogram.percentile(snapshot, 3, 50));
+    }
+
+    @Test
+    public void testFineGrainedBuckets() {
+        for (long value = 1; value < 1L << 40; value = value * 3 + 1) {
+            int bucket = LatencyHistogram.bucket(value, 4);
+            long upper = LatencyHistogram.upperBound(bucket, 4);
+
+            assertTrue(upper >= value);
+            assertTrue(upper - value <= value / 16, "Bucket of " + value + " too wide: " + upper);
+            assertEquals(bucket, LatencyHistogram.bucket(upper, 4));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.mehyaa.cacheclient;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class MigrationWindowTest {
+    private static final List<String> OLD_NODES = Arrays.asList("node1:80", "node2:80", "node3:80");
+    private static final List<String> NEW_NODES = Arrays.asList("node1:80", "node2:80", "node3:80", "node4:80");
+
+    @Test
+    public void testPreviousOwnerOfRemappedKeys() {
+        NodeSelector before = NodeSelectorType.RING.create(OLD_NODES);
+        NodeSelector after = NodeSelectorType.RING.create(NEW_NODES);
+        MigrationWindow window = new MigrationWindow(before, new HashSet<>(NEW_NODES), Duration.ofMinutes(1));
+        int remapped = 0;
+
+        for (int i = 0; i < 1000; i++) {
+            String key = "key-" + i;
+            assertEquals(before.get(key), window.previousOwner(key));
+
+            if (!after.get(key).equals(before.get(key))) {
+                remapped++;
+            }
+        }
+
+        assertTrue(remapped > 0);
+    }
+
+    @Test
+    public void testNoPreviousOwnerThatLeft() {
+        NodeSelector before = NodeSelectorType.RING.create(OLD_NODES);
+        Set<String> remaining = new HashSet<>(Arrays.asList("node1:80", "node2:80"));
+        MigrationWindow window = new MigrationWindow(before, remaining, Duration.ofMinutes(1));
+
+        for (int i = 0; i < 1000; i++) {
+            String key = "key-" + i;
+
+            if (before.get(key).equals("node3:80")) {
+                assertNull(window.previousOwner(key));
+            } else {
+                assertEquals(before.get(key), window.previousOwner(key));
+            }
+        }
+    }
+
+    @Test
+    public void testClosedWindow() throws InterruptedException {
+        NodeSelector before = NodeSelectorType.RING.create(OLD_NODES);
+        MigrationWindow window = new MigrationWindow(before, new HashSet<>(NEW_NODES), Duration.ofMillis(1));
+
+        Thread.sleep(5);
+
+        assertFalse(window.isOpen());
+
+        for (int i = 0; i < 100; i++) {
+            assertNull(window.previousOwner("key-" + i));
+        }
+    }
+}
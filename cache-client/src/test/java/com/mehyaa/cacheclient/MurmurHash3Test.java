@@ -0,0 +1,44 @@
+package com.mehyaa.cacheclient;
+
+import com.google.common.hash.Hashing;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MurmurHash3Test {
+
+    @Test
+    public void testMatchesGuavaHashOfUtf8Bytes() {
+        Random rnd = new Random(42);
+
+        // cover every tail length, multi-byte sequences and (also malformed) surrogates
+        for (int length = 0; length < 80; length++) {
+            for (int round = 0; round < 20; round++) {
+                StringBuilder sb = new StringBuilder(length);
+
+                for (int i = 0; i < length; i++) {
+                    int kind = rnd.nextInt(4);
+
+                    if (kind == 0) {
+                        sb.append((char) rnd.nextInt(0x80));
+                    } else if (kind == 1) {
+                        sb.append((char) rnd.nextInt(0x800));
+                    } else if (kind == 2) {
+                        sb.appendCodePoint(0x10000 + rnd.nextInt(0x100000));
+                    } else {
+                        sb.append((char) rnd.nextInt(Character.MAX_VALUE + 1));
+                    }
+                }
+
+                String data = sb.toString();
+                long expected = Hashing.murmur3_128().hashBytes(data.getBytes(StandardCharsets.UTF_8)).asLong();
+
+                assertEquals(expected, MurmurHash3.hash64(data), "Hash mismatch for input of length " + length);
+            }
+        }
+    }
+}
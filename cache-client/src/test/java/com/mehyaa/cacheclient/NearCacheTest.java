@@ -0,0 +1,96 @@
+package com.mehyaa.cacheclient;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class NearCacheTest {
+
+    @Test
+    public void testHitMissAndInvalidate() {
+        NearCache cache = new NearCache(100, 1024 * 1024, Duration.ofMinutes(1));
+
+        assertNull(cache.get("a"));
+
+        cache.put("a", bytes("value-a"), cache.invalidationStamp());
+        assertArrayEquals(bytes("value-a"), cache.get("a"));
+
+        cache.invalidate("a");
+        assertNull(cache.get("a"));
+
+        NearCacheStats stats = cache.stats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(2, stats.getMissCount());
+    }
+
+    @Test
+    public void testLoadRacingWithInvalidationIsNotCached() {
+        NearCache cache = new NearCache(100, 1024 * 1024, Duration.ofMinutes(1));
+
+        // a load starts, then a local write invalidates the key before the load completes
+        long stamp = cache.invalidationStamp();
+        cache.invalidate("a");
+        cache.put("a", bytes("stale"), stamp);
+
+        assertNull(cache.get("a"), "A value loaded before an invalidation must not be cached");
+    }
+
+    @Test
+    public void testBoundedByEntryCount() {
+        NearCache cache = new NearCache(10, 1024 * 1024, Duration.ofMinutes(1));
+
+        for (int i = 0; i < 1000; i++) {
+            cache.put("key-" + i, bytes("v"), cache.invalidationStamp());
+        }
+
+        cache.cleanUp();
+
+        assertTrue(cache.stats().getSize() <= 10, "Size exceeds entry bound: " + cache.stats().getSize());
+        assertTrue(cache.stats().getEvictionCount() > 0);
+    }
+
+    @Test
+    public void testBoundedByBytes() {
+        NearCache cache = new NearCache(1_000_000, 64 * 1024, Duration.ofMinutes(1));
+        byte[] value = new byte[8192]; // roughly 8 KB per entry
+
+        for (int i = 0; i < 100; i++) {
+            cache.put("key-" + i, value, cache.invalidationStamp());
+        }
+
+        cache.cleanUp();
+
+        assertTrue(cache.stats().getSize() <= 8, "Size exceeds byte bound: " + cache.stats().getSize());
+    }
+
+    @Test
+    public void testPerEntryTtl() {
+        AtomicLong now = new AtomicLong();
+        NearCache cache = new NearCache(100, 1024 * 1024, Duration.ofSeconds(10), now::get);
+
+        cache.put("default", bytes("v"), cache.invalidationStamp());
+        cache.put("short", bytes("v"), Duration.ofSeconds(1), cache.invalidationStamp());
+        cache.put("long", bytes("v"), Duration.ofHours(1), cache.invalidationStamp());
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(2));
+
+        assertNull(cache.get("short"));
+        assertArrayEquals(bytes("v"), cache.get("default"));
+        assertArrayEquals(bytes("v"), cache.get("long"));
+
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        // the default TTL caps longer per-entry TTLs
+        assertNull(cache.get("default"));
+        assertNull(cache.get("long"));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,116 @@
+package com.mehyaa.cacheclient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReadHedgerTest {
+    private static final List<String> REPLICAS = List.of("node1:80", "node2:80");
+
+    @Test
+    public void testSlowOwnerIsHedgedToNextReplica() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        ReadHedger hedger = new ReadHedger(transport, 95, 1.0);
+
+        warmUp(hedger, transport);
+
+        // The owner stalls, as in a GC pause
+        transport.answer("node1:80", CompletableFuture::new);
+        transport.answer("node2:80", () -> CompletableFuture.completedFuture(bytes("backup")));
+
+        byte[] value = hedger.get(REPLICAS, "key").get(5, TimeUnit.SECONDS);
+
+        assertEquals("backup", new String(value, StandardCharsets.UTF_8));
+        assertEquals(1, hedger.stats().getHedgeCount());
+        assertEquals(1, hedger.stats().getWinCount());
+    }
+
+    @Test
+    public void testNoHedgeWithoutLatencySamples() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        ReadHedger hedger = new ReadHedger(transport, 95, 1.0);
+        CompletableFuture<byte[]> slow = new CompletableFuture<>();
+
+        transport.answer("node1:80", () -> slow);
+        transport.answer("node2:80", () -> CompletableFuture.completedFuture(bytes("backup")));
+
+        CompletableFuture<byte[]> result = hedger.get(REPLICAS, "key");
+
+        Thread.sleep(50);
+        assertFalse(result.isDone());
+
+        slow.complete(bytes("owner"));
+        assertEquals("owner", new String(result.get(5, TimeUnit.SECONDS), StandardCharsets.UTF_8));
+        assertEquals(0, hedger.stats().getHedgeCount());
+    }
+
+    @Test
+    public void testFailingOwnerFailsOverWithoutHedgeBudget() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        ReadHedger hedger = new ReadHedger(transport, 95, 0.0);
+
+        transport.answer("node1:80", () -> CompletableFuture.failedFuture(new IOException("down")));
+        transport.answer("node2:80", () -> CompletableFuture.completedFuture(bytes("replica")));
+
+        byte[] value = hedger.get(REPLICAS, "key").get(5, TimeUnit.SECONDS);
+
+        assertEquals("replica", new String(value, StandardCharsets.UTF_8));
+        assertEquals(0, hedger.stats().getHedgeCount());
+    }
+
+    @Test
+    public void testAllReplicasFailing() {
+        FakeTransport transport = new FakeTransport();
+        ReadHedger hedger = new ReadHedger(transport, 95, 1.0);
+
+        transport.answer("node1:80", () -> CompletableFuture.failedFuture(new IOException("down")));
+        transport.answer("node2:80", () -> CompletableFuture.failedFuture(new IOException("down too")));
+
+        assertThrows(IOException.class, () -> Transport.await(hedger.get(REPLICAS, "key")));
+    }
+
+    @Test
+    public void testHedgesAreCappedByBudget() throws Exception {
+        FakeTransport transport = new FakeTransport();
+        ReadHedger hedger = new ReadHedger(transport, 95, 0.0);
+
+        warmUp(hedger, transport);
+
+        CompletableFuture<byte[]> slow = new CompletableFuture<>();
+        transport.answer("node1:80", () -> slow);
+        transport.answer("node2:80", () -> CompletableFuture.completedFuture(bytes("backup")));
+
+        // Only the initial burst may be hedged without any refill
+        for (int i = 0; i < 30; i++) {
+            hedger.get(REPLICAS, "key");
+        }
+
+        Thread.sleep(200);
+        slow.complete(bytes("owner"));
+
+        HedgeStats stats = hedger.stats();
+        assertEquals(10, stats.getHedgeCount());
+        assertEquals(20, stats.getThrottledCount());
+    }
+
+    /**
+     * Records enough fast answers of both nodes for a latency percentile.
+     */
+    private static void warmUp(ReadHedger hedger, FakeTransport transport) throws Exception {
+        transport.answer("node1:80", () -> CompletableFuture.completedFuture(bytes("owner")));
+
+        for (int i = 0; i < LatencyHistogram.MIN_SAMPLES; i++) {
+            hedger.get(REPLICAS, "key").get(5, TimeUnit.SECONDS);
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
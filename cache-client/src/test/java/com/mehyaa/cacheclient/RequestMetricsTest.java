@@ -0,0 +1,91 @@
+package com.mehyaa.cacheclient;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class RequestMetricsTest {
+    @Test
+    public void testOperationStats() {
+        RequestMetrics metrics = new RequestMetrics();
+
+        for (int i = 1; i <= 1000; i++) {
+            metrics.record(CacheOperation.GET, i * 1_000L, i % 100 == 0);
+        }
+
+        OperationStats stats = metrics.snapshot().getOperations().get(CacheOperation.GET);
+
+        assertEquals(1000, stats.getCount());
+        assertEquals(10, stats.getErrorCount());
+        assertEquals(1_000_000L, stats.getMaxNanos());
+        assertEquals(500_500.0, stats.getMeanNanos(), 0.001);
+
+        long p50 = stats.getPercentileNanos(50);
+        long p99 = stats.getPercentileNanos(99);
+
+        assertTrue(p50 >= 500_000L && p50 <= 500_000L * 17 / 16, "p50 " + p50);
+        assertTrue(p99 >= 990_000L && p99 <= 1_000_000L, "p99 " + p99);
+        assertEquals(1_000_000L, stats.getPercentileNanos(100));
+
+        OperationStats unused = metrics.snapshot().getOperations().get(CacheOperation.PUT_ALL);
+
+        assertEquals(0, unused.getCount());
+        assertEquals(0, unused.getPercentileNanos(99));
+    }
+
+    @Test
+    public void testHitRate() {
+        RequestMetrics metrics = new RequestMetrics();
+
+        assertEquals(1.0, metrics.snapshot().getHitRate());
+
+        metrics.recordReads(3, 1);
+
+        RequestStats stats = metrics.snapshot();
+        assertEquals(3, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(0.75, stats.getHitRate());
+    }
+
+    @Test
+    public void testNodeRequestsRecordedByTransport() throws Exception {
+        RequestMetrics metrics = new RequestMetrics();
+        FakeTransport fake = new FakeTransport();
+        Transport transport = new MeteredTransport(fake, metrics);
+
+        fake.answer("node1:80", () -> CompletableFuture.completedFuture(bytes("value")));
+        fake.answer("node2:80", () -> CompletableFuture.failedFuture(new IOException("down")));
+
+        transport.get("node1:80", "key");
+        transport.getAsync("node1:80", "key").join();
+        assertThrows(IOException.class, () -> transport.get("node2:80", "key"));
+        assertThrows(CompletionException.class, () -> transport.getAsync("node2:80", "key").join());
+
+        RequestStats stats = metrics.snapshot();
+        OperationStats node1 = stats.getNodes().get("node1:80").get(CacheOperation.GET);
+        OperationStats node2 = stats.getNodes().get("node2:80").get(CacheOperation.GET);
+
+        assertEquals(2, node1.getCount());
+        assertEquals(0, node1.getErrorCount());
+        assertEquals(2, node2.getCount());
+        assertEquals(2, node2.getErrorCount());
+        assertEquals(0, stats.getOperations().get(CacheOperation.GET).getCount(), "Only client calls count");
+
+        metrics.retainNodes(Set.of("node1:80"));
+
+        assertFalse(metrics.snapshot().getNodes().containsKey("node2:80"));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -1,7 +1,9 @@
 package com.mehyaa.cacheclient;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.List;
 
 import org.apache.curator.framework.CuratorFramework;
@@ -12,6 +14,8 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -83,4 +87,64 @@ public class ServiceDiscoveryIntegrationTest {
             System.clearProperty("zookeeper.connect");
         }
     }
+
+    @Test
+    public void testNodesLoadedBeforeConstructorReturns() throws Exception {
+        curator.create().creatingParentsIfNeeded().forPath(ServiceDiscovery.SERVICE_PATH + "/node-a",
+                "10.0.0.1:7001".getBytes(StandardCharsets.UTF_8));
+        curator.create().forPath(ServiceDiscovery.SERVICE_PATH + "/node-b",
+                "10.0.0.2:7001".getBytes(StandardCharsets.UTF_8));
+
+        System.setProperty("zookeeper.connect", testingServer.getConnectString());
+
+        ServiceDiscovery discovery = new ServiceDiscovery();
+
+        try {
+            List<String> nodes = discovery.getNodes();
+
+            assertEquals(List.of("10.0.0.1:7001", "10.0.0.2:7001"), nodes);
+            assertThrows(UnsupportedOperationException.class, () -> nodes.add("10.0.0.3:7001"));
+        } finally {
+            discovery.close();
+            System.clearProperty("zookeeper.connect");
+        }
+    }
+
+    @Test
+    public void testBurstOfRegistrationsCoalesced() throws Exception {
+        curator.create().creatingParentsIfNeeded().forPath(ServiceDiscovery.SERVICE_PATH);
+
+        System.setProperty("zookeeper.connect", testingServer.getConnectString());
+        System.setProperty("cache.client.discovery.debounceMillis", "1000");
+
+        ServiceDiscovery discovery = new ServiceDiscovery();
+        AtomicInteger updates = new AtomicInteger();
+        List<Integer> sizes = new ArrayList<>();
+
+        discovery.addChangeListener((oldNodes, newNodes) -> {
+            updates.incrementAndGet();
+
+            synchronized (sizes) {
+                sizes.add(newNodes.size());
+            }
+        });
+
+        try {
+            for (int i = 0; i < 10; i++) {
+                curator.create().forPath(ServiceDiscovery.SERVICE_PATH + "/node-" + i,
+                        ("10.0.0." + i + ":7001").getBytes(StandardCharsets.UTF_8));
+            }
+
+            for (int i = 0; i < 50 && discovery.getNodes().size() < 10; i++) {
+                TimeUnit.MILLISECONDS.sleep(100);
+            }
+
+            assertEquals(10, discovery.getNodes().size());
+            assertTrue(updates.get() <= 2, "Ten registrations should be coalesced, got " + sizes);
+        } finally {
+            discovery.close();
+            System.clearProperty("zookeeper.connect");
+            System.clearProperty("cache.client.discovery.debounceMillis");
+        }
+    }
 }
@@ -0,0 +1,92 @@
+package com.mehyaa.cacheclient;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ValueCodecTest {
+
+    @Test
+    public void testCompressesValuesAboveThreshold() throws IOException {
+        ValueCodec codec = new ValueCodec(true, 1024);
+        byte[] value = "compressible value ".repeat(500).getBytes(StandardCharsets.UTF_8);
+
+        byte[] encoded = codec.encode(value);
+
+        assertTrue(encoded.length < value.length / 4, "Value was not compressed: " + encoded.length);
+        assertArrayEquals(value, codec.decode(encoded));
+
+        CompressionStats stats = codec.stats();
+        assertEquals(1, stats.getCompressedCount());
+        assertEquals(1, stats.getDecompressedCount());
+        assertEquals(value.length, stats.getUncompressedBytes());
+        assertTrue(stats.getCompressionRatio() < 0.25);
+    }
+
+    @Test
+    public void testSmallAndIncompressibleValuesStayRaw() throws IOException {
+        ValueCodec codec = new ValueCodec(true, 1024);
+        byte[] small = "small".getBytes(StandardCharsets.UTF_8);
+        byte[] random = new byte[4096];
+        new Random(42).nextBytes(random);
+
+        assertSame(small, codec.encode(small));
+        assertSame(random, codec.encode(random));
+        assertEquals(1, codec.stats().getSkippedCount());
+        assertEquals(0, codec.stats().getCompressedCount());
+    }
+
+    @Test
+    public void testDecodesValuesOfDisabledAndOlderClients() throws IOException {
+        ValueCodec writer = new ValueCodec(true, 16);
+        ValueCodec reader = new ValueCodec(false, 16);
+        byte[] value = "x".repeat(1000).getBytes(StandardCharsets.UTF_8);
+        byte[] legacy = "stored before compression existed".getBytes(StandardCharsets.UTF_8);
+
+        assertArrayEquals(value, reader.decode(writer.encode(value)));
+        assertSame(legacy, reader.decode(legacy));
+        assertSame(value, reader.encode(value));
+    }
+
+    @Test
+    public void testRawValuesStartingWithMagicAreEscaped() throws IOException {
+        ValueCodec codec = new ValueCodec(true, 1024);
+        byte[] value = { (byte) 0xC0, (byte) 0xC1, 'Z', 1, 0, 0, 0, 5 };
+
+        byte[] encoded = codec.encode(value);
+
+        assertNotSame(value, encoded);
+        assertArrayEquals(value, codec.decode(encoded));
+    }
+
+    @Test
+    public void testEncodesByteBufferWithoutMovingIt() throws IOException {
+        ValueCodec codec = new ValueCodec(true, 1024);
+        byte[] value = "buffered value ".repeat(200).getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(value.length + 10);
+        buffer.position(10);
+        buffer.put(value).flip().position(10);
+
+        ByteBuffer encoded = codec.encode(buffer);
+        byte[] bytes = new byte[encoded.remaining()];
+        encoded.duplicate().get(bytes);
+
+        assertEquals(10, buffer.position());
+        assertArrayEquals(value, codec.decode(bytes));
+    }
+
+    @Test
+    public void testCorruptValueFailsWithIOException() {
+        ValueCodec codec = new ValueCodec(true, 16);
+        byte[] encoded = codec.encode("y".repeat(1000).getBytes(StandardCharsets.UTF_8));
+        byte[] truncated = Arrays.copyOf(encoded, encoded.length / 2);
+
+        assertThrows(IOException.class, () -> codec.decode(truncated));
+    }
+}
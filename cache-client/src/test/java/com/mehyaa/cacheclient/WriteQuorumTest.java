@@ -0,0 +1,79 @@
+package com.mehyaa.cacheclient;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class WriteQuorumTest {
+
+    @Test
+    public void testRequiredAcknowledgements() {
+        assertEquals(1, WriteQuorum.ONE.required(3));
+        assertEquals(2, WriteQuorum.MAJORITY.required(3));
+        assertEquals(2, WriteQuorum.MAJORITY.required(2));
+        assertEquals(1, WriteQuorum.MAJORITY.required(1));
+        assertEquals(3, WriteQuorum.ALL.required(3));
+    }
+
+    @Test
+    public void testMajorityCompletesBeforeSlowReplica() {
+        List<CompletableFuture<Void>> writes = List.of(new CompletableFuture<>(), new CompletableFuture<>(),
+                new CompletableFuture<>());
+
+        CompletableFuture<Void> result = WriteQuorum.MAJORITY.await(writes);
+
+        writes.get(0).complete(null);
+        assertFalse(result.isDone());
+
+        writes.get(2).complete(null);
+        assertTrue(result.isDone());
+        assertFalse(result.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testMajorityToleratesOneFailureOutOfThree() {
+        List<CompletableFuture<Void>> writes = List.of(new CompletableFuture<>(), new CompletableFuture<>(),
+                new CompletableFuture<>());
+
+        CompletableFuture<Void> result = WriteQuorum.MAJORITY.await(writes);
+
+        writes.get(0).completeExceptionally(new IOException("down"));
+        writes.get(1).complete(null);
+        assertFalse(result.isDone());
+
+        writes.get(2).completeExceptionally(new IOException("down too"));
+
+        CompletionException e = assertThrows(CompletionException.class, result::join);
+        assertEquals("down too", e.getCause().getMessage());
+    }
+
+    @Test
+    public void testAllFailsOnFirstFailure() {
+        List<CompletableFuture<Void>> writes = List.of(new CompletableFuture<>(), new CompletableFuture<>());
+
+        CompletableFuture<Void> result = WriteQuorum.ALL.await(writes);
+
+        writes.get(1).completeExceptionally(new IOException("down"));
+
+        assertTrue(result.isCompletedExceptionally());
+    }
+
+    @Test
+    public void testOneSucceedsWhileOthersFail() {
+        List<CompletableFuture<Void>> writes = List.of(new CompletableFuture<>(), new CompletableFuture<>());
+
+        CompletableFuture<Void> result = WriteQuorum.ONE.await(writes);
+
+        writes.get(0).completeExceptionally(new IOException("down"));
+        assertFalse(result.isDone());
+
+        writes.get(1).complete(null);
+        assertTrue(result.isDone());
+        assertFalse(result.isCompletedExceptionally());
+    }
+}
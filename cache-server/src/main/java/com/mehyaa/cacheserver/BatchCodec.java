@@ -0,0 +1,178 @@
+package com.mehyaa.cacheserver;
+
+import com.mehyaa.cacheclient.CacheProtocol;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes and decodes the bodies of the batch endpoints.
+ * All integers are big-endian, keys are UTF-8 and values raw bytes:
+ * <ul>
+ * <li>/_mget request: [count] then [keyLength][key] per key</li>
+ * <li>/_mget response: [valueLength][value] per requested key, in request order, -1 length for a missing key</li>
+ * <li>/_mset request: [count] then [keyLength][key][valueLength][value] per entry</li>
+ * <li>/_migrate request: [count] then [keyLength][key][valueLength][value][ttlMillis] per entry, the
+ * remaining time-to-live being a long, 0 if the entry does not expire</li>
+ * </ul>
+ * Malformed input results in an IllegalArgumentException.
+ */
+final class BatchCodec {
+    private BatchCodec() {
+    }
+
+    static List<String> decodeKeys(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+
+        try {
+            int count = readCount(buffer);
+            List<String> keys = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                keys.add(readString(buffer));
+            }
+
+            return keys;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch request", e);
+        }
+    }
+
+    static List<Entry> decodeEntries(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+
+        try {
+            int count = readCount(buffer);
+            List<Entry> entries = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                entries.add(new Entry(readString(buffer), readBytes(buffer)));
+            }
+
+            return entries;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch request", e);
+        }
+    }
+
+    static List<Entry> decodeMigrationEntries(byte[] body) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+
+        try {
+            int count = readCount(buffer);
+            List<Entry> entries = new ArrayList<>(count);
+
+            for (int i = 0; i < count; i++) {
+                String key = readString(buffer);
+                byte[] value = readBytes(buffer);
+                long ttlMillis = buffer.getLong();
+
+                if (ttlMillis < 0) {
+                    throw new IllegalArgumentException("Invalid TTL " + ttlMillis);
+                }
+
+                entries.add(new Entry(key, value, ttlMillis == 0 ? null : Duration.ofMillis(ttlMillis)));
+            }
+
+            return entries;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Truncated batch request", e);
+        }
+    }
+
+    static byte[] encodeMigrationEntries(List<Entry> entries) {
+        List<byte[]> keys = new ArrayList<>(entries.size());
+        int size = Integer.BYTES;
+
+        for (Entry entry : entries) {
+            byte[] key = entry.key.getBytes(StandardCharsets.UTF_8);
+            keys.add(key);
+            size += Integer.BYTES + key.length + Integer.BYTES + entry.value.length + Long.BYTES;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).putInt(entries.size());
+
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            // Round up so an entry about to expire is not sent as one that never does
+            long ttlMillis = entry.ttl == null ? 0 : Math.max(1, (entry.ttl.toNanos() + 999_999) / 1_000_000);
+
+            buffer.putInt(keys.get(i).length).put(keys.get(i))
+                    .putInt(entry.value.length).put(entry.value)
+                    .putLong(ttlMillis);
+        }
+
+        return buffer.array();
+    }
+
+    static byte[] encodeValues(List<byte[]> values) {
+        int size = 0;
+
+        for (byte[] bytes : values) {
+            size += Integer.BYTES + (bytes == null ? 0 : bytes.length);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+
+        for (byte[] bytes : values) {
+            if (bytes == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(bytes.length).put(bytes);
+            }
+        }
+
+        return buffer.array();
+    }
+
+    private static int readCount(ByteBuffer buffer) {
+        int count = buffer.getInt();
+
+        if (count < 0 || count > CacheProtocol.MAX_BATCH_SIZE) {
+            throw new IllegalArgumentException("Invalid batch size " + count);
+        }
+
+        return count;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        return new String(readBytes(buffer), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        int length = buffer.getInt();
+
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid length " + length);
+        }
+
+        byte[] value = new byte[length];
+        buffer.get(value);
+
+        return value;
+    }
+
+    /**
+     * A decoded /_mset or /_migrate entry, the time-to-live being null if it
+     * does not expire.
+     */
+    static final class Entry {
+        final String key;
+        final byte[] value;
+        final Duration ttl;
+
+        Entry(String key, byte[] value) {
+            this(key, value, null);
+        }
+
+        Entry(String key, byte[] value, Duration ttl) {
+            this.key = key;
+            this.value = value;
+            this.ttl = ttl;
+        }
+    }
+}
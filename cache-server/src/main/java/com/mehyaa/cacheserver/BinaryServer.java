@@ -0,0 +1,526 @@
+package com.mehyaa.cacheserver;
+
+import com.mehyaa.cacheclient.CacheProtocol;
+import com.mehyaa.cacheserver.cache.CacheStore;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking server for the binary protocol. Every frame is
+ * [length][payload], the length being a big-endian int counting the bytes
+ * after it:
+ * <ul>
+ * <li>request: [correlationId][opcode][body]</li>
+ * <li>response: [correlationId][status][body]</li>
+ * </ul>
+ * GET and DELETE bodies are the UTF-8 key, PUT bodies [keyLength][key][value],
+ * PUT_TTL bodies [ttlMillis][keyLength][key][value] with a long TTL and
+ * MGET/MSET bodies use the {@link BatchCodec} formats.
+ * <p>
+ * One thread accepts connections and hands them to a fixed set of worker
+ * threads, each running its own selector. Cache operations are cheap, so
+ * workers execute them inline and answer pipelined requests in order.
+ * Writes that wait for the write-ahead log to sync are answered once the log
+ * completes them; meanwhile the worker keeps reading, so the writes of all
+ * its connections share the log's fsyncs.
+ */
+final class BinaryServer {
+    static final byte OP_GET = 1;
+    static final byte OP_PUT = 2;
+    static final byte OP_DELETE = 3;
+    static final byte OP_MGET = 4;
+    static final byte OP_MSET = 5;
+    static final byte OP_PUT_TTL = 6;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_NOT_FOUND = 1;
+    static final byte STATUS_BAD_REQUEST = 2;
+    static final byte STATUS_ERROR = 3;
+
+    static final int MAX_FRAME_LENGTH = 64 * 1024 * 1024;
+
+    private static final int HEADER_LENGTH = Integer.BYTES + 1;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    // A connection stops reading with this many unanswered requests
+    private static final int MAX_PENDING_RESPONSES = 4096;
+
+    private static final Logger logger = LoggerFactory.getLogger(BinaryServer.class);
+
+    private final CacheStore cache;
+    private final ServerMetrics metrics;
+    private final ServerSocketChannel serverChannel;
+    private final Selector acceptSelector;
+    private final Worker[] workers;
+    private final Thread acceptor;
+
+    private volatile boolean running = true;
+
+    BinaryServer(CacheStore cache, ServerMetrics metrics, int port, int workerCount) throws IOException {
+        this.cache = cache;
+        this.metrics = metrics;
+
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port));
+        serverChannel.configureBlocking(false);
+
+        acceptSelector = Selector.open();
+        serverChannel.register(acceptSelector, SelectionKey.OP_ACCEPT);
+
+        workers = new Worker[workerCount];
+
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker(i);
+        }
+
+        acceptor = new Thread(this::acceptConnections, "binary-acceptor");
+    }
+
+    void start() {
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+
+        acceptor.start();
+    }
+
+    void stop() {
+        running = false;
+
+        try {
+            acceptSelector.close();
+            serverChannel.close();
+        } catch (IOException e) {
+            logger.warn("Error closing binary server socket: {}", e.getMessage(), e);
+        }
+
+        for (Worker worker : workers) {
+            worker.selector.wakeup();
+        }
+    }
+
+    private void acceptConnections() {
+        int next = 0;
+
+        try {
+            while (running) {
+                acceptSelector.select();
+                acceptSelector.selectedKeys().clear();
+
+                SocketChannel channel;
+
+                while ((channel = serverChannel.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+
+                    workers[next].register(channel);
+                    next = (next + 1) % workers.length;
+                }
+            }
+        } catch (ClosedSelectorException e) {
+            // stopped
+        } catch (IOException e) {
+            if (running) {
+                logger.error("Binary server stopped accepting connections: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * Executes one request and returns its response, which writes waiting
+     * for the log complete later.
+     */
+    private Response handle(Connection connection, int id, byte opcode, ByteBuffer body) {
+        long start = System.nanoTime();
+        byte status = STATUS_OK;
+        byte[] result = null;
+        CompletableFuture<Void> written = null;
+
+        try {
+            switch (opcode) {
+                case OP_GET:
+                    result = cache.get(readKey(body, body.remaining()));
+                    status = result == null ? STATUS_NOT_FOUND : STATUS_OK;
+                    metrics.recordReads(result == null ? 0 : 1, result == null ? 1 : 0);
+                    break;
+
+                case OP_PUT:
+                    String key = readKey(body, body.getInt());
+
+                    written = cache.putAsync(key, readValue(body), null);
+                    break;
+
+                case OP_PUT_TTL:
+                    long ttlMillis = body.getLong();
+
+                    if (ttlMillis <= 0) {
+                        throw new IllegalArgumentException("TTL must be positive");
+                    }
+
+                    String ttlKey = readKey(body, body.getInt());
+
+                    written = cache.putAsync(ttlKey, readValue(body), Duration.ofMillis(ttlMillis));
+                    break;
+
+                case OP_DELETE:
+                    written = cache.deleteAsync(readKey(body, body.remaining()));
+                    break;
+
+                case OP_MGET:
+                    List<String> keys = BatchCodec.decodeKeys(remainingBytes(body));
+                    List<byte[]> values = new ArrayList<>(keys.size());
+                    int found = 0;
+
+                    for (String k : keys) {
+                        byte[] value = cache.get(k);
+
+                        if (value != null) {
+                            found++;
+                        }
+
+                        values.add(value);
+                    }
+
+                    metrics.recordReads(found, keys.size() - found);
+                    result = BatchCodec.encodeValues(values);
+                    break;
+
+                case OP_MSET:
+                    List<BatchCodec.Entry> entries = BatchCodec.decodeEntries(remainingBytes(body));
+
+                    for (BatchCodec.Entry entry : entries) {
+                        if (!CacheProtocol.isValidKey(entry.key) || entry.value.length == 0) {
+                            throw new IllegalArgumentException("Invalid key or empty value");
+                        }
+                    }
+
+                    CompletableFuture<?>[] writes = new CompletableFuture<?>[entries.size()];
+
+                    for (int i = 0; i < writes.length; i++) {
+                        writes[i] = cache.putAsync(entries.get(i).key, entries.get(i).value, null);
+                    }
+
+                    written = CompletableFuture.allOf(writes);
+                    break;
+
+                default:
+                    throw new IllegalArgumentException("Unknown opcode " + opcode);
+            }
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            status = STATUS_BAD_REQUEST;
+            result = null;
+        } catch (RuntimeException e) {
+            logger.warn("Error handling binary request: {}", e.getMessage(), e);
+            status = STATUS_ERROR;
+            result = null;
+        }
+
+        Response response = new Response();
+
+        if (written == null || written.isDone()) {
+            if (written != null && written.isCompletedExceptionally()) {
+                status = STATUS_ERROR;
+            }
+
+            response.frame = frame(id, opcode, start, status, result);
+        } else {
+            written.whenComplete((ignored, e) -> {
+                if (e != null) {
+                    logger.warn("Error handling binary request: {}", e.getMessage());
+                }
+
+                response.frame = frame(id, opcode, start, e == null ? STATUS_OK : STATUS_ERROR, null);
+                connection.worker.completed(connection);
+            });
+        }
+
+        return response;
+    }
+
+    /**
+     * Records the request's metrics and returns its response frame.
+     */
+    private ByteBuffer frame(int id, byte opcode, long start, byte status, byte[] result) {
+        ServerMetrics.Operation operation = operation(opcode);
+
+        if (operation != null) {
+            metrics.record(operation, System.nanoTime() - start,
+                    status == STATUS_BAD_REQUEST || status == STATUS_ERROR);
+        }
+
+        int bodyLength = result == null || status != STATUS_OK ? 0 : result.length;
+        ByteBuffer response = ByteBuffer.allocate(Integer.BYTES + HEADER_LENGTH + bodyLength);
+
+        response.putInt(HEADER_LENGTH + bodyLength).putInt(id).put(status);
+
+        if (bodyLength > 0) {
+            response.put(result);
+        }
+
+        return response.flip();
+    }
+
+    private static ServerMetrics.Operation operation(byte opcode) {
+        switch (opcode) {
+            case OP_GET:
+                return ServerMetrics.Operation.GET;
+            case OP_PUT:
+            case OP_PUT_TTL:
+                return ServerMetrics.Operation.PUT;
+            case OP_DELETE:
+                return ServerMetrics.Operation.DELETE;
+            case OP_MGET:
+                return ServerMetrics.Operation.MGET;
+            case OP_MSET:
+                return ServerMetrics.Operation.MSET;
+            default:
+                return null;
+        }
+    }
+
+    private static String readKey(ByteBuffer body, int length) {
+        if (length <= 0 || length > body.remaining()) {
+            throw new IllegalArgumentException("Invalid key length " + length);
+        }
+
+        String key = new String(body.array(), body.arrayOffset() + body.position(), length, StandardCharsets.UTF_8);
+        body.position(body.position() + length);
+
+        if (!CacheProtocol.isValidKey(key)) {
+            throw new IllegalArgumentException("Reserved key " + key);
+        }
+
+        return key;
+    }
+
+    private static byte[] readValue(ByteBuffer body) {
+        if (!body.hasRemaining()) {
+            throw new IllegalArgumentException("Empty value");
+        }
+
+        return remainingBytes(body);
+    }
+
+    private static byte[] remainingBytes(ByteBuffer body) {
+        byte[] bytes = new byte[body.remaining()];
+        body.get(bytes);
+
+        return bytes;
+    }
+
+    /**
+     * Runs a selector over its share of the connections.
+     */
+    private final class Worker {
+        final Selector selector;
+        final Thread thread;
+
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<Connection> completedConnections = new ConcurrentLinkedQueue<>();
+
+        Worker(int index) throws IOException {
+            selector = Selector.open();
+            thread = new Thread(this::run, "binary-worker-" + index);
+        }
+
+        void register(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Has the connection write its responses that completed on another
+         * thread.
+         */
+        void completed(Connection connection) {
+            completedConnections.add(connection);
+            selector.wakeup();
+        }
+
+        private void run() {
+            try {
+                while (running) {
+                    selector.select();
+
+                    SocketChannel channel;
+
+                    while ((channel = newChannels.poll()) != null) {
+                        Connection connection = new Connection(channel, this);
+                        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    }
+
+                    Connection completed;
+
+                    while ((completed = completedConnections.poll()) != null) {
+                        try {
+                            if (completed.key.isValid()) {
+                                completed.write(completed.key);
+                            }
+                        } catch (IOException e) {
+                            completed.close(completed.key);
+                        }
+                    }
+
+                    for (SelectionKey key : selector.selectedKeys()) {
+                        Connection connection = (Connection) key.attachment();
+
+                        try {
+                            if (key.isReadable()) {
+                                connection.read(key);
+                            }
+
+                            if (key.isValid() && key.isWritable()) {
+                                connection.write(key);
+                            }
+                        } catch (IOException e) {
+                            connection.close(key);
+                        }
+                    }
+
+                    selector.selectedKeys().clear();
+                }
+            } catch (IOException e) {
+                logger.error("Binary worker stopped: {}", e.getMessage(), e);
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    try {
+                        key.channel().close();
+                    } catch (IOException ignored) {
+                    }
+                }
+
+                try {
+                    selector.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Response to a request, its frame set once the request completes.
+     */
+    private static final class Response {
+        volatile ByteBuffer frame;
+    }
+
+    /**
+     * Buffers partial request frames and pending responses of a connection.
+     */
+    private final class Connection {
+        final Worker worker;
+        SelectionKey key;
+
+        private final SocketChannel channel;
+        private final Queue<Response> responses = new ArrayDeque<>();
+
+        private ByteBuffer input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+        Connection(SocketChannel channel, Worker worker) {
+            this.channel = channel;
+            this.worker = worker;
+        }
+
+        void read(SelectionKey key) throws IOException {
+            int count = channel.read(input);
+
+            if (count < 0) {
+                close(key);
+                return;
+            }
+
+            input.flip();
+
+            while (input.remaining() >= Integer.BYTES) {
+                int length = input.getInt(input.position());
+
+                if (length < HEADER_LENGTH || length > MAX_FRAME_LENGTH) {
+                    throw new IOException("Invalid frame length " + length);
+                }
+
+                if (input.remaining() < Integer.BYTES + length) {
+                    // Make room for the rest of a large frame
+                    if (input.capacity() < Integer.BYTES + length) {
+                        ByteBuffer larger = ByteBuffer.allocate(Integer.BYTES + length);
+                        larger.put(input);
+                        larger.flip();
+                        input = larger;
+                    }
+
+                    break;
+                }
+
+                int frameEnd = input.position() + Integer.BYTES + length;
+
+                input.position(input.position() + Integer.BYTES);
+
+                int id = input.getInt();
+                byte opcode = input.get();
+                ByteBuffer body = input.slice(input.position(), frameEnd - input.position());
+
+                responses.add(handle(this, id, opcode, body));
+                input.position(frameEnd);
+            }
+
+            input.compact();
+
+            // Shrink back once a large frame is done
+            if (input.position() == 0 && input.capacity() > READ_BUFFER_SIZE) {
+                input = ByteBuffer.allocate(READ_BUFFER_SIZE);
+            }
+
+            write(key);
+        }
+
+        void write(SelectionKey key) throws IOException {
+            while (!responses.isEmpty()) {
+                ByteBuffer frame = responses.peek().frame;
+
+                // Responses go out in order, the rest waits for this one to complete
+                if (frame == null) {
+                    break;
+                }
+
+                channel.write(frame);
+
+                // Stop reading requests until the client catches up with the responses
+                if (frame.hasRemaining()) {
+                    key.interestOps(SelectionKey.OP_WRITE);
+                    return;
+                }
+
+                responses.poll();
+            }
+
+            key.interestOps(responses.size() < MAX_PENDING_RESPONSES ? SelectionKey.OP_READ : 0);
+        }
+
+        void close(SelectionKey key) {
+            key.cancel();
+
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
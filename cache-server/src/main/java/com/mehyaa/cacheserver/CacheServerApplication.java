@@ -1,41 +1,100 @@
 package com.mehyaa.cacheserver;
 
-import com.mehyaa.cacheserver.cache.InMemoryCache;
+import com.mehyaa.cacheclient.CacheProtocol;
+import com.mehyaa.cacheclient.NodeSelectorType;
+import com.mehyaa.cacheserver.cache.CacheStore;
+import com.mehyaa.cacheserver.cache.StorageEngine;
+import com.mehyaa.cacheserver.persistence.LoggedCacheStore;
+import com.mehyaa.cacheserver.persistence.SnapshotManager;
+import com.mehyaa.cacheserver.persistence.WriteAheadLog;
 
 import io.javalin.Javalin;
+import io.javalin.config.JavalinConfig;
+import io.javalin.http.Context;
 import io.javalin.http.Handler;
-
+import io.javalin.util.ConcurrencyUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.Enumeration;
 
+import jakarta.servlet.http.HttpServletResponse;
+
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.retry.ExponentialBackoffRetry;
 import org.apache.zookeeper.CreateMode;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.ServerConnector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 public class CacheServerApplication {
     private static final int DEFAULT_PORT = 6379;
 
+    private static final String TTL_HEADER = "X-Cache-TTL";
+    private static final String TTL_PARAM = "ttl";
+    private static final String OCTET_STREAM = "application/octet-stream";
+
+    private static final String CURSOR_PARAM = "cursor";
+    private static final String PREFIX_PARAM = "prefix";
+    private static final String COUNT_PARAM = "count";
+    private static final int DEFAULT_SCAN_COUNT = 1000;
+    private static final int SCAN_BUFFER_BYTES = 64 * 1024;
+
+    // Values may be as large over HTTP as over the binary protocol
+    private static final int MAX_BODY_LENGTH = BinaryServer.MAX_FRAME_LENGTH;
+
     private static final Logger logger = LoggerFactory.getLogger(CacheServerApplication.class);
 
     public static void main(String[] args) {
         final int port = parsePort(args);
 
-        InMemoryCache cache = InMemoryCache.getInstance();
+        CacheStore store = StorageEngine.createFromConfig();
+
+        // Warm the cache up before the node is registered and gets traffic
+        SnapshotManager snapshots = startSnapshots(store);
+        WriteAheadLog writeAheadLog = openWriteAheadLog(store, snapshots);
+        CacheStore cache = writeAheadLog == null ? store : new LoggedCacheStore(store, writeAheadLog);
 
         // Start Javalin
-        Javalin app = Javalin.create().start(port);
+        Javalin app = Javalin.create(config -> configureJetty(config, port)).start(port);
+
+        ServerMetrics metrics = new ServerMetrics();
+        BinaryServer binaryServer = startBinaryServer(cache, metrics, port);
 
         AtomicReference<CuratorFramework> zkClientRef = new AtomicReference<>();
         AtomicReference<String> registeredPathRef = new AtomicReference<>();
+        AtomicReference<Rebalancer> rebalancerRef = new AtomicReference<>();
 
-        // Register with ZooKeeper if configured
+        // Register handlers (use functions to create handlers bound to the cache)
+        // Reserved endpoints must be registered before the key wildcards to take precedence
+        app.post("/_mget", metered(metrics, ServerMetrics.Operation.MGET, createBatchGetHandler(cache, metrics)));
+        app.post("/_mset", metered(metrics, ServerMetrics.Operation.MSET, createBatchUpsertHandler(cache)));
+        app.post("/_migrate", metered(metrics, ServerMetrics.Operation.MIGRATE, createMigrateHandler(cache)));
+        app.get("/_stats", createStatsHandler(cache, metrics));
+        app.get("/_scan", metered(metrics, ServerMetrics.Operation.SCAN, createScanHandler(createKeyScanner(cache))));
+
+        app.get("/*", metered(metrics, ServerMetrics.Operation.GET, createGetHandler(cache, metrics)));
+        app.put("/*", metered(metrics, ServerMetrics.Operation.PUT, createUpsertHandler(cache)));
+        app.post("/*", metered(metrics, ServerMetrics.Operation.PUT, createUpsertHandler(cache)));
+        app.delete("/*", metered(metrics, ServerMetrics.Operation.DELETE, createDeleteHandler(cache)));
+
+        // Register with ZooKeeper if configured, once the handlers are in place to serve its traffic
         String zkConnectString = getZkConnectString();
 
         if (zkConnectString != null && !zkConnectString.isEmpty()) {
@@ -53,20 +112,26 @@ public class CacheServerApplication {
                         .forPath(path, data.getBytes(StandardCharsets.UTF_8));
                 registeredPathRef.set(registeredPath);
                 logger.info("Registered in ZooKeeper at {} -> {}", registeredPath, data);
+
+                rebalancerRef.set(startRebalancer(cache, data));
             } catch (Exception e) {
                 logger.warn("Failed to register in ZooKeeper: {}", e.getMessage(), e);
             }
         }
 
-        // Register handlers (use functions to create handlers bound to the cache)
-        app.get("/*", createGetHandler(cache));
-        app.put("/*", createUpsertHandler(cache));
-        app.post("/*", createUpsertHandler(cache));
-        app.delete("/*", createDeleteHandler(cache));
-
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            Rebalancer rebalancer = rebalancerRef.get();
+
+            if (rebalancer != null) {
+                rebalancer.stop();
+            }
+
             app.stop();
 
+            if (binaryServer != null) {
+                binaryServer.stop();
+            }
+
             logger.info("Cache server stopped.");
 
             CuratorFramework curator = zkClientRef.get();
@@ -83,6 +148,14 @@ public class CacheServerApplication {
 
                 curator.close();
             }
+
+            if (writeAheadLog != null) {
+                writeAheadLog.close();
+            }
+
+            if (snapshots != null) {
+                snapshots.stop();
+            }
         }));
 
         logger.info("Cache server started on port {}", port);
@@ -110,25 +183,272 @@ public class CacheServerApplication {
         return DEFAULT_PORT;
     }
 
+    /**
+     * Configures Jetty from application variables. Handlers run on virtual
+     * threads if 'cache.server.http.virtualThreads' (env
+     * 'CACHE_HTTP_VIRTUAL_THREADS') is true, otherwise on a pool of at most
+     * 'cache.server.http.maxThreads' platform threads (default 250). The
+     * connector uses 'cache.server.http.acceptors' (default 1) and
+     * 'cache.server.http.selectors' (default Jetty's, half the cores) threads
+     * and queues up to 'cache.server.http.acceptQueueSize' (default 1024)
+     * connections not accepted yet, so connection spikes are not refused.
+     * <p>
+     * Unless 'cache.server.http.h2c' (env 'CACHE_HTTP_H2C') is false, the
+     * connector also accepts cleartext HTTP/2 with prior knowledge, each
+     * connection multiplexing up to 'cache.server.http.maxConcurrentStreams'
+     * (default 256) requests. HTTP/1.1 clients are served as before.
+     */
+    private static void configureJetty(JavalinConfig config, int port) {
+        boolean virtualThreads = ServerConfig.getBoolean("cache.server.http.virtualThreads",
+                "CACHE_HTTP_VIRTUAL_THREADS", false);
+        int maxThreads = ServerConfig.getInt("cache.server.http.maxThreads", "CACHE_HTTP_MAX_THREADS", 250);
+        int acceptors = ServerConfig.getInt("cache.server.http.acceptors", "CACHE_HTTP_ACCEPTORS", 1);
+        int selectors = ServerConfig.getInt("cache.server.http.selectors", "CACHE_HTTP_SELECTORS", -1);
+        int acceptQueueSize = ServerConfig.getInt("cache.server.http.acceptQueueSize",
+                "CACHE_HTTP_ACCEPT_QUEUE_SIZE", 1024);
+        boolean h2c = ServerConfig.getBoolean("cache.server.http.h2c", "CACHE_HTTP_H2C", true);
+        int maxConcurrentStreams = ServerConfig.getInt("cache.server.http.maxConcurrentStreams",
+                "CACHE_HTTP_MAX_CONCURRENT_STREAMS", 256);
+
+        config.useVirtualThreads = virtualThreads;
+        config.jetty.threadPool = ConcurrencyUtil.jettyThreadPool("JettyServerThreadPool", Math.min(8, maxThreads),
+                maxThreads, virtualThreads);
+
+        config.jetty.addConnector((server, httpConfiguration) -> {
+            HttpConnectionFactory http1 = new HttpConnectionFactory(httpConfiguration);
+            ServerConnector connector;
+
+            if (h2c) {
+                // HTTP/1.1 stays the default, connections starting with the HTTP/2 preface are upgraded
+                HTTP2CServerConnectionFactory http2 = new HTTP2CServerConnectionFactory(httpConfiguration);
+                http2.setMaxConcurrentStreams(maxConcurrentStreams);
+
+                connector = new ServerConnector(server, acceptors, selectors, http1, http2);
+            } else {
+                connector = new ServerConnector(server, acceptors, selectors, http1);
+            }
+
+            connector.setPort(port);
+            connector.setAcceptQueueSize(acceptQueueSize);
+
+            return connector;
+        });
+
+        logger.info("HTTP handlers run on {}, h2c {}", virtualThreads ? "virtual threads" : maxThreads + " platform threads",
+                h2c ? "enabled" : "disabled");
+    }
+
+    /**
+     * Starts moving entries to their new owners on topology changes, unless
+     * 'cache.server.rebalance.enabled' (env 'CACHE_REBALANCE_ENABLED') is
+     * false. Batches hold 'cache.server.rebalance.batchSize' entries (default
+     * 500) and are paced to 'cache.server.rebalance.maxEntriesPerSecond'
+     * (default 10000, 0 unlimited); failed rounds are retried after
+     * 'cache.server.rebalance.retryDelayMillis' (default 5000). Returns null
+     * if disabled or the topology can't be watched.
+     */
+    private static Rebalancer startRebalancer(CacheStore cache, String self) {
+        if (!ServerConfig.getBoolean("cache.server.rebalance.enabled", "CACHE_REBALANCE_ENABLED", true)) {
+            return null;
+        }
+
+        // Keys must be placed exactly like the clients do
+        int replicationFactor = ServerConfig.getInt("cache.client.replicationFactor", "CACHE_REPLICATION_FACTOR", 1);
+        int batchSize = ServerConfig.getInt("cache.server.rebalance.batchSize", "CACHE_REBALANCE_BATCH_SIZE", 500);
+        int maxEntriesPerSecond = ServerConfig.getInt("cache.server.rebalance.maxEntriesPerSecond",
+                "CACHE_REBALANCE_MAX_ENTRIES_PER_SECOND", 10_000);
+        long retryDelayMillis = ServerConfig.getLong("cache.server.rebalance.retryDelayMillis",
+                "CACHE_REBALANCE_RETRY_DELAY_MILLIS", 5000);
+
+        Rebalancer rebalancer = new Rebalancer(cache, self, NodeSelectorType.fromConfig(), replicationFactor,
+                batchSize, maxEntriesPerSecond, retryDelayMillis);
+
+        try {
+            rebalancer.start();
+
+            return rebalancer;
+        } catch (Exception e) {
+            logger.warn("Failed to start rebalancing: {}", e.getMessage(), e);
+            rebalancer.stop();
+
+            return null;
+        }
+    }
+
+    /**
+     * Creates the scan cursors, at most 'cache.server.scan.maxCursors' (env
+     * 'CACHE_SCAN_MAX_CURSORS', default 64) open at once, each dropped after
+     * 'cache.server.scan.cursorTimeoutMillis' (env
+     * 'CACHE_SCAN_CURSOR_TIMEOUT_MILLIS', default 60000) without a request.
+     */
+    private static KeyScanner createKeyScanner(CacheStore cache) {
+        int maxCursors = ServerConfig.getInt("cache.server.scan.maxCursors", "CACHE_SCAN_MAX_CURSORS", 64);
+        long cursorTimeoutMillis = ServerConfig.getLong("cache.server.scan.cursorTimeoutMillis",
+                "CACHE_SCAN_CURSOR_TIMEOUT_MILLIS", 60_000);
+
+        return new KeyScanner(cache, maxCursors, cursorTimeoutMillis);
+    }
+
+    /**
+     * Loads the snapshot file read from application variables (system property
+     * 'cache.server.snapshot.path' or env 'CACHE_SNAPSHOT_PATH') and saves it
+     * again every 'cache.server.snapshot.intervalSeconds' (env
+     * 'CACHE_SNAPSHOT_INTERVAL_SECONDS', default 60), 0 or less saving only on
+     * shutdown. Snapshots are disabled without a path.
+     */
+    private static SnapshotManager startSnapshots(CacheStore cache) {
+        String path = ServerConfig.getString("cache.server.snapshot.path", "CACHE_SNAPSHOT_PATH", null);
+
+        if (path == null) {
+            logger.info("Snapshots disabled");
+            return null;
+        }
+
+        long intervalSeconds = ServerConfig.getLong("cache.server.snapshot.intervalSeconds",
+                "CACHE_SNAPSHOT_INTERVAL_SECONDS", 60);
+
+        SnapshotManager snapshots = new SnapshotManager(cache, Path.of(path));
+
+        try {
+            snapshots.load();
+        } catch (IOException e) {
+            // Starting empty would replace the snapshot with the next save
+            throw new UncheckedIOException("Failed to read snapshot " + path, e);
+        }
+
+        if (intervalSeconds > 0) {
+            snapshots.start(Duration.ofSeconds(intervalSeconds));
+        }
+
+        return snapshots;
+    }
+
+    /**
+     * Opens the write-ahead log in the directory read from application
+     * variables (system property 'cache.server.wal.path' or env
+     * 'CACHE_WAL_PATH') and replays it. The log is disabled without a path.
+     * It's synced per 'cache.server.wal.fsync' (always, interval or never,
+     * default interval) every 'cache.server.wal.fsyncIntervalMillis' (default
+     * 5) and compacted into the snapshot, or a checkpoint file in the
+     * directory if snapshots are disabled, every
+     * 'cache.server.wal.compactBytes' (default 256 MiB).
+     */
+    private static WriteAheadLog openWriteAheadLog(CacheStore store, SnapshotManager snapshots) {
+        String path = ServerConfig.getString("cache.server.wal.path", "CACHE_WAL_PATH", null);
+
+        if (path == null) {
+            logger.info("Write-ahead log disabled");
+            return null;
+        }
+
+        WriteAheadLog.SyncPolicy syncPolicy = WriteAheadLog.SyncPolicy.INTERVAL;
+        String fsync = ServerConfig.getString("cache.server.wal.fsync", "CACHE_WAL_FSYNC", null);
+
+        if (fsync != null) {
+            try {
+                syncPolicy = WriteAheadLog.SyncPolicy.parse(fsync);
+            } catch (IllegalArgumentException e) {
+                logger.warn("Unknown fsync policy {}. Using default {}", fsync, syncPolicy);
+            }
+        }
+
+        long intervalMillis = ServerConfig.getLong("cache.server.wal.fsyncIntervalMillis",
+                "CACHE_WAL_FSYNC_INTERVAL_MILLIS", 5);
+        long compactBytes = ServerConfig.getLong("cache.server.wal.compactBytes", "CACHE_WAL_COMPACT_BYTES",
+                256L * 1024 * 1024);
+
+        Path directory = Path.of(path);
+        SnapshotManager checkpoint = snapshots;
+
+        try {
+            if (checkpoint == null) {
+                checkpoint = new SnapshotManager(store, directory.resolve("checkpoint.snap"));
+                checkpoint.load();
+            }
+
+            WriteAheadLog writeAheadLog = new WriteAheadLog(directory, syncPolicy,
+                    Duration.ofMillis(Math.max(1, intervalMillis)), compactBytes, checkpoint);
+            writeAheadLog.replay(store);
+            writeAheadLog.start();
+
+            logger.info("Write-ahead log in {} with fsync policy {}", directory, syncPolicy);
+
+            return writeAheadLog;
+        } catch (IOException e) {
+            // Serving without the log would silently lose the durability it was enabled for
+            throw new UncheckedIOException("Failed to open write-ahead log in " + directory, e);
+        }
+    }
+
+    /**
+     * Starts the binary protocol server on the HTTP port plus the offset read
+     * from application variables (system property 'cache.server.binaryPortOffset'
+     * or env 'CACHE_BINARY_PORT_OFFSET', default 1). An offset of 0 or less
+     * disables it.
+     */
+    private static BinaryServer startBinaryServer(CacheStore cache, ServerMetrics metrics, int port) {
+        int offset = ServerConfig.getInt("cache.server.binaryPortOffset", "CACHE_BINARY_PORT_OFFSET", 1);
+
+        if (offset <= 0) {
+            logger.info("Binary protocol disabled");
+            return null;
+        }
+
+        try {
+            BinaryServer server = new BinaryServer(cache, metrics, port + offset,
+                    Runtime.getRuntime().availableProcessors());
+            server.start();
+
+            logger.info("Binary protocol listening on port {}", port + offset);
+
+            return server;
+        } catch (IOException e) {
+            logger.error("Failed to start binary protocol on port {}: {}", port + offset, e.getMessage(), e);
+
+            return null;
+        }
+    }
+
+    /**
+     * Wraps a handler to record its latency and outcome. Responses with an
+     * error status count as failed, except a GET's 404, which is a miss.
+     */
+    private static Handler metered(ServerMetrics metrics, ServerMetrics.Operation operation, Handler handler) {
+        return ctx -> {
+            long start = System.nanoTime();
+            boolean failed = true;
+
+            try {
+                handler.handle(ctx);
+
+                int status = ctx.statusCode();
+                failed = status >= 400 && !(status == 404 && operation == ServerMetrics.Operation.GET);
+            } finally {
+                metrics.record(operation, System.nanoTime() - start, failed);
+            }
+        };
+    }
+
     /**
      * Creates a handler for GET requests.
      */
-    private static Handler createGetHandler(InMemoryCache cache) {
+    private static Handler createGetHandler(CacheStore cache, ServerMetrics metrics) {
         return ctx -> {
             String rawPath = ctx.path();
             String key = rawPath.startsWith("/") ? rawPath.substring(1) : rawPath;
 
-            if (key.isEmpty()) {
+            if (!CacheProtocol.isValidKey(key)) {
                 ctx.status(400);
                 return;
             }
 
-            String value = cache.get(key);
+            byte[] value = cache.get(key);
 
             if (value != null) {
-                ctx.contentType("text/plain");
-                ctx.result(value).status(200);
+                metrics.recordReads(1, 0);
+                writeBody(ctx, value);
             } else {
+                metrics.recordReads(0, 1);
                 ctx.status(404);
             }
         };
@@ -137,38 +457,128 @@ public class CacheServerApplication {
     /**
      * Creates a handler for PUT/POST requests.
      */
-    private static Handler createUpsertHandler(InMemoryCache cache) {
+    private static Handler createUpsertHandler(CacheStore cache) {
         return ctx -> {
             String rawPath = ctx.path();
             String key = rawPath.startsWith("/") ? rawPath.substring(1) : rawPath;
 
-            if (key.isEmpty()) {
+            if (!CacheProtocol.isValidKey(key)) {
                 ctx.status(400);
                 return;
             }
 
-            String body = ctx.body();
+            byte[] body = readBody(ctx);
+
+            if (body == null) {
+                ctx.status(413);
+                return;
+            }
 
-            if (body == null || body.isEmpty()) {
+            if (body.length == 0) {
                 ctx.status(400);
                 return;
             }
 
-            cache.put(key, body);
+            Duration ttl;
+
+            try {
+                ttl = parseTtl(ctx.header(TTL_HEADER), ctx.queryParam(TTL_PARAM));
+            } catch (IllegalArgumentException e) {
+                ctx.status(400);
+                return;
+            }
+
+            if (ttl == null) {
+                cache.put(key, body);
+            } else {
+                cache.put(key, body, ttl);
+            }
 
             ctx.status(200);
         };
     }
 
+    /**
+     * Reads the request body straight from the servlet stream into an array
+     * of the announced length, which is then stored as is. Javalin's
+     * bodyAsBytes() would buffer it in a growing stream and copy it again.
+     * Returns null if the body is larger than MAX_BODY_LENGTH.
+     */
+    private static byte[] readBody(Context ctx) throws IOException {
+        long length = ctx.req().getContentLengthLong();
+
+        if (length > MAX_BODY_LENGTH) {
+            return null;
+        }
+
+        InputStream in = ctx.req().getInputStream();
+
+        if (length < 0) {
+            // Chunked body, its length is only known at the end
+            byte[] body = in.readNBytes(MAX_BODY_LENGTH + 1);
+
+            return body.length > MAX_BODY_LENGTH ? null : body;
+        }
+
+        byte[] body = new byte[(int) length];
+        int read = in.readNBytes(body, 0, body.length);
+
+        if (read < body.length) {
+            throw new EOFException("Request body ended after " + read + " of " + length + " bytes");
+        }
+
+        return body;
+    }
+
+    /**
+     * Writes the bytes straight to the servlet stream. Going through
+     * ctx.result() would copy them through an input stream and gzip them for
+     * clients accepting it, OkHttp always does, though values are opaque and
+     * compressed by the client when worth it.
+     */
+    private static void writeBody(Context ctx, byte[] body) throws IOException {
+        ctx.status(200).contentType(OCTET_STREAM);
+
+        HttpServletResponse response = ctx.res();
+        response.setContentLength(body.length);
+        response.getOutputStream().write(body);
+    }
+
+    /**
+     * Parses the time-to-live in milliseconds from the header or, if absent,
+     * the query parameter. Returns null if neither is present.
+     */
+    private static Duration parseTtl(String header, String param) {
+        String value = header != null && !header.isEmpty() ? header : param;
+
+        if (value == null || value.isEmpty()) {
+            return null;
+        }
+
+        long millis;
+
+        try {
+            millis = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid TTL " + value, e);
+        }
+
+        if (millis <= 0) {
+            throw new IllegalArgumentException("TTL must be positive");
+        }
+
+        return Duration.ofMillis(millis);
+    }
+
     /**
      * Creates a handler for DELETE requests.
      */
-    private static Handler createDeleteHandler(InMemoryCache cache) {
+    private static Handler createDeleteHandler(CacheStore cache) {
         return ctx -> {
             String rawPath = ctx.path();
             String key = rawPath.startsWith("/") ? rawPath.substring(1) : rawPath;
 
-            if (key.isEmpty()) {
+            if (!CacheProtocol.isValidKey(key)) {
                 ctx.status(400);
                 return;
             }
@@ -179,6 +589,206 @@ public class CacheServerApplication {
         };
     }
 
+    /**
+     * Creates a handler for multi-get requests. The response holds the values
+     * in request order, see {@link BatchCodec} for the format.
+     */
+    private static Handler createBatchGetHandler(CacheStore cache, ServerMetrics metrics) {
+        return ctx -> {
+            byte[] body = readBody(ctx);
+
+            if (body == null) {
+                ctx.status(413);
+                return;
+            }
+
+            List<String> keys;
+
+            try {
+                keys = BatchCodec.decodeKeys(body);
+            } catch (IllegalArgumentException e) {
+                ctx.status(400);
+                return;
+            }
+
+            List<byte[]> values = new ArrayList<>(keys.size());
+            int found = 0;
+
+            for (String key : keys) {
+                byte[] value = cache.get(key);
+
+                if (value != null) {
+                    found++;
+                }
+
+                values.add(value);
+            }
+
+            metrics.recordReads(found, keys.size() - found);
+            writeBody(ctx, BatchCodec.encodeValues(values));
+        };
+    }
+
+    /**
+     * Creates a handler for multi-put requests.
+     */
+    private static Handler createBatchUpsertHandler(CacheStore cache) {
+        return ctx -> {
+            byte[] body = readBody(ctx);
+
+            if (body == null) {
+                ctx.status(413);
+                return;
+            }
+
+            List<BatchCodec.Entry> entries;
+
+            try {
+                entries = BatchCodec.decodeEntries(body);
+            } catch (IllegalArgumentException e) {
+                ctx.status(400);
+                return;
+            }
+
+            for (BatchCodec.Entry entry : entries) {
+                if (!CacheProtocol.isValidKey(entry.key) || entry.value.length == 0) {
+                    ctx.status(400);
+                    return;
+                }
+            }
+
+            for (BatchCodec.Entry entry : entries) {
+                cache.put(entry.key, entry.value);
+            }
+
+            ctx.status(200);
+        };
+    }
+
+    /**
+     * Creates a handler for entries migrated from another node. Only keys
+     * without a live entry are stored, so writes that reached this node
+     * first are kept.
+     */
+    private static Handler createMigrateHandler(CacheStore cache) {
+        return ctx -> {
+            byte[] body = readBody(ctx);
+
+            if (body == null) {
+                ctx.status(413);
+                return;
+            }
+
+            List<BatchCodec.Entry> entries;
+
+            try {
+                entries = BatchCodec.decodeMigrationEntries(body);
+            } catch (IllegalArgumentException e) {
+                ctx.status(400);
+                return;
+            }
+
+            for (BatchCodec.Entry entry : entries) {
+                if (entry.key.isEmpty() || entry.value.length == 0) {
+                    ctx.status(400);
+                    return;
+                }
+            }
+
+            for (BatchCodec.Entry entry : entries) {
+                cache.putIfAbsent(entry.key, entry.value, entry.ttl);
+            }
+
+            ctx.status(200);
+        };
+    }
+
+    /**
+     * Creates a handler returning a page of keys. Without a cursor a scan of
+     * the keys starting with the 'prefix' parameter is started, otherwise the
+     * scan of the cursor continues. Keys are written to the servlet stream as
+     * they are read, chunked, followed by the cursor of the next page, so
+     * the server buffers a few of them at most. A page that fails half-way
+     * ends its scan.
+     * <p>
+     * The body is [keyLength][key] per key, then -1 and [cursorLength][cursor],
+     * the cursor being empty once every key was returned. Integers are
+     * big-endian, keys and the cursor UTF-8.
+     */
+    private static Handler createScanHandler(KeyScanner scanner) {
+        return ctx -> {
+            int count;
+
+            try {
+                String param = ctx.queryParam(COUNT_PARAM);
+                count = param == null || param.isEmpty() ? DEFAULT_SCAN_COUNT : Integer.parseInt(param.trim());
+            } catch (NumberFormatException e) {
+                count = -1;
+            }
+
+            if (count <= 0 || count > KeyScanner.MAX_PAGE_SIZE) {
+                ctx.status(400);
+                return;
+            }
+
+            String id = ctx.queryParam(CURSOR_PARAM);
+            KeyScanner.Cursor cursor;
+
+            if (id == null || id.isEmpty()) {
+                String prefix = ctx.queryParam(PREFIX_PARAM);
+                cursor = scanner.open(prefix == null ? "" : prefix);
+
+                if (cursor == null) {
+                    ctx.status(429);
+                    return;
+                }
+            } else {
+                cursor = scanner.take(id);
+
+                if (cursor == null) {
+                    ctx.status(404);
+                    return;
+                }
+            }
+
+            ctx.status(200).contentType(OCTET_STREAM);
+
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(ctx.res().getOutputStream(), SCAN_BUFFER_BYTES));
+
+            for (int i = 0; i < count; i++) {
+                String key = cursor.next();
+
+                if (key == null) {
+                    break;
+                }
+
+                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            // Released before the client can see the cursor and ask for the next page
+            String next = scanner.release(cursor);
+            byte[] nextBytes = next == null ? new byte[0] : next.getBytes(StandardCharsets.UTF_8);
+
+            out.writeInt(-1);
+            out.writeInt(nextBytes.length);
+            out.write(nextBytes);
+            out.flush();
+        };
+    }
+
+    /**
+     * Creates a handler reporting storage and request statistics as JSON.
+     */
+    private static Handler createStatsHandler(CacheStore cache, ServerMetrics metrics) {
+        return ctx -> {
+            ctx.contentType("application/json");
+            ctx.result(metrics.toJson(cache.stats())).status(200);
+        };
+    }
+
     /**
      * Reads ZooKeeper connect string from application variables
      * (system property 'zookeeper.connect' or env 'ZOOKEEPER_CONNECT' /
@@ -0,0 +1,127 @@
+package com.mehyaa.cacheserver;
+
+import com.mehyaa.cacheserver.cache.CacheStore;
+
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cursors of /_scan, each walking the store's keys with its own weakly
+ * consistent iterator. A page resumes the iterator where the previous one
+ * stopped, so walking every key costs one pass over the store however many
+ * pages it takes, and neither side holds more than a page.
+ * <p>
+ * A cursor is taken out of the registry while a page is read from it, so
+ * concurrent requests can't share its iterator, and put back under a new id
+ * once the page's keys are written. A page that failed half-way can't be
+ * resumed past keys the client never received. Cursors idle for longer than
+ * the timeout are dropped, and at most maxCursors are open at once.
+ */
+final class KeyScanner {
+    static final int MAX_PAGE_SIZE = 10_000;
+
+    private final CacheStore cache;
+    private final int maxCursors;
+    private final long idleTimeoutNanos;
+
+    private final ConcurrentMap<String, Cursor> cursors = new ConcurrentHashMap<>();
+
+    KeyScanner(CacheStore cache, int maxCursors, long idleTimeoutMillis) {
+        this.cache = cache;
+        this.maxCursors = maxCursors;
+        this.idleTimeoutNanos = idleTimeoutMillis * 1_000_000L;
+    }
+
+    /**
+     * Opens a cursor over the keys starting with the prefix, already taken
+     * for its first page. Returns null if too many cursors are open.
+     */
+    Cursor open(String prefix) {
+        dropIdleCursors();
+
+        if (cursors.size() >= maxCursors) {
+            return null;
+        }
+
+        return new Cursor(prefix, cache.keys());
+    }
+
+    /**
+     * Takes the cursor for reading its next page, null if it is unknown,
+     * idle for too long, finished or in use by another request.
+     */
+    Cursor take(String id) {
+        dropIdleCursors();
+
+        return cursors.remove(id);
+    }
+
+    /**
+     * Puts a cursor back after the keys of a page were written and returns
+     * its id for the next page, or null if it is finished.
+     */
+    String release(Cursor cursor) {
+        if (!cursor.hasNext()) {
+            return null;
+        }
+
+        String id = UUID.randomUUID().toString();
+        cursor.lastUsed = System.nanoTime();
+        cursors.put(id, cursor);
+
+        return id;
+    }
+
+    private void dropIdleCursors() {
+        long now = System.nanoTime();
+
+        cursors.values().removeIf(cursor -> now - cursor.lastUsed > idleTimeoutNanos);
+    }
+
+    /**
+     * Position of one scan, used by a single request at a time.
+     */
+    static final class Cursor {
+        final String prefix;
+        final Iterator<String> keys;
+
+        volatile long lastUsed = System.nanoTime();
+
+        // Next matching key, read ahead to tell whether the scan is finished
+        private String pending;
+
+        Cursor(String prefix, Iterator<String> keys) {
+            this.prefix = prefix;
+            this.keys = keys;
+        }
+
+        boolean hasNext() {
+            while (pending == null && keys.hasNext()) {
+                String key = keys.next();
+
+                if (key.startsWith(prefix)) {
+                    pending = key;
+                }
+            }
+
+            return pending != null;
+        }
+
+        /**
+         * Returns the next key starting with the prefix, or null when the scan
+         * is finished.
+         */
+        String next() {
+            if (!hasNext()) {
+                return null;
+            }
+
+            String key = pending;
+            pending = null;
+
+            return key;
+        }
+    }
+}
@@ -0,0 +1,362 @@
+package com.mehyaa.cacheserver;
+
+import com.mehyaa.cacheclient.CacheProtocol;
+import com.mehyaa.cacheclient.NodeSelector;
+import com.mehyaa.cacheclient.NodeSelectorType;
+import com.mehyaa.cacheclient.ServiceDiscovery;
+import com.mehyaa.cacheserver.cache.CacheStore;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves entries to their new owners after a topology change, so keys the
+ * ring remaps don't turn into misses. Keys are placed with the clients' node
+ * selector and replication factor, read from the same variables
+ * ('cache.client.nodeSelector' and 'cache.client.replicationFactor').
+ * <p>
+ * A round compares the replicas of every local entry on the ring the node
+ * last settled on with those on the current ring. The first previous replica
+ * that is still alive sends the entry to every node that became a replica,
+ * to /_migrate, which only stores absent keys so newer writes win. Batches
+ * hold at most batchSize entries and are paced to maxEntriesPerSecond. Once
+ * every batch is acknowledged, the entries the node sent and no longer holds
+ * a replica of are removed, unless they changed since they were sent, and
+ * the current ring is settled. Entries another node was to send are kept, in
+ * case it failed to. A failed batch aborts the round, which is retried
+ * later; a newer change restarts it on the newest ring. Sending the same
+ * entry again is harmless.
+ */
+final class Rebalancer {
+    private static final Logger logger = LoggerFactory.getLogger(Rebalancer.class);
+
+    private static final String MIGRATE_PATH = "/_migrate";
+    private static final int MAX_BATCH_BYTES = 8 * 1024 * 1024;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    private final CacheStore cache;
+    private final String self;
+    private final NodeSelectorType selectorType;
+    private final int replicationFactor;
+    private final int batchSize;
+    private final int maxEntriesPerSecond;
+    private final long retryDelayMillis;
+
+    private final HttpClient http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(Duration.ofSeconds(2))
+            .build();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rebalancer");
+        thread.setDaemon(true);
+
+        return thread;
+    });
+
+    // Incremented by every scheduled round, a running round stops once it is outdated
+    private final AtomicLong rounds = new AtomicLong();
+
+    private ServiceDiscovery discovery;
+    private volatile List<String> settledNodes;
+
+    Rebalancer(CacheStore cache, String self, NodeSelectorType selectorType, int replicationFactor, int batchSize,
+            int maxEntriesPerSecond, long retryDelayMillis) {
+        this.cache = cache;
+        this.self = self;
+        this.selectorType = selectorType;
+        this.replicationFactor = Math.max(1, replicationFactor);
+        selectorType.checkReplicationFactor(this.replicationFactor);
+        this.batchSize = Math.max(1, Math.min(batchSize, CacheProtocol.MAX_BATCH_SIZE));
+        this.maxEntriesPerSecond = maxEntriesPerSecond;
+        this.retryDelayMillis = retryDelayMillis;
+    }
+
+    /**
+     * Starts watching the topology, settled on the nodes known right now.
+     */
+    void start() throws Exception {
+        discovery = new ServiceDiscovery();
+        discovery.addChangeListener((oldNodes, newNodes) -> schedule(0));
+        settledNodes = discovery.getNodes();
+
+        logger.info("Rebalancing {} with {} replicas over {} nodes", self, replicationFactor, settledNodes.size());
+    }
+
+    void stop() {
+        scheduler.shutdownNow();
+
+        try {
+            if (discovery != null) {
+                discovery.close();
+            }
+        } catch (Exception e) {
+            logger.warn("Error closing rebalancer discovery: {}", e.getMessage(), e);
+        }
+    }
+
+    private void schedule(long delayMillis) {
+        long round = rounds.incrementAndGet();
+
+        try {
+            scheduler.schedule(() -> rebalance(round), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // stopped
+        }
+    }
+
+    private void rebalance(long round) {
+        List<String> settled = settledNodes;
+        List<String> current = discovery.getNodes();
+
+        if (round != rounds.get() || current.equals(settled)) {
+            return;
+        }
+
+        if (!current.contains(self)) {
+            // Without its own registration the node can't tell which keys it keeps
+            logger.warn("Node {} is not registered, not rebalancing", self);
+            return;
+        }
+
+        Round migration = new Round(round, selectorType.create(settled), selectorType.create(current),
+                new HashSet<>(current));
+        long start = System.nanoTime();
+
+        try {
+            cache.forEach(migration::offer);
+            migration.flushAll();
+
+            int removed = migration.removeMovedEntries();
+            settledNodes = current;
+
+            logger.info("Rebalanced from {} to {} nodes in {} ms: sent {} entries, removed {}", settled.size(),
+                    current.size(), (System.nanoTime() - start) / 1_000_000, migration.sent, removed);
+        } catch (RoundAbortedException e) {
+            logger.info("Rebalancing round outdated by a newer topology after sending {} entries", migration.sent);
+        } catch (RoundFailedException e) {
+            logger.warn("Rebalancing failed after sending {} entries, retrying in {} ms: {}", migration.sent,
+                    retryDelayMillis, e.getMessage());
+
+            if (round == rounds.get()) {
+                schedule(retryDelayMillis);
+            }
+        }
+    }
+
+    /**
+     * Batches of one rebalancing round, one per receiving node.
+     */
+    private final class Round {
+        final long round;
+        final NodeSelector before;
+        final NodeSelector after;
+        final Set<String> alive;
+        final Map<String, Batch> batches = new HashMap<>();
+        final long start = System.nanoTime();
+
+        // Fingerprints of the values sent for keys this node stops replicating
+        final Map<String, Long> moved = new HashMap<>();
+
+        long sent;
+
+        Round(long round, NodeSelector before, NodeSelector after, Set<String> alive) {
+            this.round = round;
+            this.before = before;
+            this.after = after;
+            this.alive = alive;
+        }
+
+        void offer(String key, byte[] value, Duration ttl) {
+            checkCurrent();
+
+            List<String> previous = before.getReplicas(key, replicationFactor);
+
+            if (!self.equals(sender(previous))) {
+                return;
+            }
+
+            List<String> current = after.getReplicas(key, replicationFactor);
+            boolean sending = false;
+
+            for (String target : current) {
+                if (!previous.contains(target)) {
+                    Batch batch = batches.computeIfAbsent(target, node -> new Batch());
+                    batch.add(new BatchCodec.Entry(key, value, ttl));
+                    sending = true;
+
+                    if (batch.entries.size() >= batchSize || batch.bytes >= MAX_BATCH_BYTES) {
+                        flush(target, batch);
+                    }
+                }
+            }
+
+            if (sending && !current.contains(self)) {
+                moved.put(key, fingerprint(value));
+            }
+        }
+
+        void flushAll() {
+            for (Map.Entry<String, Batch> batch : batches.entrySet()) {
+                flush(batch.getKey(), batch.getValue());
+            }
+        }
+
+        /**
+         * Removes the entries this round moved away, now that their new
+         * replicas acknowledged them. An entry whose value changed since it
+         * was sent is kept, as the new replicas don't have that write.
+         */
+        int removeMovedEntries() {
+            int removed = 0;
+
+            for (Map.Entry<String, Long> entry : moved.entrySet()) {
+                checkCurrent();
+
+                byte[] value = cache.get(entry.getKey());
+
+                if (value != null && fingerprint(value) == entry.getValue()) {
+                    cache.delete(entry.getKey());
+                    removed++;
+                }
+            }
+
+            return removed;
+        }
+
+        /**
+         * Returns the first previous replica still alive, which sends the key.
+         */
+        private String sender(List<String> previous) {
+            for (String node : previous) {
+                if (alive.contains(node)) {
+                    return node;
+                }
+            }
+
+            return null;
+        }
+
+        private void flush(String target, Batch batch) {
+            if (batch.entries.isEmpty()) {
+                return;
+            }
+
+            checkCurrent();
+            send(target, BatchCodec.encodeMigrationEntries(batch.entries));
+
+            sent += batch.entries.size();
+            batch.clear();
+
+            pace();
+        }
+
+        private void send(String target, byte[] body) {
+            HttpRequest request = HttpRequest.newBuilder(URI.create("http://" + target + MIGRATE_PATH))
+                    .timeout(REQUEST_TIMEOUT)
+                    .header("Content-Type", "application/octet-stream")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(body))
+                    .build();
+
+            try {
+                HttpResponse<Void> response = http.send(request, HttpResponse.BodyHandlers.discarding());
+
+                if (response.statusCode() != 200) {
+                    throw new RoundFailedException("Migration to " + target + " failed with code "
+                            + response.statusCode());
+                }
+            } catch (IOException e) {
+                throw new RoundFailedException("Migration to " + target + " failed: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RoundAbortedException();
+            }
+        }
+
+        /**
+         * Sleeps until the entries sent so far are within the rate limit.
+         */
+        private void pace() {
+            if (maxEntriesPerSecond <= 0) {
+                return;
+            }
+
+            long due = start + sent * 1_000_000_000L / maxEntriesPerSecond;
+            long wait = due - System.nanoTime();
+
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RoundAbortedException();
+                }
+            }
+        }
+
+        private void checkCurrent() {
+            if (round != rounds.get()) {
+                throw new RoundAbortedException();
+            }
+        }
+    }
+
+    private static long fingerprint(byte[] value) {
+        return (long) value.length << 32 | (Arrays.hashCode(value) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Entries waiting to be sent to one node.
+     */
+    private static final class Batch {
+        final List<BatchCodec.Entry> entries = new ArrayList<>();
+
+        long bytes;
+
+        void add(BatchCodec.Entry entry) {
+            entries.add(entry);
+            bytes += entry.key.length() + entry.value.length;
+        }
+
+        void clear() {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+    /**
+     * Stops a round outdated by a newer topology change.
+     */
+    private static final class RoundAbortedException extends RuntimeException {
+        RoundAbortedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Stops a round that could not deliver a batch.
+     */
+    private static final class RoundFailedException extends RuntimeException {
+        RoundFailedException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.mehyaa.cacheserver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads server settings from application variables: a system property
+ * (e.g. 'cache.server.maxMemoryBytes') takes precedence over an environment
+ * variable (e.g. 'CACHE_MAX_MEMORY_BYTES'), otherwise the default is used.
+ */
+public final class ServerConfig {
+    private static final Logger logger = LoggerFactory.getLogger(ServerConfig.class);
+
+    private ServerConfig() {
+    }
+
+    public static String getString(String property, String environment, String defaultValue) {
+        String value = System.getProperty(property);
+
+        if (value != null && !value.isEmpty()) {
+            return value;
+        }
+
+        value = System.getenv(environment);
+
+        if (value != null && !value.isEmpty()) {
+            return value;
+        }
+
+        return defaultValue;
+    }
+
+    public static int getInt(String property, String environment, int defaultValue) {
+        String value = getString(property, environment, null);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value {} for {}. Using default {}", value, property, defaultValue);
+
+            return defaultValue;
+        }
+    }
+
+    public static long getLong(String property, String environment, long defaultValue) {
+        String value = getString(property, environment, null);
+
+        if (value == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value {} for {}. Using default {}", value, property, defaultValue);
+
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String property, String environment, boolean defaultValue) {
+        String value = getString(property, environment, null);
+
+        return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+    }
+}
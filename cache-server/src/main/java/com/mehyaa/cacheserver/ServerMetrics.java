@@ -0,0 +1,199 @@
+package com.mehyaa.cacheserver;
+
+import com.mehyaa.cacheclient.LatencyHistogram;
+import com.mehyaa.cacheserver.cache.StoreStats;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request statistics of a cache node, over HTTP and the binary protocol.
+ * Latencies go to a {@link LatencyHistogram} per operation, striped by
+ * thread, and the other counters are LongAdders, so handlers on different
+ * threads update different cells instead of contending on one. Histogram
+ * buckets are logarithmic, eight per power of two, so latencies are within
+ * 12.5% whatever their range.
+ * <p>
+ * Counts are totals since startup. Rates and latencies cover the interval
+ * since the previous sample, the previous /_stats request at least
+ * MIN_SAMPLE_INTERVAL_NANOS earlier, or startup for the first one, so they
+ * tell how the node is doing now.
+ */
+final class ServerMetrics {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int BUCKET_COUNT = Long.SIZE << SUB_BUCKET_BITS;
+    private static final int STRIPES = Math.min(16, Runtime.getRuntime().availableProcessors());
+    private static final long MIN_SAMPLE_INTERVAL_NANOS = 1_000_000_000L;
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    /**
+     * Operations served, whatever the protocol.
+     */
+    enum Operation {
+        GET, PUT, DELETE, MGET, MSET, MIGRATE, SCAN;
+
+        final String jsonName = name().toLowerCase(Locale.ROOT);
+    }
+
+    private static final Operation[] OPERATIONS = Operation.values();
+
+    private final Recorder[] recorders = new Recorder[OPERATIONS.length];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final long startNanos = System.nanoTime();
+
+    // Guarded by this, only touched by stats requests
+    private Sample previous;
+    private Sample latest;
+
+    ServerMetrics() {
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder();
+        }
+
+        previous = sample(startNanos);
+        latest = previous;
+    }
+
+    /**
+     * Records a served request. Failed requests are those answered with an
+     * error status, misses excluded.
+     */
+    void record(Operation operation, long nanos, boolean failed) {
+        recorders[operation.ordinal()].record(nanos, failed);
+    }
+
+    /**
+     * Records the keys a read found and those it did not.
+     */
+    void recordReads(long found, long notFound) {
+        hits.add(found);
+        misses.add(notFound);
+    }
+
+    /**
+     * Formats the storage statistics followed by the request statistics as
+     * one JSON object. Takes a new sample if the latest one is old enough.
+     */
+    synchronized String toJson(StoreStats store) {
+        long now = System.nanoTime();
+
+        if (now - latest.nanos >= MIN_SAMPLE_INTERVAL_NANOS) {
+            previous = latest;
+            latest = sample(now);
+        } else if (latest == previous) {
+            // Only the startup sample so far, report the interval up to now
+            latest = sample(now);
+        }
+
+        long hitCount = hits.sum();
+        long missCount = misses.sum();
+        long reads = hitCount + missCount;
+
+        StringBuilder json = new StringBuilder(store.toJson());
+        json.setLength(json.length() - 1);
+        json.append(",\"uptimeMillis\":").append((now - startNanos) / 1_000_000)
+                .append(",\"hits\":").append(hitCount)
+                .append(",\"misses\":").append(missCount)
+                .append(",\"hitRate\":").append(format(reads == 0 ? 1.0 : (double) hitCount / reads))
+                .append(",\"intervalMillis\":").append((latest.nanos - previous.nanos) / 1_000_000)
+                .append(",\"operations\":{");
+
+        for (Operation operation : OPERATIONS) {
+            if (operation.ordinal() > 0) {
+                json.append(',');
+            }
+
+            appendOperation(json, operation);
+        }
+
+        return json.append("}}").toString();
+    }
+
+    private void appendOperation(StringBuilder json, Operation operation) {
+        int i = operation.ordinal();
+        long[] buckets = new long[BUCKET_COUNT];
+        long count = 0;
+
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            buckets[b] = latest.buckets[i][b] - previous.buckets[i][b];
+            count += buckets[b];
+        }
+
+        double seconds = Math.max(1, latest.nanos - previous.nanos) / 1e9;
+        long totalNanos = latest.totalNanos[i] - previous.totalNanos[i];
+
+        json.append('"').append(operation.jsonName).append("\":{")
+                .append("\"count\":").append(latest.counts[i])
+                .append(",\"errors\":").append(latest.errors[i])
+                .append(",\"perSecond\":").append(format(count / seconds))
+                .append(",\"latencyMicros\":{\"mean\":")
+                .append(format(count == 0 ? 0.0 : totalNanos / 1000.0 / count));
+
+        for (int p = 0; p < PERCENTILES.length; p++) {
+            json.append(",\"").append(PERCENTILE_NAMES[p]).append("\":")
+                    .append(format(LatencyHistogram.percentile(buckets, SUB_BUCKET_BITS, PERCENTILES[p]) / 1000.0));
+        }
+
+        json.append(",\"max\":")
+                .append(format(LatencyHistogram.percentile(buckets, SUB_BUCKET_BITS, 100) / 1000.0))
+                .append("}}");
+    }
+
+    private Sample sample(long nanos) {
+        Sample sample = new Sample(nanos);
+
+        for (int i = 0; i < recorders.length; i++) {
+            Recorder recorder = recorders[i];
+
+            sample.buckets[i] = recorder.latencies.snapshot();
+
+            for (long count : sample.buckets[i]) {
+                sample.counts[i] += count;
+            }
+
+            sample.errors[i] = recorder.errors.sum();
+            sample.totalNanos[i] = recorder.totalNanos.sum();
+        }
+
+        return sample;
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * Counters of one operation. The request count is the histogram's.
+     */
+    private static final class Recorder {
+        final LatencyHistogram latencies = new LatencyHistogram(SUB_BUCKET_BITS, 0, STRIPES);
+        final LongAdder errors = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+
+        void record(long nanos, boolean failed) {
+            latencies.record(nanos);
+            totalNanos.add(nanos);
+
+            if (failed) {
+                errors.increment();
+            }
+        }
+    }
+
+    /**
+     * Cumulative counters at one point in time.
+     */
+    private static final class Sample {
+        final long nanos;
+        final long[][] buckets = new long[OPERATIONS.length][];
+        final long[] counts = new long[OPERATIONS.length];
+        final long[] errors = new long[OPERATIONS.length];
+        final long[] totalNanos = new long[OPERATIONS.length];
+
+        Sample(long nanos) {
+            this.nanos = nanos;
+        }
+    }
+}
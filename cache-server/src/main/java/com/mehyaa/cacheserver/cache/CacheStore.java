@@ -0,0 +1,82 @@
+package com.mehyaa.cacheserver.cache;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Storage engine of a cache node. Implementations are thread-safe and bound
+ * the memory they use, evicting entries when full.
+ */
+public interface CacheStore {
+    /**
+     * Returns the value of the key, or null if it's not found or expired.
+     */
+    byte[] get(String key);
+
+    void put(String key, byte[] value);
+
+    /**
+     * Stores the value for the given time-to-live, which must be positive.
+     */
+    void put(String key, byte[] value, Duration ttl);
+
+    /**
+     * Stores the value only if the key has no live entry, for the given
+     * time-to-live or without expiry if it is null. Returns whether the
+     * value was stored.
+     */
+    boolean putIfAbsent(String key, byte[] value, Duration ttl);
+
+    void delete(String key);
+
+    /**
+     * Stores the value, without expiry if the time-to-live is null, and
+     * returns a future completed once the write is durable. Event loops call
+     * this instead of waiting in put; stores that have nothing to wait for
+     * return a completed future.
+     */
+    default CompletableFuture<Void> putAsync(String key, byte[] value, Duration ttl) {
+        if (ttl == null) {
+            put(key, value);
+        } else {
+            put(key, value, ttl);
+        }
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Deletes the key and returns a future completed once the delete is
+     * durable, like {@link #putAsync}.
+     */
+    default CompletableFuture<Void> deleteAsync(String key) {
+        delete(key);
+
+        return CompletableFuture.completedFuture(null);
+    }
+
+    StoreStats stats();
+
+    /**
+     * Visits the entries without blocking other operations. Entries written
+     * during the visit may or may not be seen.
+     */
+    void forEach(EntryVisitor visitor);
+
+    /**
+     * Returns an iterator over the keys of live entries, in no particular
+     * order. Like forEach it is weakly consistent: it holds no lock, never
+     * throws ConcurrentModificationException and may be kept across calls,
+     * each key present for the whole iteration being returned once.
+     */
+    Iterator<String> keys();
+
+    /**
+     * Receives an entry and its remaining time-to-live, null if it does not expire.
+     */
+    @FunctionalInterface
+    interface EntryVisitor {
+        void visit(String key, byte[] value, Duration ttl);
+    }
+}
@@ -1,29 +1,160 @@
 package com.mehyaa.cacheserver.cache;
 
-import java.util.concurrent.ConcurrentHashMap;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
 
-public final class InMemoryCache {
-    private static final InMemoryCache INSTANCE = new InMemoryCache();
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.OptionalLong;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
-    private final ConcurrentHashMap<String, String> cache;
+/**
+ * Memory-bounded cache holding values on the heap. Entries are weighed by their estimated size in bytes
+ * and evicted with Caffeine's W-TinyLFU policy once the limit is reached.
+ * Reads and writes only record their access in striped buffers that are
+ * drained in batches, so there is no global lock on the hot path.
+ * <p>
+ * Entries may have a time-to-live. Expired entries are never returned and
+ * are removed through Caffeine's hierarchical timing wheel, in amortized
+ * O(1) per entry, on a maintenance thread rather than by scanning the map.
+ */
+public final class InMemoryCache implements CacheStore {
+    // Rough per-entry overhead: hash table and policy nodes, entry, String and array headers
+    static final int ENTRY_OVERHEAD_BYTES = 144;
 
-    private InMemoryCache() {
-        cache = new ConcurrentHashMap<>();
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    private final Cache<String, Entry> cache;
+    private final Policy.Eviction<String, Entry> eviction;
+    private final Policy.VarExpiration<String, Entry> expiration;
+    private final long maxBytes;
+
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder evictedBytes = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+
+    InMemoryCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+
+        cache = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, Entry entry) -> weigh(key, entry.value))
+                .expireAfter(new EntryExpiry())
+                .scheduler(Scheduler.systemScheduler())
+                .evictionListener(this::onEviction)
+                .build();
+
+        eviction = cache.policy().eviction().orElseThrow();
+        expiration = cache.policy().expireVariably().orElseThrow();
+    }
+
+    @Override
+    public byte[] get(String key) {
+        Entry entry = cache.getIfPresent(key);
+
+        return entry == null ? null : entry.value;
     }
 
-    public static InMemoryCache getInstance() {
-        return INSTANCE;
+    @Override
+    public void put(String key, byte[] value) {
+        cache.put(key, new Entry(value, NO_EXPIRY));
     }
 
-    public String get(String key) {
-        return cache.get(key);
+    @Override
+    public void put(String key, byte[] value, Duration ttl) {
+        cache.put(key, new Entry(value, ttl.toNanos()));
     }
 
-    public void put(String key, String value) {
-        cache.put(key, value);
+    @Override
+    public boolean putIfAbsent(String key, byte[] value, Duration ttl) {
+        return cache.asMap().putIfAbsent(key, new Entry(value, ttl == null ? NO_EXPIRY : ttl.toNanos())) == null;
     }
 
+    @Override
     public void delete(String key) {
-        cache.remove(key);
+        cache.invalidate(key);
+    }
+
+    @Override
+    public StoreStats stats() {
+        return new StoreStats(cache.estimatedSize(), eviction.weightedSize().orElse(0), maxBytes,
+                evictionCount.sum(), evictedBytes.sum(), expirationCount.sum());
+    }
+
+    @Override
+    public void forEach(EntryVisitor visitor) {
+        cache.asMap().forEach((key, entry) -> {
+            if (entry.ttlNanos == NO_EXPIRY) {
+                visitor.visit(key, entry.value, null);
+                return;
+            }
+
+            OptionalLong remaining = expiration.getExpiresAfter(key, TimeUnit.NANOSECONDS);
+
+            if (remaining.isPresent()) {
+                visitor.visit(key, entry.value, Duration.ofNanos(remaining.getAsLong()));
+            }
+        });
+    }
+
+    @Override
+    public Iterator<String> keys() {
+        // Caffeine skips expired entries the maintenance thread hasn't removed yet
+        return cache.asMap().keySet().iterator();
+    }
+
+    /**
+     * Estimates the bytes held by an entry. Keys are mostly ASCII, which
+     * compact strings store in one byte per char.
+     */
+    static int weigh(String key, byte[] value) {
+        return (int) Math.min(Integer.MAX_VALUE, (long) key.length() + value.length + ENTRY_OVERHEAD_BYTES);
+    }
+
+    private void onEviction(String key, Entry entry, RemovalCause cause) {
+        if (cause == RemovalCause.EXPIRED) {
+            expirationCount.increment();
+        } else if (cause == RemovalCause.SIZE) {
+            evictionCount.increment();
+            evictedBytes.add(weigh(key, entry.value));
+        }
+    }
+
+    /**
+     * Cached value with its time-to-live.
+     */
+    private static final class Entry {
+        final byte[] value;
+        final long ttlNanos;
+
+        Entry(byte[] value, long ttlNanos) {
+            this.value = value;
+            this.ttlNanos = ttlNanos;
+        }
+    }
+
+    /**
+     * Expires entries after their own time-to-live, counted from the last write.
+     */
+    private static final class EntryExpiry implements Expiry<String, Entry> {
+        @Override
+        public long expireAfterCreate(String key, Entry entry, long currentTime) {
+            return entry.ttlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Entry entry, long currentTime, long currentDuration) {
+            return entry.ttlNanos;
+        }
+
+        @Override
+        public long expireAfterRead(String key, Entry entry, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,313 @@
+package com.mehyaa.cacheserver.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Scheduler;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memory-bounded cache holding values in direct memory {@link SlabAllocator
+ * slabs}, so the heap only grows with the number of keys, not with the size
+ * of the values. The index is a Caffeine cache from keys to slot handles,
+ * giving the same W-TinyLFU eviction and per-entry expiry as
+ * {@link InMemoryCache}; entries are weighed by their slot's share of its
+ * page.
+ * <p>
+ * The weight limit of the index is a page per size class below the memory
+ * limit, leaving at most a quarter of it. Free slots left in partially used
+ * pages and evictions the index hasn't run yet fit in that headroom, so a
+ * put almost always finds a free slot without evicting by itself.
+ * <p>
+ * Slots are freed when their entry is replaced, deleted, evicted or expired.
+ * When no slot is free for a new value, the coldest entries of its size class
+ * are evicted first. If none is found, the page of the coldest entry is
+ * drained, evicting all its entries, and handed to the size class of the
+ * value, which keeps the slabs balanced when the sizes of values shift.
+ */
+public final class OffHeapCache implements CacheStore {
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    // Number of coldest entries searched for a slot of the needed size
+    private static final int SAME_SIZE_SCAN_LIMIT = 256;
+
+    // Number of pages drained at most to store one value
+    private static final int DRAIN_LIMIT = 128;
+
+    private final SlabAllocator slabs;
+    private final Cache<String, Handle> index;
+    private final ConcurrentMap<String, Handle> entries;
+    private final Policy.Eviction<String, Handle> eviction;
+    private final Policy.VarExpiration<String, Handle> expiration;
+    private final long maxBytes;
+
+    private final AtomicInteger generations = new AtomicInteger();
+
+    private final LongAdder evictionCount = new LongAdder();
+    private final LongAdder evictedBytes = new LongAdder();
+    private final LongAdder expirationCount = new LongAdder();
+
+    OffHeapCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+
+        slabs = new SlabAllocator(maxBytes);
+
+        long headroom = Math.min(maxBytes / 4, (long) slabs.sizeClassCount() * SlabAllocator.PAGE_SIZE);
+
+        index = Caffeine.newBuilder()
+                .maximumWeight(maxBytes - headroom)
+                .weigher((String key, Handle handle) -> SlabAllocator.footprint(handle.slotSize))
+                .expireAfter(new HandleExpiry())
+                .scheduler(Scheduler.systemScheduler())
+                .evictionListener(this::onEviction)
+                .build();
+
+        entries = index.asMap();
+        eviction = index.policy().eviction().orElseThrow();
+        expiration = index.policy().expireVariably().orElseThrow();
+    }
+
+    @Override
+    public byte[] get(String key) {
+        // A second lookup finds the new handle if the entry was replaced while reading
+        for (int attempt = 0; attempt < 2; attempt++) {
+            Handle handle = index.getIfPresent(key);
+
+            if (handle == null) {
+                return null;
+            }
+
+            byte[] value = slabs.load(handle.ref, handle.keyLength, handle.valueLength, handle.generation);
+
+            if (value != null) {
+                return value;
+            }
+        }
+
+        return null;
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        put(key, value, NO_EXPIRY);
+    }
+
+    @Override
+    public void put(String key, byte[] value, Duration ttl) {
+        put(key, value, ttl.toNanos());
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, byte[] value, Duration ttl) {
+        // Don't take a slot, possibly evicting for it, when the key is already there
+        if (entries.containsKey(key)) {
+            return false;
+        }
+
+        Handle handle = store(key, value, ttl == null ? NO_EXPIRY : ttl.toNanos());
+
+        if (entries.putIfAbsent(key, handle) != null) {
+            slabs.free(handle.ref);
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public void delete(String key) {
+        Handle removed = entries.remove(key);
+
+        if (removed != null) {
+            slabs.free(removed.ref);
+        }
+    }
+
+    @Override
+    public StoreStats stats() {
+        return new StoreStats(index.estimatedSize(), eviction.weightedSize().orElse(0), maxBytes,
+                evictionCount.sum(), evictedBytes.sum(), expirationCount.sum());
+    }
+
+    @Override
+    public void forEach(EntryVisitor visitor) {
+        entries.forEach((key, handle) -> {
+            byte[] value = slabs.load(handle.ref, handle.keyLength, handle.valueLength, handle.generation);
+
+            // Skip entries replaced or removed since the iteration saw them
+            if (value == null) {
+                return;
+            }
+
+            if (handle.ttlNanos == NO_EXPIRY) {
+                visitor.visit(key, value, null);
+                return;
+            }
+
+            OptionalLong remaining = expiration.getExpiresAfter(key, TimeUnit.NANOSECONDS);
+
+            if (remaining.isPresent()) {
+                visitor.visit(key, value, Duration.ofNanos(remaining.getAsLong()));
+            }
+        });
+    }
+
+    @Override
+    public Iterator<String> keys() {
+        return entries.keySet().iterator();
+    }
+
+    private void put(String key, byte[] value, long ttlNanos) {
+        Handle previous = entries.put(key, store(key, value, ttlNanos));
+
+        if (previous != null) {
+            slabs.free(previous.ref);
+        }
+    }
+
+    /**
+     * Copies the key and value into a slot and returns its handle, not
+     * indexed yet.
+     */
+    private Handle store(String key, byte[] value, long ttlNanos) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int generation = nextGeneration();
+        long ref = slabs.store(keyBytes, value, generation);
+
+        if (ref < 0) {
+            ref = storeAfterEvicting(keyBytes, value, generation);
+        }
+
+        return new Handle(ref, keyBytes.length, value.length, slabs.slotSize(keyBytes.length, value.length),
+                generation, ttlNanos);
+    }
+
+    /**
+     * Evicts the coldest entries until a slot is free for the value, then
+     * stores it. Fails if no room could be made. Only taken when the index
+     * is behind its evictions or value sizes shift between classes.
+     */
+    private long storeAfterEvicting(byte[] key, byte[] value, int generation) {
+        // Pending evictions and expirations may already free a slot
+        index.cleanUp();
+
+        long ref = slabs.store(key, value, generation);
+        int slotSize = slabs.slotSize(key.length, value.length);
+
+        for (Map.Entry<String, Handle> victim : eviction.coldest(SAME_SIZE_SCAN_LIMIT).entrySet()) {
+            if (ref >= 0) {
+                return ref;
+            }
+
+            if (victim.getValue().slotSize == slotSize && evict(victim.getKey(), victim.getValue())) {
+                ref = slabs.store(key, value, generation);
+            }
+        }
+
+        for (int drained = 0; ref < 0 && drained < DRAIN_LIMIT; drained++) {
+            Map<String, Handle> coldest = eviction.coldest(1);
+
+            if (coldest.isEmpty()) {
+                break;
+            }
+
+            for (SlabAllocator.Slot slot : slabs.drain(coldest.values().iterator().next().ref)) {
+                Handle handle = entries.get(slot.key);
+
+                if (handle != null && handle.ref == slot.ref && handle.generation == slot.generation) {
+                    evict(slot.key, handle);
+                }
+            }
+
+            ref = slabs.store(key, value, generation);
+        }
+
+        if (ref >= 0) {
+            return ref;
+        }
+
+        throw new IllegalStateException("No off-heap memory left for a value of " + value.length + " bytes");
+    }
+
+    private boolean evict(String key, Handle handle) {
+        if (!entries.remove(key, handle)) {
+            return false;
+        }
+
+        slabs.free(handle.ref);
+        evictionCount.increment();
+        evictedBytes.add(handle.slotSize);
+
+        return true;
+    }
+
+    private int nextGeneration() {
+        int generation = generations.incrementAndGet();
+
+        // Zero marks free slots
+        return generation != 0 ? generation : generations.incrementAndGet();
+    }
+
+    private void onEviction(String key, Handle handle, RemovalCause cause) {
+        slabs.free(handle.ref);
+
+        if (cause == RemovalCause.EXPIRED) {
+            expirationCount.increment();
+        } else if (cause == RemovalCause.SIZE) {
+            evictionCount.increment();
+            evictedBytes.add(handle.slotSize);
+        }
+    }
+
+    /**
+     * Location of a value in the slabs, with its time-to-live.
+     */
+    private static final class Handle {
+        final long ref;
+        final int keyLength;
+        final int valueLength;
+        final int slotSize;
+        final int generation;
+        final long ttlNanos;
+
+        Handle(long ref, int keyLength, int valueLength, int slotSize, int generation, long ttlNanos) {
+            this.ref = ref;
+            this.keyLength = keyLength;
+            this.valueLength = valueLength;
+            this.slotSize = slotSize;
+            this.generation = generation;
+            this.ttlNanos = ttlNanos;
+        }
+    }
+
+    /**
+     * Expires entries after their own time-to-live, counted from the last write.
+     */
+    private static final class HandleExpiry implements Expiry<String, Handle> {
+        @Override
+        public long expireAfterCreate(String key, Handle handle, long currentTime) {
+            return handle.ttlNanos;
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, Handle handle, long currentTime, long currentDuration) {
+            return handle.ttlNanos;
+        }
+
+        @Override
+        public long expireAfterRead(String key, Handle handle, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
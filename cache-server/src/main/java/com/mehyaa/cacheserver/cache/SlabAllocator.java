@@ -0,0 +1,480 @@
+package com.mehyaa.cacheserver.cache;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Stores values in direct memory. Memory is reserved in pages of 1 MiB, each
+ * cut into equal slots of one size class when it's first used; classes grow
+ * by 25% so a value wastes at most a quarter of its slot. Once all slots of
+ * a page are free, the page goes back to a shared pool and can serve any
+ * class. Values larger than a page get a page of their own, released when
+ * the value is freed.
+ * <p>
+ * A slot is referenced by a long holding its page index and offset and holds
+ * [generation][keyLength][key][value]. The generation is written before the
+ * rest, readers check it before and after copying the value, so a slot
+ * freed or reused during a read is detected without locking. The key lets a
+ * whole page be {@link #drain drained} to move it to another class. Free
+ * slots hold the next free offset in place of the key length, so free lists
+ * take no heap.
+ */
+final class SlabAllocator {
+    static final int PAGE_SIZE = 1024 * 1024;
+
+    private static final int MIN_SLOT_SIZE = 64;
+    private static final int SLOT_HEADER = 2 * Integer.BYTES;
+    private static final int KEY_LENGTH_OFFSET = Integer.BYTES;
+    private static final int FREE_GENERATION = 0;
+    private static final int NO_SLOT = -1;
+
+    private static final VarHandle GENERATION =
+            MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final SizeClass[] classes;
+    private final long maxBytes;
+
+    // Guards the page table, the pool and the reserved bytes
+    private final Object pageLock = new Object();
+    private final ArrayDeque<Page> pooledPages = new ArrayDeque<>();
+    private final ArrayDeque<Integer> freeIndexes = new ArrayDeque<>();
+    private volatile Page[] pages = new Page[16];
+    private int pageCount;
+    private long reservedBytes;
+
+    SlabAllocator(long maxBytes) {
+        this.maxBytes = maxBytes;
+
+        int[] sizes = new int[64];
+        int count = 0;
+
+        for (int size = MIN_SLOT_SIZE; size < PAGE_SIZE; size = align(size * 5L / 4)) {
+            sizes[count++] = size;
+        }
+
+        sizes[count++] = PAGE_SIZE;
+        classes = new SizeClass[count];
+
+        for (int i = 0; i < count; i++) {
+            classes[i] = new SizeClass(sizes[i]);
+        }
+    }
+
+    /**
+     * Returns the bytes of memory an entry of the given key and value lengths takes.
+     */
+    int slotSize(int keyLength, int valueLength) {
+        long length = (long) SLOT_HEADER + keyLength + valueLength;
+        SizeClass sizeClass = sizeClass(length);
+
+        return sizeClass == null ? align(length) : sizeClass.slotSize;
+    }
+
+    /**
+     * Returns the bytes of pages a slot of the given size accounts for: its
+     * share of a page, counting the page's unused tail, or its own page.
+     */
+    static int footprint(int slotSize) {
+        return slotSize >= PAGE_SIZE ? slotSize : PAGE_SIZE / (PAGE_SIZE / slotSize);
+    }
+
+    /**
+     * Copies the entry to a free slot and returns its reference, or -1 if no
+     * slot is free and the memory limit is reached. The generation must not be 0.
+     */
+    long store(byte[] key, byte[] value, int generation) {
+        long length = (long) SLOT_HEADER + key.length + value.length;
+
+        if (value.length == 0 || length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Invalid value length " + value.length);
+        }
+
+        SizeClass sizeClass = sizeClass(length);
+        long ref = sizeClass == null ? allocateLarge(align(length)) : sizeClass.allocate();
+
+        if (ref < 0) {
+            return -1;
+        }
+
+        ByteBuffer buffer = pages[pageIndex(ref)].buffer;
+        int offset = offset(ref);
+
+        // Publish the new generation before overwriting the previous entry
+        GENERATION.setVolatile(buffer, offset, generation);
+        VarHandle.storeStoreFence();
+        buffer.putInt(offset + KEY_LENGTH_OFFSET, key.length);
+        buffer.put(offset + SLOT_HEADER, key, 0, key.length);
+        buffer.put(offset + SLOT_HEADER + key.length, value, 0, value.length);
+
+        return ref;
+    }
+
+    /**
+     * Copies the value out of the slot, or returns null if the slot has been
+     * freed or reused since the entry of the given generation was stored.
+     */
+    byte[] load(long ref, int keyLength, int valueLength, int generation) {
+        Page page = pages[pageIndex(ref)];
+        int offset = offset(ref);
+        int valueOffset = offset + SLOT_HEADER + keyLength;
+
+        // The page may have been released or recut since the reference was taken
+        if (page == null || (long) valueOffset + valueLength > page.buffer.capacity()) {
+            return null;
+        }
+
+        ByteBuffer buffer = page.buffer;
+
+        if ((int) GENERATION.getAcquire(buffer, offset) != generation) {
+            return null;
+        }
+
+        byte[] value = new byte[valueLength];
+        buffer.get(valueOffset, value, 0, valueLength);
+
+        VarHandle.loadLoadFence();
+
+        return (int) GENERATION.getVolatile(buffer, offset) == generation ? value : null;
+    }
+
+    void free(long ref) {
+        Page page = pages[pageIndex(ref)];
+        SizeClass owner = page.owner;
+
+        if (owner == null) {
+            GENERATION.setVolatile(page.buffer, 0, FREE_GENERATION);
+            releaseLarge(page);
+        } else {
+            owner.free(page, offset(ref));
+        }
+    }
+
+    /**
+     * Stops handing out slots of the page holding the reference and returns
+     * the entries it holds, so the caller can remove them. The page goes back
+     * to the pool once they are all freed.
+     */
+    List<Slot> drain(long ref) {
+        Page page = pages[pageIndex(ref)];
+
+        if (page == null) {
+            return List.of();
+        }
+
+        SizeClass owner = page.owner;
+
+        if (owner == null) {
+            Slot slot = readSlot(page, 0, page.buffer.capacity());
+
+            return slot == null ? List.of() : List.of(slot);
+        }
+
+        return owner.drain(page);
+    }
+
+    /**
+     * Number of size classes slots are cut in.
+     */
+    int sizeClassCount() {
+        return classes.length;
+    }
+
+    /**
+     * Bytes of direct memory reserved by pages, used or pooled.
+     */
+    long reservedBytes() {
+        synchronized (pageLock) {
+            return reservedBytes;
+        }
+    }
+
+    /**
+     * Returns the class of a slot length, or null if it needs a page of its own.
+     */
+    private SizeClass sizeClass(long slot) {
+        if (slot > PAGE_SIZE) {
+            return null;
+        }
+
+        int low = 0;
+        int high = classes.length - 1;
+
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+
+            if (classes[middle].slotSize < slot) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+
+        return classes[low];
+    }
+
+    private long allocateLarge(int size) {
+        synchronized (pageLock) {
+            // Pooled pages only serve size classes, give their memory up first
+            while (reservedBytes + size > maxBytes && !pooledPages.isEmpty()) {
+                unmap(pooledPages.poll());
+            }
+
+            if (reservedBytes + size > maxBytes) {
+                return -1;
+            }
+
+            Page page = map(size, null);
+
+            return page == null ? -1 : ref(page.index, 0);
+        }
+    }
+
+    private void releaseLarge(Page page) {
+        synchronized (pageLock) {
+            unmap(page);
+        }
+    }
+
+    /**
+     * Hands a pooled or newly reserved page to the class, or returns null if
+     * the memory limit is reached.
+     */
+    private Page acquirePage(SizeClass owner) {
+        synchronized (pageLock) {
+            Page page = pooledPages.poll();
+
+            if (page != null) {
+                page.reset(owner);
+
+                return page;
+            }
+
+            if (reservedBytes + PAGE_SIZE > maxBytes) {
+                return null;
+            }
+
+            return map(PAGE_SIZE, owner);
+        }
+    }
+
+    private void releasePage(Page page) {
+        synchronized (pageLock) {
+            page.reset(null);
+            pooledPages.add(page);
+        }
+    }
+
+    // Called with the page lock held
+    private Page map(int size, SizeClass owner) {
+        ByteBuffer buffer;
+
+        try {
+            buffer = ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+        } catch (OutOfMemoryError e) {
+            // The direct memory limit of the JVM is lower than the configured one
+            return null;
+        }
+
+        Integer free = freeIndexes.poll();
+        int index = free == null ? pageCount++ : free;
+        Page[] current = pages;
+
+        if (index == current.length) {
+            current = Arrays.copyOf(current, current.length * 2);
+        }
+
+        Page page = new Page(index, buffer);
+        page.reset(owner);
+        current[index] = page;
+        pages = current;
+        reservedBytes += size;
+
+        return page;
+    }
+
+    // Called with the page lock held
+    private void unmap(Page page) {
+        Page[] current = pages;
+        current[page.index] = null;
+        pages = current;
+
+        freeIndexes.add(page.index);
+        reservedBytes -= page.buffer.capacity();
+    }
+
+    /**
+     * Reads the entry of a used slot, or returns null if the slot is free or
+     * still being written.
+     */
+    private static Slot readSlot(Page page, int offset, int slotSize) {
+        ByteBuffer buffer = page.buffer;
+        int generation = (int) GENERATION.getVolatile(buffer, offset);
+        int keyLength = buffer.getInt(offset + KEY_LENGTH_OFFSET);
+
+        if (generation == FREE_GENERATION || keyLength < 0 || keyLength > slotSize - SLOT_HEADER) {
+            return null;
+        }
+
+        byte[] key = new byte[keyLength];
+        buffer.get(offset + SLOT_HEADER, key, 0, key.length);
+
+        return new Slot(new String(key, StandardCharsets.UTF_8), ref(page.index, offset), generation);
+    }
+
+    private static int align(long size) {
+        return (int) Math.min(Integer.MAX_VALUE & ~7, (size + 7) & ~7L);
+    }
+
+    private static long ref(int pageIndex, int offset) {
+        return (long) pageIndex << 32 | offset;
+    }
+
+    private static int pageIndex(long ref) {
+        return (int) (ref >>> 32);
+    }
+
+    private static int offset(long ref) {
+        return (int) ref;
+    }
+
+    /**
+     * Entry found in a slot while draining its page.
+     */
+    static final class Slot {
+        final String key;
+        final long ref;
+        final int generation;
+
+        Slot(String key, long ref, int generation) {
+            this.key = key;
+            this.ref = ref;
+            this.generation = generation;
+        }
+    }
+
+    /**
+     * A direct buffer and, while it's cut into slots, the state of its slots.
+     */
+    private static final class Page {
+        final int index;
+        final ByteBuffer buffer;
+
+        // Guarded by the lock of the owning class
+        SizeClass owner;
+        int nextUnused;
+        int freeHead;
+        int usedSlots;
+        boolean draining;
+
+        Page(int index, ByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+
+        void reset(SizeClass owner) {
+            this.owner = owner;
+            nextUnused = 0;
+            freeHead = NO_SLOT;
+            usedSlots = 0;
+            draining = false;
+        }
+
+        boolean isFull() {
+            return freeHead == NO_SLOT && nextUnused + owner.slotSize > buffer.capacity();
+        }
+    }
+
+    /**
+     * Pages cut into slots of one size. Each class locks only itself.
+     */
+    private final class SizeClass {
+        final int slotSize;
+
+        // Pages with at least one free slot
+        private final Set<Page> partialPages = new LinkedHashSet<>();
+
+        SizeClass(int slotSize) {
+            this.slotSize = slotSize;
+        }
+
+        synchronized long allocate() {
+            Iterator<Page> partial = partialPages.iterator();
+            Page page;
+
+            if (partial.hasNext()) {
+                page = partial.next();
+            } else {
+                page = acquirePage(this);
+
+                if (page == null) {
+                    return -1;
+                }
+
+                partialPages.add(page);
+            }
+
+            int offset;
+
+            if (page.freeHead != NO_SLOT) {
+                offset = page.freeHead;
+                page.freeHead = page.buffer.getInt(offset + KEY_LENGTH_OFFSET);
+            } else {
+                offset = page.nextUnused;
+                page.nextUnused += slotSize;
+            }
+
+            page.usedSlots++;
+
+            if (page.isFull()) {
+                partialPages.remove(page);
+            }
+
+            return ref(page.index, offset);
+        }
+
+        synchronized void free(Page page, int offset) {
+            GENERATION.setVolatile(page.buffer, offset, FREE_GENERATION);
+            page.buffer.putInt(offset + KEY_LENGTH_OFFSET, page.freeHead);
+            page.freeHead = offset;
+
+            if (--page.usedSlots == 0) {
+                partialPages.remove(page);
+                releasePage(page);
+            } else if (!page.draining) {
+                partialPages.add(page);
+            }
+        }
+
+        synchronized List<Slot> drain(Page page) {
+            // The page may have been released and handed to another class meanwhile
+            if (page.owner != this) {
+                return List.of();
+            }
+
+            page.draining = true;
+            partialPages.remove(page);
+
+            List<Slot> slots = new ArrayList<>();
+
+            for (int offset = 0; offset + slotSize <= page.nextUnused; offset += slotSize) {
+                Slot slot = readSlot(page, offset, slotSize);
+
+                if (slot != null) {
+                    slots.add(slot);
+                }
+            }
+
+            return slots;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.mehyaa.cacheserver.cache;
+
+import com.mehyaa.cacheserver.ServerConfig;
+
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Available storage engines of a cache node.
+ */
+public enum StorageEngine {
+    /**
+     * Values are byte arrays on the Java heap.
+     */
+    HEAP {
+        @Override
+        CacheStore create(long maxBytes) {
+            return new InMemoryCache(maxBytes);
+        }
+    },
+
+    /**
+     * Values are copied to direct memory slabs, only the index is on the heap.
+     */
+    OFFHEAP {
+        @Override
+        CacheStore create(long maxBytes) {
+            return new OffHeapCache(maxBytes);
+        }
+    };
+
+    private static final Logger logger = LoggerFactory.getLogger(StorageEngine.class);
+
+    abstract CacheStore create(long maxBytes);
+
+    /**
+     * Creates the store of the configured engine with the configured memory limit.
+     */
+    public static CacheStore createFromConfig() {
+        StorageEngine engine = fromConfig();
+        long maxBytes = maxBytesFromConfig();
+
+        logger.info("Using {} storage engine with a memory limit of {} bytes", engine, maxBytes);
+
+        return engine.create(maxBytes);
+    }
+
+    /**
+     * Reads the engine from application variables (system property
+     * 'cache.server.engine' or env 'CACHE_ENGINE') or falls back to HEAP.
+     */
+    public static StorageEngine fromConfig() {
+        String value = ServerConfig.getString("cache.server.engine", "CACHE_ENGINE", null);
+
+        if (value == null) {
+            return HEAP;
+        }
+
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown storage engine {}. Using default {}", value, HEAP);
+
+            return HEAP;
+        }
+    }
+
+    /**
+     * Reads the memory limit from application variables (system property
+     * 'cache.server.maxMemoryBytes' or env 'CACHE_MAX_MEMORY_BYTES'), by
+     * default half of the maximum heap size.
+     */
+    private static long maxBytesFromConfig() {
+        long defaultBytes = Runtime.getRuntime().maxMemory() / 2;
+        long maxBytes = ServerConfig.getLong("cache.server.maxMemoryBytes", "CACHE_MAX_MEMORY_BYTES", defaultBytes);
+
+        if (maxBytes <= 0) {
+            logger.warn("Invalid memory limit {}. Using default {}", maxBytes, defaultBytes);
+
+            return defaultBytes;
+        }
+
+        return maxBytes;
+    }
+}
@@ -0,0 +1,74 @@
+package com.mehyaa.cacheserver.cache;
+
+/**
+ * Point-in-time statistics of the cache storage.
+ */
+public final class StoreStats {
+    private final long entryCount;
+    private final long estimatedBytes;
+    private final long maxBytes;
+    private final long evictionCount;
+    private final long evictedBytes;
+    private final long expirationCount;
+
+    StoreStats(long entryCount, long estimatedBytes, long maxBytes, long evictionCount, long evictedBytes,
+            long expirationCount) {
+        this.entryCount = entryCount;
+        this.estimatedBytes = estimatedBytes;
+        this.maxBytes = maxBytes;
+        this.evictionCount = evictionCount;
+        this.evictedBytes = evictedBytes;
+        this.expirationCount = expirationCount;
+    }
+
+    /**
+     * Approximate number of entries held.
+     */
+    public long getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * Estimated bytes held by keys, values and per-entry overhead.
+     */
+    public long getEstimatedBytes() {
+        return estimatedBytes;
+    }
+
+    /**
+     * Memory limit in estimated bytes.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Number of entries evicted because of the memory limit.
+     */
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Estimated bytes of the evicted entries.
+     */
+    public long getEvictedBytes() {
+        return evictedBytes;
+    }
+
+    /**
+     * Number of entries removed because their time-to-live passed.
+     */
+    public long getExpirationCount() {
+        return expirationCount;
+    }
+
+    /**
+     * Formats the statistics as a JSON object.
+     */
+    public String toJson() {
+        return String.format("{\"entries\":%d,\"estimatedBytes\":%d,\"maxBytes\":%d,\"evictions\":%d,"
+                + "\"evictedBytes\":%d,\"expirations\":%d}", entryCount, estimatedBytes, maxBytes, evictionCount,
+                evictedBytes, expirationCount);
+    }
+}
@@ -0,0 +1,148 @@
+package com.mehyaa.cacheserver.persistence;
+
+import com.mehyaa.cacheserver.cache.CacheStore;
+import com.mehyaa.cacheserver.cache.StoreStats;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Store that records its writes in a {@link WriteAheadLog}. A write is
+ * applied and then appended under a lock striped by key, so the log has
+ * writes to the same key in the order they were applied; waiting for the
+ * sync happens after the lock is released. Reads go straight to the store.
+ * <p>
+ * Applying first means a record only reaches a segment once the store has
+ * it, so a checkpoint taken after the segment was rotated out includes
+ * every record in it.
+ */
+public final class LoggedCacheStore implements CacheStore {
+    private static final int STRIPES = 256;
+
+    private final CacheStore store;
+    private final WriteAheadLog log;
+    private final Object[] stripes = new Object[STRIPES];
+
+    public LoggedCacheStore(CacheStore store, WriteAheadLog log) {
+        this.store = store;
+        this.log = log;
+
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    @Override
+    public byte[] get(String key) {
+        return store.get(key);
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        put(key, value, null);
+    }
+
+    @Override
+    public void put(String key, byte[] value, Duration ttl) {
+        awaitSync(applyPut(key, value, ttl));
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, byte[] value, Duration ttl) {
+        long position;
+
+        // Every write to the key holds the stripe, so nothing can be stored in between
+        synchronized (stripe(key)) {
+            if (store.get(key) != null) {
+                return false;
+            }
+
+            position = applyPut(key, value, ttl);
+        }
+
+        awaitSync(position);
+
+        return true;
+    }
+
+    @Override
+    public void delete(String key) {
+        awaitSync(applyDelete(key));
+    }
+
+    /**
+     * Applies and appends the put, the future completing once the log is
+     * synced past it instead of the caller waiting.
+     */
+    @Override
+    public CompletableFuture<Void> putAsync(String key, byte[] value, Duration ttl) {
+        return log.whenSynced(applyPut(key, value, ttl));
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(String key) {
+        return log.whenSynced(applyDelete(key));
+    }
+
+    @Override
+    public StoreStats stats() {
+        return store.stats();
+    }
+
+    @Override
+    public void forEach(EntryVisitor visitor) {
+        store.forEach(visitor);
+    }
+
+    @Override
+    public Iterator<String> keys() {
+        return store.keys();
+    }
+
+    /**
+     * Stores the value and appends the put under the key's stripe, returning
+     * the log position.
+     */
+    private long applyPut(String key, byte[] value, Duration ttl) {
+        try {
+            synchronized (stripe(key)) {
+                if (ttl == null) {
+                    store.put(key, value);
+                } else {
+                    store.put(key, value, ttl);
+                }
+
+                return log.appendPut(key, value, ttl);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long applyDelete(String key) {
+        try {
+            synchronized (stripe(key)) {
+                store.delete(key);
+
+                return log.appendDelete(key);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void awaitSync(long position) {
+        try {
+            log.awaitSync(position);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Object stripe(String key) {
+        return stripes[key.hashCode() & (STRIPES - 1)];
+    }
+}
@@ -0,0 +1,76 @@
+package com.mehyaa.cacheserver.persistence;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file sequentially through read-only memory-mapped windows, the
+ * counterpart of {@link MappedFileWriter}.
+ */
+final class MappedFileReader implements Closeable {
+    private final FileChannel channel;
+    private final long size;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    MappedFileReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        size = channel.size();
+    }
+
+    int getInt() throws IOException {
+        return ensure(Integer.BYTES).getInt();
+    }
+
+    long getLong() throws IOException {
+        return ensure(Long.BYTES).getLong();
+    }
+
+    byte[] getBytes(int length) throws IOException {
+        if (length < 0) {
+            throw new IOException("Invalid length " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        ensure(length).get(bytes);
+
+        return bytes;
+    }
+
+    long position() {
+        return window == null ? 0 : windowStart + window.position();
+    }
+
+    long size() {
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private MappedByteBuffer ensure(int length) throws IOException {
+        if (window != null && window.remaining() >= length) {
+            return window;
+        }
+
+        long start = position();
+
+        if (size - start < length) {
+            throw new EOFException("Unexpected end of " + size + " bytes file at " + start);
+        }
+
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start,
+                Math.min(size - start, Math.max(MappedFileWriter.WINDOW_SIZE, length)));
+        windowStart = start;
+
+        return window;
+    }
+}
@@ -0,0 +1,75 @@
+package com.mehyaa.cacheserver.persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes a file sequentially through memory-mapped windows, so large files
+ * are written without heap buffers or a system call per write. A value is
+ * never split across windows, a new window starts where the last one ended.
+ */
+final class MappedFileWriter implements Closeable {
+    static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private final FileChannel channel;
+
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    MappedFileWriter(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    void putInt(int value) throws IOException {
+        ensure(Integer.BYTES).putInt(value);
+    }
+
+    void putLong(long value) throws IOException {
+        ensure(Long.BYTES).putLong(value);
+    }
+
+    void put(byte[] bytes) throws IOException {
+        ensure(bytes.length).put(bytes);
+    }
+
+    long position() {
+        return window == null ? 0 : windowStart + window.position();
+    }
+
+    /**
+     * Flushes the written bytes to disk and cuts the file at the last write.
+     */
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            if (window != null) {
+                window.force();
+            }
+
+            channel.truncate(position());
+            channel.force(true);
+        }
+    }
+
+    private MappedByteBuffer ensure(int length) throws IOException {
+        if (window != null && window.remaining() >= length) {
+            return window;
+        }
+
+        long start = position();
+
+        if (window != null) {
+            window.force();
+        }
+
+        window = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.max(WINDOW_SIZE, length));
+        windowStart = start;
+
+        return window;
+    }
+}
@@ -0,0 +1,296 @@
+package com.mehyaa.cacheserver.persistence;
+
+import com.mehyaa.cacheserver.cache.CacheStore;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Saves the cache contents to a snapshot file periodically and loads them
+ * back on startup, so a restarted node comes back warm. Snapshots iterate
+ * the store while it keeps serving, so they are not a point-in-time copy:
+ * writes made during a save may or may not be included.
+ * <p>
+ * The file is [magic][version][createdAtMillis], then one record per entry
+ * [keyLength][key][valueLength][value][expiresAtMillis] and an end record
+ * [-1][entryCount]. Expiry is wall clock time, 0 if the entry does not
+ * expire. A snapshot is written to a temporary file and renamed over the
+ * previous one, so a crash while saving keeps the last complete snapshot.
+ */
+public final class SnapshotManager {
+    private static final int MAGIC = 0x43534E50; // "CSNP"
+    private static final int VERSION = 1;
+    private static final int END_OF_RECORDS = -1;
+    private static final long NO_EXPIRY = 0;
+
+    // Entries handed to a loader thread at once
+    private static final int LOAD_BATCH_SIZE = 1024;
+
+    private static final Logger logger = LoggerFactory.getLogger(SnapshotManager.class);
+
+    private final CacheStore store;
+    private final Path path;
+    private final ScheduledExecutorService scheduler;
+
+    public SnapshotManager(CacheStore store, Path path) {
+        this.store = store;
+        this.path = path;
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-snapshot");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Saves a snapshot at the given interval, in the background.
+     */
+    public void start(Duration interval) {
+        long millis = interval.toMillis();
+
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                save();
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to save snapshot {}: {}", path, e.getMessage(), e);
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the periodic snapshots and saves a last one.
+     */
+    public void stop() {
+        scheduler.shutdownNow();
+
+        try {
+            scheduler.awaitTermination(1, TimeUnit.MINUTES);
+            save();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to save snapshot {}: {}", path, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Writes all entries to the snapshot file, replacing the previous one.
+     */
+    public synchronized void save() throws IOException {
+        long start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        long[] count = new long[1];
+        long size;
+
+        try (MappedFileWriter writer = new MappedFileWriter(temporary)) {
+            writer.putInt(MAGIC);
+            writer.putInt(VERSION);
+            writer.putLong(now);
+
+            store.forEach((key, value, ttl) -> {
+                try {
+                    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+
+                    writer.putInt(keyBytes.length);
+                    writer.put(keyBytes);
+                    writer.putInt(value.length);
+                    writer.put(value);
+                    writer.putLong(ttl == null ? NO_EXPIRY : now + Math.max(1, ttl.toMillis()));
+                    count[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            writer.putInt(END_OF_RECORDS);
+            writer.putLong(count[0]);
+            size = writer.position();
+        } catch (UncheckedIOException e) {
+            Files.deleteIfExists(temporary);
+            throw e.getCause();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        logger.info("Saved {} entries ({} bytes) to snapshot {} in {} ms", count[0], size, path,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Loads the entries of the snapshot file, if there is one, skipping the
+     * expired ones. The file is read sequentially while a pool of threads
+     * stores the entries. A truncated or corrupt snapshot is loaded up to the
+     * first invalid record; failing to read the file throws. Returns the
+     * number of entries loaded.
+     */
+    public long load() throws IOException {
+        if (!Files.isRegularFile(path)) {
+            logger.info("No snapshot found at {}", path);
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        int threads = Runtime.getRuntime().availableProcessors();
+        ExecutorService loaders = Executors.newFixedThreadPool(threads, new LoaderThreadFactory());
+        Semaphore pendingBatches = new Semaphore(2 * threads);
+        LongAdder loaded = new LongAdder();
+        List<SnapshotEntry> batch = new ArrayList<>(LOAD_BATCH_SIZE);
+
+        try {
+            try (MappedFileReader reader = new MappedFileReader(path)) {
+                if (reader.getInt() != MAGIC || reader.getInt() != VERSION) {
+                    throw new CorruptSnapshotException("Not a snapshot file of version " + VERSION);
+                }
+
+                reader.getLong();
+
+                long count = 0;
+                int keyLength;
+
+                while ((keyLength = reader.getInt()) != END_OF_RECORDS) {
+                    String key = new String(reader.getBytes(checkLength(keyLength)), StandardCharsets.UTF_8);
+                    byte[] value = reader.getBytes(checkLength(reader.getInt()));
+
+                    batch.add(new SnapshotEntry(key, value, reader.getLong()));
+                    count++;
+
+                    if (batch.size() == LOAD_BATCH_SIZE) {
+                        submit(loaders, pendingBatches, batch, loaded);
+                        batch = new ArrayList<>(LOAD_BATCH_SIZE);
+                    }
+                }
+
+                if (reader.getLong() != count) {
+                    throw new CorruptSnapshotException("Snapshot entry count does not match");
+                }
+            } catch (EOFException | CorruptSnapshotException e) {
+                logger.warn("Snapshot {} is corrupt, loading the entries read so far: {}", path, e.getMessage());
+            }
+
+            submit(loaders, pendingBatches, batch, loaded);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            loaders.shutdown();
+
+            try {
+                loaders.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        logger.info("Loaded {} entries from snapshot {} in {} ms", loaded.sum(), path,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        return loaded.sum();
+    }
+
+    /**
+     * Hands a batch to the loader threads, waiting if too many are pending so
+     * the file is not read much faster than the entries are stored.
+     */
+    private void submit(ExecutorService loaders, Semaphore pendingBatches, List<SnapshotEntry> batch,
+            LongAdder loaded) throws InterruptedException {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        pendingBatches.acquire();
+
+        loaders.execute(() -> {
+            try {
+                long now = System.currentTimeMillis();
+
+                for (SnapshotEntry entry : batch) {
+                    if (entry.expiresAtMillis == NO_EXPIRY) {
+                        store.put(entry.key, entry.value);
+                    } else if (entry.expiresAtMillis > now) {
+                        store.put(entry.key, entry.value, Duration.ofMillis(entry.expiresAtMillis - now));
+                    } else {
+                        continue;
+                    }
+
+                    loaded.increment();
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Failed to load snapshot entries: {}", e.getMessage(), e);
+            } finally {
+                pendingBatches.release();
+            }
+        });
+    }
+
+    private static int checkLength(int length) throws CorruptSnapshotException {
+        if (length < 0) {
+            throw new CorruptSnapshotException("Invalid length " + length);
+        }
+
+        return length;
+    }
+
+    /**
+     * Entry read from a snapshot.
+     */
+    private static final class SnapshotEntry {
+        final String key;
+        final byte[] value;
+        final long expiresAtMillis;
+
+        SnapshotEntry(String key, byte[] value, long expiresAtMillis) {
+            this.key = key;
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+        }
+    }
+
+    /**
+     * Snapshot content that is not a valid record, as opposed to a failure
+     * to read the file.
+     */
+    private static final class CorruptSnapshotException extends IOException {
+        CorruptSnapshotException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Names the snapshot loader threads.
+     */
+    private static final class LoaderThreadFactory implements ThreadFactory {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "snapshot-loader-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+
+            return thread;
+        }
+    }
+}
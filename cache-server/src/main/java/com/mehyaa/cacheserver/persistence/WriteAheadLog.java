@@ -0,0 +1,599 @@
+package com.mehyaa.cacheserver.persistence;
+
+import com.mehyaa.cacheserver.cache.CacheStore;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only log of puts and deletes, replayed on startup on top of the last
+ * checkpoint. Handler threads only copy their record to a shared buffer; one
+ * writer thread writes everything buffered so far with a single write and
+ * syncs it to disk according to the {@link SyncPolicy}, so concurrent writes
+ * share one fsync.
+ * <p>
+ * The log is split in segment files, a record being
+ * [length][crc32c][type][expiresAtMillis][keyLength][key][value]. Once a
+ * segment grows past the compaction size, the writer starts a new one and a
+ * checkpoint snapshot of the store is saved in the background, after which
+ * older segments are deleted. Replaying every segment left on top of the
+ * checkpoint gives the latest state, as each key's last write is either in
+ * the checkpoint or in a later segment.
+ */
+public final class WriteAheadLog implements Closeable {
+    /**
+     * When appended records are synced to disk.
+     */
+    public enum SyncPolicy {
+        /**
+         * Writes wait for the fsync of the group commit they are part of.
+         */
+        ALWAYS,
+
+        /**
+         * Writes do not wait, the log is synced at a fixed interval.
+         */
+        INTERVAL,
+
+        /**
+         * The log is written without fsync, the OS flushes it.
+         */
+        NEVER;
+
+        /**
+         * Parses a policy name, case insensitive.
+         */
+        public static SyncPolicy parse(String value) {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+    private static final long NO_EXPIRY = 0;
+
+    private static final int RECORD_HEADER = 2 * Integer.BYTES;
+    private static final int PAYLOAD_HEADER = 1 + Long.BYTES + Integer.BYTES;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    // Appends wait beyond this many buffered bytes until the writer catches up
+    private static final int MAX_PENDING_BYTES = 64 * 1024 * 1024;
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private static final Logger logger = LoggerFactory.getLogger(WriteAheadLog.class);
+
+    private final Path directory;
+    private final SyncPolicy syncPolicy;
+    private final long syncIntervalNanos;
+    private final long compactBytes;
+    private final SnapshotManager checkpoint;
+    private final Thread writer;
+    private final ExecutorService compactor;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition synced = lock.newCondition();
+
+    // Guarded by lock
+    private ByteBuffer pending = ByteBuffer.allocate(BUFFER_SIZE);
+    private long appendedPosition;
+    private long syncedPosition;
+    private boolean closed;
+    private IOException failure;
+    private final Queue<SyncWaiter> waiters = new PriorityQueue<>();
+
+    // Owned by the writer thread
+    private ByteBuffer writing = ByteBuffer.allocate(BUFFER_SIZE);
+    private FileChannel segment;
+    private long segmentNumber;
+    private long segmentBytes;
+
+    private volatile boolean compacting;
+
+    /**
+     * Opens the log in the directory. Call {@link #replay} then {@link #start}
+     * before appending.
+     *
+     * @param checkpoint snapshot the log is compacted into
+     */
+    public WriteAheadLog(Path directory, SyncPolicy syncPolicy, Duration syncInterval, long compactBytes,
+            SnapshotManager checkpoint) throws IOException {
+        this.directory = directory;
+        this.syncPolicy = syncPolicy;
+        this.syncIntervalNanos = syncInterval.toNanos();
+        this.compactBytes = compactBytes;
+        this.checkpoint = checkpoint;
+
+        Files.createDirectories(directory);
+
+        writer = new Thread(this::writeLoop, "cache-wal");
+        writer.setDaemon(true);
+
+        compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "cache-wal-compaction");
+            thread.setDaemon(true);
+
+            return thread;
+        });
+    }
+
+    /**
+     * Applies the records of all segments to the store, in order, and returns
+     * how many were applied. A segment is read up to its first torn or
+     * corrupt record, which is where a crash cut it.
+     */
+    public long replay(CacheStore store) throws IOException {
+        long start = System.nanoTime();
+        long count = 0;
+
+        for (Path path : segments()) {
+            try (MappedFileReader reader = new MappedFileReader(path)) {
+                while (reader.position() < reader.size()) {
+                    int length = reader.getInt();
+                    int crc = reader.getInt();
+
+                    if (length < PAYLOAD_HEADER || length > reader.size() - reader.position()) {
+                        throw new EOFException("Torn record at " + (reader.position() - RECORD_HEADER));
+                    }
+
+                    byte[] payload = reader.getBytes(length);
+
+                    if (crc32c(payload) != crc) {
+                        throw new IOException("Checksum mismatch at " + (reader.position() - length));
+                    }
+
+                    apply(store, ByteBuffer.wrap(payload));
+                    count++;
+                }
+            } catch (IOException e) {
+                logger.warn("Write-ahead log {} ends with an invalid record: {}", path, e.getMessage());
+            }
+        }
+
+        logger.info("Replayed {} write-ahead log records in {} ms", count,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        return count;
+    }
+
+    /**
+     * Starts a new segment and the writer thread.
+     */
+    public void start() throws IOException {
+        List<Path> existing = segments();
+
+        segmentNumber = existing.isEmpty() ? 1 : segmentNumber(existing.get(existing.size() - 1)) + 1;
+        segment = openSegment(segmentNumber);
+        writer.start();
+    }
+
+    /**
+     * Buffers a put and returns the log position to {@link #awaitSync await}.
+     */
+    public long appendPut(String key, byte[] value, Duration ttl) throws IOException {
+        long expiresAt = ttl == null ? NO_EXPIRY : System.currentTimeMillis() + Math.max(1, ttl.toMillis());
+
+        return append(TYPE_PUT, key, value, expiresAt);
+    }
+
+    /**
+     * Buffers a delete and returns the log position to {@link #awaitSync await}.
+     */
+    public long appendDelete(String key) throws IOException {
+        return append(TYPE_DELETE, key, null, NO_EXPIRY);
+    }
+
+    /**
+     * Waits until the log is synced up to the position, if the policy is
+     * {@link SyncPolicy#ALWAYS}, otherwise returns at once.
+     */
+    public void awaitSync(long position) throws IOException {
+        if (syncPolicy != SyncPolicy.ALWAYS) {
+            return;
+        }
+
+        lock.lock();
+
+        try {
+            while (syncedPosition < position) {
+                checkOpen();
+                synced.await();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the write-ahead log");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns a future completed once the log is synced up to the position,
+     * if the policy is {@link SyncPolicy#ALWAYS}, otherwise a completed one.
+     * The writer thread completes it, so dependent actions must be quick.
+     */
+    public CompletableFuture<Void> whenSynced(long position) {
+        if (syncPolicy != SyncPolicy.ALWAYS) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        lock.lock();
+
+        try {
+            if (syncedPosition >= position) {
+                return CompletableFuture.completedFuture(null);
+            }
+
+            checkOpen();
+
+            SyncWaiter waiter = new SyncWaiter(position);
+            waiters.add(waiter);
+
+            return waiter.future;
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes and syncs the buffered records, then closes the log once a
+     * running compaction is done.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        compactor.shutdown();
+
+        try {
+            // Its checkpoint covers the segments it deletes, so let it finish
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private long append(byte type, String key, byte[] value, long expiresAt) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        int valueLength = value == null ? 0 : value.length;
+        ByteBuffer payload = ByteBuffer.allocate(PAYLOAD_HEADER + keyBytes.length + valueLength);
+
+        payload.put(type).putLong(expiresAt).putInt(keyBytes.length).put(keyBytes);
+
+        if (value != null) {
+            payload.put(value);
+        }
+
+        byte[] bytes = payload.array();
+        int recordLength = RECORD_HEADER + bytes.length;
+        int crc = crc32c(bytes);
+
+        lock.lock();
+
+        try {
+            while (pending.position() > 0 && pending.position() + recordLength > MAX_PENDING_BYTES) {
+                checkOpen();
+                notFull.await();
+            }
+
+            checkOpen();
+
+            if (pending.remaining() < recordLength) {
+                int capacity = Math.max(pending.capacity() * 2, pending.position() + recordLength);
+                ByteBuffer larger = ByteBuffer.allocate(capacity);
+                pending.flip();
+                larger.put(pending);
+                pending = larger;
+            }
+
+            // The writer only waits while the buffer is empty
+            if (pending.position() == 0) {
+                notEmpty.signal();
+            }
+
+            pending.putInt(bytes.length).putInt(crc).put(bytes);
+            appendedPosition += recordLength;
+
+            return appendedPosition;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while appending to the write-ahead log");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (failure != null) {
+            throw new IOException("Write-ahead log failed", failure);
+        }
+
+        if (closed) {
+            throw new IOException("Write-ahead log is closed");
+        }
+    }
+
+    /**
+     * Writes buffered records as they come and syncs them per the policy.
+     */
+    private void writeLoop() {
+        long lastSync = System.nanoTime();
+        boolean unsynced = false;
+
+        try {
+            while (true) {
+                long target;
+                boolean closing;
+
+                lock.lock();
+
+                try {
+                    while (pending.position() == 0 && !closed) {
+                        if (unsynced && syncPolicy == SyncPolicy.INTERVAL) {
+                            long wait = syncIntervalNanos - (System.nanoTime() - lastSync);
+
+                            if (wait <= 0) {
+                                break;
+                            }
+
+                            notEmpty.awaitNanos(wait);
+                        } else {
+                            notEmpty.await();
+                        }
+                    }
+
+                    // Swap buffers so appends continue while this batch is written
+                    ByteBuffer batch = pending;
+                    pending = writing;
+                    writing = batch;
+                    target = appendedPosition;
+                    closing = closed;
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+
+                writing.flip();
+                segmentBytes += writing.remaining();
+                unsynced |= writing.hasRemaining();
+
+                while (writing.hasRemaining()) {
+                    segment.write(writing);
+                }
+
+                writing.clear();
+
+                boolean due = System.nanoTime() - lastSync >= syncIntervalNanos;
+
+                if (unsynced && (syncPolicy == SyncPolicy.ALWAYS || closing
+                        || (syncPolicy == SyncPolicy.INTERVAL && due))) {
+                    if (syncPolicy != SyncPolicy.NEVER) {
+                        segment.force(false);
+                    }
+
+                    lastSync = System.nanoTime();
+                    unsynced = false;
+                }
+
+                List<SyncWaiter> done = new ArrayList<>();
+
+                lock.lock();
+
+                try {
+                    syncedPosition = target;
+                    synced.signalAll();
+
+                    while (!waiters.isEmpty() && waiters.peek().position <= target) {
+                        done.add(waiters.poll());
+                    }
+                } finally {
+                    lock.unlock();
+                }
+
+                for (SyncWaiter waiter : done) {
+                    waiter.future.complete(null);
+                }
+
+                if (closing) {
+                    segment.close();
+                    failWaiters(new IOException("Write-ahead log is closed"));
+                    return;
+                }
+
+                if (segmentBytes >= compactBytes && !compacting) {
+                    rotate();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            logger.error("Write-ahead log stopped: {}", e.getMessage(), e);
+
+            lock.lock();
+
+            try {
+                failure = e instanceof IOException ? (IOException) e : new InterruptedIOException(e.getMessage());
+                synced.signalAll();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+
+            failWaiters(new IOException("Write-ahead log failed", failure));
+        }
+    }
+
+    private void failWaiters(IOException e) {
+        List<SyncWaiter> failed;
+
+        lock.lock();
+
+        try {
+            failed = new ArrayList<>(waiters);
+            waiters.clear();
+        } finally {
+            lock.unlock();
+        }
+
+        for (SyncWaiter waiter : failed) {
+            waiter.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Continues in a new segment and compacts the previous ones into a
+     * checkpoint in the background.
+     */
+    private void rotate() throws IOException {
+        if (syncPolicy != SyncPolicy.NEVER) {
+            segment.force(false);
+        }
+
+        segment.close();
+        segment = openSegment(++segmentNumber);
+        segmentBytes = 0;
+
+        long firstKept = segmentNumber;
+        compacting = true;
+
+        compactor.execute(() -> {
+            try {
+                checkpoint.save();
+
+                for (Path path : segments()) {
+                    if (segmentNumber(path) < firstKept) {
+                        Files.delete(path);
+                    }
+                }
+
+                logger.info("Compacted write-ahead log up to segment {}", firstKept);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Failed to compact write-ahead log: {}", e.getMessage(), e);
+            } finally {
+                compacting = false;
+            }
+        });
+    }
+
+    private FileChannel openSegment(long number) throws IOException {
+        Path path = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+
+        return FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Returns the segment files, oldest first.
+     */
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            List<Path> segments = new ArrayList<>();
+
+            files.filter(path -> {
+                String name = path.getFileName().toString();
+
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }).sorted().forEach(segments::add);
+
+            return segments;
+        }
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    private static void apply(CacheStore store, ByteBuffer payload) {
+        byte type = payload.get();
+        long expiresAt = payload.getLong();
+        byte[] key = new byte[payload.getInt()];
+        payload.get(key);
+
+        String keyString = new String(key, StandardCharsets.UTF_8);
+
+        if (type == TYPE_DELETE) {
+            store.delete(keyString);
+            return;
+        }
+
+        byte[] value = new byte[payload.remaining()];
+        payload.get(value);
+
+        long remaining = expiresAt - System.currentTimeMillis();
+
+        if (expiresAt == NO_EXPIRY) {
+            store.put(keyString, value);
+        } else if (remaining > 0) {
+            store.put(keyString, value, Duration.ofMillis(remaining));
+        } else {
+            // Expired since, but it still replaced the previous value
+            store.delete(keyString);
+        }
+    }
+
+    private static int crc32c(byte[] bytes) {
+        CRC32C crc = new CRC32C();
+        crc.update(bytes);
+
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Future of a {@link #whenSynced} call, ordered by its position.
+     */
+    private static final class SyncWaiter implements Comparable<SyncWaiter> {
+        final long position;
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        SyncWaiter(long position) {
+            this.position = position;
+        }
+
+        @Override
+        public int compareTo(SyncWaiter other) {
+            return Long.compare(position, other.position);
+        }
+    }
+}
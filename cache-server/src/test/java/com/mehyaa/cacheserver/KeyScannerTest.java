@@ -0,0 +1,118 @@
+package com.mehyaa.cacheserver;
+
+import com.mehyaa.cacheserver.cache.CacheStore;
+import com.mehyaa.cacheserver.cache.StorageEngine;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class KeyScannerTest {
+    private CacheStore cache;
+
+    @BeforeEach
+    public void setup() {
+        cache = StorageEngine.createFromConfig();
+
+        for (int i = 0; i < 2_500; i++) {
+            cache.put("a-" + i, new byte[1]);
+        }
+
+        for (int i = 0; i < 500; i++) {
+            cache.put("b-" + i, new byte[1]);
+        }
+    }
+
+    @Test
+    public void testPagesWalkEveryMatchingKeyOnce() {
+        KeyScanner scanner = new KeyScanner(cache, 4, 60_000);
+        Set<String> keys = new HashSet<>();
+        Set<String> ids = new HashSet<>();
+        KeyScanner.Cursor cursor = scanner.open("a-");
+        String id;
+        int pages = 0;
+
+        do {
+            for (int i = 0; i < 100 && cursor.hasNext(); i++) {
+                assertTrue(keys.add(cursor.next()), "Returned twice");
+            }
+
+            pages++;
+            id = scanner.release(cursor);
+
+            if (id != null) {
+                assertTrue(ids.add(id), "Id reused");
+                assertSame(cursor, scanner.take(id));
+
+                // Taken for this page, so a concurrent request with the same id gets nothing
+                assertNull(scanner.take(id));
+            }
+        } while (id != null);
+
+        assertEquals(2_500, keys.size());
+        assertEquals(25, pages);
+        assertTrue(keys.stream().allMatch(key -> key.startsWith("a-")));
+        assertNull(cursor.next());
+    }
+
+    @Test
+    public void testOpenCursorsAreLimited() {
+        KeyScanner scanner = new KeyScanner(cache, 2, 60_000);
+
+        String first = scanner.release(scanner.open(""));
+        String second = scanner.release(scanner.open(""));
+
+        assertNull(scanner.open(""));
+
+        // A cursor in use doesn't count, nor does a finished one
+        KeyScanner.Cursor taken = scanner.take(first);
+        KeyScanner.Cursor opened = scanner.open("b-");
+
+        assertNotNull(opened);
+
+        while (opened.hasNext()) {
+            opened.next();
+        }
+
+        assertNull(scanner.release(opened));
+        assertNotNull(scanner.release(taken));
+        assertNull(scanner.open(""));
+        assertNotNull(scanner.take(second));
+        assertNotNull(scanner.open(""));
+    }
+
+    @Test
+    public void testIdleCursorsAreDropped() throws Exception {
+        KeyScanner scanner = new KeyScanner(cache, 1, 200);
+        KeyScanner.Cursor cursor = scanner.open("");
+
+        cursor.next();
+
+        String id = scanner.release(cursor);
+
+        assertNull(scanner.open(""));
+
+        Thread.sleep(400);
+
+        assertNotNull(scanner.open(""));
+        assertNull(scanner.take(id));
+
+        // Every page renews the idle time
+        KeyScanner.Cursor resumed = scanner.open("");
+        id = scanner.release(resumed);
+
+        for (int page = 0; page < 3; page++) {
+            Thread.sleep(120);
+            assertSame(resumed, scanner.take(id));
+            id = scanner.release(resumed);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package com.mehyaa.cacheserver;
+
+import com.mehyaa.cacheclient.NodeSelector;
+import com.mehyaa.cacheclient.NodeSelectorType;
+import com.mehyaa.cacheclient.ServiceDiscovery;
+import com.mehyaa.cacheserver.cache.CacheStore;
+import com.mehyaa.cacheserver.cache.StorageEngine;
+import com.sun.net.httpserver.HttpServer;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.apache.curator.framework.CuratorFramework;
+import org.apache.curator.framework.CuratorFrameworkFactory;
+import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.curator.test.TestingServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Runs rebalancing rounds on topology changes in an in-memory ZooKeeper,
+ * migrating to a node that only records the batches it receives.
+ */
+public class RebalancerTest {
+    private static final String SELF = "127.0.0.1:1";
+    private static final String OTHER = "127.0.0.1:2";
+    private static final int BATCH_SIZE = 50;
+
+    private TestingServer testingServer;
+    private CuratorFramework curator;
+    private HttpServer receiver;
+    private String receiverNode;
+    private Rebalancer rebalancer;
+
+    private final Map<String, BatchCodec.Entry> received = new ConcurrentHashMap<>();
+    private final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+    private final AtomicInteger failuresLeft = new AtomicInteger();
+    private volatile Consumer<List<BatchCodec.Entry>> onBatch = entries -> {
+    };
+
+    @BeforeEach
+    public void setup() throws Exception {
+        testingServer = new TestingServer(true);
+
+        curator = CuratorFrameworkFactory.newClient(testingServer.getConnectString(),
+                new ExponentialBackoffRetry(1000, 3));
+        curator.start();
+
+        System.setProperty("zookeeper.connect", testingServer.getConnectString());
+
+        receiver = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        receiver.createContext("/_migrate", exchange -> {
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            List<BatchCodec.Entry> entries = BatchCodec.decodeMigrationEntries(body);
+
+            if (failuresLeft.getAndDecrement() > 0) {
+                exchange.sendResponseHeaders(500, -1);
+            } else {
+                onBatch.accept(entries);
+                batchSizes.add(entries.size());
+                entries.forEach(entry -> received.put(entry.key, entry));
+                exchange.sendResponseHeaders(200, -1);
+            }
+
+            exchange.close();
+        });
+        receiver.start();
+        receiverNode = "127.0.0.1:" + receiver.getAddress().getPort();
+    }
+
+    @AfterEach
+    public void tearDown() throws Exception {
+        if (rebalancer != null) {
+            rebalancer.stop();
+        }
+
+        receiver.stop(0);
+        System.clearProperty("zookeeper.connect");
+
+        curator.close();
+        testingServer.close();
+    }
+
+    @Test
+    public void testSendsOwnEntriesToNewOwnerAndRemovesThem() throws Exception {
+        CacheStore cache = cacheWithEntries();
+
+        register(SELF, OTHER);
+        startRebalancer(cache);
+        register(receiverNode);
+
+        List<String> moved = movedKeys(List.of(SELF, OTHER), List.of(SELF, OTHER, receiverNode), SELF);
+
+        awaitRemoved(cache, moved);
+
+        assertEquals(Set.copyOf(moved), received.keySet());
+        assertTrue(batchSizes.stream().allMatch(size -> size <= BATCH_SIZE), "Batches " + batchSizes);
+
+        for (String key : moved) {
+            BatchCodec.Entry entry = received.get(key);
+
+            assertArrayEquals(value(key), entry.value);
+
+            if (expires(key)) {
+                assertTrue(entry.ttl.compareTo(Duration.ofSeconds(50)) > 0);
+            } else {
+                assertNull(entry.ttl);
+            }
+        }
+
+        // Entries OTHER sends are kept, like those staying
+        for (int i = 0; i < 1_000; i++) {
+            String key = "key-" + i;
+
+            if (!moved.contains(key)) {
+                assertArrayEquals(value(key), cache.get(key));
+            }
+        }
+    }
+
+    @Test
+    public void testEntriesChangedWhileSendingAreKept() throws Exception {
+        CacheStore cache = cacheWithEntries();
+        List<String> changed = new CopyOnWriteArrayList<>();
+
+        // The first entry of every batch is written again before the batch is acknowledged
+        onBatch = entries -> {
+            changed.add(entries.get(0).key);
+            cache.put(entries.get(0).key, "changed".getBytes(StandardCharsets.UTF_8));
+        };
+
+        register(SELF);
+        startRebalancer(cache);
+        register(receiverNode);
+
+        List<String> moved = movedKeys(List.of(SELF), List.of(SELF, receiverNode), SELF);
+        long deadline = System.nanoTime() + 10_000_000_000L;
+
+        while (received.size() < moved.size() && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+
+        List<String> removed = new ArrayList<>(moved);
+        removed.removeAll(changed);
+
+        awaitRemoved(cache, removed);
+
+        assertEquals(Set.copyOf(moved), received.keySet());
+        assertTrue(changed.size() > 1);
+
+        for (String key : changed) {
+            assertArrayEquals("changed".getBytes(StandardCharsets.UTF_8), cache.get(key));
+        }
+    }
+
+    @Test
+    public void testFailedRoundIsRetried() throws Exception {
+        CacheStore cache = cacheWithEntries();
+
+        failuresLeft.set(2);
+
+        register(SELF);
+        startRebalancer(cache);
+        register(receiverNode);
+
+        List<String> moved = movedKeys(List.of(SELF), List.of(SELF, receiverNode), SELF);
+
+        awaitRemoved(cache, moved);
+
+        assertEquals(Set.copyOf(moved), received.keySet());
+        assertTrue(failuresLeft.get() < 0);
+    }
+
+    /**
+     * Holds "key-0" to "key-999", every tenth expiring in a minute.
+     */
+    private static CacheStore cacheWithEntries() {
+        CacheStore cache = StorageEngine.createFromConfig();
+
+        for (int i = 0; i < 1_000; i++) {
+            String key = "key-" + i;
+
+            if (expires(key)) {
+                cache.put(key, value(key), Duration.ofMinutes(1));
+            } else {
+                cache.put(key, value(key));
+            }
+        }
+
+        return cache;
+    }
+
+    private void startRebalancer(CacheStore cache) throws Exception {
+        rebalancer = new Rebalancer(cache, SELF, NodeSelectorType.RING, 1, BATCH_SIZE, 0, 100);
+        rebalancer.start();
+    }
+
+    /**
+     * Returns the keys the sender owned before and the receiver owns after.
+     */
+    private List<String> movedKeys(List<String> before, List<String> after, String sender) {
+        NodeSelector previous = NodeSelectorType.RING.create(before);
+        NodeSelector current = NodeSelectorType.RING.create(after);
+        List<String> moved = new ArrayList<>();
+
+        for (int i = 0; i < 1_000; i++) {
+            String key = "key-" + i;
+
+            if (previous.getReplicas(key, 1).get(0).equals(sender)
+                    && current.getReplicas(key, 1).get(0).equals(receiverNode)) {
+                moved.add(key);
+            }
+        }
+
+        assertTrue(moved.size() > BATCH_SIZE, "Only " + moved.size() + " keys move");
+
+        return moved;
+    }
+
+    private void register(String... nodes) throws Exception {
+        for (String node : nodes) {
+            curator.create().creatingParentsIfNeeded().forPath(ServiceDiscovery.SERVICE_PATH + "/" + node,
+                    node.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void awaitRemoved(CacheStore cache, List<String> keys) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+
+        while (keys.stream().anyMatch(key -> cache.get(key) != null) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+
+        for (String key : keys) {
+            assertNull(cache.get(key), key + " was not removed");
+        }
+    }
+
+    private static boolean expires(String key) {
+        return key.endsWith("0");
+    }
+
+    private static byte[] value(String key) {
+        return ("value-of-" + key).getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,143 @@
+package com.mehyaa.cacheserver;
+
+import com.mehyaa.cacheclient.LatencyHistogram;
+import com.mehyaa.cacheserver.cache.StorageEngine;
+import com.mehyaa.cacheserver.cache.StoreStats;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ServerMetricsTest {
+    private final StoreStats store = StorageEngine.createFromConfig().stats();
+
+    @Test
+    public void testPercentilesAreUpperBoundsOfBuckets() {
+        ServerMetrics metrics = new ServerMetrics();
+
+        for (int i = 0; i < 90; i++) {
+            metrics.record(ServerMetrics.Operation.GET, 1_000, false);
+        }
+
+        for (int i = 0; i < 9; i++) {
+            metrics.record(ServerMetrics.Operation.GET, 100_000, true);
+        }
+
+        metrics.record(ServerMetrics.Operation.GET, 10_000_000, false);
+
+        String json = metrics.toJson(store);
+
+        assertEquals(100, field(json, "get", "count"));
+        assertEquals(9, field(json, "get", "errors"));
+        assertEquals(109.9, field(json, "get", "mean"), 0.001);
+        assertEquals(micros(1_000), field(json, "get", "p50"));
+        assertEquals(micros(1_000), field(json, "get", "p90"));
+        assertEquals(micros(100_000), field(json, "get", "p99"));
+        assertEquals(micros(10_000_000), field(json, "get", "p999"));
+        assertEquals(micros(10_000_000), field(json, "get", "max"));
+
+        // Eight buckets per power of two
+        for (long nanos : new long[] {1_000, 100_000, 10_000_000}) {
+            assertTrue(micros(nanos) * 1000 >= nanos);
+            assertTrue(micros(nanos) * 1000 < nanos * 1.125);
+        }
+    }
+
+    @Test
+    public void testUnusedOperationsReportZero() {
+        ServerMetrics metrics = new ServerMetrics();
+
+        metrics.record(ServerMetrics.Operation.PUT, 5_000, false);
+
+        String json = metrics.toJson(store);
+
+        for (ServerMetrics.Operation operation : ServerMetrics.Operation.values()) {
+            if (operation != ServerMetrics.Operation.PUT) {
+                for (String name : new String[] {"count", "errors", "perSecond", "mean", "p50", "p999", "max"}) {
+                    assertEquals(0.0, field(json, operation.jsonName, name), operation + " " + name);
+                }
+            }
+        }
+
+        assertEquals(1, field(json, "put", "count"));
+        assertEquals(1.0, field(json, "hitRate"));
+    }
+
+    @Test
+    public void testHitRate() {
+        ServerMetrics metrics = new ServerMetrics();
+
+        metrics.recordReads(3, 1);
+        metrics.recordReads(0, 0);
+
+        String json = metrics.toJson(store);
+
+        assertEquals(3, field(json, "hits"));
+        assertEquals(1, field(json, "misses"));
+        assertEquals(0.75, field(json, "hitRate"));
+    }
+
+    @Test
+    public void testLatenciesCoverIntervalSincePreviousSample() throws Exception {
+        ServerMetrics metrics = new ServerMetrics();
+
+        for (int i = 0; i < 100; i++) {
+            metrics.record(ServerMetrics.Operation.GET, 1_000, false);
+        }
+
+        assertEquals(micros(1_000), field(metrics.toJson(store), "get", "max"));
+
+        // Within the minimum interval the latest sample is reported again
+        metrics.record(ServerMetrics.Operation.GET, 1_000_000, false);
+
+        String json = metrics.toJson(store);
+
+        assertEquals(100, field(json, "get", "count"));
+        assertEquals(micros(1_000), field(json, "get", "max"));
+
+        Thread.sleep(1_100);
+
+        for (int i = 0; i < 19; i++) {
+            metrics.record(ServerMetrics.Operation.GET, 1_000_000, false);
+        }
+
+        json = metrics.toJson(store);
+
+        // Counts are totals, latencies and rates only cover the new interval
+        assertEquals(120, field(json, "get", "count"));
+        assertEquals(micros(1_000_000), field(json, "get", "p50"));
+        assertEquals(1_000.0, field(json, "get", "mean"), 0.001);
+        assertTrue(field(json, "intervalMillis") >= 1_000);
+        assertTrue(field(json, "get", "perSecond") <= 20);
+    }
+
+    /**
+     * Returns the reported latency of the bucket holding the given value.
+     */
+    private static double micros(long nanos) {
+        return LatencyHistogram.upperBound(LatencyHistogram.bucket(nanos, 3), 3) / 1000.0;
+    }
+
+    /**
+     * Reads the number of a field, found by the names leading to it, like an
+     * operation and one of its latencies.
+     */
+    private static double field(String json, String... path) {
+        int start = 0;
+
+        for (String name : path) {
+            start = json.indexOf("\"" + name + "\":", start);
+            assertTrue(start >= 0, "No " + name + " in " + json);
+            start += name.length() + 3;
+        }
+
+        int end = start;
+
+        while (end < json.length() && json.charAt(end) != ',' && json.charAt(end) != '}') {
+            end++;
+        }
+
+        return Double.parseDouble(json.substring(start, end));
+    }
+}
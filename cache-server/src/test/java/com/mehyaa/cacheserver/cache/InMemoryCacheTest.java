@@ -0,0 +1,185 @@
+package com.mehyaa.cacheserver.cache;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class InMemoryCacheTest {
+    private static final long MAX_BYTES = 1024 * 1024;
+
+    @Test
+    public void testWeightIsKeyValueAndOverhead() {
+        assertEquals(3 + 10 + InMemoryCache.ENTRY_OVERHEAD_BYTES, InMemoryCache.weigh("key", new byte[10]));
+        assertEquals(InMemoryCache.ENTRY_OVERHEAD_BYTES, InMemoryCache.weigh("", new byte[0]));
+    }
+
+    @Test
+    public void testEvictsDownToMemoryLimit() throws Exception {
+        InMemoryCache cache = new InMemoryCache(MAX_BYTES);
+        int weight = InMemoryCache.weigh("key-0000", new byte[1_000]);
+        int count = (int) (10 * MAX_BYTES / weight);
+
+        // Ten times the limit
+        for (int i = 0; i < count; i++) {
+            cache.put(String.format("key-%04d", i), new byte[1_000]);
+        }
+
+        StoreStats stats = awaitEvictions(cache);
+        int held = 0;
+
+        for (int i = 0; i < count; i++) {
+            if (cache.get(String.format("key-%04d", i)) != null) {
+                held++;
+            }
+        }
+
+        assertTrue(stats.getEstimatedBytes() <= MAX_BYTES, "Weighs " + stats.getEstimatedBytes());
+        assertTrue(stats.getEstimatedBytes() > MAX_BYTES - 2 * weight, "Weighs " + stats.getEstimatedBytes());
+        assertEquals(MAX_BYTES, stats.getMaxBytes());
+        assertEquals(stats.getEstimatedBytes() / weight, held);
+        assertEquals(stats.getEvictionCount() * weight, stats.getEvictedBytes());
+        assertEquals(count, held + stats.getEvictionCount());
+    }
+
+    @Test
+    public void testFrequentlyReadEntriesSurviveScan() throws Exception {
+        InMemoryCache cache = new InMemoryCache(MAX_BYTES);
+
+        for (int i = 0; i < 10; i++) {
+            cache.put("hot-" + i, new byte[1_000]);
+        }
+
+        // The frequency sketch is sized, and reset, as the cache first fills up
+        for (int i = 0; i < 3_000; i++) {
+            cache.put("fill-" + i, new byte[1_000]);
+            cache.get("hot-" + i % 10);
+        }
+
+        awaitEvictions(cache);
+
+        // The read buffers are lossy, give the maintenance thread time to drain them
+        for (int read = 0; read < 20; read++) {
+            for (int i = 0; i < 10; i++) {
+                assertNotNull(cache.get("hot-" + i));
+            }
+
+            Thread.sleep(5);
+        }
+
+        // A scan of keys read once, several times the limit
+        for (int i = 0; i < 3_000; i++) {
+            cache.put("scan-" + i, new byte[1_000]);
+        }
+
+        awaitEvictions(cache);
+
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(new byte[1_000], cache.get("hot-" + i), "hot-" + i + " was evicted");
+        }
+    }
+
+    @Test
+    public void testExpiredEntriesAreNeverReturned() throws Exception {
+        InMemoryCache cache = new InMemoryCache(MAX_BYTES);
+
+        cache.put("key", new byte[10], Duration.ofMillis(100));
+        assertNotNull(cache.get("key"));
+
+        Thread.sleep(200);
+
+        // Whether or not the maintenance thread removed it yet
+        assertNull(cache.get("key"));
+
+        for (Iterator<String> keys = cache.keys(); keys.hasNext();) {
+            assertFalse(keys.next().equals("key"));
+        }
+
+        assertTrue(cache.putIfAbsent("key", new byte[20], null));
+        assertEquals(20, cache.get("key").length);
+    }
+
+    @Test
+    public void testExpiredEntriesAreRemovedWithoutReads() throws Exception {
+        InMemoryCache cache = new InMemoryCache(MAX_BYTES);
+
+        for (int i = 0; i < 100; i++) {
+            cache.put("expiring-" + i, new byte[10], Duration.ofMillis(100));
+        }
+
+        cache.put("kept", new byte[10]);
+
+        long deadline = System.nanoTime() + 5_000_000_000L;
+
+        while (cache.stats().getExpirationCount() < 100 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        StoreStats stats = cache.stats();
+
+        assertEquals(100, stats.getExpirationCount());
+        assertEquals(1, stats.getEntryCount());
+        assertEquals(InMemoryCache.weigh("kept", new byte[10]), stats.getEstimatedBytes());
+        assertEquals(0, stats.getEvictionCount());
+    }
+
+    @Test
+    public void testTtlCountsFromLastWrite() throws Exception {
+        InMemoryCache cache = new InMemoryCache(MAX_BYTES);
+
+        cache.put("read", new byte[10], Duration.ofMillis(300));
+        cache.put("rewritten", new byte[10], Duration.ofMillis(300));
+        cache.put("persistent", new byte[10]);
+        cache.put("expiring", new byte[10], Duration.ofMinutes(1));
+
+        Thread.sleep(150);
+
+        // Reads don't extend the time-to-live, writes replace it
+        assertNotNull(cache.get("read"));
+        cache.put("rewritten", new byte[10]);
+        cache.put("persistent", new byte[10], Duration.ofMillis(100));
+
+        Thread.sleep(250);
+
+        assertNull(cache.get("read"));
+        assertNotNull(cache.get("rewritten"));
+        assertNull(cache.get("persistent"));
+
+        Map<String, Duration> ttls = new HashMap<>();
+        cache.forEach((key, value, ttl) -> ttls.put(key, ttl));
+
+        assertEquals(2, ttls.size());
+        assertNull(ttls.get("rewritten"));
+        assertTrue(ttls.get("expiring").compareTo(Duration.ofSeconds(50)) > 0);
+    }
+
+    /**
+     * Waits until the maintenance thread brought the cache within its limit
+     * and stopped evicting.
+     */
+    private static StoreStats awaitEvictions(InMemoryCache cache) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        StoreStats previous;
+        StoreStats stats = cache.stats();
+
+        do {
+            Thread.sleep(50);
+            previous = stats;
+            stats = cache.stats();
+        } while ((stats.getEstimatedBytes() > stats.getMaxBytes()
+                || stats.getEvictionCount() != previous.getEvictionCount()) && System.nanoTime() < deadline);
+
+        assertTrue(stats.getEvictionCount() > 0);
+
+        return stats;
+    }
+}
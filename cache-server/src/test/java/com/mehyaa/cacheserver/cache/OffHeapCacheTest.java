@@ -0,0 +1,158 @@
+package com.mehyaa.cacheserver.cache;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class OffHeapCacheTest {
+    private static final long MAX_BYTES = 16L * SlabAllocator.PAGE_SIZE;
+
+    @Test
+    public void testPutGetDeleteAcrossSizeClasses() {
+        OffHeapCache cache = new OffHeapCache(MAX_BYTES);
+        int[] lengths = { 1, 100, 10_000, 300_000, 2 * SlabAllocator.PAGE_SIZE };
+
+        for (int length : lengths) {
+            String key = "key-" + length;
+
+            cache.put(key, value(length, 1));
+            assertArrayEquals(value(length, 1), cache.get(key));
+
+            // Replacing the value with one of another class frees the old slot
+            cache.put(key, value(length / 2 + 1, 2));
+            assertArrayEquals(value(length / 2 + 1, 2), cache.get(key));
+        }
+
+        assertEquals(lengths.length, cache.stats().getEntryCount());
+        assertFalse(cache.putIfAbsent("key-1", value(10, 3), null));
+        assertTrue(cache.putIfAbsent("absent", value(10, 3), null));
+
+        for (int length : lengths) {
+            cache.delete("key-" + length);
+            assertNull(cache.get("key-" + length));
+        }
+
+        assertArrayEquals(value(10, 3), cache.get("absent"));
+    }
+
+    @Test
+    public void testEvictsWithinMemoryLimit() {
+        OffHeapCache cache = new OffHeapCache(MAX_BYTES);
+
+        // Four times the limit, then values of another class taking the pages over
+        for (int i = 0; i < 16_000; i++) {
+            cache.put("small-" + i, value(4_000, i));
+        }
+
+        for (int i = 0; i < 1_600; i++) {
+            cache.put("large-" + i, value(40_000, i));
+        }
+
+        StoreStats stats = cache.stats();
+        int largeHeld = 0;
+
+        // Admission may turn a new entry away, but never return another one's value
+        for (int i = 0; i < 1_600; i++) {
+            byte[] value = cache.get("large-" + i);
+
+            if (value != null) {
+                assertArrayEquals(value(40_000, i), value);
+                largeHeld++;
+            }
+        }
+
+        assertTrue(stats.getEstimatedBytes() <= MAX_BYTES, "Weighs " + stats.getEstimatedBytes());
+        assertTrue(stats.getEvictionCount() > 0);
+        assertTrue(largeHeld > 0);
+        assertNull(cache.get("small-0"));
+    }
+
+    @Test
+    public void testReadersNeverSeeValuesOfEvictedSlots() throws Exception {
+        OffHeapCache cache = new OffHeapCache(MAX_BYTES);
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                while (running.get()) {
+                    int i = random.nextInt(2_000);
+                    byte[] loaded = cache.get("key-" + i);
+
+                    // Values are filled with their key's number, whatever their size
+                    if (loaded != null && !Arrays.equals(loaded, value(loaded.length, i))) {
+                        failure.set("Read a value of another entry for key-" + i);
+                    }
+                }
+            });
+            readers[t].start();
+        }
+
+        // Sizes shift between classes, so pages are drained while being read
+        for (int round = 0; round < 8; round++) {
+            int length = round % 2 == 0 ? 2_000 : 30_000;
+
+            for (int i = 0; i < 2_000; i++) {
+                cache.put("key-" + i, value(length, i));
+            }
+        }
+
+        running.set(false);
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get());
+        assertTrue(cache.stats().getEvictionCount() > 0);
+    }
+
+    @Test
+    public void testEntriesExpireAfterTtl() throws Exception {
+        OffHeapCache cache = new OffHeapCache(MAX_BYTES);
+
+        cache.put("short", value(100, 1), Duration.ofMillis(100));
+        cache.put("long", value(100, 2), Duration.ofMinutes(1));
+        cache.put("forever", value(100, 3));
+
+        assertNotNull(cache.get("short"));
+
+        Thread.sleep(300);
+
+        assertNull(cache.get("short"));
+        assertArrayEquals(value(100, 2), cache.get("long"));
+        assertTrue(cache.putIfAbsent("short", value(100, 4), null));
+
+        Map<String, Duration> ttls = new HashMap<>();
+        cache.forEach((key, value, ttl) -> ttls.put(key, ttl));
+
+        assertEquals(3, ttls.size());
+        assertNull(ttls.get("forever"));
+        assertNull(ttls.get("short"));
+        assertTrue(ttls.get("long").compareTo(Duration.ofMinutes(1)) <= 0);
+        assertTrue(ttls.get("long").compareTo(Duration.ofSeconds(50)) > 0);
+    }
+
+    private static byte[] value(int length, int fill) {
+        byte[] value = new byte[length];
+        Arrays.fill(value, (byte) fill);
+
+        return value;
+    }
+}
@@ -0,0 +1,170 @@
+package com.mehyaa.cacheserver.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SlabAllocatorTest {
+    @Test
+    public void testStoreLoadAndFreeAcrossSizeClasses() {
+        SlabAllocator slabs = new SlabAllocator(64L * SlabAllocator.PAGE_SIZE);
+        int[] lengths = { 1, 57, 100, 1_000, 50_000, 500_000, SlabAllocator.PAGE_SIZE, 3 * SlabAllocator.PAGE_SIZE };
+        int generation = 0;
+
+        for (int length : lengths) {
+            byte[] key = bytes("key-" + length);
+            byte[] value = value(length, (byte) length);
+            int slotSize = slabs.slotSize(key.length, length);
+
+            long ref = slabs.store(key, value, ++generation);
+
+            assertTrue(ref >= 0, "No slot for " + length + " bytes");
+            assertTrue(slotSize >= key.length + length);
+            assertTrue(SlabAllocator.footprint(slotSize) >= slotSize);
+            assertArrayEquals(value, slabs.load(ref, key.length, length, generation));
+            assertNull(slabs.load(ref, key.length, length, generation + 1));
+
+            slabs.free(ref);
+
+            assertNull(slabs.load(ref, key.length, length, generation));
+        }
+
+        // Large values had pages of their own, released with them
+        assertTrue(slabs.reservedBytes() < 2L * SlabAllocator.PAGE_SIZE * lengths.length);
+    }
+
+    @Test
+    public void testStoreFailsAtMemoryLimitUntilSlotFreed() {
+        SlabAllocator slabs = new SlabAllocator(2L * SlabAllocator.PAGE_SIZE);
+        byte[] value = value(1_000, (byte) 1);
+        List<Long> refs = new ArrayList<>();
+        long ref;
+
+        while ((ref = slabs.store(bytes("key-" + refs.size()), value, refs.size() + 1)) >= 0) {
+            refs.add(ref);
+        }
+
+        int slotSize = slabs.slotSize(bytes("key-0").length, value.length);
+
+        assertEquals(2 * (SlabAllocator.PAGE_SIZE / slotSize), refs.size());
+        assertEquals(2L * SlabAllocator.PAGE_SIZE, slabs.reservedBytes());
+        assertEquals(-1, slabs.store(bytes("large"), value(3 * SlabAllocator.PAGE_SIZE, (byte) 2), 1));
+
+        slabs.free(refs.get(0));
+
+        assertTrue(slabs.store(bytes("key-again"), value, 1) >= 0);
+    }
+
+    @Test
+    public void testDrainedPageReusedWhileReadersHoldStaleHandles() throws Exception {
+        // A single page, so the drained page is the one the new class gets
+        SlabAllocator slabs = new SlabAllocator(SlabAllocator.PAGE_SIZE);
+        List<Entry> entries = new ArrayList<>();
+        long ref;
+
+        while ((ref = slabs.store(bytes("key-" + entries.size()), value(1_000, (byte) (entries.size() % 100)),
+                entries.size() + 1)) >= 0) {
+            entries.add(new Entry("key-" + entries.size(), ref, entries.size() + 1));
+        }
+
+        AtomicBoolean running = new AtomicBoolean(true);
+        AtomicReference<String> failure = new AtomicReference<>();
+        AtomicLong stale = new AtomicLong();
+        Thread[] readers = new Thread[4];
+
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+
+                while (running.get()) {
+                    int i = random.nextInt(entries.size());
+                    Entry entry = entries.get(i);
+                    byte[] loaded = slabs.load(entry.ref, entry.key.length(), 1_000, entry.generation);
+
+                    if (loaded == null) {
+                        stale.incrementAndGet();
+                    } else if (!Arrays.equals(loaded, value(1_000, (byte) (i % 100)))) {
+                        failure.set("Torn read of " + entry.key);
+                    }
+                }
+            });
+            readers[t].start();
+        }
+
+        List<SlabAllocator.Slot> drained = slabs.drain(entries.get(0).ref);
+        Set<String> keys = new HashSet<>();
+
+        for (SlabAllocator.Slot slot : drained) {
+            keys.add(slot.key);
+            slabs.free(slot.ref);
+        }
+
+        assertEquals(entries.size(), keys.size());
+
+        // Values of another class overwrite the slots the readers still point at
+        List<Long> refs = new ArrayList<>();
+
+        while ((ref = slabs.store(bytes("new-" + refs.size()), value(3_000, (byte) -1), 1_000_000 + refs.size()))
+                >= 0) {
+            refs.add(ref);
+        }
+
+        // Let the readers hit the reused slots before stopping them
+        long deadline = System.nanoTime() + 5_000_000_000L;
+
+        while (stale.get() < 1_000 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+
+        running.set(false);
+
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertNull(failure.get());
+        assertTrue(refs.size() > 0, "The drained page was not reused");
+        assertTrue(stale.get() >= 1_000);
+
+        for (Entry entry : entries) {
+            assertNull(slabs.load(entry.ref, entry.key.length(), 1_000, entry.generation));
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] value(int length, byte fill) {
+        byte[] value = new byte[length];
+        Arrays.fill(value, fill);
+
+        return value;
+    }
+
+    private static final class Entry {
+        final String key;
+        final long ref;
+        final int generation;
+
+        Entry(String key, long ref, int generation) {
+            this.key = key;
+            this.ref = ref;
+            this.generation = generation;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.mehyaa.cacheserver.persistence;
+
+import com.mehyaa.cacheserver.cache.CacheStore;
+import com.mehyaa.cacheserver.cache.StoreStats;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Unbounded store keeping entries in a map with their expiry time, so
+ * persistence can be tested without an eviction policy.
+ */
+final class MapCacheStore implements CacheStore {
+    private static final long NO_EXPIRY = Long.MAX_VALUE;
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the remaining time-to-live of the key, null if it does not
+     * expire or is not found.
+     */
+    Duration ttl(String key) {
+        Entry entry = entries.get(key);
+
+        return entry == null || entry.expiresAtNanos == NO_EXPIRY ? null
+                : Duration.ofNanos(entry.expiresAtNanos - System.nanoTime());
+    }
+
+    @Override
+    public byte[] get(String key) {
+        Entry entry = entries.get(key);
+
+        return entry == null || entry.expiresAtNanos <= System.nanoTime() ? null : entry.value;
+    }
+
+    @Override
+    public void put(String key, byte[] value) {
+        entries.put(key, new Entry(value, NO_EXPIRY));
+    }
+
+    @Override
+    public void put(String key, byte[] value, Duration ttl) {
+        entries.put(key, new Entry(value, System.nanoTime() + ttl.toNanos()));
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, byte[] value, Duration ttl) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void delete(String key) {
+        entries.remove(key);
+    }
+
+    @Override
+    public StoreStats stats() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void forEach(EntryVisitor visitor) {
+        long now = System.nanoTime();
+
+        entries.forEach((key, entry) -> {
+            if (entry.expiresAtNanos == NO_EXPIRY) {
+                visitor.visit(key, entry.value, null);
+            } else if (entry.expiresAtNanos > now) {
+                visitor.visit(key, entry.value, Duration.ofNanos(entry.expiresAtNanos - now));
+            }
+        });
+    }
+
+    @Override
+    public Iterator<String> keys() {
+        return entries.keySet().iterator();
+    }
+
+    private static final class Entry {
+        final byte[] value;
+        final long expiresAtNanos;
+
+        Entry(byte[] value, long expiresAtNanos) {
+            this.value = value;
+            this.expiresAtNanos = expiresAtNanos;
+        }
+    }
+}
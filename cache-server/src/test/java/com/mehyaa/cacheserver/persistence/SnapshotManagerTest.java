@@ -0,0 +1,159 @@
+package com.mehyaa.cacheserver.persistence;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SnapshotManagerTest {
+    // [magic][version][createdAtMillis]
+    private static final int HEADER = 2 * Integer.BYTES + Long.BYTES;
+
+    // [keyLength]["key-N"][valueLength][100 bytes][expiresAtMillis]
+    private static final int RECORD = Integer.BYTES + 5 + Integer.BYTES + 100 + Long.BYTES;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testSaveAndLoadRoundTripWithTtls() throws Exception {
+        Path path = directory.resolve("cache.snap");
+        MapCacheStore saved = new MapCacheStore();
+
+        // More entries than a loader batch, a third without expiry and a third expiring before the load
+        for (int i = 0; i < 3_000; i++) {
+            byte[] value = ("value-" + i).getBytes(StandardCharsets.UTF_8);
+
+            if (i % 3 == 0) {
+                saved.put("key-" + i, value, Duration.ofMinutes(1));
+            } else if (i % 3 == 1) {
+                saved.put("key-" + i, value);
+            } else {
+                saved.put("key-" + i, value, Duration.ofMillis(50));
+            }
+        }
+
+        new SnapshotManager(saved, path).save();
+        Thread.sleep(200);
+
+        MapCacheStore loaded = new MapCacheStore();
+
+        assertEquals(2_000, new SnapshotManager(loaded, path).load());
+        assertEquals(2_000, loaded.size());
+
+        for (int i = 0; i < 3_000; i++) {
+            String key = "key-" + i;
+
+            if (i % 3 == 2) {
+                assertNull(loaded.get(key));
+                continue;
+            }
+
+            assertArrayEquals(("value-" + i).getBytes(StandardCharsets.UTF_8), loaded.get(key));
+
+            if (i % 3 == 0) {
+                Duration ttl = loaded.ttl(key);
+
+                assertTrue(ttl.compareTo(Duration.ofMinutes(1)) <= 0 && ttl.compareTo(Duration.ofSeconds(50)) > 0,
+                        "TTL " + ttl);
+            } else {
+                assertNull(loaded.ttl(key));
+            }
+        }
+
+        assertTrue(Files.notExists(path.resolveSibling("cache.snap.tmp")));
+    }
+
+    @Test
+    public void testTruncatedSnapshotLoadsCompleteRecords() throws Exception {
+        Path path = saveTenEntries();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.truncate(HEADER + 5 * RECORD + RECORD / 2);
+        }
+
+        MapCacheStore loaded = new MapCacheStore();
+
+        assertEquals(5, new SnapshotManager(loaded, path).load());
+        assertLoadedValues(loaded, 5);
+    }
+
+    @Test
+    public void testCorruptRecordStopsLoading() throws Exception {
+        Path path = saveTenEntries();
+
+        // A negative key length in the fourth record
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, -2), HEADER + 3 * RECORD);
+        }
+
+        MapCacheStore loaded = new MapCacheStore();
+
+        assertEquals(3, new SnapshotManager(loaded, path).load());
+        assertLoadedValues(loaded, 3);
+    }
+
+    @Test
+    public void testOtherFilesAreNotLoaded() throws Exception {
+        Path path = directory.resolve("cache.snap");
+        MapCacheStore loaded = new MapCacheStore();
+
+        assertEquals(0, new SnapshotManager(loaded, path).load());
+
+        Files.writeString(path, "not a snapshot");
+
+        assertEquals(0, new SnapshotManager(loaded, path).load());
+        assertEquals(0, loaded.size());
+    }
+
+    /**
+     * Saves "key-0" to "key-9", each with 100 bytes filled with its number.
+     */
+    private Path saveTenEntries() throws Exception {
+        Path path = directory.resolve("cache.snap");
+        MapCacheStore store = new MapCacheStore();
+
+        for (int i = 0; i < 10; i++) {
+            store.put("key-" + i, value(i));
+        }
+
+        new SnapshotManager(store, path).save();
+
+        assertEquals(HEADER + 10 * RECORD + Integer.BYTES + Long.BYTES, Files.size(path));
+
+        return path;
+    }
+
+    private static void assertLoadedValues(MapCacheStore loaded, int count) {
+        assertEquals(count, loaded.size());
+
+        for (int i = 0; i < 10; i++) {
+            byte[] value = loaded.get("key-" + i);
+
+            if (value != null) {
+                assertArrayEquals(value(i), value);
+            }
+        }
+    }
+
+    private static byte[] value(int fill) {
+        byte[] value = new byte[100];
+
+        for (int i = 0; i < value.length; i++) {
+            value[i] = (byte) fill;
+        }
+
+        return value;
+    }
+}
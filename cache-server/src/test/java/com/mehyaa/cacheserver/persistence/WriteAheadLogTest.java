@@ -0,0 +1,212 @@
+package com.mehyaa.cacheserver.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class WriteAheadLogTest {
+    private static final long NO_COMPACTION = Long.MAX_VALUE;
+
+    @TempDir
+    Path directory;
+
+    @ParameterizedTest
+    @EnumSource(WriteAheadLog.SyncPolicy.class)
+    public void testReplayAfterClose(WriteAheadLog.SyncPolicy syncPolicy) throws Exception {
+        MapCacheStore store = new MapCacheStore();
+        WriteAheadLog log = open(store, syncPolicy, NO_COMPACTION);
+        LoggedCacheStore logged = new LoggedCacheStore(store, log);
+
+        log.start();
+        logged.put("deleted", bytes("value"));
+        logged.put("expiring", bytes("value"), Duration.ofMinutes(1));
+        logged.put("expired", bytes("value"), Duration.ofMillis(50));
+        logged.put("replaced", bytes("first"));
+        logged.putAsync("replaced", bytes("second"), null).get(5, TimeUnit.SECONDS);
+        logged.deleteAsync("deleted").get(5, TimeUnit.SECONDS);
+        logged.delete("deleted");
+
+        List<CompletableFuture<Void>> puts = new ArrayList<>();
+
+        for (int i = 0; i < 1_000; i++) {
+            puts.add(logged.putAsync("key-" + i, bytes("value-" + i), null));
+        }
+
+        CompletableFuture.allOf(puts.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.SECONDS);
+        log.close();
+        Thread.sleep(100);
+
+        MapCacheStore replayed = new MapCacheStore();
+
+        assertEquals(1_007, open(replayed, syncPolicy, NO_COMPACTION).replay(replayed));
+        assertNull(replayed.get("deleted"));
+        assertNull(replayed.get("expired"));
+        assertArrayEquals(bytes("value"), replayed.get("expiring"));
+        assertTrue(replayed.ttl("expiring").compareTo(Duration.ofSeconds(50)) > 0);
+        assertArrayEquals(bytes("second"), replayed.get("replaced"));
+        assertNull(replayed.ttl("replaced"));
+
+        for (int i = 0; i < 1_000; i++) {
+            assertArrayEquals(bytes("value-" + i), replayed.get("key-" + i));
+        }
+    }
+
+    @Test
+    public void testReplayStopsAtTornTail() throws Exception {
+        Path segment = writeRecords(10);
+
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+
+        MapCacheStore replayed = new MapCacheStore();
+
+        assertEquals(9, open(replayed, WriteAheadLog.SyncPolicy.ALWAYS, NO_COMPACTION).replay(replayed));
+        assertArrayEquals(bytes("value-8"), replayed.get("key-8"));
+        assertNull(replayed.get("key-9"));
+    }
+
+    @Test
+    public void testReplayStopsAtChecksumMismatch() throws Exception {
+        Path segment = writeRecords(10);
+        long recordLength = Files.size(segment) / 10;
+
+        // Flip a byte of the fifth record's value
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1);
+            long position = 5 * recordLength - 1;
+
+            channel.read(buffer, position);
+            buffer.put(0, (byte) ~buffer.get(0)).rewind();
+            channel.write(buffer, position);
+        }
+
+        // A later segment is still replayed
+        MapCacheStore store = new MapCacheStore();
+        WriteAheadLog log = open(store, WriteAheadLog.SyncPolicy.ALWAYS, NO_COMPACTION);
+        log.start();
+        new LoggedCacheStore(store, log).put("later", bytes("value"));
+        log.close();
+
+        MapCacheStore replayed = new MapCacheStore();
+
+        assertEquals(5, open(replayed, WriteAheadLog.SyncPolicy.ALWAYS, NO_COMPACTION).replay(replayed));
+        assertArrayEquals(bytes("value-3"), replayed.get("key-3"));
+        assertNull(replayed.get("key-4"));
+        assertArrayEquals(bytes("value"), replayed.get("later"));
+    }
+
+    @Test
+    public void testCompactionDeletesOnlyOlderSegments() throws Exception {
+        MapCacheStore store = new MapCacheStore();
+        WriteAheadLog log = open(store, WriteAheadLog.SyncPolicy.ALWAYS, 4 * 1024);
+        LoggedCacheStore logged = new LoggedCacheStore(store, log);
+        Path firstSegment = directory.resolve(String.format("wal-%020d.log", 1));
+
+        log.start();
+
+        for (int i = 0; i < 100; i++) {
+            logged.put("key-" + i, value(i));
+        }
+
+        // The compaction runs in the background, wait for it to delete the first segment
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+
+        while (Files.exists(firstSegment) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+
+        for (int i = 100; i < 120; i++) {
+            logged.put("key-" + i, value(i));
+        }
+
+        logged.delete("key-0");
+        log.close();
+
+        assertTrue(Files.notExists(firstSegment));
+        assertTrue(Files.exists(directory.resolve("checkpoint.snap")));
+        assertFalse(segments().isEmpty());
+
+        // The checkpoint and the kept segments hold every write
+        MapCacheStore recovered = new MapCacheStore();
+        new SnapshotManager(recovered, directory.resolve("checkpoint.snap")).load();
+        open(recovered, WriteAheadLog.SyncPolicy.ALWAYS, NO_COMPACTION).replay(recovered);
+
+        assertNull(recovered.get("key-0"));
+
+        for (int i = 1; i < 120; i++) {
+            assertArrayEquals(value(i), recovered.get("key-" + i));
+        }
+
+        assertEquals(119, recovered.size());
+    }
+
+    /**
+     * Writes "key-N" puts of "value-N" to a new log, each record of the same
+     * length, and returns the segment holding them.
+     */
+    private Path writeRecords(int count) throws IOException {
+        MapCacheStore store = new MapCacheStore();
+        WriteAheadLog log = open(store, WriteAheadLog.SyncPolicy.ALWAYS, NO_COMPACTION);
+        LoggedCacheStore logged = new LoggedCacheStore(store, log);
+
+        log.start();
+
+        for (int i = 0; i < count; i++) {
+            logged.put("key-" + i, bytes("value-" + i));
+        }
+
+        log.close();
+
+        List<Path> segments = segments();
+
+        assertEquals(1, segments.size());
+
+        return segments.get(0);
+    }
+
+    private WriteAheadLog open(MapCacheStore store, WriteAheadLog.SyncPolicy syncPolicy, long compactBytes)
+            throws IOException {
+        return new WriteAheadLog(directory, syncPolicy, Duration.ofMillis(5), compactBytes,
+                new SnapshotManager(store, directory.resolve("checkpoint.snap")));
+    }
+
+    private List<Path> segments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> path.getFileName().toString().endsWith(".log")).sorted().toList();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] value(int fill) {
+        byte[] value = new byte[1_000];
+        value[0] = (byte) fill;
+        value[value.length - 1] = (byte) (fill >> 8);
+
+        return value;
+    }
+}